@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Compares hashing a batch of short keys one at a time against the interleaved batch API. Results are per key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@OperationsPerInvocation(BatchBenchmark.BATCH_SIZE)
+public class BatchBenchmark {
+    static final int BATCH_SIZE = 1024;
+
+    @Param({ "1-3", "2-4" })
+    String variant;
+
+    @Param({ "64", "128" })
+    int tagSize;
+
+    @Param({ "16", "32", "64" })
+    int keySize;
+
+    private SipHash sipHash;
+    private byte[][] keys;
+    private long[] out;
+
+    @Setup
+    public void setup() {
+        sipHash = Keys.sipHash(variant, tagSize);
+        final Random random = new Random(42L);
+        keys = new byte[BATCH_SIZE][keySize];
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+        out = new long[BATCH_SIZE * 2];
+    }
+
+    @Benchmark
+    public long[] oneAtATime() {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            if (tagSize == 64) {
+                out[i] = sipHash.hash64(keys[i], 0, keySize);
+            } else {
+                sipHash.hash128(keys[i], 0, keySize, out, i * 2);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public long[] hashAll() {
+        sipHash.hashAll(keys, out);
+        return out;
+    }
+}
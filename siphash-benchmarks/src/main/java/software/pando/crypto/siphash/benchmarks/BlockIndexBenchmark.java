@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.SipHashBlockIndex;
+import software.pando.crypto.siphash.SipHashTree;
+
+/**
+ * Measures the cost of bringing the tag of a mutable buffer up to date after a small write, with
+ * {@link SipHashBlockIndex} against hashing the whole buffer again, as the buffer grows. The index should cost one
+ * block hash plus a node hash per level of the tree, so grow only logarithmically with the buffer size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BlockIndexBenchmark {
+
+    // Buffer size in KiB
+    @Param({ "64", "1024", "16384", "262144" })
+    int size;
+
+    @Param({ "4096" })
+    int blockSize;
+
+    private SipHash sipHash;
+    private ByteBuffer buffer;
+    private SipHashBlockIndex index;
+    private final Random random = new Random(42L);
+    private final long[] tagWords = new long[2];
+
+    @Setup
+    public void setup() {
+        sipHash = SipHash.getInstance(2, 4, 128, Keys.KEY);
+        buffer = ByteBuffer.allocateDirect(size << 10);
+        index = new SipHashBlockIndex(new SipHashTree(sipHash, blockSize), buffer);
+    }
+
+    @Benchmark
+    public byte[] indexUpdate() {
+        final int offset = random.nextInt(buffer.capacity() - 8);
+        buffer.putLong(offset, random.nextLong());
+        index.update(offset, 8);
+        return index.tag();
+    }
+
+    @Benchmark
+    public boolean indexVerifyBlock() {
+        return index.verify(random.nextInt(buffer.capacity()), 1);
+    }
+
+    @Benchmark
+    public long fullRehash() {
+        final int offset = random.nextInt(buffer.capacity() - 8);
+        buffer.putLong(offset, random.nextLong());
+        sipHash.hash128(buffer, 0, buffer.capacity(), tagWords, 0);
+        return tagWords[0] ^ tagWords[1];
+    }
+}
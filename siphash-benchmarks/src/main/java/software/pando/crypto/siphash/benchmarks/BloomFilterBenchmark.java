@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.collections.SipHashBloomFilter;
+
+/**
+ * Compares lookups in {@link SipHashBloomFilter}, one at a time and batched, against Guava's (unkeyed, Murmur3-based)
+ * {@code BloomFilter}. Half of the looked up items are present. Results are per item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@OperationsPerInvocation(BloomFilterBenchmark.BATCH_SIZE)
+public class BloomFilterBenchmark {
+    static final int BATCH_SIZE = 1024;
+
+    @Param({ "100000", "10000000" })
+    int insertions;
+
+    @Param({ "0.01" })
+    double falsePositiveRate;
+
+    @Param({ "16", "64" })
+    int itemSize;
+
+    private SipHashBloomFilter sipHashFilter;
+    private BloomFilter<byte[]> guavaFilter;
+    private byte[][] items;
+    private final boolean[] results = new boolean[BATCH_SIZE];
+
+    @Setup
+    public void setup() {
+        final SipHash sipHash = Keys.sipHash("2-4", 128);
+        sipHashFilter = SipHashBloomFilter.create(sipHash, insertions, falsePositiveRate);
+        guavaFilter = BloomFilter.create(Funnels.byteArrayFunnel(), insertions, falsePositiveRate);
+
+        final Random random = new Random(42L);
+        final byte[] item = new byte[itemSize];
+        items = new byte[BATCH_SIZE][];
+        for (int i = 0; i < insertions; ++i) {
+            random.nextBytes(item);
+            sipHashFilter.put(item);
+            guavaFilter.put(item);
+            if (i < BATCH_SIZE / 2) {
+                items[i] = item.clone();
+            }
+        }
+        for (int i = BATCH_SIZE / 2; i < BATCH_SIZE; ++i) {
+            items[i] = new byte[itemSize];
+            random.nextBytes(items[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean[] sipHashOneAtATime() {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            results[i] = sipHashFilter.mightContain(items[i]);
+        }
+        return results;
+    }
+
+    @Benchmark
+    public boolean[] sipHashBatch() {
+        sipHashFilter.mightContainAll(items, results);
+        return results;
+    }
+
+    @Benchmark
+    public boolean[] guava() {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            results[i] = guavaFilter.mightContain(items[i]);
+        }
+        return results;
+    }
+}
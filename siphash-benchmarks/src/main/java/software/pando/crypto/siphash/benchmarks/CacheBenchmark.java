@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import software.pando.crypto.siphash.collections.SipHashCache;
+
+/**
+ * Compares {@link SipHashCache} against Caffeine with four threads performing read-through lookups on a shared cache.
+ * Each lookup that misses inserts the key. Two workloads are measured:
+ * <dl>
+ *     <dt>zipf</dt><dd>Keys drawn from a Zipf distribution (s = 1) over 100,000 distinct keys, with a cache of 10,000
+ *     entries. This is a typical skewed workload, where hit rate depends on the admission and eviction policy.</dd>
+ *     <dt>flood</dt><dd>A uniformly random stream of 16,384 keys that all have the same {@link String#hashCode()},
+ *     with a cache of 10,000 entries, as sent by an attacker trying to degrade a cache keyed by request data.</dd>
+ * </dl>
+ * Hits and misses are reported as auxiliary counters, so that hit rates can be compared alongside throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+public class CacheBenchmark {
+    private static final int MAXIMUM_SIZE = 10_000;
+    private static final int SAMPLES = 1 << 20;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({ "siphash", "caffeine" })
+        String cache;
+
+        @Param({ "zipf", "flood" })
+        String workload;
+
+        String[] samples;
+        SipHashCache<String> sipHashCache;
+        Cache<String, String> caffeine;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            samples = "flood".equals(workload) ? floodSamples() : zipfSamples();
+            sipHashCache = new SipHashCache<>(MAXIMUM_SIZE);
+            caffeine = Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long hits;
+        public long misses;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setup(ThreadParams threadParams) {
+            hits = 0;
+            misses = 0;
+            // Start each thread at a different point in the sample stream
+            next = threadParams.getThreadIndex() * (SAMPLES / threadParams.getThreadCount());
+        }
+    }
+
+    @Benchmark
+    public String readThrough(Shared shared, Counters counters) {
+        final String key = shared.samples[counters.next++ & (SAMPLES - 1)];
+        if ("siphash".equals(shared.cache)) {
+            final String value = shared.sipHashCache.get(key);
+            if (value != null) {
+                counters.hits++;
+                return value;
+            }
+            counters.misses++;
+            shared.sipHashCache.put(key, key);
+        } else {
+            final String value = shared.caffeine.getIfPresent(key);
+            if (value != null) {
+                counters.hits++;
+                return value;
+            }
+            counters.misses++;
+            shared.caffeine.put(key, key);
+        }
+        return key;
+    }
+
+    static String[] zipfSamples() {
+        final int keys = 100_000;
+        final double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; ++i) {
+            sum += 1.0 / (i + 1);
+            cdf[i] = sum;
+        }
+
+        final Random random = new Random(42L);
+        final String[] samples = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; ++i) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            rank = rank < 0 ? -rank - 1 : rank;
+            samples[i] = "key-" + Math.min(rank, keys - 1);
+        }
+        return samples;
+    }
+
+    static String[] floodSamples() {
+        final String[] keys = SipHashMapBenchmark.collidingKeys(1 << 14);
+        final Random random = new Random(42L);
+        final String[] samples = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; ++i) {
+            samples[i] = keys[random.nextInt(keys.length)];
+        }
+        return samples;
+    }
+}
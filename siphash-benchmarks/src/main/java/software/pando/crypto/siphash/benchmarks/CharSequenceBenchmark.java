@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Compares hashing strings directly against encoding them with {@link String#getBytes} first, for typical header
+ * names and keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CharSequenceBenchmark {
+
+    @Param({ "content-type", "x-forwarded-for-original-client-address", "utilisateur.pr\u00e9nom",
+            "\u7528\u6237\u540d" })
+    String input;
+
+    private SipHash sipHash;
+
+    @Setup
+    public void setup() {
+        sipHash = Keys.sipHash("2-4", 64);
+    }
+
+    @Benchmark
+    public long utf8Direct() {
+        return sipHash.hash64(input);
+    }
+
+    @Benchmark
+    public long utf8Encoded() {
+        return sipHash.hash64(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public long utf16Direct() {
+        return sipHash.hash64(input, StandardCharsets.UTF_16LE);
+    }
+
+    @Benchmark
+    public long utf16Encoded() {
+        return sipHash.hash64(input.getBytes(StandardCharsets.UTF_16LE));
+    }
+}
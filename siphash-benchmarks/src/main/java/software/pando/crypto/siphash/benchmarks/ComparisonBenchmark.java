@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Compares this implementation against other hash functions: Guava's SipHash-2-4 and Murmur3 hashes, another Java
+ * SipHash implementation, and HMAC-SHA-256. These are the same comparisons as the README results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ComparisonBenchmark {
+
+    @Param({ "32", "512", "2048" })
+    int size;
+
+    private byte[] data;
+    private SipHash sipHash13;
+    private SipHash sipHash24;
+    private SipHash sipHash128;
+    private HashFunction guavaSipHash24;
+    private HashFunction guavaMurmur3x32;
+    private HashFunction guavaMurmur3x128;
+    private com.zackehh.siphash.SipHash zackehhSipHash;
+    private Mac hmacSha256;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        data = new byte[size];
+        new Random(42L).nextBytes(data);
+
+        sipHash13 = SipHash.getInstance(1, 3, Keys.KEY);
+        sipHash24 = SipHash.getInstance(Keys.KEY);
+        sipHash128 = SipHash.getInstance(2, 4, 128, Keys.KEY);
+        guavaSipHash24 = Hashing.sipHash24();
+        guavaMurmur3x32 = Hashing.murmur3_32();
+        guavaMurmur3x128 = Hashing.murmur3_128();
+        zackehhSipHash = new com.zackehh.siphash.SipHash(Keys.KEY.getEncoded());
+        hmacSha256 = Mac.getInstance("HmacSHA256");
+        hmacSha256.init(Keys.KEY);
+    }
+
+    @Benchmark
+    public byte[] sipHash13() {
+        return sipHash13.mac(data);
+    }
+
+    @Benchmark
+    public byte[] sipHash24() {
+        return sipHash24.mac(data);
+    }
+
+    @Benchmark
+    public byte[] sipHash24x128() {
+        return sipHash128.mac(data);
+    }
+
+    @Benchmark
+    public byte[] guavaSipHash24() {
+        return guavaSipHash24.hashBytes(data).asBytes();
+    }
+
+    @Benchmark
+    public byte[] guavaMurmur3x32() {
+        return guavaMurmur3x32.hashBytes(data).asBytes();
+    }
+
+    @Benchmark
+    public byte[] guavaMurmur3x128() {
+        return guavaMurmur3x128.hashBytes(data).asBytes();
+    }
+
+    @Benchmark
+    public long zackehhSipHash24() {
+        return zackehhSipHash.hash(data).get();
+    }
+
+    @Benchmark
+    public byte[] hmacSha256() {
+        return hmacSha256.doFinal(data);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import software.pando.crypto.siphash.collections.SipHashCountMinSketch;
+
+/**
+ * Measures how the update throughput of a shared {@link SipHashCountMinSketch} scales from 1 to 32 threads. Keys are
+ * drawn from a Zipf distribution over 100,000 distinct keys, so the most frequent keys are updated from every thread at
+ * once and are tracked in the top K heap. The total throughput across all threads is reported.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CountMinSketchBenchmark {
+    private static final int SAMPLES = 1 << 20;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({ "100" })
+        int topK;
+
+        String[] samples;
+        SipHashCountMinSketch sketch;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            samples = CacheBenchmark.zipfSamples();
+            sketch = new SipHashCountMinSketch(1 << 16, 4, topK);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setup(ThreadParams threadParams) {
+            next = threadParams.getThreadIndex() * (SAMPLES / threadParams.getThreadCount());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads1(Shared shared, Cursor cursor) {
+        return shared.sketch.add(shared.samples[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long threads2(Shared shared, Cursor cursor) {
+        return shared.sketch.add(shared.samples[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads4(Shared shared, Cursor cursor) {
+        return shared.sketch.add(shared.samples[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long threads8(Shared shared, Cursor cursor) {
+        return shared.sketch.add(shared.samples[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long threads16(Shared shared, Cursor cursor) {
+        return shared.sketch.add(shared.samples[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public long threads32(Shared shared, Cursor cursor) {
+        return shared.sketch.add(shared.samples[cursor.next++ & (SAMPLES - 1)]);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.SipHashDatagramAuthenticator;
+
+/**
+ * Measures the throughput of {@link SipHashDatagramAuthenticator} in datagrams per second: tagging a batch in place,
+ * against copying each datagram into a {@code byte[]} to compute its tag, and a full round trip over the loopback
+ * interface, which is normally dominated by the system calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DatagramBenchmark {
+    private static final int BATCH_SIZE = 64;
+
+    @Param({ "64", "512", "1400" })
+    int payloadSize;
+
+    private SipHash sipHash;
+    private SipHashDatagramAuthenticator sender;
+    private SipHashDatagramAuthenticator receiver;
+    private SipHashDatagramAuthenticator.Batch sendBatch;
+    private SipHashDatagramAuthenticator.Batch receiveBatch;
+    private DatagramChannel senderChannel;
+    private DatagramChannel receiverChannel;
+    private ByteBuffer[] directPackets;
+    private byte[] copy;
+
+    @Setup
+    public void setup() throws IOException {
+        sipHash = SipHash.getInstance(Keys.KEY);
+        sender = new SipHashDatagramAuthenticator(sipHash);
+        receiver = new SipHashDatagramAuthenticator(sipHash);
+        sendBatch = sender.newBatch(BATCH_SIZE, payloadSize);
+        receiveBatch = receiver.newBatch(BATCH_SIZE, payloadSize);
+        receiverChannel = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        senderChannel = DatagramChannel.open().connect(receiverChannel.getLocalAddress());
+        // Loopback delivers each datagram as it is sent, so the receiver never needs to wait for them
+        receiverChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
+        receiverChannel.configureBlocking(false);
+        directPackets = new ByteBuffer[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            directPackets[i] = ByteBuffer.allocateDirect(8 + payloadSize);
+        }
+        copy = new byte[8 + payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        senderChannel.close();
+        receiverChannel.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public SipHashDatagramAuthenticator.Batch tagInPlace() {
+        sendBatch.clear();
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            sendBatch.add(payloadSize);
+        }
+        sender.tag(sendBatch);
+        return sendBatch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long copyAndTag() {
+        long result = 0;
+        for (ByteBuffer packet : directPackets) {
+            packet.clear();
+            packet.get(copy);
+            result ^= sipHash.hash64(copy);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int loopbackRoundTrip() throws IOException {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            sendBatch.add(payloadSize);
+        }
+        sender.send(senderChannel, sendBatch);
+        return receiver.receive(receiverChannel, receiveBatch);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.SipHashFiles;
+import software.pando.crypto.siphash.SipHashTree;
+
+/**
+ * Compares hashing a set of files with {@link SipHashFiles}, which maps them and hashes them in parallel, against
+ * reading each file onto the heap with {@link FileChannel#read} and hashing it sequentially. The files are written to
+ * the default temporary directory, so they will normally be in the page cache: this measures the cost of hashing and
+ * copying rather than of the disk. Set {@code -Djava.io.tmpdir} to measure a particular file system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileHashBenchmark {
+
+    @Param({ "64" })
+    int files;
+
+    // File size in MiB
+    @Param({ "1", "16" })
+    int size;
+
+    @Param({ "1", "4" })
+    int threads;
+
+    private Path directory;
+    private final List<Path> paths = new ArrayList<>();
+    private SipHash sipHash;
+    private SipHashFiles sipHashFiles;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(1 << 16);
+    private final long[] tagWords = new long[2];
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("siphash-bench");
+        final byte[] data = new byte[size << 20];
+        final Random random = new Random(42L);
+        for (int i = 0; i < files; ++i) {
+            random.nextBytes(data);
+            paths.add(Files.write(directory.resolve("file" + i), data));
+        }
+        sipHash = SipHash.getInstance(2, 4, 128, Keys.KEY);
+        sipHashFiles = new SipHashFiles(new SipHashTree(sipHash), threads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sipHashFiles.close();
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Map<Path, byte[]> mappedParallel() throws IOException {
+        return sipHashFiles.hashAll(paths);
+    }
+
+    // Does not depend on the number of threads, so only needs running with -p threads=1
+
+    @Benchmark
+    public long readSequential() throws IOException {
+        long result = 0;
+        final SipHash.Hasher hasher = sipHash.newHasher();
+        for (Path path : paths) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (channel.read(readBuffer) >= 0) {
+                    readBuffer.flip();
+                    hasher.update(readBuffer);
+                    readBuffer.clear();
+                }
+            }
+            hasher.doFinal128(tagWords, 0);
+            result ^= tagWords[0];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.HalfSipHash;
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Compares HalfSipHash with a 32-bit tag against SipHash with its 64-bit tag truncated to an int, which is the
+ * alternative when only a 32-bit hash code is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HalfSipHashBenchmark {
+
+    @Param({ "1-3", "2-4" })
+    String variant;
+
+    @Param({ "0", "4", "8", "16", "32", "64", "128", "512" })
+    int size;
+
+    private HalfSipHash halfSipHash;
+    private SipHash sipHash;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        final String[] rounds = variant.split("-");
+        halfSipHash = HalfSipHash.getInstance(Integer.parseInt(rounds[0]), Integer.parseInt(rounds[1]), Keys.KEY);
+        sipHash = Keys.sipHash(variant, 64);
+        data = new byte[size];
+        new Random(42L).nextBytes(data);
+    }
+
+    @Benchmark
+    public int halfSipHash() {
+        return halfSipHash.hash32(data, 0, size);
+    }
+
+    @Benchmark
+    public int truncatedSipHash() {
+        return (int) sipHash.hash64(data, 0, size);
+    }
+}
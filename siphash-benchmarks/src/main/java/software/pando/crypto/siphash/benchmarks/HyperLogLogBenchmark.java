@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.collections.SipHashHyperLogLog;
+
+/**
+ * Measures {@link SipHashHyperLogLog}: adding items to a dense sketch, estimating its cardinality, and merging a
+ * collection of per-tenant sketches, one at a time and with {@link SipHashHyperLogLog#union(List)} on the fork-join
+ * pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HyperLogLogBenchmark {
+
+    @Param({ "14" })
+    int precision;
+
+    @Param({ "10000" })
+    int sketchCount;
+
+    private SipHashHyperLogLog dense;
+    private List<SipHashHyperLogLog> sketches;
+    private long next;
+    private String[] addresses;
+
+    @Setup
+    public void setup() {
+        dense = new SipHashHyperLogLog(precision);
+        for (int i = 0; i < 1_000_000; ++i) {
+            dense.addLong(i);
+        }
+
+        // A mix of small sparse sketches and larger dense ones, as for many tenants of different sizes
+        final Random random = new Random(42L);
+        sketches = new ArrayList<>(sketchCount);
+        for (int s = 0; s < sketchCount; ++s) {
+            final SipHashHyperLogLog sketch = new SipHashHyperLogLog(precision);
+            final int size = s % 100 == 0 ? 100_000 : 200;
+            for (int i = 0; i < size; ++i) {
+                sketch.addLong(random.nextInt(10_000_000));
+            }
+            sketches.add(sketch);
+        }
+
+        addresses = new String[1024];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+        }
+    }
+
+    @Benchmark
+    public SipHashHyperLogLog addLong() {
+        dense.addLong(next++);
+        return dense;
+    }
+
+    @Benchmark
+    public SipHashHyperLogLog addString() {
+        dense.add(addresses[(int) (next++ & 1023)]);
+        return dense;
+    }
+
+    @Benchmark
+    public long cardinality() {
+        return dense.cardinality();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SipHashHyperLogLog mergeSequential() {
+        final SipHashHyperLogLog result = new SipHashHyperLogLog(precision);
+        for (SipHashHyperLogLog sketch : sketches) {
+            result.merge(sketch);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SipHashHyperLogLog mergeForkJoin() {
+        return SipHashHyperLogLog.union(sketches);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.collections.SipHashKeyring;
+
+/**
+ * Compares hashing a short message with a per-tenant key, for tenants drawn from a Zipf distribution over 100,000
+ * tenant IDs: fetching the tenant's key from an in-memory key store and creating a SipHash instance from it for every
+ * message, and looking the instance up in a shared {@link SipHashKeyring} backed by the same key store. Run with the GC profiler to compare allocation per message. The keyring's hit rate and
+ * evictions are reported as counters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+public class KeyringBenchmark {
+    private static final int SAMPLES = 1 << 20;
+    private static final int TENANTS = 100_000;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({ "10000", "100000" })
+        int maximumSize;
+
+        String[] samples;
+        Function<String, SecretKey> keySource;
+        SipHashKeyring keyring;
+        final byte[] message = "GET /api/v1/orders?limit=10".getBytes(StandardCharsets.US_ASCII);
+
+        @Setup(Level.Trial)
+        public void setup() {
+            samples = CacheBenchmark.zipfSamples();
+            // An in-memory key store holding a key for every tenant, derived from the tenant ID
+            final SipHash master = Keys.sipHash("2-4", 128);
+            final Map<String, SecretKey> keyStore = new ConcurrentHashMap<>();
+            for (int i = 0; i < TENANTS; ++i) {
+                final String id = "key-" + i;
+                keyStore.put(id, new SecretKeySpec(master.mac(id.getBytes(StandardCharsets.UTF_8)), "RAW"));
+            }
+            keySource = keyStore::get;
+            keyring = new SipHashKeyring(maximumSize, keySource);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public double hitRate;
+        public long evictions;
+        int next;
+        private Shared shared;
+
+        @Setup(Level.Iteration)
+        public void setup(Shared shared, ThreadParams threadParams) {
+            this.shared = shared;
+            next = threadParams.getThreadIndex() * (SAMPLES / threadParams.getThreadCount());
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            hitRate = shared.keyring.hitRate();
+            evictions = shared.keyring.evictionCount();
+        }
+    }
+
+    @Benchmark
+    public long instancePerMessage(Shared shared, Counters counters) {
+        final String tenant = shared.samples[counters.next++ & (SAMPLES - 1)];
+        return SipHash.getInstance(shared.keySource.apply(tenant)).hash64(shared.message);
+    }
+
+    @Benchmark
+    public long keyring(Shared shared, Counters counters) {
+        final String tenant = shared.samples[counters.next++ & (SAMPLES - 1)];
+        return shared.keyring.hash64(tenant, shared.message);
+    }
+}
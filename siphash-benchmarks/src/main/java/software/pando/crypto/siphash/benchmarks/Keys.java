@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Shared fixtures for the benchmarks.
+ */
+final class Keys {
+    // 128-bit fixed key
+    static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    private Keys() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Returns the SipHash instance for a variant parameter of the form "c-d".
+     */
+    static SipHash sipHash(String variant, int tagSize) {
+        final String[] rounds = variant.split("-");
+        return SipHash.getInstance(Integer.parseInt(rounds[0]), Integer.parseInt(rounds[1]), tagSize, KEY);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.SipHashLog;
+
+/**
+ * Measures {@link SipHashLog}: the cost of appending a record, and the time taken to reopen (and so verify every
+ * record in) a log of a given size. Divide the recovery time by {@code size / 1024} to get the time per GiB. The log
+ * is written to the default temporary directory and is normally in the page cache, so recovery measures hashing rather
+ * than the disk. Set {@code -Djava.io.tmpdir} to measure a particular file system.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @State(Scope.Thread)
+    public static class Append {
+        @Param({ "64", "128" })
+        int tagSize;
+
+        @Param({ "100", "1000" })
+        int recordSize;
+
+        Path directory;
+        SipHashLog log;
+        byte[] record;
+
+        @Setup(Level.Iteration)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("siphash-bench");
+            log = SipHashLog.open(directory, SipHash.getInstance(2, 4, tagSize, Keys.KEY));
+            record = new byte[recordSize];
+            new Random(42L).nextBytes(record);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            log.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        // Log size in MiB; use -p size=1024 to measure a full GiB
+        @Param({ "256" })
+        int size;
+
+        @Param({ "1", "4" })
+        int threads;
+
+        Path directory;
+        SipHash sipHash;
+        ForkJoinPool pool;
+
+        @Setup
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("siphash-bench");
+            sipHash = SipHash.getInstance(2, 4, 128, Keys.KEY);
+            pool = new ForkJoinPool(threads);
+            final byte[] record = new byte[1000];
+            new Random(42L).nextBytes(record);
+            try (SipHashLog log = SipHashLog.open(directory, sipHash)) {
+                while (log.getEndPosition() < (long) size << 20) {
+                    log.append(record);
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            pool.shutdown();
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public long append(Append state) throws IOException {
+        long position = 0;
+        for (int i = 0; i < BATCH; ++i) {
+            position = state.log.append(state.record);
+        }
+        return position;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long recover(Recovery state) throws IOException {
+        try (SipHashLog log = SipHashLog.open(state.directory, state.sipHash, SipHashLog.DEFAULT_SEGMENT_SIZE,
+                state.pool)) {
+            return log.getRecordsVerified();
+        }
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
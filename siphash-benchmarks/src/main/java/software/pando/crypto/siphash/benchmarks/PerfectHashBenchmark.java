@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.collections.SipHashPerfectHash;
+
+/**
+ * Measures {@link SipHashPerfectHash}: the time to build a function for a set of keys (single shot, using all cores),
+ * and the latency of looking up {@code long} keys and 24-byte keys given as a range of a larger array. The size of the
+ * function in bits per key is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class PerfectHashBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({ "1000000", "10000000" })
+    int keyCount;
+
+    private long[] longKeys;
+    private byte[] packedKeys;
+    private SipHashPerfectHash longFunction;
+    private SipHashPerfectHash bytesFunction;
+    private int[] lookups;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random random = new Random(42L);
+        longKeys = random.longs(keyCount).distinct().limit(keyCount).toArray();
+        packedKeys = new byte[keyCount * 24];
+        final byte[][] keys = new byte[keyCount][];
+        for (int i = 0; i < keyCount; ++i) {
+            final byte[] key = String.format("%023d", longKeys[i] & Long.MAX_VALUE).getBytes(StandardCharsets.UTF_8);
+            keys[i] = key;
+            System.arraycopy(key, 0, packedKeys, i * 24, 23);
+        }
+        longFunction = SipHashPerfectHash.build(longKeys);
+        bytesFunction = SipHashPerfectHash.build(keys);
+        lookups = random.ints(LOOKUPS, 0, keyCount).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void printSize() {
+        System.out.printf("%nBits per key: %.3f (long keys), %.3f (byte keys)%n", longFunction.bitsPerKey(),
+                bytesFunction.bitsPerKey());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public SipHashPerfectHash build() {
+        return SipHashPerfectHash.build(longKeys);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public long lookupLong() {
+        return longFunction.index(longKeys[lookups[next++ & (LOOKUPS - 1)]]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public long lookupBytes() {
+        return bytesFunction.index(packedKeys, lookups[next++ & (LOOKUPS - 1)] * 24, 23);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Compares hashing messages that share a common prefix: hashing the prefix and message together each time, feeding
+ * both to a hasher, and absorbing the prefix once with {@link SipHash#withPrefix(byte[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PrefixBenchmark {
+
+    @Param({ "1-3", "2-4" })
+    String variant;
+
+    @Param({ "64", "128" })
+    int tagSize;
+
+    // 61 bytes leaves 5 bytes carried over, so every message word must be shifted
+    @Param({ "16", "61", "256" })
+    int prefixSize;
+
+    @Param({ "8", "32" })
+    int messageSize;
+
+    private SipHash sipHash;
+    private SipHash prefixed;
+    private SipHash.Hasher hasher;
+    private byte[] data;
+    private final long[] tagWords = new long[2];
+
+    @Setup
+    public void setup() {
+        sipHash = Keys.sipHash(variant, tagSize);
+        data = new byte[prefixSize + messageSize];
+        new Random(42L).nextBytes(data);
+        prefixed = sipHash.withPrefix(data, 0, prefixSize);
+        hasher = sipHash.newHasher();
+    }
+
+    @Benchmark
+    public long concatenated() {
+        return hash(sipHash, 0, data.length);
+    }
+
+    @Benchmark
+    public byte[] incremental() {
+        hasher.update(data, 0, prefixSize);
+        hasher.update(data, prefixSize, messageSize);
+        return hasher.doFinal();
+    }
+
+    @Benchmark
+    public long withPrefix() {
+        return hash(prefixed, prefixSize, messageSize);
+    }
+
+    private long hash(final SipHash sipHash, final int offset, final int length) {
+        if (tagSize == 64) {
+            return sipHash.hash64(data, offset, length);
+        }
+        sipHash.hash128(data, offset, length, tagWords, 0);
+        return tagWords[0] ^ tagWords[1];
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.collections.SipHashShardRouter;
+
+/**
+ * Measures routing a batch of tenant IDs to shards, comparing the previous approach of calling {@link SipHash#mac}
+ * on the encoded ID and converting the tag back to a long, against {@link SipHashShardRouter} routing one key at a
+ * time and in a batch. Results are per key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@OperationsPerInvocation(ShardRouterBenchmark.BATCH_SIZE)
+public class ShardRouterBenchmark {
+    static final int BATCH_SIZE = 1024;
+
+    @Param({ "jump", "rendezvous" })
+    String strategy;
+
+    @Param({ "16", "256" })
+    int shards;
+
+    private SipHash sipHash;
+    private SipHashShardRouter router;
+    private long[] tenantIds;
+    private final int[] out = new int[BATCH_SIZE];
+
+    @Setup
+    public void setup() {
+        sipHash = SipHash.getInstance(Keys.KEY);
+        if ("jump".equals(strategy)) {
+            router = SipHashShardRouter.jump(sipHash, shards);
+        } else {
+            final List<String> nodes = new ArrayList<>();
+            for (int i = 0; i < shards; ++i) {
+                nodes.add("node-" + i);
+            }
+            router = SipHashShardRouter.rendezvous(sipHash, nodes);
+        }
+        tenantIds = new Random(42L).longs(BATCH_SIZE).toArray();
+    }
+
+    @Benchmark
+    public int[] macThenConvert() {
+        final ByteBuffer encoded = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            encoded.putLong(0, tenantIds[i]);
+            final long hash = ByteBuffer.wrap(sipHash.mac(encoded.array())).order(ByteOrder.LITTLE_ENDIAN).getLong();
+            out[i] = (int) Long.remainderUnsigned(hash, shards);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public int[] routeOneAtATime() {
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            out[i] = router.route(tenantIds[i]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public int[] routeBatch() {
+        router.route(tenantIds, out);
+        return out;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Measures each entry point of every SipHash variant across a range of input sizes, for both tag sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SipHashBenchmark {
+
+    @Param({ "1-3", "2-4", "4-8", "3-5" })
+    String variant;
+
+    @Param({ "64", "128" })
+    int tagSize;
+
+    @Param({ "0", "8", "16", "32", "64", "128", "512", "2048", "16384", "65536" })
+    int size;
+
+    private SipHash sipHash;
+    private SipHash.Hasher hasher;
+    private byte[] data;
+    private ByteBuffer directData;
+    private final byte[] tag = new byte[16];
+    private final long[] tagWords = new long[2];
+
+    @Setup
+    public void setup() {
+        sipHash = Keys.sipHash(variant, tagSize);
+        hasher = sipHash.newHasher();
+        data = new byte[size];
+        new Random(42L).nextBytes(data);
+        directData = ByteBuffer.allocateDirect(size);
+        directData.put(data).flip();
+    }
+
+    @Benchmark
+    public byte[] mac() {
+        return sipHash.mac(data);
+    }
+
+    @Benchmark
+    public long primitive() {
+        if (tagSize == 64) {
+            return sipHash.hash64(data, 0, size);
+        }
+        sipHash.hash128(data, 0, size, tagWords, 0);
+        return tagWords[0] ^ tagWords[1];
+    }
+
+    @Benchmark
+    public byte[] macIntoBuffer() {
+        sipHash.mac(data, 0, size, tag, 0);
+        return tag;
+    }
+
+    @Benchmark
+    public long directBuffer() {
+        if (tagSize == 64) {
+            return sipHash.hash64(directData);
+        }
+        sipHash.hash128(directData, 0, size, tagWords, 0);
+        return tagWords[0] ^ tagWords[1];
+    }
+
+    @Benchmark
+    public byte[] incremental() {
+        hasher.update(data, 0, size);
+        hasher.doFinal(tag, 0);
+        return tag;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.collections.SipHashMap;
+
+/**
+ * Compares {@link SipHashMap} against {@link HashMap} with String keys, both for random keys and for an adversarial key
+ * set in which every key has the same {@link String#hashCode()}. The colliding keys are built from the blocks "Aa"
+ * and "BB", which have equal hash codes, as would be sent by an attacker flooding a request parameter table.
+ * <p>
+ * The build benchmarks measure inserting every key into an empty map, and the lookup benchmarks look up every key in a
+ * full map. Results are per map, not per key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SipHashMapBenchmark {
+
+    @Param({ "random", "colliding" })
+    String keySet;
+
+    @Param({ "1024", "16384" })
+    int size;
+
+    private String[] keys;
+    private HashMap<String, Integer> hashMap;
+    private SipHashMap<Integer> sipHashMap;
+
+    @Setup
+    public void setup() {
+        keys = "colliding".equals(keySet) ? collidingKeys(size) : randomKeys(size);
+        hashMap = new HashMap<>();
+        sipHashMap = new SipHashMap<>();
+        for (int i = 0; i < keys.length; ++i) {
+            hashMap.put(keys[i], i);
+            sipHashMap.put(keys[i], i);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Integer> hashMapBuild() {
+        final HashMap<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < keys.length; ++i) {
+            map.put(keys[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public SipHashMap<Integer> sipHashMapBuild() {
+        final SipHashMap<Integer> map = new SipHashMap<>();
+        for (int i = 0; i < keys.length; ++i) {
+            map.put(keys[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int hashMapLookup() {
+        int sum = 0;
+        for (final String key : keys) {
+            sum += hashMap.get(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int sipHashMapLookup() {
+        int sum = 0;
+        for (final String key : keys) {
+            sum += sipHashMap.get(key);
+        }
+        return sum;
+    }
+
+    /**
+     * Generates keys that all have the same String hash code, by concatenating the blocks "Aa" and "BB".
+     */
+    static String[] collidingKeys(final int count) {
+        final int bits = Integer.numberOfTrailingZeros(Integer.highestOneBit(count - 1) << 1);
+        final String[] keys = new String[count];
+        for (int i = 0; i < count; ++i) {
+            final StringBuilder key = new StringBuilder("param-");
+            for (int j = 0; j < bits; ++j) {
+                key.append(((i >>> j) & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = key.toString();
+        }
+        return keys;
+    }
+
+    static String[] randomKeys(final int count) {
+        final Random random = new Random(42L);
+        final String[] keys = new String[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = "param-" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Measures throughput when a single shared SipHash instance is used from several threads at once. As the instance is
+ * immutable and the primitive API does not allocate, throughput should scale with the number of cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ThreadScalingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        SipHash sipHash;
+
+        @Setup
+        public void setup() {
+            sipHash = SipHash.getInstance(Keys.KEY);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Input {
+        @Param({ "32", "512" })
+        int size;
+
+        byte[] data;
+
+        @Setup
+        public void setup() {
+            data = new byte[size];
+            new Random().nextBytes(data);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads1(Shared shared, Input input) {
+        return shared.sipHash.hash64(input.data);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long threads2(Shared shared, Input input) {
+        return shared.sipHash.hash64(input.data);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads4(Shared shared, Input input) {
+        return shared.sipHash.hash64(input.data);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long threads8(Shared shared, Input input) {
+        return shared.sipHash.hash64(input.data);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long threadsMax(Shared shared, Input input) {
+        return shared.sipHash.hash64(input.data);
+    }
+}
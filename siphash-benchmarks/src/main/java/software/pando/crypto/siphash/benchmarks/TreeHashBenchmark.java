@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.SipHashTree;
+
+/**
+ * Measures how tree hashing a large direct buffer scales with the number of threads, against hashing it sequentially
+ * with a single 128-bit SipHash call and with {@link SipHashTree.Hasher}. Divide the buffer size by the time per
+ * operation to get the throughput in bytes per second. Run with {@code -p size=1024} to hash 1GiB, which may need a
+ * larger limit on direct memory ({@code -jvmArgs -XX:MaxDirectMemorySize=2g}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeHashBenchmark {
+
+    // Buffer size in MiB
+    @Param({ "16", "256" })
+    int size;
+
+    @Param({ "1", "2", "4", "8" })
+    int parallelism;
+
+    @Param({ "65536" })
+    int leafSize;
+
+    private SipHash sipHash;
+    private SipHashTree tree;
+    private SipHashTree.Hasher hasher;
+    private ForkJoinPool pool;
+    private ByteBuffer data;
+    private final long[] tagWords = new long[2];
+
+    @Setup
+    public void setup() {
+        sipHash = SipHash.getInstance(2, 4, 128, Keys.KEY);
+        tree = new SipHashTree(sipHash, leafSize);
+        hasher = tree.newHasher();
+        pool = new ForkJoinPool(parallelism);
+        data = ByteBuffer.allocateDirect(size << 20);
+        final byte[] chunk = new byte[1 << 20];
+        new Random(42L).nextBytes(chunk);
+        while (data.hasRemaining()) {
+            data.put(chunk);
+        }
+        data.flip();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] parallelTree() {
+        return tree.hash(data, pool);
+    }
+
+    // The sequential baselines do not depend on the parallelism, so only need running with -p parallelism=1
+
+    @Benchmark
+    public byte[] streamingTree() {
+        hasher.update(data.duplicate());
+        return hasher.doFinal();
+    }
+
+    @Benchmark
+    public long singleMessage() {
+        sipHash.hash128(data, 0, data.limit(), tagWords, 0);
+        return tagWords[0] ^ tagWords[1];
+    }
+}
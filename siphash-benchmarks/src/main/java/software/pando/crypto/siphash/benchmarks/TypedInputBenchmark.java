@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Compares the typed entry points for long, UUID and long[] keys against first encoding the key into a byte array.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TypedInputBenchmark {
+
+    @Param({ "1-3", "2-4" })
+    String variant;
+
+    private SipHash sipHash;
+    private long id;
+    private UUID uuid;
+    private final long[] composite = new long[4];
+
+    @Setup
+    public void setup() {
+        sipHash = Keys.sipHash(variant, 64);
+        final Random random = new Random(42L);
+        id = random.nextLong();
+        uuid = new UUID(random.nextLong(), random.nextLong());
+        for (int i = 0; i < composite.length; ++i) {
+            composite[i] = random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public long longTyped() {
+        return sipHash.hashLong(id);
+    }
+
+    @Benchmark
+    public long longEncoded() {
+        return sipHash.hash64(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(id).array());
+    }
+
+    @Benchmark
+    public long uuidTyped() {
+        return sipHash.hashLongs(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    @Benchmark
+    public long uuidEncoded() {
+        return sipHash.hash64(ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array());
+    }
+
+    @Benchmark
+    public long longArrayTyped() {
+        return sipHash.hash(composite, 0, composite.length);
+    }
+
+    @Benchmark
+    public long longArrayEncoded() {
+        final ByteBuffer buffer = ByteBuffer.allocate(composite.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asLongBuffer().put(composite);
+        return sipHash.hash64(buffer.array());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and atomically sets bits in 64-bit little-endian words of a direct buffer. This is the Java 8 implementation,
+ * which has no atomic operations on buffers, so updates synchronize on one of a fixed set of lock stripes chosen by
+ * the word's index. Reads do not lock. A faster lock-free implementation for Java 9 and later is included in the
+ * multi-release JAR.
+ */
+final class BufferBits {
+    private static final int STRIPES = 64;
+    private static final Object[] LOCKS = new Object[STRIPES];
+    private static final MethodHandle ALIGNMENT_OFFSET = alignmentOffset();
+
+    static {
+        for (int i = 0; i < STRIPES; ++i) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private BufferBits() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Indicates whether index zero of a direct buffer lies on an 8-byte boundary. The Java 9+ implementation can only
+     * update aligned words, so unaligned buffers are rejected on every runtime that can detect them. This class is
+     * also loaded on later runtimes when the JAR is not used as a multi-release JAR (such as from a classpath
+     * directory or a shaded JAR), where the public {@code ByteBuffer.alignmentOffset} method is available. Java 8 itself
+     * has no public way to find the alignment of a buffer, so every buffer is treated as aligned, which is safe for the
+     * locking implementation.
+     */
+    static boolean isAligned(final ByteBuffer buffer) {
+        if (ALIGNMENT_OFFSET == null) {
+            return true;
+        }
+        try {
+            return (int) ALIGNMENT_OFFSET.invokeExact(buffer, 0, 8) == 0;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the word at the given byte index, which must be a multiple of 8. The buffer must be little-endian.
+     */
+    static long get(final ByteBuffer buffer, final int index) {
+        return buffer.getLong(index);
+    }
+
+    /**
+     * Sets the given bits in the word at the given byte index, which must be a multiple of 8. The buffer must be
+     * little-endian.
+     *
+     * @return true if any of the bits were not already set.
+     */
+    static boolean set(final ByteBuffer buffer, final int index, final long bits) {
+        if ((buffer.getLong(index) & bits) == bits) {
+            return false;
+        }
+        synchronized (LOCKS[(index >>> 3) & (STRIPES - 1)]) {
+            final long word = buffer.getLong(index);
+            buffer.putLong(index, word | bits);
+            return (word & bits) != bits;
+        }
+    }
+
+    private static MethodHandle alignmentOffset() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(ByteBuffer.class, "alignmentOffset",
+                    MethodType.methodType(int.class, int.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // Java 8
+            return null;
+        }
+    }
+}
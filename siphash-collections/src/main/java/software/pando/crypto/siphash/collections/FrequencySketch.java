@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe count-min sketch of 4-bit counters, used to estimate how often keys have been accessed for TinyLFU
+ * admission. Counters are indexed by the keyed SipHash of the key, so an attacker cannot choose keys that inflate the
+ * estimated frequency of another key. Once the number of increments reaches ten times the maximum size of the cache,
+ * all of the counters are halved so that the sketch tracks recent frequency.
+ * <p>
+ * Each 64-bit word holds sixteen counters, and each key is counted in four of them, chosen by double hashing from the
+ * two halves of its hash. The step is forced to be odd, so that the four counters are always distinct.
+ */
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    FrequencySketch(final int maximumSize) {
+        final int length = Math.max(4, Integer.highestOneBit(Math.max(1, Math.min(maximumSize, 1 << 24)) - 1) << 1);
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(1, maximumSize));
+    }
+
+    /**
+     * Returns the estimated number of recent accesses to the key with the given hash, between 0 and 15.
+     */
+    int frequency(final long hash) {
+        final int step = (int) (hash >>> 32) | 1;
+        int min = MAX_COUNT;
+        int h = (int) hash;
+        for (int i = 0; i < DEPTH; ++i, h += step) {
+            min = Math.min(min, (int) (table.get((h >>> 4) & tableMask) >>> ((h & 15) << 2)) & MAX_COUNT);
+        }
+        return min;
+    }
+
+    /**
+     * Records an access to the key with the given hash. Counters that are already saturated are not written, so
+     * accesses to very popular keys do not contend on the table.
+     */
+    void increment(final long hash) {
+        final int step = (int) (hash >>> 32) | 1;
+        boolean added = false;
+        int h = (int) hash;
+        for (int i = 0; i < DEPTH; ++i, h += step) {
+            added |= incrementAt((h >>> 4) & tableMask, (h & 15) << 2);
+        }
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(final int index, final int shift) {
+        while (true) {
+            final long word = table.get(index);
+            if (((word >>> shift) & MAX_COUNT) == MAX_COUNT) {
+                return false;
+            }
+            if (table.compareAndSet(index, word, word + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Halves every counter. Only the thread whose increment reached the sample size calls this.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); ++i) {
+            long word;
+            do {
+                word = table.get(i);
+            } while (!table.compareAndSet(i, word, (word >>> 1) & RESET_MASK));
+        }
+        additions.addAndGet(-sampleSize / 2);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Generates the random SipHash keys used by the collections when no key is supplied.
+ */
+final class RandomKeys {
+    private RandomKeys() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Returns a SipHash-2-4 instance with a key that is generated once per process, on first use.
+     */
+    static SipHash processSipHash() {
+        return ProcessKeyHolder.SIP_HASH;
+    }
+
+    /**
+     * Returns a SipHash-2-4 instance with a freshly generated random key.
+     */
+    static SipHash newSipHash() {
+        return SipHash.getInstance(newKey());
+    }
+
+    static SecretKey newKey() {
+        final byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, "RAW");
+    }
+
+    private static final class ProcessKeyHolder {
+        static final SipHash SIP_HASH = newSipHash();
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A keyed Bloom filter stored off-heap in a direct or memory-mapped buffer. Each item is hashed with a single 128-bit
+ * SipHash evaluation, and the <em>k</em> bit positions are derived from the two 64-bit halves of the tag by double
+ * hashing, so the item is only read once however many positions are needed. Because the filter is keyed, an attacker
+ * who does not know the key cannot choose items that pollute the filter or that give false positives.
+ * <p>
+ * Concurrent inserts and lookups are supported without external locking. Each bit is set with an atomic update of the
+ * 64-bit word containing it; lookups may or may not observe an item that is being inserted concurrently.
+ * <p>
+ * The buffer starts with a 32-byte header recording the filter parameters and a check value derived from the key,
+ * followed by the bits. A filter created in a file with {@link #create(Path, SipHash, long, double)} can be reopened
+ * with {@link #open(Path, SipHash)}, which maps the file rather than reading it, so startup is immediate regardless of
+ * the size of the filter. The number of bits is always a power of two, up to 2<sup>33</sup> (1 GiB).
+ */
+public final class SipHashBloomFilter {
+    static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x46425348; // "SHBF" little-endian
+    private static final int VERSION = 1;
+    private static final long MIN_BITS = 64;
+    private static final long MAX_BITS = 1L << 33;
+    private static final int MAX_HASHES = 32;
+
+    private final SipHash sipHash;
+    private final ByteBuffer buffer;
+    private final MappedByteBuffer mapped;
+    private final int hashCount;
+    private final long bitMask;
+
+    private SipHashBloomFilter(final SipHash sipHash, final ByteBuffer buffer, final MappedByteBuffer mapped) {
+        this.sipHash = sipHash;
+        this.buffer = buffer;
+        this.mapped = mapped;
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a SipHash Bloom filter");
+        }
+        this.hashCount = buffer.getInt(8);
+        final long bitSize = buffer.getLong(16);
+        if (hashCount < 1 || hashCount > MAX_HASHES || Long.bitCount(bitSize) != 1 || bitSize < MIN_BITS
+                || bitSize > MAX_BITS || buffer.capacity() < HEADER_SIZE + bitSize / 8) {
+            throw new IllegalArgumentException("Corrupt Bloom filter header");
+        }
+        if (buffer.getLong(24) != keyCheck(sipHash)) {
+            throw new IllegalArgumentException("Bloom filter was created with a different key");
+        }
+        this.bitMask = bitSize - 1;
+    }
+
+    /**
+     * Creates an empty filter in a new direct buffer, sized for the given number of items and false positive rate.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 128-bit tags.
+     * @param expectedInsertions the expected number of items.
+     * @param falsePositiveRate the desired false positive rate once that many items have been inserted.
+     * @return the new filter.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 128-bit tags, or the parameters are
+     * invalid or require a filter larger than 1 GiB.
+     */
+    public static SipHashBloomFilter create(final SipHash sipHash, final long expectedInsertions,
+            final double falsePositiveRate) {
+        final long bitSize = bitSize(expectedInsertions, falsePositiveRate);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect((int) (HEADER_SIZE + bitSize / 8));
+        return new SipHashBloomFilter(sipHash, initialize(buffer, sipHash, expectedInsertions, bitSize), null);
+    }
+
+    /**
+     * Creates an empty filter in a new memory-mapped file, sized for the given number of items and false positive
+     * rate. Changes are written back to the file by the operating system; call {@link #force()} to write them
+     * immediately.
+     *
+     * @param file the file to create. Must not already exist.
+     * @param sipHash the SipHash algorithm and key to use. Must produce 128-bit tags.
+     * @param expectedInsertions the expected number of items.
+     * @param falsePositiveRate the desired false positive rate once that many items have been inserted.
+     * @return the new filter.
+     * @throws IOException if the file already exists or cannot be created and mapped.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 128-bit tags, or the parameters are
+     * invalid or require a filter larger than 1 GiB.
+     */
+    public static SipHashBloomFilter create(final Path file, final SipHash sipHash, final long expectedInsertions,
+            final double falsePositiveRate) throws IOException {
+        final long bitSize = bitSize(expectedInsertions, falsePositiveRate);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + bitSize / 8);
+            return new SipHashBloomFilter(sipHash, initialize(mapped.duplicate(), sipHash, expectedInsertions,
+                    bitSize), mapped);
+        }
+    }
+
+    /**
+     * Opens a filter previously created with {@link #create(Path, SipHash, long, double)} by mapping the file into
+     * memory. The filter can be updated, and changes are written back to the file.
+     *
+     * @param file the file containing the filter.
+     * @param sipHash the SipHash algorithm and key that the filter was created with.
+     * @return the filter.
+     * @throws IOException if the file cannot be opened and mapped.
+     * @throws IllegalArgumentException if the file does not contain a valid filter, or the filter was created with a
+     * different key.
+     */
+    public static SipHashBloomFilter open(final Path file, final SipHash sipHash) throws IOException {
+        checkTagSize(sipHash);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > HEADER_SIZE + MAX_BITS / 8) {
+                throw new IllegalArgumentException("Not a SipHash Bloom filter");
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return new SipHashBloomFilter(sipHash, mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN), mapped);
+        }
+    }
+
+    /**
+     * Wraps a direct buffer that contains a filter, such as one that has been read from the network, or a region of a
+     * larger mapped file. The filter starts at index zero of the buffer, which must be aligned to an 8-byte boundary
+     * in memory so that words of the filter can be updated atomically. Buffers returned by
+     * {@link ByteBuffer#allocateDirect(int)} and mappings of a file from offset zero are always aligned; a slice is
+     * only aligned if it starts at a multiple of 8 bytes into an aligned buffer. Updates to the filter write through
+     * to the buffer.
+     *
+     * @param buffer the buffer containing the filter. Must be a direct buffer whose index zero is 8-byte aligned.
+     * @param sipHash the SipHash algorithm and key that the filter was created with.
+     * @return the filter.
+     * @throws IllegalArgumentException if the buffer is not direct or not aligned, or does not contain a valid filter,
+     * or the filter was created with a different key.
+     */
+    public static SipHashBloomFilter wrap(final ByteBuffer buffer, final SipHash sipHash) {
+        checkTagSize(sipHash);
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer must be direct");
+        }
+        if (!BufferBits.isAligned(buffer)) {
+            throw new IllegalArgumentException("Buffer must be aligned to an 8-byte boundary");
+        }
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a SipHash Bloom filter");
+        }
+        return new SipHashBloomFilter(sipHash, buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), null);
+    }
+
+    /**
+     * Adds an item to the filter.
+     *
+     * @param item the item.
+     * @return true if the filter changed, which means that the item was definitely not present before. False means that
+     * the item might have been present.
+     */
+    public boolean put(final byte[] item) {
+        return put(item, 0, item.length);
+    }
+
+    /**
+     * Adds the item given by a range of a byte array to the filter.
+     *
+     * @param item the array containing the item.
+     * @param offset the offset of the item in the array.
+     * @param length the length of the item.
+     * @return true if the filter changed.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public boolean put(final byte[] item, final int offset, final int length) {
+        final long[] tag = new long[2];
+        sipHash.hash128(item, offset, length, tag, 0);
+        return put(tag[0], tag[1]);
+    }
+
+    /**
+     * Adds the UTF-8 encoding of the given characters to the filter.
+     *
+     * @param item the item.
+     * @return true if the filter changed.
+     */
+    public boolean put(final CharSequence item) {
+        final long[] tag = new long[2];
+        sipHash.hash128(item, tag, 0);
+        return put(tag[0], tag[1]);
+    }
+
+    /**
+     * Adds a batch of items to the filter, hashing them with {@link SipHash#hashAll(byte[][], long[])}.
+     *
+     * @param items the items to add.
+     */
+    public void putAll(final byte[][] items) {
+        final long[] tags = new long[items.length * 2];
+        sipHash.hashAll(items, tags);
+        for (int i = 0; i < items.length; ++i) {
+            put(tags[2 * i], tags[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Tests whether an item might have been added to the filter.
+     *
+     * @param item the item.
+     * @return false if the item has definitely not been added, true if it might have been.
+     */
+    public boolean mightContain(final byte[] item) {
+        return mightContain(item, 0, item.length);
+    }
+
+    /**
+     * Tests whether the item given by a range of a byte array might have been added to the filter.
+     *
+     * @param item the array containing the item.
+     * @param offset the offset of the item in the array.
+     * @param length the length of the item.
+     * @return false if the item has definitely not been added, true if it might have been.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public boolean mightContain(final byte[] item, final int offset, final int length) {
+        final long[] tag = new long[2];
+        sipHash.hash128(item, offset, length, tag, 0);
+        return mightContain(tag[0], tag[1]);
+    }
+
+    /**
+     * Tests whether the UTF-8 encoding of the given characters might have been added to the filter.
+     *
+     * @param item the item.
+     * @return false if the item has definitely not been added, true if it might have been.
+     */
+    public boolean mightContain(final CharSequence item) {
+        final long[] tag = new long[2];
+        sipHash.hash128(item, tag, 0);
+        return mightContain(tag[0], tag[1]);
+    }
+
+    /**
+     * Tests a batch of items, hashing them with {@link SipHash#hashAll(byte[][], long[])}, which interleaves the
+     * hashing of pairs of items. The result for {@code items[i]} is written to {@code out[i]}.
+     *
+     * @param items the items to test.
+     * @param out the array to write the results into.
+     * @throws IndexOutOfBoundsException if the output array is shorter than the array of items.
+     */
+    public void mightContainAll(final byte[][] items, final boolean[] out) {
+        if (out.length < items.length) {
+            throw new IndexOutOfBoundsException("Output array too small");
+        }
+        final long[] tags = new long[items.length * 2];
+        sipHash.hashAll(items, tags);
+        for (int i = 0; i < items.length; ++i) {
+            out[i] = mightContain(tags[2 * i], tags[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Tests a batch of items packed into a single array, hashing them with
+     * {@link SipHash#hashAll(byte[], int[], int[], long[])}. Item {@code i} is the range of {@code data} starting at
+     * {@code offsets[i]} of length {@code lengths[i]}, and its result is written to {@code out[i]}.
+     *
+     * @param data the array holding all of the items.
+     * @param offsets the offset of each item within the data array.
+     * @param lengths the length of each item.
+     * @param out the array to write the results into.
+     * @throws IllegalArgumentException if the offsets and lengths arrays have different lengths.
+     * @throws IndexOutOfBoundsException if any item does not lie within the data array, or the output array is too
+     * small.
+     */
+    public void mightContainAll(final byte[] data, final int[] offsets, final int[] lengths, final boolean[] out) {
+        if (out.length < offsets.length) {
+            throw new IndexOutOfBoundsException("Output array too small");
+        }
+        final long[] tags = new long[offsets.length * 2];
+        sipHash.hashAll(data, offsets, lengths, tags);
+        for (int i = 0; i < offsets.length; ++i) {
+            out[i] = mightContain(tags[2 * i], tags[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Returns the number of bits in the filter.
+     *
+     * @return the number of bits.
+     */
+    public long bitSize() {
+        return bitMask + 1;
+    }
+
+    /**
+     * Returns the number of bits set for each item.
+     *
+     * @return the number of hash functions.
+     */
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Estimates the current false positive rate from the fraction of bits that are set. This scans the whole filter.
+     *
+     * @return the estimated false positive rate.
+     */
+    public double expectedFalsePositiveRate() {
+        long set = 0;
+        for (long i = 0; i <= bitMask >>> 6; ++i) {
+            set += Long.bitCount(BufferBits.get(buffer, (int) (HEADER_SIZE + i * 8)));
+        }
+        return Math.pow((double) set / bitSize(), hashCount);
+    }
+
+    /**
+     * Forces any changes to a memory-mapped filter to be written to the file. Does nothing if the filter is not
+     * memory-mapped.
+     */
+    public void force() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the buffer holding the filter, including its header. This can be written to a file
+     * or sent over the network, and read back with {@link #wrap(ByteBuffer, SipHash)}.
+     *
+     * @return the buffer holding the filter.
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private boolean put(final long h1, final long h2) {
+        boolean changed = false;
+        final long step = h2 | 1;
+        long h = h1;
+        for (int i = 0; i < hashCount; ++i) {
+            final long bit = h & bitMask;
+            changed |= BufferBits.set(buffer, wordIndex(bit), 1L << bit);
+            h += step;
+        }
+        return changed;
+    }
+
+    private boolean mightContain(final long h1, final long h2) {
+        final long step = h2 | 1;
+        long h = h1;
+        for (int i = 0; i < hashCount; ++i) {
+            final long bit = h & bitMask;
+            if ((BufferBits.get(buffer, wordIndex(bit)) & (1L << bit)) == 0) {
+                return false;
+            }
+            h += step;
+        }
+        return true;
+    }
+
+    private static int wordIndex(final long bit) {
+        return (int) (HEADER_SIZE + ((bit >>> 6) << 3));
+    }
+
+    private static long bitSize(final long expectedInsertions, final double falsePositiveRate) {
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("Expected insertions must be positive");
+        }
+        if (!(falsePositiveRate > 0.0 && falsePositiveRate < 1.0)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        final double optimal = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        if (optimal > MAX_BITS) {
+            throw new IllegalArgumentException("Filter would be larger than 1 GiB");
+        }
+        final long bits = Math.max(MIN_BITS, (long) Math.ceil(optimal));
+        return Long.bitCount(bits) == 1 ? bits : Long.highestOneBit(bits) << 1;
+    }
+
+    private static ByteBuffer initialize(final ByteBuffer buffer, final SipHash sipHash,
+            final long expectedInsertions, final long bitSize) {
+        checkTagSize(sipHash);
+        final long hashes = Math.round((double) bitSize / expectedInsertions * Math.log(2));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, (int) Math.max(1, Math.min(MAX_HASHES, hashes)));
+        buffer.putLong(16, bitSize);
+        buffer.putLong(24, keyCheck(sipHash));
+        return buffer;
+    }
+
+    private static void checkTagSize(final SipHash sipHash) {
+        if (sipHash.getMacTagLength() != 128) {
+            throw new IllegalArgumentException("SipHash instance must produce 128-bit tags");
+        }
+    }
+
+    /**
+     * A value derived from the key, stored in the header so that a filter cannot be opened with the wrong key. It is
+     * the tag of a fixed label, which reveals nothing about the key.
+     */
+    private static long keyCheck(final SipHash sipHash) {
+        checkTagSize(sipHash);
+        final long[] tag = new long[2];
+        sipHash.hash128("SipHashBloomFilter key check", tag, 0);
+        return tag[0] ^ tag[1];
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashBloomFilter{bits=" + bitSize() + ", hashes=" + hashCount + "}";
+    }
+}
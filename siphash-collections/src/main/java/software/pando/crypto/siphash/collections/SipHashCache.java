@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A bounded, concurrent cache keyed by byte strings that is resistant to hash-flooding attacks. All of the cache's
+ * internal structures are indexed by the keyed SipHash of the key rather than by {@link Object#hashCode()}, so an
+ * attacker who does not know the key can neither make keys collide in the table nor inflate the recorded frequency of
+ * other keys. As with {@link SipHashMap}, a {@link CharSequence} key is the same as its UTF-8 encoding.
+ * <p>
+ * The cache is divided into independently locked segments, selected by the high bits of the hash. Reads do not take
+ * any locks: each segment is an open-addressed table of immutable entries, which writers update with atomic stores.
+ * When a segment is full, a victim is chosen with the CLOCK algorithm, which gives entries that have been read since
+ * the hand last passed a second chance. The new entry is only admitted if it has been accessed more often than the
+ * victim, according to a frequency sketch (the TinyLFU admission policy). This keeps popular entries in the cache when
+ * it is scanned by a stream of one-off keys.
+ * <p>
+ * The maximum size is divided evenly between the segments, so the cache may begin evicting entries from one segment
+ * slightly before the total size reaches the maximum.
+ *
+ * @param <V> the type of values in the cache.
+ */
+public final class SipHashCache<V> {
+    private final SipHash sipHash;
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Creates a cache holding at most the given number of entries, using the per-process random key and a number of
+     * segments suited to the number of available processors.
+     *
+     * @param maximumSize the maximum number of entries.
+     * @throws IllegalArgumentException if the maximum size is not positive.
+     */
+    public SipHashCache(final int maximumSize) {
+        this(RandomKeys.processSipHash(), maximumSize, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Creates a cache holding at most the given number of entries.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 64-bit tags.
+     * @param maximumSize the maximum number of entries.
+     * @param concurrencyLevel the expected number of threads writing to the cache at once. The number of segments is
+     * the next power of two, limited so that each segment holds at least 16 entries.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 64-bit tags, or the maximum size or
+     * concurrency level is not positive.
+     */
+    @SuppressWarnings("unchecked")
+    public SipHashCache(final SipHash sipHash, final int maximumSize, final int concurrencyLevel) {
+        if (sipHash.getMacTagLength() != 64) {
+            throw new IllegalArgumentException("SipHash instance must produce 64-bit tags");
+        }
+        if (maximumSize < 1 || maximumSize > 1 << 29) {
+            throw new IllegalArgumentException("Invalid maximum size: " + maximumSize);
+        }
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("Concurrency level must be positive");
+        }
+        this.sipHash = sipHash;
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < 1 << 16 && maximumSize / (segmentCount * 2) >= 16) {
+            segmentCount <<= 1;
+        }
+        final int segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+        this.segmentShift = 64 - segmentBits;
+        this.segmentMask = segmentCount - 1;
+
+        this.segments = (Segment<V>[]) new Segment<?>[segmentCount];
+        final int perSegment = (maximumSize + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; ++i) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    /**
+     * Returns the cached value for the given key.
+     *
+     * @param key the key.
+     * @return the value, or null if the key is not in the cache.
+     */
+    public V get(final byte[] key) {
+        return get(key, 0, key.length);
+    }
+
+    /**
+     * Returns the cached value for the key given by a range of a byte array. This method does not take any locks or
+     * allocate any memory.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return the value, or null if the key is not in the cache.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public V get(final byte[] key, final int offset, final int length) {
+        final long hash = sipHash.hash64(key, offset, length);
+        final Segment<V> segment = segmentFor(hash);
+        segment.sketch.increment(hash);
+        return hitOrMiss(segment.find(hash, key, offset, length));
+    }
+
+    /**
+     * Returns the cached value for the UTF-8 encoding of the given key. This method does not take any locks or
+     * allocate any memory.
+     *
+     * @param key the key.
+     * @return the value, or null if the key is not in the cache.
+     */
+    public V get(final CharSequence key) {
+        final long hash = sipHash.hash64(key);
+        final Segment<V> segment = segmentFor(hash);
+        segment.sketch.increment(hash);
+        return hitOrMiss(segment.find(hash, key));
+    }
+
+    /**
+     * Returns the cached value for the UTF-8 encoding of the given key, computing and caching it if it is not present.
+     * The loader is called while holding the lock for the key's segment, so it should be quick. The computed value is
+     * returned even if the admission policy decides not to cache it.
+     *
+     * @param key the key.
+     * @param loader computes the value for a key that is not cached. May return null, in which case nothing is cached.
+     * @return the cached or computed value.
+     */
+    public V get(final CharSequence key, final Function<? super CharSequence, ? extends V> loader) {
+        final long hash = sipHash.hash64(key);
+        final Segment<V> segment = segmentFor(hash);
+        segment.sketch.increment(hash);
+        final Entry<V> cached = segment.find(hash, key);
+        if (cached != null) {
+            return hitOrMiss(cached);
+        }
+        misses.increment();
+
+        segment.lock();
+        try {
+            final Entry<V> raced = segment.find(hash, key);
+            if (raced != null) {
+                return raced.value;
+            }
+            final V value = loader.apply(key);
+            if (value != null) {
+                final byte[] bytes = new byte[Utf8.encodedLength(key)];
+                Utf8.encode(key, bytes, 0);
+                segment.put(this, new Entry<>(hash, bytes, value));
+            }
+            return value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Caches the given value for the given key, subject to the admission policy. The key is copied.
+     *
+     * @param key the key.
+     * @param value the value.
+     */
+    public void put(final byte[] key, final V value) {
+        put(key, 0, key.length, value);
+    }
+
+    /**
+     * Caches the given value for the key given by a range of a byte array, subject to the admission policy. If the key
+     * is already cached then its value is always replaced. The key is copied.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @param value the value.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public void put(final byte[] key, final int offset, final int length, final V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        final long hash = sipHash.hash64(key, offset, length);
+        final byte[] copy = new byte[length];
+        System.arraycopy(key, offset, copy, 0, length);
+        putEntry(new Entry<>(hash, copy, value));
+    }
+
+    /**
+     * Caches the given value for the UTF-8 encoding of the given key, subject to the admission policy.
+     *
+     * @param key the key.
+     * @param value the value.
+     */
+    public void put(final CharSequence key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        final long hash = sipHash.hash64(key);
+        final byte[] bytes = new byte[Utf8.encodedLength(key)];
+        Utf8.encode(key, bytes, 0);
+        putEntry(new Entry<>(hash, bytes, value));
+    }
+
+    /**
+     * Removes the given key from the cache.
+     *
+     * @param key the key.
+     */
+    public void invalidate(final byte[] key) {
+        final long hash = sipHash.hash64(key, 0, key.length);
+        final Segment<V> segment = segmentFor(hash);
+        segment.lock();
+        try {
+            segment.remove(segment.slotOf(hash, key, 0, key.length));
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Removes the UTF-8 encoding of the given key from the cache.
+     *
+     * @param key the key.
+     */
+    public void invalidate(final CharSequence key) {
+        final long hash = sipHash.hash64(key);
+        final Segment<V> segment = segmentFor(hash);
+        segment.lock();
+        try {
+            segment.remove(segment.slotOf(hash, key));
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. The frequency sketches and statistics are not reset.
+     */
+    public void invalidateAll() {
+        for (final Segment<V> segment : segments) {
+            segment.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache. This is a snapshot that may be out of date by the time it returns if
+     * other threads are writing to the cache.
+     *
+     * @return the number of entries.
+     */
+    public long size() {
+        long size = 0;
+        for (final Segment<V> segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached value.
+     *
+     * @return the number of hits.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached value.
+     *
+     * @return the number of misses.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a cached value, or 1 if there have been no lookups.
+     *
+     * @return the hit rate.
+     */
+    public double hitRate() {
+        final long hitCount = hits.sum();
+        final long total = hitCount + misses.sum();
+        return total == 0 ? 1.0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to make room for new entries.
+     *
+     * @return the number of evictions.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of new entries that were not cached because the admission policy estimated that they were
+     * accessed less often than the entry that would have been evicted.
+     *
+     * @return the number of rejected entries.
+     */
+    public long rejectionCount() {
+        return rejections.sum();
+    }
+
+    private Segment<V> segmentFor(final long hash) {
+        return segments[(int) (hash >>> segmentShift) & segmentMask];
+    }
+
+    private V hitOrMiss(final Entry<V> entry) {
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    private void putEntry(final Entry<V> entry) {
+        final Segment<V> segment = segmentFor(entry.hash);
+        segment.sketch.increment(entry.hash);
+        segment.lock();
+        try {
+            segment.put(this, entry);
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashCache{size=" + size() + ", segments=" + segments.length + "}";
+    }
+
+    /**
+     * An immutable cache entry, apart from the CLOCK reference bit. The bit is set by readers without synchronization;
+     * a lost update only means that the entry does not get its second chance.
+     */
+    static final class Entry<V> {
+        final long hash;
+        final byte[] key;
+        final V value;
+        boolean referenced;
+
+        Entry(final long hash, final byte[] key, final V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One stripe of the cache. Writes happen while holding the lock; reads do not lock, and rely on the entries being
+     * immutable and published with volatile writes. Removed entries are replaced with a tombstone rather than shifting
+     * later entries back, so that a concurrent reader never misses an entry that is being moved. The table is rebuilt
+     * when tombstones fill too much of it.
+     */
+    @SuppressWarnings("serial")
+    static final class Segment<V> extends ReentrantLock {
+        private static final Entry<Object> TOMBSTONE = new Entry<>(0L, new byte[0], null);
+
+        final int maximumSize;
+        final FrequencySketch sketch;
+        volatile AtomicReferenceArray<Entry<V>> table;
+        volatile int count;
+        private int used;
+        private int clockHand;
+
+        Segment(final int maximumSize) {
+            this.maximumSize = maximumSize;
+            this.sketch = new FrequencySketch(maximumSize);
+            this.table = new AtomicReferenceArray<>(Math.max(8, Integer.highestOneBit(maximumSize * 2 - 1) << 1));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Entry<V> tombstone() {
+            return (Entry<V>) (Entry<?>) TOMBSTONE;
+        }
+
+        Entry<V> find(final long hash, final byte[] key, final int offset, final int length) {
+            final AtomicReferenceArray<Entry<V>> table = this.table;
+            final int mask = table.length() - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                final Entry<V> entry = table.get(slot);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.hash == hash && entry.key.length == length && entry != TOMBSTONE
+                        && equal(entry.key, key, offset)) {
+                    return entry;
+                }
+            }
+        }
+
+        Entry<V> find(final long hash, final CharSequence key) {
+            final AtomicReferenceArray<Entry<V>> table = this.table;
+            final int mask = table.length() - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                final Entry<V> entry = table.get(slot);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.hash == hash && entry != TOMBSTONE && Utf8.equals(key, entry.key, 0, entry.key.length)) {
+                    return entry;
+                }
+            }
+        }
+
+        int slotOf(final long hash, final byte[] key, final int offset, final int length) {
+            final int mask = table.length() - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                final Entry<V> entry = table.get(slot);
+                if (entry == null) {
+                    return -1;
+                }
+                if (entry.hash == hash && entry.key.length == length && entry != TOMBSTONE
+                        && equal(entry.key, key, offset)) {
+                    return slot;
+                }
+            }
+        }
+
+        int slotOf(final long hash, final CharSequence key) {
+            final int mask = table.length() - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                final Entry<V> entry = table.get(slot);
+                if (entry == null) {
+                    return -1;
+                }
+                if (entry.hash == hash && entry != TOMBSTONE && Utf8.equals(key, entry.key, 0, entry.key.length)) {
+                    return slot;
+                }
+            }
+        }
+
+        void put(final SipHashCache<V> cache, final Entry<V> entry) {
+            final int existing = slotOf(entry.hash, entry.key, 0, entry.key.length);
+            if (existing >= 0) {
+                entry.referenced = true;
+                table.set(existing, entry);
+                return;
+            }
+
+            if (count >= maximumSize) {
+                final int victim = selectVictim();
+                if (sketch.frequency(entry.hash) <= sketch.frequency(table.get(victim).hash)) {
+                    cache.rejections.increment();
+                    return;
+                }
+                remove(victim);
+                cache.evictions.increment();
+            }
+
+            if (used + 1 > table.length() * 3 / 4) {
+                rebuild();
+            }
+            final int mask = table.length() - 1;
+            int slot = (int) entry.hash & mask;
+            while (table.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            table.set(slot, entry);
+            ++used;
+            count = count + 1;
+        }
+
+        void remove(final int slot) {
+            if (slot >= 0) {
+                table.set(slot, tombstone());
+                count = count - 1;
+            }
+        }
+
+        void clear() {
+            table = new AtomicReferenceArray<>(table.length());
+            count = 0;
+            used = 0;
+        }
+
+        /**
+         * Advances the CLOCK hand to the next entry that has not been referenced since the hand last passed it,
+         * clearing the reference bits of entries that have. Must only be called when the segment is not empty.
+         */
+        private int selectVictim() {
+            final int mask = table.length() - 1;
+            while (true) {
+                final int slot = clockHand;
+                clockHand = (slot + 1) & mask;
+                final Entry<V> entry = table.get(slot);
+                if (entry == null || entry == TOMBSTONE) {
+                    continue;
+                }
+                if (!entry.referenced) {
+                    return slot;
+                }
+                entry.referenced = false;
+            }
+        }
+
+        /**
+         * Copies the live entries into a new table without tombstones and publishes it. Readers that are still using
+         * the old table see a consistent snapshot.
+         */
+        private void rebuild() {
+            final AtomicReferenceArray<Entry<V>> old = table;
+            final AtomicReferenceArray<Entry<V>> rebuilt = new AtomicReferenceArray<>(old.length());
+            final int mask = rebuilt.length() - 1;
+            for (int i = 0; i < old.length(); ++i) {
+                final Entry<V> entry = old.get(i);
+                if (entry != null && entry != TOMBSTONE) {
+                    int slot = (int) entry.hash & mask;
+                    while (rebuilt.get(slot) != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    rebuilt.set(slot, entry);
+                }
+            }
+            table = rebuilt;
+            used = count;
+            clockHand = 0;
+        }
+
+        private static boolean equal(final byte[] stored, final byte[] key, final int offset) {
+            for (int i = 0; i < stored.length; ++i) {
+                if (stored[i] != key[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A thread-safe count-min sketch that estimates how often each key has been seen, for rate limiting and heavy hitter
+ * detection over attacker-chosen keys such as client addresses or API tokens. The counters for each key are chosen by
+ * its keyed SipHash, so an attacker who does not know the key cannot aim traffic from many keys at the counters of a
+ * victim, or spread a single key's traffic so that it goes unnoticed.
+ * <p>
+ * Each row of counters is a separate array of {@code long}s, and counts are added with a single atomic
+ * {@code getAndAdd} per row, so updates never lock or retry. The counts returned by {@code add} are taken from the
+ * values that those updates returned, so checking a key against a limit costs nothing extra. Estimates never
+ * undercount. In each row, the overcount exceeds {@code 2N/width} with probability at most 1/2, where N is the total of
+ * all counts. The row indices are derived by double hashing from the two halves of a single 64-bit tag, so the rows
+ * are not independent, and the {@code 1 - 2^-depth} bound of a sketch with independent rows does not hold: a pair of
+ * keys that collide in both halves modulo the width, which happens with probability about {@code 2/width^2}, share a
+ * counter in every row. Extra rows reduce the error from collisions with many different keys, but not from such a pair.
+ * <p>
+ * The sketch also tracks the keys with the highest estimates, which are returned by {@link #topK()}. Only adds whose
+ * estimate exceeds the smallest count in the top K go further than a volatile read. Keys that are already tracked
+ * are found in a lock-free index and do not touch the heap at all: the counts held in the heap are lower bounds,
+ * refreshed from the sketch when an entry is about to be evicted. Other adds lock the heap, but skip it rather than
+ * wait if another thread is updating it.
+ * <p>
+ * Call {@link #decay()} periodically, for example from a {@link java.util.concurrent.ScheduledExecutorService}, to
+ * halve every count so that estimates reflect recent traffic.
+ */
+public final class SipHashCountMinSketch {
+    private static final int MAX_WIDTH = 1 << 26;
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_TOP_K = 1 << 12;
+
+    private final SipHash sipHash;
+    private final AtomicLongArray[] rows;
+    private final int widthMask;
+
+    private final ReentrantLock heapLock = new ReentrantLock();
+    private final int topK;
+    private final long[] heapHashes;
+    private final long[] heapCounts;
+    private final byte[][] heapKeys;
+    // Open-addressed set of the hashes in the heap, written under the heap lock and read without it. Zero marks an
+    // empty slot, so a key whose hash is zero is never found and always goes to the heap.
+    private final AtomicLongArray tracked;
+    private final int trackedMask;
+    private int heapSize;
+    private volatile long heapThreshold;
+
+    /**
+     * Creates a sketch using the per-process random key.
+     *
+     * @param width the number of counters in each row. Rounded up to a power of two.
+     * @param depth the number of rows.
+     * @param topK the number of heavy hitters to track, or 0 to not track them.
+     * @throws IllegalArgumentException if any of the parameters are out of range.
+     */
+    public SipHashCountMinSketch(final int width, final int depth, final int topK) {
+        this(RandomKeys.processSipHash(), width, depth, topK);
+    }
+
+    /**
+     * Creates a sketch.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 64-bit tags.
+     * @param width the number of counters in each row, between 1 and 2<sup>26</sup>. Rounded up to a power of two.
+     * @param depth the number of rows, between 1 and 16.
+     * @param topK the number of heavy hitters to track, between 0 and 4096.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 64-bit tags, or any of the parameters
+     * are out of range.
+     */
+    public SipHashCountMinSketch(final SipHash sipHash, final int width, final int depth, final int topK) {
+        if (sipHash.getMacTagLength() != 64) {
+            throw new IllegalArgumentException("SipHash instance must produce 64-bit tags");
+        }
+        if (width < 1 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("Invalid width: " + width);
+        }
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Invalid depth: " + depth);
+        }
+        if (topK < 0 || topK > MAX_TOP_K) {
+            throw new IllegalArgumentException("Invalid top K: " + topK);
+        }
+        this.sipHash = sipHash;
+        final int roundedWidth = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.rows = new AtomicLongArray[depth];
+        for (int i = 0; i < depth; ++i) {
+            rows[i] = new AtomicLongArray(roundedWidth);
+        }
+        this.widthMask = roundedWidth - 1;
+        this.topK = topK;
+        this.heapHashes = new long[topK];
+        this.heapCounts = new long[topK];
+        this.heapKeys = new byte[topK][];
+        final int trackedSize = Integer.highestOneBit(Math.max(1, topK)) << 2;
+        this.tracked = new AtomicLongArray(trackedSize);
+        this.trackedMask = trackedSize - 1;
+    }
+
+    /**
+     * Counts one occurrence of the given key.
+     *
+     * @param key the key.
+     * @return the estimated count of the key, including this occurrence.
+     */
+    public long add(final byte[] key) {
+        return add(key, 0, key.length, 1);
+    }
+
+    /**
+     * Adds to the count of the key given by a range of a byte array.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @param count the amount to add, such as the size of a request.
+     * @return the estimated count of the key, including this amount.
+     * @throws IllegalArgumentException if the count is negative.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public long add(final byte[] key, final int offset, final int length, final long count) {
+        final long hash = sipHash.hash64(key, offset, length);
+        final long estimate = add(hash, count);
+        if (estimate >= heapThreshold && topK > 0 && !isTracked(hash)) {
+            offer(hash, estimate, key, offset, length, null);
+        }
+        return estimate;
+    }
+
+    /**
+     * Counts one occurrence of the UTF-8 encoding of the given characters.
+     *
+     * @param key the key.
+     * @return the estimated count of the key, including this occurrence.
+     */
+    public long add(final CharSequence key) {
+        return add(key, 1);
+    }
+
+    /**
+     * Adds to the count of the UTF-8 encoding of the given characters.
+     *
+     * @param key the key.
+     * @param count the amount to add.
+     * @return the estimated count of the key, including this amount.
+     * @throws IllegalArgumentException if the count is negative.
+     */
+    public long add(final CharSequence key, final long count) {
+        final long hash = sipHash.hash64(key);
+        final long estimate = add(hash, count);
+        if (estimate >= heapThreshold && topK > 0 && !isTracked(hash)) {
+            offer(hash, estimate, null, 0, 0, key);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the estimated count of the given key.
+     *
+     * @param key the key.
+     * @return the estimated count.
+     */
+    public long estimate(final byte[] key) {
+        return estimate(key, 0, key.length);
+    }
+
+    /**
+     * Returns the estimated count of the key given by a range of a byte array.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return the estimated count.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public long estimate(final byte[] key, final int offset, final int length) {
+        return estimate(sipHash.hash64(key, offset, length));
+    }
+
+    /**
+     * Returns the estimated count of the UTF-8 encoding of the given characters.
+     *
+     * @param key the key.
+     * @return the estimated count.
+     */
+    public long estimate(final CharSequence key) {
+        return estimate(sipHash.hash64(key));
+    }
+
+    /**
+     * Returns the tracked keys with the highest estimated counts, most frequent first. The counts are re-estimated from
+     * the sketch when this method is called.
+     *
+     * @return at most {@code topK} heavy hitters.
+     */
+    public List<HeavyHitter> topK() {
+        final HeavyHitter[] result;
+        heapLock.lock();
+        try {
+            result = new HeavyHitter[heapSize];
+            for (int i = 0; i < heapSize; ++i) {
+                result[i] = new HeavyHitter(heapKeys[i], estimate(heapHashes[i]));
+            }
+        } finally {
+            heapLock.unlock();
+        }
+        Arrays.sort(result, (a, b) -> Long.compare(b.count, a.count));
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * Halves every count, so that old traffic gradually stops contributing to the estimates. Adds that happen at the
+     * same time are not lost, but may be halved or not.
+     */
+    public void decay() {
+        for (final AtomicLongArray row : rows) {
+            for (int i = 0; i < row.length(); ++i) {
+                long value;
+                do {
+                    value = row.get(i);
+                } while (value != 0 && !row.compareAndSet(i, value, value >>> 1));
+            }
+        }
+        heapLock.lock();
+        try {
+            for (int i = 0; i < heapSize; ++i) {
+                heapCounts[i] >>>= 1;
+            }
+            updateThreshold();
+        } finally {
+            heapLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of counters in each row.
+     *
+     * @return the width of the sketch.
+     */
+    public int width() {
+        return widthMask + 1;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the depth of the sketch.
+     */
+    public int depth() {
+        return rows.length;
+    }
+
+    private long add(final long hash, final long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+        final int step = (int) (hash >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        int h = (int) hash;
+        for (int i = 0; i < rows.length; ++i, h += step) {
+            min = Math.min(min, rows[i].getAndAdd(h & widthMask, count));
+        }
+        return min + count;
+    }
+
+    private long estimate(final long hash) {
+        final int step = (int) (hash >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        int h = (int) hash;
+        for (int i = 0; i < rows.length; ++i, h += step) {
+            min = Math.min(min, rows[i].get(h & widthMask));
+        }
+        return min;
+    }
+
+    /**
+     * Offers a key to the top K heap. The key bytes are only copied (or the characters encoded) if the key is added
+     * to the heap. Gives up without waiting if another thread holds the lock, as a heavy hitter will be offered again.
+     */
+    private void offer(final long hash, final long estimate, final byte[] key, final int offset, final int length,
+            final CharSequence chars) {
+        if (!heapLock.tryLock()) {
+            return;
+        }
+        try {
+            if (isTracked(hash)) {
+                // Added by another thread since the check in add
+                return;
+            }
+            if (heapSize == topK) {
+                refreshMinimum();
+                if (estimate <= heapCounts[0]) {
+                    updateThreshold();
+                    return;
+                }
+                untrack(heapHashes[0]);
+                heapSize--;
+                moveTo(0, heapSize);
+                siftDown(0);
+            }
+            final byte[] copy;
+            if (chars != null) {
+                copy = new byte[Utf8.encodedLength(chars)];
+                Utf8.encode(chars, copy, 0);
+            } else {
+                copy = Arrays.copyOfRange(key, offset, offset + length);
+            }
+            heapHashes[heapSize] = hash;
+            heapCounts[heapSize] = estimate;
+            heapKeys[heapSize] = copy;
+            track(hash);
+            siftUp(heapSize++);
+            updateThreshold();
+        } finally {
+            heapLock.unlock();
+        }
+    }
+
+    /**
+     * Brings the count at the root of the heap up to date. Counts in the heap are only ever lower than the estimates
+     * of their keys, as keys that are already tracked do not update them, so once the root is current it holds the
+     * smallest estimate in the heap. Each pass raises one count, so this is bounded by the size of the heap.
+     */
+    private void refreshMinimum() {
+        for (int i = 0; i < heapSize; ++i) {
+            final long current = estimate(heapHashes[0]);
+            if (current <= heapCounts[0]) {
+                return;
+            }
+            heapCounts[0] = current;
+            siftDown(0);
+        }
+    }
+
+    private boolean isTracked(final long hash) {
+        if (hash == 0) {
+            return false;
+        }
+        for (int i = (int) hash & trackedMask; ; i = (i + 1) & trackedMask) {
+            final long entry = tracked.get(i);
+            if (entry == hash) {
+                return true;
+            }
+            if (entry == 0) {
+                return false;
+            }
+        }
+    }
+
+    private void track(final long hash) {
+        if (hash == 0) {
+            return;
+        }
+        int i = (int) hash & trackedMask;
+        while (tracked.get(i) != 0) {
+            i = (i + 1) & trackedMask;
+        }
+        tracked.set(i, hash);
+    }
+
+    /**
+     * Removes a hash from the index, shifting later entries of its probe sequence back so that no tombstones are
+     * needed. A concurrent reader may briefly miss an entry that is being moved, which only sends that add to the
+     * heap lock.
+     */
+    private void untrack(final long hash) {
+        if (hash == 0) {
+            return;
+        }
+        int i = (int) hash & trackedMask;
+        while (tracked.get(i) != hash) {
+            i = (i + 1) & trackedMask;
+        }
+        for (int j = (i + 1) & trackedMask; ; j = (j + 1) & trackedMask) {
+            final long entry = tracked.get(j);
+            if (entry == 0) {
+                break;
+            }
+            final int home = (int) entry & trackedMask;
+            // Move the entry back into the hole unless its home slot lies cyclically in (i, j]
+            if (((j - home) & trackedMask) >= ((j - i) & trackedMask)) {
+                tracked.set(i, entry);
+                i = j;
+            }
+        }
+        tracked.set(i, 0);
+    }
+
+    private void updateThreshold() {
+        heapThreshold = heapSize < topK ? 0 : heapCounts[0] + 1;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (heapCounts[parent] <= heapCounts[index]) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            final int left = 2 * index + 1;
+            if (left >= heapSize) {
+                break;
+            }
+            final int right = left + 1;
+            final int smallest = right < heapSize && heapCounts[right] < heapCounts[left] ? right : left;
+            if (heapCounts[index] <= heapCounts[smallest]) {
+                break;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void moveTo(final int to, final int from) {
+        heapHashes[to] = heapHashes[from];
+        heapCounts[to] = heapCounts[from];
+        heapKeys[to] = heapKeys[from];
+        heapKeys[from] = null;
+    }
+
+    private void swap(final int a, final int b) {
+        final long hash = heapHashes[a];
+        final long count = heapCounts[a];
+        final byte[] key = heapKeys[a];
+        heapHashes[a] = heapHashes[b];
+        heapCounts[a] = heapCounts[b];
+        heapKeys[a] = heapKeys[b];
+        heapHashes[b] = hash;
+        heapCounts[b] = count;
+        heapKeys[b] = key;
+    }
+
+    /**
+     * A key with a high estimated count.
+     */
+    public static final class HeavyHitter {
+        private final byte[] key;
+        private final long count;
+
+        HeavyHitter(final byte[] key, final long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        /**
+         * Returns the key.
+         *
+         * @return a copy of the key bytes.
+         */
+        public byte[] getKey() {
+            return key.clone();
+        }
+
+        /**
+         * Returns the estimated count of the key when the heavy hitters were listed.
+         *
+         * @return the estimated count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return new String(key, StandardCharsets.UTF_8) + "=" + count;
+        }
+    }
+}
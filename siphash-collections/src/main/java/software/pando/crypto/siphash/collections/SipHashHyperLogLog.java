@@ -0,0 +1,639 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A thread-safe HyperLogLog sketch that estimates the number of distinct items added to it, such as distinct users or
+ * IP addresses. Items are hashed with a keyed SipHash, so an attacker cannot craft items that all land in the same
+ * register or that have unusually long runs of zeros, which would skew the estimate of an unkeyed sketch.
+ * <p>
+ * A sketch of precision p has 2<sup>p</sup> registers and a standard error of about {@code 1.04 / sqrt(2^p)}. It
+ * starts in a sparse representation, a small hash table of the registers that have been set, and switches to a dense
+ * array of 6-bit registers packed ten to a {@code long} once that would be smaller. Both representations are updated
+ * lock-free with compare-and-set, and switching representation does not block other threads. Cardinality is estimated
+ * with Ertl's improved estimator, which is accurate across the whole range without empirical bias correction tables.
+ * <p>
+ * Sketches created with the same key and precision can be merged, from any number of threads at once, and
+ * {@link #union(List)} merges large numbers of sketches in parallel on the common fork-join pool.
+ * {@link #toByteArray()} produces a compact serialised form: the sparse form costs a few bytes per register set, and
+ * the dense form is six bits per register.
+ */
+public final class SipHashHyperLogLog {
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+    private static final int REGISTERS_PER_WORD = 10;
+    private static final int REGISTER_BITS = 6;
+    private static final long REGISTER_MASK = (1L << REGISTER_BITS) - 1;
+    private static final int INITIAL_SPARSE_CAPACITY = 16;
+    private static final int MERGE_THRESHOLD = 16;
+
+    private static final byte VERSION = 1;
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+    private static final int HEADER_SIZE = 11;
+
+    private static final AtomicReferenceFieldUpdater<SipHashHyperLogLog, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(SipHashHyperLogLog.class, Object.class, "state");
+
+    private final SipHash sipHash;
+    private final int precision;
+    private final long keyCheck;
+    private final int maxSparseCapacity;
+
+    /**
+     * Either a {@link Sparse} table or a dense {@link AtomicLongArray} of packed registers.
+     */
+    private volatile Object state;
+
+    /**
+     * Creates an empty sketch using the per-process random key.
+     *
+     * @param precision the number of bits of the hash used to select a register, between 4 and 18.
+     * @throws IllegalArgumentException if the precision is out of range.
+     */
+    public SipHashHyperLogLog(final int precision) {
+        this(RandomKeys.processSipHash(), precision);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 64-bit tags.
+     * @param precision the number of bits of the hash used to select a register, between 4 and 18.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 64-bit tags, or the precision is out of
+     * range.
+     */
+    public SipHashHyperLogLog(final SipHash sipHash, final int precision) {
+        if (sipHash.getMacTagLength() != 64) {
+            throw new IllegalArgumentException("SipHash instance must produce 64-bit tags");
+        }
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid precision: " + precision);
+        }
+        this.sipHash = sipHash;
+        this.precision = precision;
+        this.keyCheck = sipHash.hash64("SipHashHyperLogLog key check");
+        // A sparse table of 4-byte slots at 3/4 load is smaller than the 6-bit dense registers up to 1/8 of the
+        // register count
+        this.maxSparseCapacity = (1 << precision) / 8;
+        this.state = maxSparseCapacity >= INITIAL_SPARSE_CAPACITY ? new Sparse(INITIAL_SPARSE_CAPACITY) : newDense();
+    }
+
+    /**
+     * Adds an item to the sketch.
+     *
+     * @param item the item.
+     */
+    public void add(final byte[] item) {
+        addHash(sipHash.hash64(item, 0, item.length));
+    }
+
+    /**
+     * Adds the item given by a range of a byte array to the sketch.
+     *
+     * @param item the array containing the item.
+     * @param offset the offset of the item in the array.
+     * @param length the length of the item.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public void add(final byte[] item, final int offset, final int length) {
+        addHash(sipHash.hash64(item, offset, length));
+    }
+
+    /**
+     * Adds the UTF-8 encoding of the given characters to the sketch.
+     *
+     * @param item the item.
+     */
+    public void add(final CharSequence item) {
+        addHash(sipHash.hash64(item));
+    }
+
+    /**
+     * Adds a {@code long} item, such as a user ID, to the sketch. This is the same as adding its 8-byte little-endian
+     * encoding.
+     *
+     * @param item the item.
+     */
+    public void addLong(final long item) {
+        addHash(sipHash.hashLong(item));
+    }
+
+    /**
+     * Estimates the number of distinct items added to the sketch. If other threads are adding items at the same time,
+     * the estimate may or may not include them.
+     *
+     * @return the estimated cardinality.
+     */
+    public long cardinality() {
+        final int q = 64 - precision;
+        final int[] histogram = new int[q + 2];
+        final Object current = state;
+        final int m = 1 << precision;
+        if (current instanceof Sparse) {
+            final AtomicIntegerArray slots = ((Sparse) current).slots;
+            int set = 0;
+            for (int i = 0; i < slots.length(); ++i) {
+                final int entry = slots.get(i);
+                if (entry != 0) {
+                    histogram[entry & (int) REGISTER_MASK]++;
+                    set++;
+                }
+            }
+            histogram[0] = m - set;
+        } else {
+            final AtomicLongArray registers = (AtomicLongArray) current;
+            for (int i = 0; i < m; ++i) {
+                histogram[register(registers, i)]++;
+            }
+        }
+
+        // Ertl, "New cardinality estimation algorithms for HyperLogLog sketches", 2017, algorithm 6
+        double z = m * tau(1.0 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; --k) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(m / (2.0 * Math.log(2)) * m / z);
+    }
+
+    /**
+     * Merges another sketch into this one, so that this sketch estimates the cardinality of the union of the items
+     * added to both. Other threads may add items to either sketch, or merge other sketches into this one, at the same
+     * time.
+     *
+     * @param other the sketch to merge into this one. It is not modified.
+     * @throws IllegalArgumentException if the other sketch was created with a different key or precision.
+     */
+    public void merge(final SipHashHyperLogLog other) {
+        if (other.precision != precision || other.keyCheck != keyCheck) {
+            throw new IllegalArgumentException("Sketches must have the same key and precision to be merged");
+        }
+        final Object source = other.state;
+        if (source instanceof Sparse) {
+            final AtomicIntegerArray slots = ((Sparse) source).slots;
+            for (int i = 0; i < slots.length(); ++i) {
+                final int entry = slots.get(i);
+                if (entry != 0) {
+                    update(entry >>> REGISTER_BITS, entry & (int) REGISTER_MASK);
+                }
+            }
+            return;
+        }
+        final AtomicLongArray registers = toDense();
+        final AtomicLongArray from = (AtomicLongArray) source;
+        for (int i = 0; i < from.length(); ++i) {
+            final long word = from.get(i);
+            long current;
+            long merged;
+            do {
+                current = registers.get(i);
+                merged = maxRegisters(current, word);
+            } while (merged != current && !registers.compareAndSet(i, current, merged));
+        }
+    }
+
+    /**
+     * Returns a new sketch that is the union of all of the given sketches, merging them in parallel on the common
+     * fork-join pool. None of the given sketches are modified.
+     *
+     * @param sketches the sketches to merge. Must all have the same key and precision.
+     * @return the union of the sketches.
+     * @throws IllegalArgumentException if the list is empty, or the sketches do not all have the same key and
+     * precision.
+     */
+    public static SipHashHyperLogLog union(final List<SipHashHyperLogLog> sketches) {
+        if (sketches.isEmpty()) {
+            throw new IllegalArgumentException("No sketches to merge");
+        }
+        return ForkJoinPool.commonPool().invoke(new UnionTask(sketches, 0, sketches.size()));
+    }
+
+    /**
+     * Returns the compact serialised form of this sketch, which can be read back with
+     * {@link #fromByteArray(SipHash, byte[])}. The form records a check value derived from the key, so that it cannot
+     * be read back with a different key.
+     *
+     * @return the serialised sketch.
+     */
+    public byte[] toByteArray() {
+        final Object current = state;
+        if (current instanceof Sparse) {
+            final AtomicIntegerArray slots = ((Sparse) current).slots;
+            final int[] entries = new int[slots.length()];
+            int count = 0;
+            for (int i = 0; i < slots.length(); ++i) {
+                final int entry = slots.get(i);
+                if (entry != 0) {
+                    entries[count++] = entry;
+                }
+            }
+            Arrays.sort(entries, 0, count);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + 5 + count * 2);
+            out.write(header(SPARSE), 0, HEADER_SIZE);
+            writeVarInt(out, count);
+            int previous = 0;
+            for (int i = 0; i < count; ++i) {
+                writeVarInt(out, entries[i] - previous);
+                previous = entries[i];
+            }
+            return out.toByteArray();
+        }
+
+        final AtomicLongArray registers = (AtomicLongArray) current;
+        final int m = 1 << precision;
+        final byte[] out = Arrays.copyOf(header(DENSE), HEADER_SIZE + m * REGISTER_BITS / 8);
+        long bits = 0;
+        int bitCount = 0;
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < m; ++i) {
+            bits |= (long) register(registers, i) << bitCount;
+            bitCount += REGISTER_BITS;
+            while (bitCount >= 8) {
+                out[offset++] = (byte) bits;
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reads a sketch from its serialised form.
+     *
+     * @param sipHash the SipHash algorithm and key that the sketch was created with.
+     * @param data the serialised sketch, as returned by {@link #toByteArray()}.
+     * @return the sketch.
+     * @throws IllegalArgumentException if the data is not a valid serialised sketch, or the sketch was created with a
+     * different key.
+     */
+    public static SipHashHyperLogLog fromByteArray(final SipHash sipHash, final byte[] data) {
+        if (data.length < HEADER_SIZE || data[0] != VERSION) {
+            throw new IllegalArgumentException("Not a serialised SipHashHyperLogLog");
+        }
+        final SipHashHyperLogLog sketch = new SipHashHyperLogLog(sipHash, data[1]);
+        final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getLong(3) != sketch.keyCheck) {
+            throw new IllegalArgumentException("Sketch was created with a different key");
+        }
+        buffer.position(HEADER_SIZE);
+        final int m = 1 << sketch.precision;
+        final int maxRegister = 64 - sketch.precision + 1;
+        if (data[2] == SPARSE) {
+            final int count = readVarInt(buffer);
+            int entry = 0;
+            for (int i = 0; i < count; ++i) {
+                entry += readVarInt(buffer);
+                final int index = entry >>> REGISTER_BITS;
+                final int value = entry & (int) REGISTER_MASK;
+                if (index >= m || value == 0 || value > maxRegister) {
+                    throw new IllegalArgumentException("Corrupt sketch");
+                }
+                sketch.update(index, value);
+            }
+        } else if (data[2] == DENSE && data.length == HEADER_SIZE + m * REGISTER_BITS / 8) {
+            final AtomicLongArray registers = sketch.toDense();
+            long bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < m; ++i) {
+                while (bitCount < REGISTER_BITS) {
+                    bits |= (buffer.get() & 0xFFL) << bitCount;
+                    bitCount += 8;
+                }
+                final int value = (int) (bits & REGISTER_MASK);
+                if (value > maxRegister) {
+                    throw new IllegalArgumentException("Corrupt sketch");
+                }
+                updateDense(registers, i, value);
+                bits >>>= REGISTER_BITS;
+                bitCount -= REGISTER_BITS;
+            }
+        } else {
+            throw new IllegalArgumentException("Corrupt sketch");
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Corrupt sketch");
+        }
+        return sketch;
+    }
+
+    /**
+     * Returns the precision of the sketch.
+     *
+     * @return the number of bits of the hash used to select a register.
+     */
+    public int precision() {
+        return precision;
+    }
+
+    /**
+     * Indicates whether the sketch is currently using the sparse representation.
+     *
+     * @return true if the sketch is sparse.
+     */
+    public boolean isSparse() {
+        return state instanceof Sparse;
+    }
+
+    private void addHash(final long hash) {
+        // The register value is the position of the first set bit after the index bits, with a sentinel bit so that it
+        // is at most 65 - precision
+        update((int) (hash >>> (64 - precision)),
+                Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+    }
+
+    /**
+     * Raises a register to at least the given value. If the representation is replaced while this thread is updating
+     * the old one, the update is repeated on the new representation, as the thread that replaced it may already have
+     * copied the old registers.
+     */
+    private void update(final int index, final int value) {
+        while (true) {
+            final Object current = state;
+            if (current instanceof Sparse) {
+                if (!((Sparse) current).update(index, value)) {
+                    grow((Sparse) current);
+                    continue;
+                }
+            } else {
+                updateDense((AtomicLongArray) current, index, value);
+            }
+            if (state == current) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces a full sparse table with a sparse table of twice the size, or with dense registers once a larger sparse
+     * table would no longer be smaller.
+     */
+    private void grow(final Sparse full) {
+        final Object replacement = full.slots.length() * 2 <= maxSparseCapacity ? new Sparse(full.slots.length() * 2)
+                : newDense();
+        copy(full, replacement);
+        if (STATE.compareAndSet(this, full, replacement)) {
+            // Threads that updated the old table after the copy above, but saw it still installed afterwards, have
+            // not repeated their update, so copy it again now that no new updates can be missed
+            final AtomicIntegerArray slots = full.slots;
+            for (int i = 0; i < slots.length(); ++i) {
+                final int entry = slots.get(i);
+                if (entry != 0) {
+                    update(entry >>> REGISTER_BITS, entry & (int) REGISTER_MASK);
+                }
+            }
+        }
+    }
+
+    private AtomicLongArray toDense() {
+        while (true) {
+            final Object current = state;
+            if (current instanceof AtomicLongArray) {
+                return (AtomicLongArray) current;
+            }
+            final AtomicLongArray dense = newDense();
+            copy((Sparse) current, dense);
+            if (STATE.compareAndSet(this, current, dense)) {
+                final AtomicIntegerArray slots = ((Sparse) current).slots;
+                for (int i = 0; i < slots.length(); ++i) {
+                    final int entry = slots.get(i);
+                    if (entry != 0) {
+                        updateDense(dense, entry >>> REGISTER_BITS, entry & (int) REGISTER_MASK);
+                    }
+                }
+                return dense;
+            }
+        }
+    }
+
+    private static void copy(final Sparse from, final Object to) {
+        final AtomicIntegerArray slots = from.slots;
+        for (int i = 0; i < slots.length(); ++i) {
+            final int entry = slots.get(i);
+            if (entry == 0) {
+                continue;
+            }
+            if (to instanceof Sparse) {
+                ((Sparse) to).update(entry >>> REGISTER_BITS, entry & (int) REGISTER_MASK);
+            } else {
+                updateDense((AtomicLongArray) to, entry >>> REGISTER_BITS, entry & (int) REGISTER_MASK);
+            }
+        }
+    }
+
+    private AtomicLongArray newDense() {
+        return new AtomicLongArray(((1 << precision) + REGISTERS_PER_WORD - 1) / REGISTERS_PER_WORD);
+    }
+
+    private static int register(final AtomicLongArray registers, final int index) {
+        return (int) (registers.get(index / REGISTERS_PER_WORD) >>> ((index % REGISTERS_PER_WORD) * REGISTER_BITS)
+                & REGISTER_MASK);
+    }
+
+    private static void updateDense(final AtomicLongArray registers, final int index, final int value) {
+        final int word = index / REGISTERS_PER_WORD;
+        final int shift = (index % REGISTERS_PER_WORD) * REGISTER_BITS;
+        while (true) {
+            final long current = registers.get(word);
+            if (((current >>> shift) & REGISTER_MASK) >= value) {
+                return;
+            }
+            final long updated = (current & ~(REGISTER_MASK << shift)) | ((long) value << shift);
+            if (registers.compareAndSet(word, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the register-wise maximum of two words of packed registers.
+     */
+    static long maxRegisters(final long a, final long b) {
+        if ((a | b) == a) {
+            return a;
+        }
+        long result = 0;
+        for (int shift = 0; shift < REGISTERS_PER_WORD * REGISTER_BITS; shift += REGISTER_BITS) {
+            result |= Math.max(a & (REGISTER_MASK << shift), b & (REGISTER_MASK << shift));
+        }
+        return result;
+    }
+
+    private static double sigma(double x) {
+        if (x == 1.0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1.0;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0.0 || x == 1.0) {
+            return 0.0;
+        }
+        double y = 1.0;
+        double z = 1.0 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1.0 - x) * (1.0 - x) * y;
+        } while (z != previous);
+        return z / 3.0;
+    }
+
+    private byte[] header(final byte format) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(VERSION).put((byte) precision).put(format).putLong(keyCheck);
+        return header.array();
+    }
+
+    private static void writeVarInt(final ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(final ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Corrupt sketch");
+            }
+            final int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt sketch");
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashHyperLogLog{precision=" + precision + ", sparse=" + isSparse() + "}";
+    }
+
+    /**
+     * A lock-free open-addressing table of the registers that have been set. Each slot holds the register index and
+     * value as {@code index << 6 | value}, or zero if it is empty. The index bits come straight from the hash, so they
+     * are used directly as the slot number.
+     */
+    private static final class Sparse {
+        final AtomicIntegerArray slots;
+        final AtomicInteger size = new AtomicInteger();
+        final int limit;
+
+        Sparse(final int capacity) {
+            this.slots = new AtomicIntegerArray(capacity);
+            this.limit = capacity * 3 / 4;
+        }
+
+        /**
+         * Raises the register to at least the given value.
+         *
+         * @return false if the register is not in the table and the table is full.
+         */
+        boolean update(final int index, final int value) {
+            final int mask = slots.length() - 1;
+            final int entry = index << REGISTER_BITS | value;
+            for (int probe = 0, slot = index & mask; probe <= mask; ++probe, slot = (slot + 1) & mask) {
+                final int current = slots.get(slot);
+                if (current == 0) {
+                    if (size.get() >= limit) {
+                        return false;
+                    }
+                    if (slots.compareAndSet(slot, 0, entry)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    // Lost a race for this slot, so look at it again
+                    slot = (slot - 1) & mask;
+                    --probe;
+                } else if (current >>> REGISTER_BITS == index) {
+                    if ((current & (int) REGISTER_MASK) >= value) {
+                        return true;
+                    }
+                    if (slots.compareAndSet(slot, current, entry)) {
+                        return true;
+                    }
+                    slot = (slot - 1) & mask;
+                    --probe;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Merges a range of sketches by splitting it in half until it is small enough to merge directly.
+     */
+    private static final class UnionTask extends RecursiveTask<SipHashHyperLogLog> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<SipHashHyperLogLog> sketches;
+        private final int from;
+        private final int to;
+
+        UnionTask(final List<SipHashHyperLogLog> sketches, final int from, final int to) {
+            this.sketches = sketches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SipHashHyperLogLog compute() {
+            if (to - from <= MERGE_THRESHOLD) {
+                final SipHashHyperLogLog first = sketches.get(from);
+                final SipHashHyperLogLog result = new SipHashHyperLogLog(first.sipHash, first.precision);
+                for (int i = from; i < to; ++i) {
+                    result.merge(sketches.get(i));
+                }
+                return result;
+            }
+            final int middle = (from + to) >>> 1;
+            final UnionTask left = new UnionTask(sketches, from, middle);
+            left.fork();
+            final SipHashHyperLogLog right = new UnionTask(sketches, middle, to).compute();
+            right.merge(left.join());
+            return right;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.collections;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.crypto.SecretKey;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A bounded, concurrent registry of SipHash keys for services that hold a separate key for each tenant, such as
+ * per-tenant hash table keys or message authentication keys, and look one up for every message. Keys are identified by
+ * a key ID, such as a tenant ID or a JWK {@code kid}, and are fetched from a key source the first time they are used.
+ * The key material is read once, and the SipHash instance holding the precomputed initial state is cached, so hashing
+ * with a cached key costs one lock-free lookup and does not allocate any memory.
+ * <p>
+ * The keys are held in a {@link SipHashCache} of the given maximum size, so key IDs are indexed by their keyed SipHash
+ * and the least recently and least frequently used keys are evicted once it is full. An evicted key is fetched from
+ * the key source again the next time it is used, so the key source must always return the current key for each ID.
+ * <p>
+ * To rotate a key, update the key source and then call {@link #rotate(CharSequence, SecretKey)}. The new key is used
+ * for all new tags, and the old one is kept as the {@linkplain #previous(CharSequence) previous key} so that tags made
+ * before the rotation can still be verified. The previous key is forgotten if the key ID is evicted.
+ */
+public final class SipHashKeyring {
+    private final int compressionRounds;
+    private final int finalizationRounds;
+    private final Function<? super String, ? extends SecretKey> keySource;
+    // Created once so that lookups of cached keys do not allocate a lambda
+    private final Function<CharSequence, Keys> loader = this::load;
+    private final SipHashCache<Keys> cache;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+
+    /**
+     * Creates a keyring for SipHash-2-4 keys that caches at most the given number of keys.
+     *
+     * @param maximumSize the maximum number of keys to cache.
+     * @param keySource returns the current key for a key ID, or null if the ID is unknown. Keys must be RAW and at
+     * least 128 bits.
+     * @throws IllegalArgumentException if the maximum size is not positive.
+     */
+    public SipHashKeyring(final int maximumSize, final Function<? super String, ? extends SecretKey> keySource) {
+        this(2, 4, maximumSize, keySource);
+    }
+
+    /**
+     * Creates a keyring for keys with the given SipHash parameters, producing 64-bit tags, that caches at most the
+     * given number of keys.
+     *
+     * @param compressionRounds the number of compression rounds. Must be at least 1.
+     * @param finalizationRounds the number of finalization rounds. Must be at least 3.
+     * @param maximumSize the maximum number of keys to cache.
+     * @param keySource returns the current key for a key ID, or null if the ID is unknown. Keys must be RAW and at
+     * least 128 bits.
+     * @throws IllegalArgumentException if any of the parameters are invalid.
+     */
+    public SipHashKeyring(final int compressionRounds, final int finalizationRounds, final int maximumSize,
+            final Function<? super String, ? extends SecretKey> keySource) {
+        if (compressionRounds < 1) {
+            throw new IllegalArgumentException("Must have at least one compression round");
+        }
+        if (finalizationRounds < 3) {
+            throw new IllegalArgumentException("Must have at least three finalization rounds");
+        }
+        if (keySource == null) {
+            throw new NullPointerException("keySource");
+        }
+        this.compressionRounds = compressionRounds;
+        this.finalizationRounds = finalizationRounds;
+        this.keySource = keySource;
+        this.cache = new SipHashCache<>(maximumSize);
+    }
+
+    /**
+     * Returns the SipHash instance for the current key with the given ID, fetching the key from the key source if it
+     * is not cached. This method does not take any locks or allocate any memory if the key is cached.
+     *
+     * @param keyId the key ID.
+     * @return the SipHash instance for the current key.
+     * @throws IllegalArgumentException if the key source does not have a key with the given ID, or the key is invalid.
+     */
+    public SipHash get(final CharSequence keyId) {
+        return keys(keyId).current;
+    }
+
+    /**
+     * Returns the SipHash instance for the key that was replaced by the most recent rotation of the given key ID, for
+     * verifying tags that were made before the rotation. This method does not fetch keys from the key source.
+     *
+     * @param keyId the key ID.
+     * @return the SipHash instance for the previous key, or null if the key has not been rotated since it was cached.
+     */
+    public SipHash previous(final CharSequence keyId) {
+        final Keys keys = cache.get(keyId);
+        return keys == null ? null : keys.previous;
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the input with the current key with the given ID.
+     *
+     * @param keyId the key ID.
+     * @param input the input data.
+     * @return the computed SipHash tag.
+     * @throws IllegalArgumentException if the key source does not have a key with the given ID, or the key is invalid.
+     * @see #get(CharSequence)
+     */
+    public long hash64(final CharSequence keyId, final byte[] input) {
+        return keys(keyId).current.hash64(input, 0, input.length);
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of a range of the input with the current key with the given ID. This method
+     * does not take any locks or allocate any memory if the key is cached.
+     *
+     * @param keyId the key ID.
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the computed SipHash tag.
+     * @throws IllegalArgumentException if the key source does not have a key with the given ID, or the key is invalid.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     */
+    public long hash64(final CharSequence keyId, final byte[] input, final int offset, final int length) {
+        return keys(keyId).current.hash64(input, offset, length);
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the UTF-8 encoding of the input with the current key with the given ID. This
+     * method does not take any locks or allocate any memory if the key is cached.
+     *
+     * @param keyId the key ID.
+     * @param input the characters to hash.
+     * @return the computed SipHash tag.
+     * @throws IllegalArgumentException if the key source does not have a key with the given ID, or the key is invalid.
+     */
+    public long hash64(final CharSequence keyId, final CharSequence input) {
+        return keys(keyId).current.hash64(input);
+    }
+
+    /**
+     * Replaces the key with the given ID, keeping the old key as the previous key. The key source should already
+     * return the new key, as it is used again if the key ID is evicted. The key material is read once.
+     *
+     * @param keyId the key ID.
+     * @param newKey the new key. Must be RAW and at least 128 bits.
+     * @throws IllegalArgumentException if the new key is invalid.
+     */
+    public void rotate(final CharSequence keyId, final SecretKey newKey) {
+        final SipHash current = SipHash.getInstance(compressionRounds, finalizationRounds, newKey);
+        synchronized (this) {
+            final Keys old = cache.get(keyId);
+            cache.put(keyId, new Keys(current, old == null ? null : old.current));
+        }
+        rotations.increment();
+    }
+
+    /**
+     * Removes the key with the given ID, and any previous key, from the cache. The key will be fetched from the key
+     * source again the next time it is used.
+     *
+     * @param keyId the key ID.
+     */
+    public void invalidate(final CharSequence keyId) {
+        cache.invalidate(keyId);
+    }
+
+    /**
+     * Returns the number of cached keys. This is a snapshot that may be out of date by the time it returns.
+     *
+     * @return the number of cached keys.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of lookups that found a cached key.
+     *
+     * @return the number of hits.
+     */
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached key.
+     *
+     * @return the number of misses.
+     */
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a cached key, or 1 if there have been no lookups.
+     *
+     * @return the hit rate.
+     */
+    public double hitRate() {
+        return cache.hitRate();
+    }
+
+    /**
+     * Returns the number of keys that have been evicted to make room for other keys.
+     *
+     * @return the number of evictions.
+     */
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * Returns the number of times a key has been fetched from the key source.
+     *
+     * @return the number of loads.
+     */
+    public long loadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the number of times a key has been rotated.
+     *
+     * @return the number of rotations.
+     */
+    public long rotationCount() {
+        return rotations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashKeyring{size=" + size() + ", hitRate=" + hitRate() + ", evictions=" + evictionCount() + "}";
+    }
+
+    private Keys keys(final CharSequence keyId) {
+        final Keys keys = cache.get(keyId, loader);
+        if (keys == null) {
+            throw new IllegalArgumentException("Unknown key ID: " + keyId);
+        }
+        return keys;
+    }
+
+    private Keys load(final CharSequence keyId) {
+        loads.increment();
+        final SecretKey key = keySource.apply(keyId.toString());
+        return key == null ? null : new Keys(SipHash.getInstance(compressionRounds, finalizationRounds, key), null);
+    }
+
+    /**
+     * The current and previous keys for a key ID.
+     */
+    static final class Keys {
+        final SipHash current;
+        final SipHash previous;
+
+        Keys(final SipHash current, final SipHash previous) {
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+}
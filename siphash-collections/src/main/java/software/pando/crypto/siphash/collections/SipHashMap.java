@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A hash map from byte strings to values that is resistant to hash-flooding attacks. Keys are hashed with a keyed
+ * SipHash instance, so an attacker who does not know the key cannot construct a set of colliding keys, unlike with
+ * {@link java.util.HashMap} and {@link String#hashCode()}. By default every map uses SipHash-2-4 with a key that is
+ * randomly generated once per process; use {@link #withRandomKey(int)} for a key per map, or supply a configured
+ * {@link SipHash} instance.
+ * <p>
+ * Keys are arbitrary byte strings. A {@link CharSequence} key is the same as the byte string of its UTF-8 encoding, so
+ * a key inserted as a string can be looked up by the raw bytes and vice versa. Keys are copied into a single flat
+ * array owned by the map, and lookups by a range of a byte array or by a {@code CharSequence} do not allocate any
+ * memory. The map uses open addressing with linear probing and stores the full 64-bit hash of each key, so that most
+ * non-matching keys are rejected without comparing any bytes. The table is kept at most half full.
+ * <p>
+ * {@link #maxProbeLength()} and {@link #resizeCount()} report how well the table is performing, for monitoring.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <V> the type of values in the map.
+ */
+public final class SipHashMap<V> {
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final SipHash sipHash;
+
+    // The slots of the table: the hash of the key, the location of its bytes in keyData, and the value
+    private long[] hashes;
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeCount;
+
+    // The bytes of all keys, and how many of those bytes belong to keys that have since been removed
+    private byte[] keyData;
+    private int keyDataSize;
+    private int garbage;
+
+    /**
+     * Creates an empty map using the per-process random key.
+     */
+    public SipHashMap() {
+        this(RandomKeys.processSipHash(), MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Creates an empty map using the per-process random key, with room for the given number of entries before it
+     * needs to be resized.
+     *
+     * @param expectedSize the expected number of entries.
+     * @throws IllegalArgumentException if the expected size is negative or too large.
+     */
+    public SipHashMap(final int expectedSize) {
+        this(RandomKeys.processSipHash(), expectedSize);
+    }
+
+    /**
+     * Creates an empty map that hashes keys with the given SipHash instance, with room for the given number of entries
+     * before it needs to be resized.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 64-bit tags.
+     * @param expectedSize the expected number of entries.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 64-bit tags, or the expected size is
+     * negative or too large.
+     */
+    public SipHashMap(final SipHash sipHash, final int expectedSize) {
+        if (sipHash.getMacTagLength() != 64) {
+            throw new IllegalArgumentException("SipHash instance must produce 64-bit tags");
+        }
+        if (expectedSize < 0 || expectedSize > MAX_CAPACITY / 2) {
+            throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+        }
+        this.sipHash = sipHash;
+        this.keyData = new byte[64];
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1));
+    }
+
+    /**
+     * Creates an empty map with its own freshly generated random key.
+     *
+     * @param expectedSize the expected number of entries.
+     * @param <V> the type of values in the map.
+     * @return the new map.
+     * @throws IllegalArgumentException if the expected size is negative or too large.
+     */
+    public static <V> SipHashMap<V> withRandomKey(final int expectedSize) {
+        return new SipHashMap<>(RandomKeys.newSipHash(), expectedSize);
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Indicates whether the map is empty.
+     *
+     * @return true if the map has no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     *
+     * @param key the key.
+     * @return the value, or null if there is no entry for the key.
+     */
+    public V get(final byte[] key) {
+        return get(key, 0, key.length);
+    }
+
+    /**
+     * Returns the value associated with the key given by a range of a byte array. This method does not allocate any
+     * memory.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return the value, or null if there is no entry for the key.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final byte[] key, final int offset, final int length) {
+        final int slot = find(sipHash.hash64(key, offset, length), key, offset, length);
+        return slot == EMPTY ? null : (V) values[slot];
+    }
+
+    /**
+     * Returns the value associated with the UTF-8 encoding of the given key. This method does not allocate any
+     * memory.
+     *
+     * @param key the key.
+     * @return the value, or null if there is no entry for the key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final CharSequence key) {
+        final int slot = find(sipHash.hash64(key), key);
+        return slot == EMPTY ? null : (V) values[slot];
+    }
+
+    /**
+     * Indicates whether the map contains an entry for the given key.
+     *
+     * @param key the key.
+     * @return true if there is an entry for the key.
+     */
+    public boolean containsKey(final byte[] key) {
+        return containsKey(key, 0, key.length);
+    }
+
+    /**
+     * Indicates whether the map contains an entry for the key given by a range of a byte array.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return true if there is an entry for the key.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public boolean containsKey(final byte[] key, final int offset, final int length) {
+        return find(sipHash.hash64(key, offset, length), key, offset, length) != EMPTY;
+    }
+
+    /**
+     * Indicates whether the map contains an entry for the UTF-8 encoding of the given key.
+     *
+     * @param key the key.
+     * @return true if there is an entry for the key.
+     */
+    public boolean containsKey(final CharSequence key) {
+        return find(sipHash.hash64(key), key) != EMPTY;
+    }
+
+    /**
+     * Associates the given value with the given key. The key is copied into the map.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the value previously associated with the key, or null if there was none.
+     */
+    public V put(final byte[] key, final V value) {
+        return put(key, 0, key.length, value);
+    }
+
+    /**
+     * Associates the given value with the key given by a range of a byte array. The key is copied into the map.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @param value the value.
+     * @return the value previously associated with the key, or null if there was none.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public V put(final byte[] key, final int offset, final int length, final V value) {
+        final long hash = sipHash.hash64(key, offset, length);
+        final int slot = find(hash, key, offset, length);
+        if (slot != EMPTY) {
+            return replace(slot, value);
+        }
+
+        final int keyOffset = reserveKeyData(length);
+        System.arraycopy(key, offset, keyData, keyOffset, length);
+        insert(hash, keyOffset, length, value);
+        return null;
+    }
+
+    /**
+     * Associates the given value with the UTF-8 encoding of the given key. The key is encoded directly into the map.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the value previously associated with the key, or null if there was none.
+     */
+    public V put(final CharSequence key, final V value) {
+        final long hash = sipHash.hash64(key);
+        final int slot = find(hash, key);
+        if (slot != EMPTY) {
+            return replace(slot, value);
+        }
+
+        final int length = Utf8.encodedLength(key);
+        final int keyOffset = reserveKeyData(length);
+        Utf8.encode(key, keyData, keyOffset);
+        insert(hash, keyOffset, length, value);
+        return null;
+    }
+
+    /**
+     * Removes the entry for the given key, if there is one.
+     *
+     * @param key the key.
+     * @return the value that was associated with the key, or null if there was none.
+     */
+    public V remove(final byte[] key) {
+        return remove(key, 0, key.length);
+    }
+
+    /**
+     * Removes the entry for the key given by a range of a byte array, if there is one.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return the value that was associated with the key, or null if there was none.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public V remove(final byte[] key, final int offset, final int length) {
+        return removeSlot(find(sipHash.hash64(key, offset, length), key, offset, length));
+    }
+
+    /**
+     * Removes the entry for the UTF-8 encoding of the given key, if there is one.
+     *
+     * @param key the key.
+     * @return the value that was associated with the key, or null if there was none.
+     */
+    public V remove(final CharSequence key) {
+        return removeSlot(find(sipHash.hash64(key), key));
+    }
+
+    /**
+     * Removes all entries from the map. The capacity of the map is not reduced.
+     */
+    public void clear() {
+        Arrays.fill(keyLengths, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+        keyDataSize = 0;
+        garbage = 0;
+    }
+
+    /**
+     * Calls the given action for each entry in the map, in no particular order. Each key is passed as a new copy of
+     * its bytes.
+     *
+     * @param action the action to call for each entry.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final BiConsumer<byte[], ? super V> action) {
+        for (int slot = 0; slot < keyLengths.length; ++slot) {
+            if (keyLengths[slot] != EMPTY) {
+                final byte[] key = Arrays.copyOfRange(keyData, keyOffsets[slot], keyOffsets[slot] + keyLengths[slot]);
+                action.accept(key, (V) values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots in the hash table.
+     *
+     * @return the current capacity.
+     */
+    public int capacity() {
+        return keyLengths.length;
+    }
+
+    /**
+     * Returns the number of times the hash table has been resized since the map was created.
+     *
+     * @return the number of resizes.
+     */
+    public int resizeCount() {
+        return resizeCount;
+    }
+
+    /**
+     * Returns the largest number of slots that must be examined to find any key currently in the map. This is 1 if
+     * every key is in its ideal slot, and 0 if the map is empty. Without hash collisions this stays small; a value
+     * that grows with the size of the map indicates that keys are colliding. This scans the whole table.
+     *
+     * @return the maximum probe length.
+     */
+    public int maxProbeLength() {
+        int max = 0;
+        for (int slot = 0; slot < keyLengths.length; ++slot) {
+            if (keyLengths[slot] != EMPTY) {
+                max = Math.max(max, ((slot - (int) hashes[slot]) & mask) + 1);
+            }
+        }
+        return max;
+    }
+
+    private int find(final long hash, final byte[] key, final int offset, final int length) {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            final int keyLength = keyLengths[slot];
+            if (keyLength == EMPTY) {
+                return EMPTY;
+            }
+            if (hashes[slot] == hash && keyLength == length && equal(keyOffsets[slot], key, offset, length)) {
+                return slot;
+            }
+        }
+    }
+
+    private int find(final long hash, final CharSequence key) {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            final int keyLength = keyLengths[slot];
+            if (keyLength == EMPTY) {
+                return EMPTY;
+            }
+            if (hashes[slot] == hash && Utf8.equals(key, keyData, keyOffsets[slot], keyLength)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean equal(final int keyOffset, final byte[] key, final int offset, final int length) {
+        for (int i = 0; i < length; ++i) {
+            if (keyData[keyOffset + i] != key[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V replace(final int slot, final V value) {
+        final V old = (V) values[slot];
+        values[slot] = value;
+        return old;
+    }
+
+    private void insert(final long hash, final int keyOffset, final int keyLength, final V value) {
+        if (size + 1 > keyLengths.length / 2) {
+            resize();
+        }
+        int slot = (int) hash & mask;
+        while (keyLengths[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        keyOffsets[slot] = keyOffset;
+        keyLengths[slot] = keyLength;
+        values[slot] = value;
+        ++size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeSlot(int slot) {
+        if (slot == EMPTY) {
+            return null;
+        }
+        final V old = (V) values[slot];
+        garbage += keyLengths[slot];
+        --size;
+
+        // Backward-shift deletion: move later entries in the same probe sequence into the hole, so that no tombstones
+        // are needed
+        for (int next = (slot + 1) & mask; keyLengths[next] != EMPTY; next = (next + 1) & mask) {
+            final int ideal = (int) hashes[next] & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                hashes[slot] = hashes[next];
+                keyOffsets[slot] = keyOffsets[next];
+                keyLengths[slot] = keyLengths[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        keyLengths[slot] = EMPTY;
+        values[slot] = null;
+        return old;
+    }
+
+    /**
+     * Reserves space for a key of the given length at the end of the key data, compacting or growing the array if
+     * necessary, and returns its offset.
+     */
+    private int reserveKeyData(final int length) {
+        if (keyData.length - keyDataSize < length) {
+            if (garbage >= keyDataSize / 2 && keyData.length - keyDataSize + garbage >= length) {
+                compactKeyData(keyData.length);
+            } else {
+                final long required = (long) keyDataSize - garbage + length;
+                if (required > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Key data too large");
+                }
+                compactKeyData((int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, keyData.length * 2L)));
+            }
+        }
+        final int offset = keyDataSize;
+        keyDataSize += length;
+        return offset;
+    }
+
+    private void compactKeyData(final int newLength) {
+        final byte[] compacted = new byte[newLength];
+        int offset = 0;
+        for (int slot = 0; slot < keyLengths.length; ++slot) {
+            if (keyLengths[slot] != EMPTY) {
+                System.arraycopy(keyData, keyOffsets[slot], compacted, offset, keyLengths[slot]);
+                keyOffsets[slot] = offset;
+                offset += keyLengths[slot];
+            }
+        }
+        keyData = compacted;
+        keyDataSize = offset;
+        garbage = 0;
+    }
+
+    private void resize() {
+        if (keyLengths.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Map is full");
+        }
+        final long[] oldHashes = hashes;
+        final int[] oldKeyOffsets = keyOffsets;
+        final int[] oldKeyLengths = keyLengths;
+        final Object[] oldValues = values;
+
+        // The full hash of each key is stored, so entries can be moved without rehashing their keys
+        allocate(oldKeyLengths.length * 2);
+        for (int i = 0; i < oldKeyLengths.length; ++i) {
+            if (oldKeyLengths[i] != EMPTY) {
+                int slot = (int) oldHashes[i] & mask;
+                while (keyLengths[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                keyOffsets[slot] = oldKeyOffsets[i];
+                keyLengths[slot] = oldKeyLengths[i];
+                values[slot] = oldValues[i];
+            }
+        }
+        ++resizeCount;
+    }
+
+    private void allocate(final int capacity) {
+        hashes = new long[capacity];
+        keyOffsets = new int[capacity];
+        keyLengths = new int[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keyLengths, EMPTY);
+        mask = capacity - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashMap{size=" + size + ", capacity=" + keyLengths.length + "}";
+    }
+}
@@ -0,0 +1,678 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * A minimal perfect hash function for a static set of keys: it maps each of the n keys it was built from to a distinct
+ * index between 0 and n - 1, so that the keys' values can be kept in a plain array. Lookups of keys that are not in
+ * the set return an arbitrary index, so store a fingerprint or the key itself alongside each value if non-members must
+ * be detected.
+ * <p>
+ * The construction follows PTHash. Keys are hashed once with SipHash-2-4 under a random seed key, and split by the top
+ * bits of the hash into partitions of a few thousand keys, which are built in parallel on the common fork-join pool.
+ * Within a partition the keys are grouped into buckets, and each bucket is given the smallest "pilot" value that sends
+ * all of its keys to free slots. Pilots are bit-packed with the smallest width that fits the partition, giving around
+ * four bits per key in total.
+ * <p>
+ * A lookup costs one SipHash evaluation, a read of the partition table, and a read of the bucket's pilot (plus a read
+ * of a small remapping table for 2% of keys). The function is held in a single little-endian buffer that can be written
+ * to a file and memory-mapped with {@link #open(Path)}, so even a function for 10<sup>8</sup> keys is ready to use
+ * immediately.
+ */
+public final class SipHashPerfectHash {
+    private static final int MAGIC = 0x48504853; // "SHPH" little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int PARTITION_ENTRY_SIZE = 16;
+    private static final int TARGET_PARTITION_SIZE = 4096;
+    private static final int MAX_PARTITION_BITS = 16;
+    private static final int MAX_ATTEMPTS = 4;
+
+    /** Keys whose low 16 hash bits are below this (60%) go to the first 30% of buckets. */
+    private static final int DENSE_BUCKET_THRESHOLD = 39322;
+
+    private final ByteBuffer buffer;
+    private final SipHash sipHash;
+    private final long size;
+    private final int partitionBits;
+    private final int dataOffset;
+
+    private SipHashPerfectHash(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a SipHash perfect hash function");
+        }
+        this.size = buffer.getLong(8);
+        this.partitionBits = buffer.getInt(16);
+        if (size < 0 || partitionBits < 0 || partitionBits > MAX_PARTITION_BITS) {
+            throw new IllegalArgumentException("Corrupt perfect hash function header");
+        }
+        final byte[] key = new byte[16];
+        for (int i = 0; i < 16; ++i) {
+            key[i] = buffer.get(24 + i);
+        }
+        this.sipHash = SipHash.getInstance(new SecretKeySpec(key, "RAW"));
+        this.dataOffset = HEADER_SIZE + ((1 << partitionBits) + 1) * PARTITION_ENTRY_SIZE;
+        final long dataWords = buffer.getLong(40);
+        if (dataWords < 1 || buffer.capacity() != dataOffset + dataWords * 8
+                || buffer.getLong(HEADER_SIZE + (1 << partitionBits) * PARTITION_ENTRY_SIZE) != size) {
+            throw new IllegalArgumentException("Corrupt perfect hash function header");
+        }
+    }
+
+    /**
+     * Builds a minimal perfect hash function for the given keys.
+     *
+     * @param keys the keys. Must all be distinct.
+     * @return the perfect hash function.
+     * @throws IllegalArgumentException if any of the keys are duplicates.
+     */
+    public static SipHashPerfectHash build(final byte[][] keys) {
+        return build(new KeySet() {
+            @Override
+            int size() {
+                return keys.length;
+            }
+
+            @Override
+            long hash(final SipHash sipHash, final int index) {
+                return sipHash.hash64(keys[index], 0, keys[index].length);
+            }
+
+            @Override
+            boolean equal(final int a, final int b) {
+                return Arrays.equals(keys[a], keys[b]);
+            }
+        });
+    }
+
+    /**
+     * Builds a minimal perfect hash function for the UTF-8 encodings of the given character sequences.
+     *
+     * @param keys the keys. Must all be distinct.
+     * @return the perfect hash function.
+     * @throws IllegalArgumentException if any of the keys are duplicates.
+     */
+    public static SipHashPerfectHash build(final List<? extends CharSequence> keys) {
+        return build(new KeySet() {
+            @Override
+            int size() {
+                return keys.size();
+            }
+
+            @Override
+            long hash(final SipHash sipHash, final int index) {
+                return sipHash.hash64(keys.get(index));
+            }
+
+            @Override
+            boolean equal(final int a, final int b) {
+                return keys.get(a).toString().equals(keys.get(b).toString());
+            }
+        });
+    }
+
+    /**
+     * Builds a minimal perfect hash function for the given {@code long} keys.
+     *
+     * @param keys the keys. Must all be distinct.
+     * @return the perfect hash function.
+     * @throws IllegalArgumentException if any of the keys are duplicates.
+     */
+    public static SipHashPerfectHash build(final long[] keys) {
+        return build(new KeySet() {
+            @Override
+            int size() {
+                return keys.length;
+            }
+
+            @Override
+            long hash(final SipHash sipHash, final int index) {
+                return sipHash.hashLong(keys[index]);
+            }
+
+            @Override
+            boolean equal(final int a, final int b) {
+                return keys[a] == keys[b];
+            }
+        });
+    }
+
+    /**
+     * Opens a perfect hash function previously saved with {@link #writeTo(Path)}, by mapping the file into memory.
+     *
+     * @param file the file.
+     * @return the perfect hash function.
+     * @throws IOException if the file cannot be opened and mapped.
+     * @throws IllegalArgumentException if the file does not contain a valid perfect hash function.
+     */
+    public static SipHashPerfectHash open(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Not a SipHash perfect hash function");
+            }
+            return new SipHashPerfectHash(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * Wraps a buffer containing a perfect hash function, such as a region of a larger mapped file. The function starts
+     * at index zero of the buffer and extends to its capacity.
+     *
+     * @param buffer the buffer.
+     * @return the perfect hash function.
+     * @throws IllegalArgumentException if the buffer does not contain a valid perfect hash function.
+     */
+    public static SipHashPerfectHash wrap(final ByteBuffer buffer) {
+        return new SipHashPerfectHash(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Writes the perfect hash function to a file, replacing it if it already exists.
+     *
+     * @param file the file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeTo(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer data = buffer.duplicate();
+            data.clear();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only view of the buffer holding the perfect hash function.
+     *
+     * @return the buffer.
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the index of the given key.
+     *
+     * @param key the key.
+     * @return the index of the key, or an arbitrary index if the key was not one of the keys the function was built
+     * from.
+     */
+    public long index(final byte[] key) {
+        return indexOfHash(sipHash.hash64(key, 0, key.length));
+    }
+
+    /**
+     * Returns the index of the key given by a range of a byte array. This method does not allocate.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return the index of the key, or an arbitrary index if the key was not one of the keys the function was built
+     * from.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public long index(final byte[] key, final int offset, final int length) {
+        return indexOfHash(sipHash.hash64(key, offset, length));
+    }
+
+    /**
+     * Returns the index of the UTF-8 encoding of the given characters. This method does not allocate.
+     *
+     * @param key the key.
+     * @return the index of the key, or an arbitrary index if the key was not one of the keys the function was built
+     * from.
+     */
+    public long index(final CharSequence key) {
+        return indexOfHash(sipHash.hash64(key));
+    }
+
+    /**
+     * Returns the index of the given {@code long} key. This method does not allocate.
+     *
+     * @param key the key.
+     * @return the index of the key, or an arbitrary index if the key was not one of the keys the function was built
+     * from.
+     */
+    public long index(final long key) {
+        return indexOfHash(sipHash.hashLong(key));
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return the number of keys the function was built from.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the size of the function in bits per key, including its header and partition table.
+     *
+     * @return the number of bits per key.
+     */
+    public double bitsPerKey() {
+        return buffer.capacity() * 8.0 / Math.max(1, size);
+    }
+
+    private long indexOfHash(final long hash) {
+        final int partition = partitionBits == 0 ? 0 : (int) (hash >>> (64 - partitionBits));
+        final int entry = HEADER_SIZE + partition * PARTITION_ENTRY_SIZE;
+        final long keyOffset = buffer.getLong(entry);
+        final int n = (int) (buffer.getLong(entry + PARTITION_ENTRY_SIZE) - keyOffset);
+        if (n <= 1) {
+            return keyOffset;
+        }
+        final long pilots = buffer.getLong(entry + 8);
+        final int width = (int) pilots & 63;
+        final long bitOffset = pilots >>> 6;
+        final int buckets = bucketCount(n);
+        final int bucket = bucket(hash, buckets);
+        final int pilot = (int) readBits(bitOffset + (long) bucket * width, width);
+        final int tableSize = tableSize(n);
+        final int position = position(hash, pilot, tableSize);
+        if (position < n) {
+            return keyOffset + position;
+        }
+        return keyOffset + readBits(bitOffset + (long) buckets * width + (long) (position - n) * bitsFor(n - 1),
+                bitsFor(n - 1));
+    }
+
+    private long readBits(final long bitOffset, final int width) {
+        if (width == 0) {
+            return 0;
+        }
+        final int index = dataOffset + (int) (bitOffset >>> 6) * 8;
+        final int shift = (int) bitOffset & 63;
+        long bits = buffer.getLong(index) >>> shift;
+        if (shift + width > 64) {
+            bits |= buffer.getLong(index + 8) << (64 - shift);
+        }
+        return bits & (-1L >>> (64 - width));
+    }
+
+    /**
+     * Returns the number of buckets in a partition of n keys, about {@code 5n / log2(n)}.
+     */
+    static int bucketCount(final int n) {
+        final int bits = 32 - Integer.numberOfLeadingZeros(n);
+        return (int) Math.max(1, ((long) n * 5 + bits - 1) / bits);
+    }
+
+    /**
+     * Returns the number of slots that keys are placed in for a partition of n keys, which is 2% more than n. Keys
+     * placed in the extra slots are remapped to the free slots below n.
+     */
+    static int tableSize(final int n) {
+        return n + (n + 49) / 50;
+    }
+
+    /**
+     * Selects a bucket using hash bits that are independent of the partition (the top 16 bits). Sixty percent of keys
+     * go to the first thirty percent of buckets, which gives better pilots than a uniform choice.
+     */
+    static int bucket(final long hash, final int buckets) {
+        final long bits = (hash >>> 16) & 0xFFFFFFFFL;
+        final int dense = buckets * 3 / 10;
+        if (((int) hash & 0xFFFF) < DENSE_BUCKET_THRESHOLD) {
+            return (int) ((bits * dense) >>> 32);
+        }
+        return dense + (int) ((bits * (buckets - dense)) >>> 32);
+    }
+
+    static int position(final long hash, final int pilot, final int tableSize) {
+        final long mixed = mix(hash ^ mix((pilot + 1L) * 0x9E3779B97F4A7C15L));
+        return (int) (((mixed >>> 32) * tableSize) >>> 32);
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer, used to derive positions from the key's hash and a pilot. The key's hash is
+     * already keyed, so this only needs to mix well.
+     */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    private static int bitsFor(final long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static SipHashPerfectHash build(final KeySet keys) {
+        final int count = keys.size();
+        for (int attempt = 0; ; ++attempt) {
+            final byte[] seed = RandomKeys.newKey().getEncoded();
+            final SipHash sipHash = SipHash.getInstance(new SecretKeySpec(seed, "RAW"));
+            final long[] hashes = new long[count];
+            Arrays.parallelSetAll(hashes, i -> keys.hash(sipHash, i));
+            Arrays.parallelSort(hashes);
+            toUnsignedOrder(hashes);
+            final int duplicate = findDuplicate(hashes);
+            if (duplicate < 0) {
+                return build(seed, hashes);
+            }
+            // Distinct keys with the same 64-bit hash are vanishingly unlikely, so check for duplicate keys first
+            checkDuplicateKeys(keys, sipHash, hashes[duplicate]);
+            if (attempt + 1 == MAX_ATTEMPTS) {
+                throw new IllegalStateException("Unable to find a seed without hash collisions");
+            }
+        }
+    }
+
+    /**
+     * Rotates hashes sorted as signed values so that they are in unsigned order, with the negative hashes (top bit set)
+     * last, as partitions are selected by the top bits of the hash.
+     */
+    private static void toUnsignedOrder(final long[] sortedHashes) {
+        int negatives = 0;
+        while (negatives < sortedHashes.length && sortedHashes[negatives] < 0) {
+            negatives++;
+        }
+        reverse(sortedHashes, 0, negatives);
+        reverse(sortedHashes, negatives, sortedHashes.length);
+        reverse(sortedHashes, 0, sortedHashes.length);
+    }
+
+    private static void reverse(final long[] array, int from, int to) {
+        while (from < --to) {
+            final long tmp = array[from];
+            array[from++] = array[to];
+            array[to] = tmp;
+        }
+    }
+
+    private static int findDuplicate(final long[] sortedHashes) {
+        for (int i = 1; i < sortedHashes.length; ++i) {
+            if (sortedHashes[i] == sortedHashes[i - 1]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkDuplicateKeys(final KeySet keys, final SipHash sipHash, final long hash) {
+        int first = -1;
+        for (int i = 0; i < keys.size(); ++i) {
+            if (keys.hash(sipHash, i) == hash) {
+                if (first >= 0 && keys.equal(first, i)) {
+                    throw new IllegalArgumentException("Duplicate key at index " + i);
+                }
+                first = i;
+            }
+        }
+    }
+
+    private static SipHashPerfectHash build(final byte[] seed, final long[] hashes) {
+        int partitionBits = 0;
+        while (partitionBits < MAX_PARTITION_BITS && (long) TARGET_PARTITION_SIZE << partitionBits < hashes.length) {
+            partitionBits++;
+        }
+        final int partitions = 1 << partitionBits;
+
+        // The hashes are sorted, so each partition is a contiguous range of them
+        final int[] starts = new int[partitions + 1];
+        for (int p = 1, i = 0; p <= partitions; ++p) {
+            while (i < hashes.length && (partitionBits == 0 || (hashes[i] >>> (64 - partitionBits)) < p)) {
+                i++;
+            }
+            starts[p] = p == partitions ? hashes.length : i;
+        }
+
+        final Partition[] results = new Partition[partitions];
+        ForkJoinPool.commonPool().invoke(new BuildTask(hashes, starts, results, 0, partitions));
+
+        long totalBits = 0;
+        for (final Partition partition : results) {
+            totalBits += partition.bits();
+        }
+        // One extra word so that reads of the last value never run past the end
+        final long dataWords = (totalBits + 63) / 64 + 1;
+        final long capacity = HEADER_SIZE + (partitions + 1L) * PARTITION_ENTRY_SIZE + dataWords * 8;
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, hashes.length);
+        buffer.putInt(16, partitionBits);
+        for (int i = 0; i < 16; ++i) {
+            buffer.put(24 + i, seed[i]);
+        }
+        buffer.putLong(40, dataWords);
+
+        final long[] data = new long[(int) dataWords];
+        long bitOffset = 0;
+        for (int p = 0; p < partitions; ++p) {
+            final Partition partition = results[p];
+            buffer.putLong(HEADER_SIZE + p * PARTITION_ENTRY_SIZE, starts[p]);
+            buffer.putLong(HEADER_SIZE + p * PARTITION_ENTRY_SIZE + 8, bitOffset << 6 | partition.width);
+            for (final int pilot : partition.pilots) {
+                writeBits(data, bitOffset, pilot, partition.width);
+                bitOffset += partition.width;
+            }
+            final int remapWidth = bitsFor(partition.keys - 1);
+            for (final int slot : partition.remap) {
+                writeBits(data, bitOffset, slot, remapWidth);
+                bitOffset += remapWidth;
+            }
+        }
+        buffer.putLong(HEADER_SIZE + partitions * PARTITION_ENTRY_SIZE, hashes.length);
+        final int dataOffset = HEADER_SIZE + (partitions + 1) * PARTITION_ENTRY_SIZE;
+        for (int i = 0; i < data.length; ++i) {
+            buffer.putLong(dataOffset + i * 8, data[i]);
+        }
+        return new SipHashPerfectHash(buffer);
+    }
+
+    private static void writeBits(final long[] data, final long bitOffset, final long value, final int width) {
+        if (width == 0) {
+            return;
+        }
+        final int index = (int) (bitOffset >>> 6);
+        final int shift = (int) bitOffset & 63;
+        data[index] |= value << shift;
+        if (shift + width > 64) {
+            data[index + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    /**
+     * Finds the pilots for one partition, given its range of the sorted hashes.
+     */
+    static Partition buildPartition(final long[] hashes, final int from, final int to) {
+        final int n = to - from;
+        if (n <= 1) {
+            return new Partition(n, new int[0], 0, new int[0]);
+        }
+        final int buckets = bucketCount(n);
+        final int tableSize = tableSize(n);
+
+        // Group the keys by bucket with a counting sort
+        final int[] bucketStarts = new int[buckets + 1];
+        final int[] bucketOf = new int[n];
+        for (int i = 0; i < n; ++i) {
+            bucketOf[i] = bucket(hashes[from + i], buckets);
+            bucketStarts[bucketOf[i] + 1]++;
+        }
+        int maxBucketSize = 0;
+        for (int b = 0; b < buckets; ++b) {
+            maxBucketSize = Math.max(maxBucketSize, bucketStarts[b + 1]);
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        final long[] grouped = new long[n];
+        final int[] fill = Arrays.copyOf(bucketStarts, buckets);
+        for (int i = 0; i < n; ++i) {
+            grouped[fill[bucketOf[i]]++] = hashes[from + i];
+        }
+
+        // Place the largest buckets first, as they are the hardest to place
+        final int[] sizeStarts = new int[maxBucketSize + 2];
+        for (int b = 0; b < buckets; ++b) {
+            sizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+        }
+        for (int s = 0; s <= maxBucketSize; ++s) {
+            sizeStarts[s + 1] += sizeStarts[s];
+        }
+        final int[] order = new int[buckets];
+        for (int b = 0; b < buckets; ++b) {
+            order[sizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+        }
+
+        final long[] taken = new long[(tableSize + 63) >>> 6];
+        final int[] pilots = new int[buckets];
+        final int[] positions = new int[maxBucketSize];
+        int maxPilot = 0;
+        for (final int b : order) {
+            final int start = bucketStarts[b];
+            final int size = bucketStarts[b + 1] - start;
+            if (size == 0) {
+                break;
+            }
+            for (int pilot = 0; ; ++pilot) {
+                if (place(grouped, start, size, pilot, tableSize, taken, positions)) {
+                    pilots[b] = pilot;
+                    maxPilot = Math.max(maxPilot, pilot);
+                    break;
+                }
+            }
+        }
+
+        // Map each key placed in the extra slots to one of the free slots below n
+        final int[] remap = new int[tableSize - n];
+        for (int slot = n, free = 0; slot < tableSize; ++slot) {
+            if ((taken[slot >>> 6] & (1L << slot)) != 0) {
+                while ((taken[free >>> 6] & (1L << free)) != 0) {
+                    free++;
+                }
+                remap[slot - n] = free++;
+            }
+        }
+        return new Partition(n, pilots, bitsFor(maxPilot), remap);
+    }
+
+    private static boolean place(final long[] grouped, final int start, final int size, final int pilot,
+            final int tableSize, final long[] taken, final int[] positions) {
+        for (int i = 0; i < size; ++i) {
+            final int position = position(grouped[start + i], pilot, tableSize);
+            if ((taken[position >>> 6] & (1L << position)) != 0) {
+                return false;
+            }
+            for (int j = 0; j < i; ++j) {
+                if (positions[j] == position) {
+                    return false;
+                }
+            }
+            positions[i] = position;
+        }
+        for (int i = 0; i < size; ++i) {
+            taken[positions[i] >>> 6] |= 1L << positions[i];
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashPerfectHash{keys=" + size + ", bitsPerKey=" + bitsPerKey() + "}";
+    }
+
+    /**
+     * The keys being built from, with access to their hashes under a given seed.
+     */
+    private abstract static class KeySet {
+        abstract int size();
+
+        abstract long hash(SipHash sipHash, int index);
+
+        abstract boolean equal(int a, int b);
+    }
+
+    /**
+     * The pilots and remapping table found for one partition.
+     */
+    static final class Partition {
+        final int keys;
+        final int[] pilots;
+        final int width;
+        final int[] remap;
+
+        Partition(final int keys, final int[] pilots, final int width, final int[] remap) {
+            this.keys = keys;
+            this.pilots = pilots;
+            this.width = width;
+            this.remap = remap;
+        }
+
+        long bits() {
+            return (long) pilots.length * width + (long) remap.length * bitsFor(keys - 1);
+        }
+    }
+
+    /**
+     * Builds a range of partitions, splitting it in half until each task has a single partition.
+     */
+    private static final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] hashes;
+        private final int[] starts;
+        private final Partition[] results;
+        private final int from;
+        private final int to;
+
+        BuildTask(final long[] hashes, final int[] starts, final Partition[] results, final int from, final int to) {
+            this.hashes = hashes;
+            this.starts = starts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = buildPartition(hashes, starts[from], starts[to]);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new BuildTask(hashes, starts, results, from, middle),
+                    new BuildTask(hashes, starts, results, middle, to));
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import software.pando.crypto.siphash.SipHash;
+
+/**
+ * Routes keys, such as tenant IDs, to shards using a keyed SipHash, so that an attacker who does not know the key
+ * cannot choose keys that all land on the same shard. Routers are immutable and thread-safe. Two strategies are
+ * supported:
+ * <dl>
+ *     <dt>{@link #jump(SipHash, int) Jump consistent hashing}</dt>
+ *     <dd>Shards are numbered from 0, and only the number of shards is needed. Growing from n to n + 1 shards moves
+ *     only 1/(n + 1) of the keys, all of them to the new shard. Shards can only be added or removed at the end.</dd>
+ *     <dt>{@link #rendezvous(SipHash, List) Rendezvous (highest random weight) hashing}</dt>
+ *     <dd>Shards are named nodes, any of which can be added or removed, moving only the keys that belong to that node.
+ *     Rather than scoring every node for each key, the winning node is precomputed for each of 65,536 slots, so a
+ *     lookup is a single table read. Adding or removing a node updates the table incrementally.</dd>
+ * </dl>
+ * Single-key routing does not allocate. {@link #route(long[], int[])} routes a batch of keys, hashing them two at a
+ * time with {@link SipHash#hashAll(long[], int, int, long[], int)}.
+ */
+public final class SipHashShardRouter {
+    private static final int SLOT_BITS = 16;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS;
+    private static final int MAX_NODES = 4096;
+    private static final int BATCH_SIZE = 256;
+
+    private static final ThreadLocal<long[]> BATCH_HASHES = ThreadLocal.withInitial(() -> new long[BATCH_SIZE]);
+
+    private final SipHash sipHash;
+    private final int shardCount;
+
+    // Rendezvous mode only
+    private final List<String> nodes;
+    private final long[] nodeSeeds;
+    private final short[] slots;
+
+    private SipHashShardRouter(final SipHash sipHash, final int shardCount, final List<String> nodes,
+            final long[] nodeSeeds, final short[] slots) {
+        this.sipHash = sipHash;
+        this.shardCount = shardCount;
+        this.nodes = nodes;
+        this.nodeSeeds = nodeSeeds;
+        this.slots = slots;
+    }
+
+    /**
+     * Creates a router that uses jump consistent hashing over the given number of shards.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 64-bit tags.
+     * @param shardCount the number of shards.
+     * @return the router.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 64-bit tags, or the number of shards is
+     * not positive.
+     */
+    public static SipHashShardRouter jump(final SipHash sipHash, final int shardCount) {
+        checkTagSize(sipHash);
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        return new SipHashShardRouter(sipHash, shardCount, null, null, null);
+    }
+
+    /**
+     * Creates a router that uses rendezvous hashing over the given named nodes. The shard returned for a key is the
+     * index of its node in the list.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 64-bit tags.
+     * @param nodes the names of the nodes. Must be distinct.
+     * @return the router.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 64-bit tags, or there are no nodes,
+     * more than 4096 nodes, or duplicate nodes.
+     */
+    public static SipHashShardRouter rendezvous(final SipHash sipHash, final List<String> nodes) {
+        checkTagSize(sipHash);
+        if (nodes.isEmpty() || nodes.size() > MAX_NODES) {
+            throw new IllegalArgumentException("Must have between 1 and " + MAX_NODES + " nodes");
+        }
+        final List<String> names = Collections.unmodifiableList(new ArrayList<>(nodes));
+        if (names.stream().distinct().count() != names.size()) {
+            throw new IllegalArgumentException("Duplicate node names");
+        }
+        final long[] seeds = new long[names.size()];
+        for (int i = 0; i < seeds.length; ++i) {
+            seeds[i] = sipHash.hash64(names.get(i));
+        }
+        final short[] slots = new short[SLOT_COUNT];
+        for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+            slots[slot] = (short) highestScore(seeds, slot);
+        }
+        return new SipHashShardRouter(sipHash, seeds.length, names, seeds, slots);
+    }
+
+    /**
+     * Returns a jump consistent hashing router with a different number of shards. When the number of shards grows,
+     * only the keys that move to the new shards are routed differently.
+     *
+     * @param shardCount the new number of shards.
+     * @return the new router.
+     * @throws IllegalArgumentException if the number of shards is not positive.
+     * @throws UnsupportedOperationException if this is a rendezvous hashing router.
+     */
+    public SipHashShardRouter withShardCount(final int shardCount) {
+        if (nodes != null) {
+            throw new UnsupportedOperationException("Rendezvous routers have named nodes");
+        }
+        return jump(sipHash, shardCount);
+    }
+
+    /**
+     * Returns a rendezvous hashing router with a node added at the end of the list of nodes. Only the keys that now
+     * belong to the new node are routed differently. The table of slots is updated by scoring only the new node.
+     *
+     * @param node the name of the node to add.
+     * @return the new router.
+     * @throws IllegalArgumentException if the node is already present, or there would be more than 4096 nodes.
+     * @throws UnsupportedOperationException if this is a jump consistent hashing router.
+     */
+    public SipHashShardRouter withNode(final String node) {
+        checkRendezvous();
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Node already present: " + node);
+        }
+        if (nodes.size() == MAX_NODES) {
+            throw new IllegalArgumentException("Must have between 1 and " + MAX_NODES + " nodes");
+        }
+        final List<String> names = new ArrayList<>(nodes);
+        names.add(node);
+        final long[] seeds = Arrays.copyOf(nodeSeeds, nodeSeeds.length + 1);
+        final int added = seeds.length - 1;
+        seeds[added] = sipHash.hash64(node);
+        final short[] table = slots.clone();
+        for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+            if (Long.compareUnsigned(score(seeds[added], slot), score(seeds[table[slot]], slot)) > 0) {
+                table[slot] = (short) added;
+            }
+        }
+        return new SipHashShardRouter(sipHash, seeds.length, Collections.unmodifiableList(names), seeds, table);
+    }
+
+    /**
+     * Returns a rendezvous hashing router with a node removed. Only the keys that belonged to the removed node are
+     * routed to different nodes, although the indices of the nodes after it in the list are one lower.
+     *
+     * @param node the name of the node to remove.
+     * @return the new router.
+     * @throws IllegalArgumentException if the node is not present, or it is the only node.
+     * @throws UnsupportedOperationException if this is a jump consistent hashing router.
+     */
+    public SipHashShardRouter withoutNode(final String node) {
+        checkRendezvous();
+        final int removed = nodes.indexOf(node);
+        if (removed < 0) {
+            throw new IllegalArgumentException("Node not present: " + node);
+        }
+        if (nodes.size() == 1) {
+            throw new IllegalArgumentException("Cannot remove the only node");
+        }
+        final List<String> names = new ArrayList<>(nodes);
+        names.remove(removed);
+        final long[] seeds = new long[nodeSeeds.length - 1];
+        System.arraycopy(nodeSeeds, 0, seeds, 0, removed);
+        System.arraycopy(nodeSeeds, removed + 1, seeds, removed, seeds.length - removed);
+        final short[] table = slots.clone();
+        for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+            if (table[slot] == removed) {
+                table[slot] = (short) highestScore(seeds, slot);
+            } else if (table[slot] > removed) {
+                table[slot]--;
+            }
+        }
+        return new SipHashShardRouter(sipHash, seeds.length, Collections.unmodifiableList(names), seeds, table);
+    }
+
+    /**
+     * Returns the shard for a {@code long} key, such as a tenant ID. This method does not allocate.
+     *
+     * @param key the key.
+     * @return the shard, between 0 and {@link #shardCount()} - 1.
+     */
+    public int route(final long key) {
+        return routeHash(sipHash.hashLong(key));
+    }
+
+    /**
+     * Returns the shard for the given key.
+     *
+     * @param key the key.
+     * @return the shard, between 0 and {@link #shardCount()} - 1.
+     */
+    public int route(final byte[] key) {
+        return routeHash(sipHash.hash64(key, 0, key.length));
+    }
+
+    /**
+     * Returns the shard for the key given by a range of a byte array. This method does not allocate.
+     *
+     * @param key the array containing the key.
+     * @param offset the offset of the key in the array.
+     * @param length the length of the key.
+     * @return the shard, between 0 and {@link #shardCount()} - 1.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public int route(final byte[] key, final int offset, final int length) {
+        return routeHash(sipHash.hash64(key, offset, length));
+    }
+
+    /**
+     * Returns the shard for the UTF-8 encoding of the given characters. This method does not allocate.
+     *
+     * @param key the key.
+     * @return the shard, between 0 and {@link #shardCount()} - 1.
+     */
+    public int route(final CharSequence key) {
+        return routeHash(sipHash.hash64(key));
+    }
+
+    /**
+     * Routes a batch of {@code long} keys, writing the shard for {@code keys[i]} to {@code outShard[i]}. The keys are
+     * hashed two at a time with their rounds interleaved, which is faster than routing them one at a time. The results
+     * are the same as {@link #route(long)}. This method does not allocate, other than a scratch buffer the first time
+     * that it is called on each thread.
+     *
+     * @param keys the keys.
+     * @param outShard the array to write the shards into.
+     * @throws IndexOutOfBoundsException if the output array is shorter than the array of keys.
+     */
+    public void route(final long[] keys, final int[] outShard) {
+        if (outShard.length < keys.length) {
+            throw new IndexOutOfBoundsException("Output array too small");
+        }
+        final long[] hashes = BATCH_HASHES.get();
+        for (int start = 0; start < keys.length; start += BATCH_SIZE) {
+            final int count = Math.min(BATCH_SIZE, keys.length - start);
+            sipHash.hashAll(keys, start, count, hashes, 0);
+            for (int i = 0; i < count; ++i) {
+                outShard[start + i] = routeHash(hashes[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards, or of nodes for a rendezvous hashing router.
+     */
+    public int shardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Returns the names of the nodes of a rendezvous hashing router. The shard numbers returned by {@code route} are
+     * indices into this list.
+     *
+     * @return the node names, or an empty list for a jump consistent hashing router.
+     */
+    public List<String> nodes() {
+        return nodes == null ? Collections.emptyList() : nodes;
+    }
+
+    private int routeHash(final long hash) {
+        if (slots != null) {
+            return slots[(int) (hash >>> (64 - SLOT_BITS))];
+        }
+        return jumpConsistentHash(hash, shardCount);
+    }
+
+    /**
+     * Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm", 2014.
+     */
+    static int jumpConsistentHash(long key, final int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    private static int highestScore(final long[] seeds, final int slot) {
+        int best = 0;
+        long bestScore = score(seeds[0], slot);
+        for (int i = 1; i < seeds.length; ++i) {
+            final long score = score(seeds[i], slot);
+            if (Long.compareUnsigned(score, bestScore) > 0) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The rendezvous score of a node for a slot. The node seed is the node's keyed SipHash, so this only needs to mix
+     * well: it is the MurmurHash3 64-bit finalizer.
+     */
+    private static long score(final long nodeSeed, final int slot) {
+        long x = nodeSeed ^ (slot * 0x9E3779B97F4A7C15L);
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    private void checkRendezvous() {
+        if (nodes == null) {
+            throw new UnsupportedOperationException("Jump consistent hashing routers have numbered shards");
+        }
+    }
+
+    private static void checkTagSize(final SipHash sipHash) {
+        if (sipHash.getMacTagLength() != 64) {
+            throw new IllegalArgumentException("SipHash instance must produce 64-bit tags");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashShardRouter{" + (nodes == null ? "jump, shards=" + shardCount : "rendezvous, nodes=" + nodes)
+                + "}";
+    }
+}
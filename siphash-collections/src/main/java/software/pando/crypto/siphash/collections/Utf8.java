@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+/**
+ * Compares and encodes characters as UTF-8 without allocating, consistently with {@link String#getBytes} and with
+ * {@link software.pando.crypto.siphash.SipHash#hash64(CharSequence)}. In particular, unpaired surrogates are encoded
+ * as {@code '?'}.
+ */
+final class Utf8 {
+    private Utf8() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Returns the number of bytes in the UTF-8 encoding of the given characters.
+     */
+    static int encodedLength(final CharSequence input) {
+        final int len = input.length();
+        int length = 0;
+        for (int i = 0; i < len; ++i) {
+            final char c = input.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                length += 3;
+            } else if (isSurrogatePair(input, i)) {
+                length += 4;
+                ++i;
+            } else {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the characters as UTF-8 into the given array, which must have room for
+     * {@link #encodedLength(CharSequence)} bytes.
+     *
+     * @return the offset just after the last byte written.
+     */
+    static int encode(final CharSequence input, final byte[] out, int offset) {
+        final int len = input.length();
+        for (int i = 0; i < len; ++i) {
+            final char c = input.charAt(i);
+            if (c < 0x80) {
+                out[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                out[offset++] = (byte) (0xc0 | c >>> 6);
+                out[offset++] = (byte) (0x80 | c & 0x3f);
+            } else if (!Character.isSurrogate(c)) {
+                out[offset++] = (byte) (0xe0 | c >>> 12);
+                out[offset++] = (byte) (0x80 | c >>> 6 & 0x3f);
+                out[offset++] = (byte) (0x80 | c & 0x3f);
+            } else if (isSurrogatePair(input, i)) {
+                final int cp = Character.toCodePoint(c, input.charAt(++i));
+                out[offset++] = (byte) (0xf0 | cp >>> 18);
+                out[offset++] = (byte) (0x80 | cp >>> 12 & 0x3f);
+                out[offset++] = (byte) (0x80 | cp >>> 6 & 0x3f);
+                out[offset++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                out[offset++] = '?';
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Determines whether the UTF-8 encoding of the given characters is equal to the given range of bytes.
+     */
+    static boolean equals(final CharSequence input, final byte[] bytes, final int offset, final int length) {
+        final int len = input.length();
+        final int end = offset + length;
+        int j = offset;
+        for (int i = 0; i < len; ++i) {
+            final char c = input.charAt(i);
+            if (c < 0x80) {
+                if (j >= end || bytes[j++] != (byte) c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (j + 2 > end || bytes[j++] != (byte) (0xc0 | c >>> 6) || bytes[j++] != (byte) (0x80 | c & 0x3f)) {
+                    return false;
+                }
+            } else if (!Character.isSurrogate(c)) {
+                if (j + 3 > end || bytes[j++] != (byte) (0xe0 | c >>> 12)
+                        || bytes[j++] != (byte) (0x80 | c >>> 6 & 0x3f) || bytes[j++] != (byte) (0x80 | c & 0x3f)) {
+                    return false;
+                }
+            } else if (isSurrogatePair(input, i)) {
+                final int cp = Character.toCodePoint(c, input.charAt(++i));
+                if (j + 4 > end || bytes[j++] != (byte) (0xf0 | cp >>> 18)
+                        || bytes[j++] != (byte) (0x80 | cp >>> 12 & 0x3f)
+                        || bytes[j++] != (byte) (0x80 | cp >>> 6 & 0x3f) || bytes[j++] != (byte) (0x80 | cp & 0x3f)) {
+                    return false;
+                }
+            } else if (j >= end || bytes[j++] != '?') {
+                return false;
+            }
+        }
+        return j == end;
+    }
+
+    private static boolean isSurrogatePair(final CharSequence input, final int i) {
+        return Character.isHighSurrogate(input.charAt(i)) && i + 1 < input.length()
+                && Character.isLowSurrogate(input.charAt(i + 1));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads and atomically sets bits in 64-bit little-endian words of a direct buffer. This is the Java 9+
+ * implementation, which uses a byte buffer view {@link VarHandle} to set bits with a single atomic bitwise OR.
+ */
+final class BufferBits {
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private BufferBits() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    static boolean isAligned(final ByteBuffer buffer) {
+        return buffer.alignmentOffset(0, 8) == 0;
+    }
+
+    static long get(final ByteBuffer buffer, final int index) {
+        return (long) LONG_VIEW.get(buffer, index);
+    }
+
+    static boolean set(final ByteBuffer buffer, final int index, final long bits) {
+        if (((long) LONG_VIEW.get(buffer, index) & bits) == bits) {
+            return false;
+        }
+        return ((long) LONG_VIEW.getAndBitwiseOr(buffer, index, bits) & bits) != bits;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void shouldCountIncrements() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch(1000);
+        long hash = new Random(1L).nextLong();
+
+        // When
+        for (int i = 0; i < 5; ++i) {
+            sketch.increment(hash);
+        }
+
+        // Then
+        assertThat(sketch.frequency(hash)).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldCountInDistinctCountersWhenSecondHalfOfHashIsZero() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch(1000);
+        long hash = 0x12345L;
+
+        // When
+        sketch.increment(hash);
+
+        // Then
+        assertThat(sketch.frequency(hash)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSaturateAtFifteen() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch(1000);
+        long hash = new Random(2L).nextLong();
+
+        // When
+        for (int i = 0; i < 100; ++i) {
+            sketch.increment(hash);
+        }
+
+        // Then
+        assertThat(sketch.frequency(hash)).isEqualTo(15);
+    }
+
+    @Test
+    public void shouldHalveCountersAfterSampleSize() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch(16);
+        Random random = new Random(3L);
+        long hot = random.nextLong();
+        for (int i = 0; i < 15; ++i) {
+            sketch.increment(hot);
+        }
+
+        // When
+        for (int i = 0; i < 160; ++i) {
+            sketch.increment(random.nextLong());
+        }
+
+        // Then
+        assertThat(sketch.frequency(hot)).isBetween(7, 8);
+    }
+
+    @Test
+    public void shouldEstimateZeroForUnseenKeysWhenSparse() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch(1 << 16);
+        Random random = new Random(4L);
+        for (int i = 0; i < 100; ++i) {
+            sketch.increment(random.nextLong());
+        }
+
+        // Then
+        int nonZero = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (sketch.frequency(random.nextLong()) > 0) {
+                ++nonZero;
+            }
+        }
+        assertThat(nonZero).isLessThan(10);
+    }
+}
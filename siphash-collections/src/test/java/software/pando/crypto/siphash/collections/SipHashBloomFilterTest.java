@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+
+public class SipHashBloomFilterTest {
+    private static final SipHash SIP_HASH = SipHash.getInstance(2, 4, 128, new SecretKeySpec(new byte[] { 0x00, 0x01,
+            0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW"));
+    private static final SipHash OTHER_KEY = SipHash.getInstance(2, 4, 128, new SecretKeySpec(new byte[16], "RAW"));
+
+    @Test
+    public void shouldHaveNoFalseNegatives() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 10_000, 0.01);
+
+        // When
+        for (int i = 0; i < 10_000; ++i) {
+            filter.put("item-" + i);
+        }
+
+        // Then
+        for (int i = 0; i < 10_000; ++i) {
+            assertThat(filter.mightContain("item-" + i)).isTrue();
+            assertThat(filter.mightContain(("item-" + i).getBytes(StandardCharsets.UTF_8))).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldHaveFalsePositiveRateNearTarget() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 10_000, 0.01);
+        for (int i = 0; i < 10_000; ++i) {
+            filter.put("item-" + i);
+        }
+
+        // When
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; ++i) {
+            if (filter.mightContain("absent-" + i)) {
+                falsePositives++;
+            }
+        }
+
+        // Then
+        assertThat(falsePositives).isLessThan(1_000);
+        assertThat(filter.expectedFalsePositiveRate()).isLessThan(0.01);
+    }
+
+    @Test
+    public void shouldReportWhetherFilterChanged() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 100, 0.01);
+
+        // Then
+        assertThat(filter.put("item")).isTrue();
+        assertThat(filter.put("item")).isFalse();
+    }
+
+    @Test
+    public void shouldSizeFilterAsPowerOfTwo() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 1_000, 0.01);
+
+        // Then
+        assertThat(filter.bitSize()).isEqualTo(16_384);
+        assertThat(filter.hashCount()).isEqualTo(11);
+    }
+
+    @Test
+    public void shouldLookUpItemsByRangeOfArray() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 100, 0.001);
+        byte[] data = "xxitemxx".getBytes(StandardCharsets.UTF_8);
+
+        // When
+        filter.put(data, 2, 4);
+
+        // Then
+        assertThat(filter.mightContain("item")).isTrue();
+        assertThat(filter.mightContain(data, 2, 4)).isTrue();
+    }
+
+    @Test
+    public void shouldGiveSameResultsForBatches() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 1_000, 0.1);
+        byte[][] items = new byte[2_000][];
+        for (int i = 0; i < items.length; ++i) {
+            items[i] = ("item-" + i).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[][] added = new byte[1_000][];
+        System.arraycopy(items, 0, added, 0, added.length);
+        filter.putAll(added);
+
+        // When
+        boolean[] results = new boolean[items.length];
+        filter.mightContainAll(items, results);
+
+        // Then
+        for (int i = 0; i < items.length; ++i) {
+            assertThat(results[i]).isEqualTo(filter.mightContain(items[i]));
+        }
+    }
+
+    @Test
+    public void shouldGiveSameResultsForPackedBatches() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 100, 0.1);
+        filter.put("a");
+        filter.put("ccc");
+        byte[] data = "abbccc".getBytes(StandardCharsets.UTF_8);
+        int[] offsets = { 0, 1, 3, 0 };
+        int[] lengths = { 1, 2, 3, 0 };
+
+        // When
+        boolean[] results = new boolean[4];
+        filter.mightContainAll(data, offsets, lengths, results);
+
+        // Then
+        assertThat(results[0]).isTrue();
+        assertThat(results[1]).isEqualTo(filter.mightContain("bb"));
+        assertThat(results[2]).isTrue();
+        assertThat(results[3]).isEqualTo(filter.mightContain(""));
+    }
+
+    @Test
+    public void shouldReopenFilterFromFile() throws Exception {
+        // Given
+        Path dir = Files.createTempDirectory("bloom");
+        Path file = dir.resolve("filter.bin");
+        try {
+            SipHashBloomFilter filter = SipHashBloomFilter.create(file, SIP_HASH, 1_000, 0.01);
+            for (int i = 0; i < 1_000; ++i) {
+                filter.put("item-" + i);
+            }
+            filter.force();
+
+            // When
+            SipHashBloomFilter reopened = SipHashBloomFilter.open(file, SIP_HASH);
+
+            // Then
+            assertThat(reopened.bitSize()).isEqualTo(filter.bitSize());
+            assertThat(reopened.hashCount()).isEqualTo(filter.hashCount());
+            for (int i = 0; i < 1_000; ++i) {
+                assertThat(reopened.mightContain("item-" + i)).isTrue();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectFileCreatedWithDifferentKey() throws Exception {
+        // Given
+        Path dir = Files.createTempDirectory("bloom");
+        Path file = dir.resolve("filter.bin");
+        try {
+            SipHashBloomFilter.create(file, SIP_HASH, 100, 0.01).force();
+
+            // When
+            SipHashBloomFilter.open(file, OTHER_KEY);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldWrapCopyOfFilter() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 100, 0.01);
+        filter.put("item");
+        ByteBuffer copy = ByteBuffer.allocateDirect(filter.asReadOnlyBuffer().capacity());
+        copy.put(filter.asReadOnlyBuffer()).flip();
+
+        // When
+        SipHashBloomFilter wrapped = SipHashBloomFilter.wrap(copy, SIP_HASH);
+
+        // Then
+        assertThat(wrapped.mightContain("item")).isTrue();
+    }
+
+    @Test
+    public void shouldWrapAlignedSliceOfLargerBuffer() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 100, 0.01);
+        filter.put("item");
+        ByteBuffer region = sliceContaining(filter, 64);
+
+        // When
+        SipHashBloomFilter wrapped = SipHashBloomFilter.wrap(region, SIP_HASH);
+        wrapped.put("other");
+
+        // Then
+        assertThat(wrapped.mightContain("item")).isTrue();
+        assertThat(wrapped.mightContain("other")).isTrue();
+    }
+
+    @Test
+    public void shouldRejectUnalignedBufferWhenAlignmentCanBeDetected() {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 100, 0.01);
+        filter.put("item");
+        ByteBuffer region = sliceContaining(filter, 4);
+        boolean java8 = System.getProperty("java.specification.version").startsWith("1.");
+
+        // When
+        Throwable error = catchThrowable(() -> SipHashBloomFilter.wrap(region, SIP_HASH).put("other"));
+
+        // Then
+        if (java8) {
+            // Java 8 cannot detect alignment, and its locking implementation does not need it
+            assertThat(error).isNull();
+        } else {
+            assertThat(error).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectCorruptBuffer() {
+        // Given
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+
+        // When
+        SipHashBloomFilter.wrap(buffer, SIP_HASH);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRequire128BitTags() {
+        // Given
+        SipHash sipHash64 = SipHash.getInstance(new SecretKeySpec(new byte[16], "RAW"));
+
+        // When
+        SipHashBloomFilter.create(sipHash64, 100, 0.01);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectZeroExpectedInsertions() {
+        SipHashBloomFilter.create(SIP_HASH, 0, 0.01);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectFalsePositiveRateOfOne() {
+        SipHashBloomFilter.create(SIP_HASH, 100, 1.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectFilterLargerThanOneGigabyte() {
+        SipHashBloomFilter.create(SIP_HASH, Long.MAX_VALUE / 2, 0.01);
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentInserts() throws Exception {
+        // Given
+        SipHashBloomFilter filter = SipHashBloomFilter.create(SIP_HASH, 40_000, 0.01);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // When
+        try {
+            for (int t = 0; t < 4; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; ++i) {
+                        filter.put("thread-" + thread + "-" + i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        for (int t = 0; t < 4; ++t) {
+            for (int i = 0; i < 10_000; ++i) {
+                assertThat(filter.mightContain("thread-" + t + "-" + i)).isTrue();
+            }
+        }
+    }
+
+    private static ByteBuffer sliceContaining(SipHashBloomFilter filter, int offset) {
+        ByteBuffer contents = filter.asReadOnlyBuffer();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(offset + contents.capacity());
+        buffer.position(offset);
+        ByteBuffer region = buffer.slice();
+        region.put(contents).flip();
+        return region;
+    }
+}
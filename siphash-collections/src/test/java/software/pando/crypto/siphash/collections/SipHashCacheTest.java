@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+
+public class SipHashCacheTest {
+    private static final SipHash SIP_HASH = SipHash.getInstance(new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03,
+            0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW"));
+
+    @Test
+    public void shouldReturnCachedValues() {
+        // Given
+        SipHashCache<String> cache = new SipHashCache<>(SIP_HASH, 100, 1);
+        cache.put("key", "value");
+
+        // When
+        String byString = cache.get("key");
+        String byBytes = cache.get("key".getBytes(StandardCharsets.UTF_8));
+        String missing = cache.get("other");
+
+        // Then
+        assertThat(byString).isEqualTo("value");
+        assertThat(byBytes).isEqualTo("value");
+        assertThat(missing).isNull();
+        assertThat(cache.hitCount()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReplaceValuesOfCachedKeys() {
+        // Given
+        SipHashCache<String> cache = new SipHashCache<>(SIP_HASH, 100, 1);
+        cache.put("key", "old");
+
+        // When
+        cache.put("key".getBytes(StandardCharsets.UTF_8), "new");
+
+        // Then
+        assertThat(cache.get("key")).isEqualTo("new");
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLookUpKeysByRangeOfArray() {
+        // Given
+        SipHashCache<String> cache = new SipHashCache<>(SIP_HASH, 100, 1);
+        cache.put("path", "value");
+        byte[] request = "GET path HTTP".getBytes(StandardCharsets.UTF_8);
+
+        // Then
+        assertThat(cache.get(request, 4, 4)).isEqualTo("value");
+        assertThat(cache.get(request, 4, 5)).isNull();
+    }
+
+    @Test
+    public void shouldInvalidateEntries() {
+        // Given
+        SipHashCache<String> cache = new SipHashCache<>(SIP_HASH, 100, 1);
+        cache.put("one", "1");
+        cache.put("two", "2");
+
+        // When
+        cache.invalidate("one");
+        cache.invalidate("two".getBytes(StandardCharsets.UTF_8));
+
+        // Then
+        assertThat(cache.get("one")).isNull();
+        assertThat(cache.get("two")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void shouldInvalidateAllEntries() {
+        // Given
+        SipHashCache<String> cache = new SipHashCache<>(SIP_HASH, 1000, 4);
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key-" + i, "value");
+        }
+
+        // When
+        cache.invalidateAll();
+
+        // Then
+        assertThat(cache.size()).isZero();
+        assertThat(cache.get("key-1")).isNull();
+    }
+
+    @Test
+    public void shouldComputeMissingValues() {
+        // Given
+        SipHashCache<String> cache = new SipHashCache<>(SIP_HASH, 100, 1);
+        AtomicInteger loads = new AtomicInteger();
+
+        // When
+        String first = cache.get("key", key -> "loaded-" + key + "-" + loads.incrementAndGet());
+        String second = cache.get("key", key -> "loaded-" + key + "-" + loads.incrementAndGet());
+
+        // Then
+        assertThat(first).isEqualTo("loaded-key-1");
+        assertThat(second).isEqualTo("loaded-key-1");
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNeverExceedMaximumSize() {
+        // Given
+        SipHashCache<Integer> cache = new SipHashCache<>(SIP_HASH, 256, 4);
+
+        // When
+        for (int i = 0; i < 10000; ++i) {
+            cache.put("key-" + i, i);
+            cache.get("key-" + (i / 2));
+        }
+
+        // Then
+        assertThat(cache.size()).isBetween(1L, 256L);
+        assertThat(cache.evictionCount() + cache.rejectionCount()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void shouldKeepPopularEntriesWhenScanned() {
+        // Given
+        SipHashCache<Integer> cache = new SipHashCache<>(SIP_HASH, 100, 1);
+        AtomicInteger popularMisses = new AtomicInteger();
+
+        // When
+        for (int i = 0; i < 20000; ++i) {
+            // Each popular key is read once every 200 operations, between which there are 150 one-off keys: too many
+            // for LRU to keep it in a cache of 100 entries
+            if (i % 4 == 0) {
+                String popular = "popular-" + (i / 4) % 50;
+                cache.get(popular, key -> {
+                    popularMisses.incrementAndGet();
+                    return 0;
+                });
+            } else {
+                cache.put("scan-" + i, i);
+            }
+        }
+
+        // Then
+        int retained = 0;
+        for (int i = 0; i < 50; ++i) {
+            if (cache.get("popular-" + i) != null) {
+                ++retained;
+            }
+        }
+        assertThat(retained).isEqualTo(50);
+        assertThat(popularMisses.get()).isLessThan(200);
+        assertThat(cache.rejectionCount()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void shouldSpreadKeysWithCollidingStringHashCodes() {
+        // Given
+        SipHashCache<Integer> cache = new SipHashCache<>(SIP_HASH, 1 << 12, 1);
+        String[] blocks = { "Aa", "BB" };
+
+        // When
+        for (int i = 0; i < 1 << 12; ++i) {
+            StringBuilder key = new StringBuilder();
+            for (int j = 0; j < 12; ++j) {
+                key.append(blocks[(i >>> j) & 1]);
+            }
+            cache.put(key, i);
+        }
+
+        // Then
+        assertThat(cache.size()).isEqualTo(1L << 12);
+    }
+
+    @Test
+    public void shouldSupportConcurrentReadsAndWrites() throws Exception {
+        // Given
+        SipHashCache<Integer> cache = new SipHashCache<>(SIP_HASH, 1000, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // When
+        for (int t = 0; t < 4; ++t) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; ++i) {
+                    String key = "key-" + ((i * 31 + thread) % 3000);
+                    Integer value = cache.get(key);
+                    if (value == null) {
+                        cache.put(key, key.hashCode());
+                    } else {
+                        assertThat(value).isEqualTo(key.hashCode());
+                    }
+                    if (i % 100 == 0) {
+                        cache.invalidate(key);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Then
+        assertThat(cache.size()).isBetween(0L, 1000L);
+        assertThat(cache.hitCount() + cache.missCount()).isEqualTo(80000L);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaximumSize() {
+        new SipHashCache<String>(0);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void shouldRejectNullValues() {
+        new SipHashCache<String>(SIP_HASH, 10, 1).put("key", null);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+import software.pando.crypto.siphash.collections.SipHashCountMinSketch.HeavyHitter;
+
+public class SipHashCountMinSketchTest {
+    private static final SipHash SIP_HASH = SipHash.getInstance(new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03,
+            0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW"));
+
+    @Test
+    public void shouldCountExactlyWithoutCollisions() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1 << 16, 4, 0);
+
+        // When
+        for (int i = 0; i < 10; ++i) {
+            sketch.add("key");
+        }
+        long returned = sketch.add("key".getBytes(StandardCharsets.UTF_8), 0, 3, 5);
+
+        // Then
+        assertThat(returned).isEqualTo(15);
+        assertThat(sketch.estimate("key")).isEqualTo(15);
+        assertThat(sketch.estimate("key".getBytes(StandardCharsets.UTF_8))).isEqualTo(15);
+        assertThat(sketch.estimate("other")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNeverUndercount() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 256, 4, 0);
+
+        // When
+        for (int i = 0; i < 10_000; ++i) {
+            sketch.add("key-" + (i % 1_000));
+        }
+
+        // Then
+        long totalError = 0;
+        for (int i = 0; i < 1_000; ++i) {
+            long estimate = sketch.estimate("key-" + i);
+            assertThat(estimate).isGreaterThanOrEqualTo(10L);
+            totalError += estimate - 10;
+        }
+        // Expected error per key is about N/width = 39
+        assertThat(totalError / 1_000).isLessThan(80L);
+    }
+
+    @Test
+    public void shouldTrackHeavyHitters() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1 << 12, 4, 3);
+
+        // When
+        for (int i = 0; i < 10_000; ++i) {
+            sketch.add("background-" + i);
+            if (i % 10 == 0) {
+                sketch.add("heavy-1");
+            }
+            if (i % 20 == 0) {
+                sketch.add("heavy-2");
+            }
+            if (i % 40 == 0) {
+                sketch.add("heavy-3");
+            }
+        }
+        List<HeavyHitter> top = sketch.topK();
+
+        // Then
+        assertThat(top).hasSize(3);
+        assertThat(top.get(0).toString()).startsWith("heavy-1=");
+        assertThat(top.get(1).toString()).startsWith("heavy-2=");
+        assertThat(top.get(2).toString()).startsWith("heavy-3=");
+        assertThat(top.get(0).getKey()).isEqualTo("heavy-1".getBytes(StandardCharsets.UTF_8));
+        assertThat(top.get(0).getCount()).isGreaterThanOrEqualTo(1_000L);
+    }
+
+    @Test
+    public void shouldKeepTrackedKeysWhoseCountsGrewAfterTheyWereTracked() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1 << 16, 4, 2);
+        sketch.add("early");
+        sketch.add("other");
+        for (int i = 0; i < 100; ++i) {
+            sketch.add("early");
+        }
+
+        // When
+        sketch.add("late", 50);
+        sketch.add("later", 60);
+
+        // Then
+        List<HeavyHitter> top = sketch.topK();
+        assertThat(top).hasSize(2);
+        assertThat(top.get(0).toString()).isEqualTo("early=101");
+        assertThat(top.get(1).toString()).isEqualTo("later=60");
+    }
+
+    @Test
+    public void shouldFindExactTopKeysAfterManyEvictions() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1 << 16, 4, 8);
+        List<String> adds = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            for (int j = 0; j <= i; ++j) {
+                adds.add("key-" + i);
+            }
+        }
+        Collections.shuffle(adds, new Random(42L));
+
+        // When
+        for (String key : adds) {
+            sketch.add(key);
+        }
+
+        // Then
+        List<HeavyHitter> top = sketch.topK();
+        assertThat(top).hasSize(8);
+        for (int i = 0; i < 8; ++i) {
+            assertThat(top.get(i).toString()).isEqualTo("key-" + (299 - i) + "=" + (300 - i));
+        }
+    }
+
+    @Test
+    public void shouldHalveCountsOnDecay() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1 << 10, 4, 1);
+        sketch.add("key", 100);
+
+        // When
+        sketch.decay();
+
+        // Then
+        assertThat(sketch.estimate("key")).isEqualTo(50);
+        assertThat(sketch.topK().get(0).getCount()).isEqualTo(50);
+    }
+
+    @Test
+    public void shouldRoundWidthUpToPowerOfTwo() {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1000, 5, 0);
+
+        // Then
+        assertThat(sketch.width()).isEqualTo(1024);
+        assertThat(sketch.depth()).isEqualTo(5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectNegativeCounts() {
+        new SipHashCountMinSketch(SIP_HASH, 16, 4, 0).add("key", -1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRequire64BitTags() {
+        new SipHashCountMinSketch(SipHash.getInstance(2, 4, 128, new SecretKeySpec(new byte[16], "RAW")), 16, 4, 0);
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentAdds() throws Exception {
+        // Given
+        SipHashCountMinSketch sketch = new SipHashCountMinSketch(SIP_HASH, 1 << 16, 4, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // When
+        try {
+            for (int t = 0; t < 4; ++t) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; ++i) {
+                        sketch.add("shared");
+                        sketch.add("key-" + (i % 100));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        assertThat(sketch.estimate("shared")).isEqualTo(40_000);
+        assertThat(sketch.topK().get(0).toString()).isEqualTo("shared=40000");
+    }
+}
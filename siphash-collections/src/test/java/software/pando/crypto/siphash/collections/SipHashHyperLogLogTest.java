@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+
+public class SipHashHyperLogLogTest {
+    private static final SipHash SIP_HASH = SipHash.getInstance(new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03,
+            0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW"));
+    private static final SipHash OTHER_KEY = SipHash.getInstance(new SecretKeySpec(new byte[16], "RAW"));
+
+    @DataProvider
+    public Object[][] cardinalities() {
+        return new Object[][] { { 1 }, { 10 }, { 100 }, { 1_000 }, { 10_000 }, { 100_000 }, { 1_000_000 } };
+    }
+
+    @Test
+    public void shouldEstimateZeroForEmptySketch() {
+        assertThat(new SipHashHyperLogLog(SIP_HASH, 14).cardinality()).isEqualTo(0L);
+    }
+
+    @Test(dataProvider = "cardinalities")
+    public void shouldEstimateCardinalityAccurately(int count) {
+        // Given
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 14);
+
+        // When
+        for (int i = 0; i < count; ++i) {
+            sketch.addLong(i);
+            sketch.addLong(i);
+        }
+
+        // Then
+        // Standard error at precision 14 is 0.8%, so allow four standard errors
+        assertThat((double) Math.abs(sketch.cardinality() - count)).isLessThanOrEqualTo(Math.max(1.0, count * 0.032));
+    }
+
+    @Test
+    public void shouldTreatEqualItemsEqually() {
+        // Given
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 10);
+
+        // When
+        sketch.add("item");
+        sketch.add("item".getBytes(StandardCharsets.UTF_8));
+        sketch.add("an item".getBytes(StandardCharsets.UTF_8), 3, 4);
+
+        // Then
+        assertThat(sketch.cardinality()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldSwitchFromSparseToDense() {
+        // Given
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 12);
+        assertThat(sketch.isSparse()).isTrue();
+
+        // When
+        for (int i = 0; i < 1_000; ++i) {
+            sketch.addLong(i);
+        }
+
+        // Then
+        assertThat(sketch.isSparse()).isFalse();
+        assertThat((double) sketch.cardinality()).isBetween(950.0, 1_050.0);
+    }
+
+    @Test
+    public void shouldUseDenseRepresentationForLowPrecision() {
+        assertThat(new SipHashHyperLogLog(SIP_HASH, 6).isSparse()).isFalse();
+    }
+
+    @Test
+    public void shouldMergeSketches() {
+        // Given
+        SipHashHyperLogLog sparse = new SipHashHyperLogLog(SIP_HASH, 14);
+        SipHashHyperLogLog dense = new SipHashHyperLogLog(SIP_HASH, 14);
+        SipHashHyperLogLog all = new SipHashHyperLogLog(SIP_HASH, 14);
+        for (int i = 0; i < 100; ++i) {
+            sparse.addLong(i);
+            all.addLong(i);
+        }
+        for (int i = 50; i < 50_000; ++i) {
+            dense.addLong(i);
+            all.addLong(i);
+        }
+
+        // When
+        SipHashHyperLogLog merged = new SipHashHyperLogLog(SIP_HASH, 14);
+        merged.merge(sparse);
+        merged.merge(dense);
+        sparse.merge(dense);
+
+        // Then
+        assertThat(merged.cardinality()).isEqualTo(all.cardinality());
+        assertThat(sparse.cardinality()).isEqualTo(all.cardinality());
+        assertThat(merged.toByteArray()).isEqualTo(all.toByteArray());
+    }
+
+    @Test
+    public void shouldUnionManySketchesInParallel() {
+        // Given
+        List<SipHashHyperLogLog> sketches = new ArrayList<>();
+        SipHashHyperLogLog all = new SipHashHyperLogLog(SIP_HASH, 12);
+        for (int s = 0; s < 1_000; ++s) {
+            SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 12);
+            for (int i = 0; i < 20; ++i) {
+                sketch.add("user-" + (s * 10 + i));
+                all.add("user-" + (s * 10 + i));
+            }
+            sketches.add(sketch);
+        }
+
+        // When
+        SipHashHyperLogLog union = SipHashHyperLogLog.union(sketches);
+
+        // Then
+        assertThat(union.toByteArray()).isEqualTo(all.toByteArray());
+    }
+
+    @Test
+    public void shouldRoundTripSparseSketch() {
+        // Given
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 14);
+        for (int i = 0; i < 100; ++i) {
+            sketch.addLong(i);
+        }
+
+        // When
+        byte[] data = sketch.toByteArray();
+        SipHashHyperLogLog copy = SipHashHyperLogLog.fromByteArray(SIP_HASH, data);
+
+        // Then
+        assertThat(data.length).isLessThan(400);
+        assertThat(copy.isSparse()).isTrue();
+        assertThat(copy.cardinality()).isEqualTo(sketch.cardinality());
+        assertThat(copy.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    public void shouldRoundTripDenseSketch() {
+        // Given
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 14);
+        for (int i = 0; i < 100_000; ++i) {
+            sketch.addLong(i);
+        }
+
+        // When
+        byte[] data = sketch.toByteArray();
+        SipHashHyperLogLog copy = SipHashHyperLogLog.fromByteArray(SIP_HASH, data);
+
+        // Then
+        assertThat(data.length).isEqualTo(11 + (1 << 14) * 6 / 8);
+        assertThat(copy.isSparse()).isFalse();
+        assertThat(copy.cardinality()).isEqualTo(sketch.cardinality());
+        assertThat(copy.toByteArray()).isEqualTo(data);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectSketchWithDifferentKey() {
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 10);
+        SipHashHyperLogLog.fromByteArray(OTHER_KEY, sketch.toByteArray());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectTruncatedSketch() {
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 10);
+        sketch.add("item");
+        byte[] data = sketch.toByteArray();
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        SipHashHyperLogLog.fromByteArray(SIP_HASH, truncated);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldNotMergeSketchesWithDifferentKeys() {
+        new SipHashHyperLogLog(SIP_HASH, 10).merge(new SipHashHyperLogLog(OTHER_KEY, 10));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldNotMergeSketchesWithDifferentPrecision() {
+        new SipHashHyperLogLog(SIP_HASH, 10).merge(new SipHashHyperLogLog(SIP_HASH, 11));
+    }
+
+    @Test
+    public void shouldComputeRegisterWiseMaximum() {
+        // Given
+        long a = 3L | 10L << 6 | 63L << 54;
+        long b = 5L | 2L << 6 | 1L << 12;
+
+        // When
+        long max = SipHashHyperLogLog.maxRegisters(a, b);
+
+        // Then
+        assertThat(max).isEqualTo(5L | 10L << 6 | 1L << 12 | 63L << 54);
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentUpdates() throws Exception {
+        // Given
+        SipHashHyperLogLog sketch = new SipHashHyperLogLog(SIP_HASH, 14);
+        SipHashHyperLogLog expected = new SipHashHyperLogLog(SIP_HASH, 14);
+        for (int i = 0; i < 40_000; ++i) {
+            expected.addLong(i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // When
+        try {
+            for (int t = 0; t < 4; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = thread; i < 40_000; i += 4) {
+                        sketch.addLong(i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        assertThat(sketch.toByteArray()).isEqualTo(expected.toByteArray());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+
+public class SipHashKeyringTest {
+
+    @Test
+    public void shouldHashWithTheKeyFromTheKeySource() {
+        // Given
+        Map<String, SecretKey> keys = keys(3);
+        SipHashKeyring keyring = new SipHashKeyring(100, keys::get);
+        byte[] message = "hello".getBytes(StandardCharsets.UTF_8);
+
+        // When
+        long tag = keyring.hash64("tenant-1", message);
+
+        // Then
+        assertThat(tag).isEqualTo(SipHash.getInstance(keys.get("tenant-1")).hash64(message));
+        assertThat(keyring.hash64("tenant-1", "hello")).isEqualTo(tag);
+        assertThat(keyring.hash64("tenant-2", message)).isNotEqualTo(tag);
+    }
+
+    @Test
+    public void shouldOnlyLoadEachKeyOnce() {
+        // Given
+        Map<String, SecretKey> keys = keys(3);
+        SipHashKeyring keyring = new SipHashKeyring(100, keys::get);
+
+        // When
+        for (int i = 0; i < 10; ++i) {
+            keyring.hash64("tenant-0", new byte[i]);
+        }
+
+        // Then
+        assertThat(keyring.loadCount()).isEqualTo(1L);
+        assertThat(keyring.hitCount()).isEqualTo(9L);
+        assertThat(keyring.missCount()).isEqualTo(1L);
+        assertThat(keyring.hitRate()).isEqualTo(0.9);
+    }
+
+    @Test
+    public void shouldReadKeyMaterialOnlyOnce() {
+        // Given
+        AtomicInteger reads = new AtomicInteger();
+        SecretKey key = new SecretKeySpec(new byte[16], "RAW") {
+            @Override
+            public byte[] getEncoded() {
+                reads.incrementAndGet();
+                return super.getEncoded();
+            }
+        };
+        SipHashKeyring keyring = new SipHashKeyring(100, id -> key);
+
+        // When
+        for (int i = 0; i < 5; ++i) {
+            keyring.hash64("tenant", new byte[8]);
+        }
+
+        // Then
+        assertThat(reads.get()).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectUnknownKeyIds() {
+        // Given
+        SipHashKeyring keyring = new SipHashKeyring(100, keys(3)::get);
+
+        // When
+        keyring.get("tenant-99");
+    }
+
+    @Test
+    public void shouldKeepThePreviousKeyAfterRotation() {
+        // Given
+        Map<String, SecretKey> keys = keys(3);
+        SipHashKeyring keyring = new SipHashKeyring(100, keys::get);
+        SipHash original = keyring.get("tenant-1");
+        SecretKey newKey = new SecretKeySpec(new byte[16], "RAW");
+        keys.put("tenant-1", newKey);
+
+        // When
+        keyring.rotate("tenant-1", newKey);
+
+        // Then
+        assertThat(keyring.hash64("tenant-1", "msg")).isEqualTo(SipHash.getInstance(newKey).hash64("msg"));
+        assertThat(keyring.previous("tenant-1")).isSameAs(original);
+        assertThat(keyring.previous("tenant-2")).isNull();
+        assertThat(keyring.rotationCount()).isEqualTo(1L);
+        assertThat(keyring.loadCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldReloadInvalidatedKeys() {
+        // Given
+        Map<String, SecretKey> keys = keys(3);
+        SipHashKeyring keyring = new SipHashKeyring(100, keys::get);
+        keyring.get("tenant-1");
+
+        // When
+        keyring.invalidate("tenant-1");
+
+        // Then
+        assertThat(keyring.size()).isEqualTo(0L);
+        keyring.get("tenant-1");
+        assertThat(keyring.loadCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldEvictKeysBeyondTheMaximumSize() {
+        // Given
+        Map<String, SecretKey> keys = keys(1000);
+        SipHashKeyring keyring = new SipHashKeyring(32, keys::get);
+
+        // When
+        for (int i = 0; i < 1000; ++i) {
+            for (int j = 0; j < 3; ++j) {
+                keyring.hash64("tenant-" + i, new byte[4]);
+            }
+        }
+
+        // Then
+        assertThat(keyring.size()).isLessThanOrEqualTo(32L);
+        assertThat(keyring.evictionCount()).isGreaterThan(0L);
+        assertThat(keyring.loadCount()).isGreaterThanOrEqualTo(1000L);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectInvalidRounds() {
+        new SipHashKeyring(0, 4, 100, keys(1)::get);
+    }
+
+    private static Map<String, SecretKey> keys(int count) {
+        Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+        for (int i = 0; i < count; ++i) {
+            byte[] key = new byte[16];
+            key[0] = (byte) i;
+            key[1] = (byte) (i >>> 8);
+            key[15] = 1;
+            keys.put("tenant-" + i, new SecretKeySpec(key, "RAW"));
+        }
+        return keys;
+    }
+}
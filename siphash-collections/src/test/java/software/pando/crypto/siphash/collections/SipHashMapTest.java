@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+
+public class SipHashMapTest {
+    private static final SipHash SIP_HASH = SipHash.getInstance(new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03,
+            0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW"));
+
+    private SipHashMap<String> map;
+
+    @BeforeMethod
+    public void createMap() {
+        map = new SipHashMap<>(SIP_HASH, 0);
+    }
+
+    @Test
+    public void shouldReturnValuesForKeysThatWerePut() {
+        // Given
+        map.put(bytes("one"), "1");
+        map.put(bytes("two"), "2");
+
+        // When
+        String one = map.get(bytes("one"));
+        String two = map.get(bytes("two"));
+        String three = map.get(bytes("three"));
+
+        // Then
+        assertThat(one).isEqualTo("1");
+        assertThat(two).isEqualTo("2");
+        assertThat(three).isNull();
+        assertThat(map.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReplaceExistingValues() {
+        // Given
+        map.put(bytes("key"), "old");
+
+        // When
+        String previous = map.put(bytes("key"), "new");
+
+        // Then
+        assertThat(previous).isEqualTo("old");
+        assertThat(map.get(bytes("key"))).isEqualTo("new");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTreatCharSequencesAsTheirUtf8Encoding() {
+        // Given
+        String key = "café 日本 😀";
+        map.put(key, "string");
+
+        // When
+        String byBytes = map.get(key.getBytes(StandardCharsets.UTF_8));
+        String byBuilder = map.get(new StringBuilder(key));
+
+        // Then
+        assertThat(byBytes).isEqualTo("string");
+        assertThat(byBuilder).isEqualTo("string");
+        assertThat(map.put(key.getBytes(StandardCharsets.UTF_8), "bytes")).isEqualTo("string");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLookUpKeysByRangeOfArray() {
+        // Given
+        map.put("header", "value");
+        byte[] packet = bytes("xxheaderxx");
+
+        // When
+        String result = map.get(packet, 2, 6);
+
+        // Then
+        assertThat(result).isEqualTo("value");
+        assertThat(map.containsKey(packet, 2, 5)).isFalse();
+        assertThat(map.containsKey(packet, 1, 6)).isFalse();
+    }
+
+    @Test
+    public void shouldNotConfuseKeysThatArePrefixesOfEachOther() {
+        // Given
+        map.put("a", "1");
+        map.put("ab", "2");
+        map.put("", "0");
+
+        // Then
+        assertThat(map.get("")).isEqualTo("0");
+        assertThat(map.get("a")).isEqualTo("1");
+        assertThat(map.get("ab")).isEqualTo("2");
+        assertThat(map.get("abc")).isNull();
+    }
+
+    @Test
+    public void shouldRemoveEntries() {
+        // Given
+        map.put("one", "1");
+        map.put("two", "2");
+
+        // When
+        String removed = map.remove("one");
+
+        // Then
+        assertThat(removed).isEqualTo("1");
+        assertThat(map.containsKey("one")).isFalse();
+        assertThat(map.get("two")).isEqualTo("2");
+        assertThat(map.remove(bytes("one"))).isNull();
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldBehaveLikeHashMapUnderRandomOperations() {
+        // Given
+        Map<String, String> model = new HashMap<>();
+        Random random = new Random(42L);
+
+        for (int i = 0; i < 50000; ++i) {
+            String key = "key-" + random.nextInt(2000) + (random.nextBoolean() ? "" : "-é日");
+            String value = Integer.toString(i);
+
+            // When
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertThat(map.remove(key)).isEqualTo(model.remove(key));
+                    break;
+                case 1:
+                    assertThat(map.put(bytes(key), value)).isEqualTo(model.put(key, value));
+                    break;
+                case 2:
+                    assertThat(map.put(key, value)).isEqualTo(model.put(key, value));
+                    break;
+                default:
+                    assertThat(map.get(key)).isEqualTo(model.get(key));
+                    break;
+            }
+
+            // Then
+            assertThat(map.size()).isEqualTo(model.size());
+        }
+        for (Map.Entry<String, String> entry : model.entrySet()) {
+            assertThat(map.get(bytes(entry.getKey()))).isEqualTo(entry.getValue());
+        }
+    }
+
+    @Test
+    public void shouldVisitEveryEntry() {
+        // Given
+        map.put("one", "1");
+        map.put("two", "2");
+        Map<String, String> visited = new HashMap<>();
+
+        // When
+        map.forEach((key, value) -> visited.put(new String(key, StandardCharsets.UTF_8), value));
+
+        // Then
+        assertThat(visited).hasSize(2).containsEntry("one", "1").containsEntry("two", "2");
+    }
+
+    @Test
+    public void shouldClearAllEntries() {
+        // Given
+        map.put("one", "1");
+
+        // When
+        map.clear();
+
+        // Then
+        assertThat(map.isEmpty()).isTrue();
+        assertThat(map.get("one")).isNull();
+        assertThat(map.maxProbeLength()).isZero();
+    }
+
+    @Test
+    public void shouldGrowAndReportResizes() {
+        // Given
+        int initialCapacity = map.capacity();
+
+        // When
+        for (int i = 0; i < 10000; ++i) {
+            map.put("key-" + i, "value");
+        }
+
+        // Then
+        assertThat(map.size()).isEqualTo(10000);
+        assertThat(map.capacity()).isGreaterThanOrEqualTo(20000);
+        assertThat(map.resizeCount()).isEqualTo(Integer.numberOfTrailingZeros(map.capacity() / initialCapacity));
+        assertThat(map.maxProbeLength()).isBetween(1, 64);
+    }
+
+    @Test
+    public void shouldNotResizeWhenPresized() {
+        // Given
+        SipHashMap<String> presized = new SipHashMap<>(SIP_HASH, 1000);
+
+        // When
+        for (int i = 0; i < 1000; ++i) {
+            presized.put("key-" + i, "value");
+        }
+
+        // Then
+        assertThat(presized.resizeCount()).isZero();
+    }
+
+    @Test
+    public void shouldSpreadKeysWithCollidingStringHashCodes() {
+        // Given
+        String[] blocks = { "Aa", "BB" };
+        for (int i = 0; i < 1 << 12; ++i) {
+            StringBuilder key = new StringBuilder();
+            for (int j = 0; j < 12; ++j) {
+                key.append(blocks[(i >>> j) & 1]);
+            }
+            // All of these keys have the same String.hashCode()
+            map.put(key, "value");
+        }
+
+        // Then
+        assertThat(map.size()).isEqualTo(1 << 12);
+        assertThat(map.maxProbeLength()).isBetween(1, 64);
+    }
+
+    @Test
+    public void shouldUseRandomKeysByDefault() {
+        // Given
+        SipHashMap<String> processKeyed = new SipHashMap<>();
+        SipHashMap<String> instanceKeyed = SipHashMap.withRandomKey(16);
+
+        // When
+        processKeyed.put("key", "a");
+        instanceKeyed.put("key", "b");
+
+        // Then
+        assertThat(processKeyed.get("key")).isEqualTo("a");
+        assertThat(instanceKeyed.get("key")).isEqualTo("b");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectSipHashWith128BitTags() {
+        new SipHashMap<String>(SipHash.getInstance(2, 4, 128, new SecretKeySpec(new byte[16], "RAW")), 16);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectNegativeExpectedSize() {
+        new SipHashMap<String>(-1);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectRangeOutsideOfArray() {
+        map.get(new byte[4], 2, 3);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SipHashPerfectHashTest {
+
+    @DataProvider
+    public Object[][] sizes() {
+        return new Object[][] { { 0 }, { 1 }, { 2 }, { 3 }, { 100 }, { 4_096 }, { 4_097 }, { 100_000 } };
+    }
+
+    @Test(dataProvider = "sizes")
+    public void shouldMapLongKeysToDistinctIndices(int count) {
+        // Given
+        long[] keys = new long[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = i * 0x9E3779B97F4A7C15L;
+        }
+
+        // When
+        SipHashPerfectHash perfectHash = SipHashPerfectHash.build(keys);
+
+        // Then
+        assertThat(perfectHash.size()).isEqualTo((long) count);
+        BitSet seen = new BitSet(count);
+        for (long key : keys) {
+            int index = (int) perfectHash.index(key);
+            assertThat(index).isBetween(0, count - 1);
+            assertThat(seen.get(index)).isFalse();
+            seen.set(index);
+        }
+    }
+
+    @Test
+    public void shouldMapStringKeysToDistinctIndices() {
+        // Given
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10_000; ++i) {
+            keys.add("blocked-" + i + ".example.com");
+        }
+
+        // When
+        SipHashPerfectHash perfectHash = SipHashPerfectHash.build(keys);
+
+        // Then
+        BitSet seen = new BitSet(keys.size());
+        for (String key : keys) {
+            int index = (int) perfectHash.index(key);
+            assertThat(seen.get(index)).isFalse();
+            seen.set(index);
+            assertThat(perfectHash.index(key.getBytes(StandardCharsets.UTF_8))).isEqualTo((long) index);
+        }
+        assertThat(seen.cardinality()).isEqualTo(keys.size());
+    }
+
+    @Test
+    public void shouldLookUpKeysByRangeOfArray() {
+        // Given
+        byte[][] keys = { "alpha".getBytes(StandardCharsets.UTF_8), "beta".getBytes(StandardCharsets.UTF_8),
+                "gamma".getBytes(StandardCharsets.UTF_8) };
+        SipHashPerfectHash perfectHash = SipHashPerfectHash.build(keys);
+        byte[] request = "GET beta HTTP".getBytes(StandardCharsets.UTF_8);
+
+        // Then
+        assertThat(perfectHash.index(request, 4, 4)).isEqualTo(perfectHash.index(keys[1]));
+        assertThat(perfectHash.index("gamma")).isEqualTo(perfectHash.index(keys[2]));
+    }
+
+    @Test
+    public void shouldBeCompact() {
+        // Given
+        long[] keys = new long[100_000];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = i;
+        }
+
+        // When
+        SipHashPerfectHash perfectHash = SipHashPerfectHash.build(keys);
+
+        // Then
+        assertThat(perfectHash.bitsPerKey()).isLessThan(4.5);
+    }
+
+    @Test
+    public void shouldReopenFromFile() throws Exception {
+        // Given
+        long[] keys = new long[20_000];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = i * 7L;
+        }
+        SipHashPerfectHash perfectHash = SipHashPerfectHash.build(keys);
+        Path file = Files.createTempFile("mphf", ".bin");
+        try {
+            perfectHash.writeTo(file);
+
+            // When
+            SipHashPerfectHash reopened = SipHashPerfectHash.open(file);
+
+            // Then
+            assertThat(reopened.size()).isEqualTo(perfectHash.size());
+            for (long key : keys) {
+                assertThat(reopened.index(key)).isEqualTo(perfectHash.index(key));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldWrapCopyOfBuffer() {
+        // Given
+        SipHashPerfectHash perfectHash = SipHashPerfectHash.build(new long[] { 1, 2, 3, 4, 5 });
+        ByteBuffer original = perfectHash.asReadOnlyBuffer();
+        ByteBuffer copy = ByteBuffer.allocate(original.capacity() + 3);
+        copy.position(3);
+        copy.put(original);
+        copy.position(3);
+
+        // When
+        SipHashPerfectHash wrapped = SipHashPerfectHash.wrap(copy);
+
+        // Then
+        for (long key = 1; key <= 5; ++key) {
+            assertThat(wrapped.index(key)).isEqualTo(perfectHash.index(key));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectDuplicateKeys() {
+        SipHashPerfectHash.build(Arrays.asList("a", "b", "a"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectCorruptBuffer() {
+        SipHashPerfectHash.wrap(ByteBuffer.allocate(100));
+    }
+
+    @Test
+    public void shouldAssignEveryBucketWithinRange() {
+        for (int buckets = 1; buckets < 1_000; buckets += 7) {
+            for (long hash : new long[] { 0, -1L, 0xFFFFL, 0x9999L, 0xFFFF_FFFF_FFFFL, Long.MIN_VALUE }) {
+                assertThat(SipHashPerfectHash.bucket(hash, buckets)).isBetween(0, buckets - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.Test;
+
+import software.pando.crypto.siphash.SipHash;
+
+public class SipHashShardRouterTest {
+    private static final SipHash SIP_HASH = SipHash.getInstance(new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03,
+            0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW"));
+
+    @Test
+    public void shouldSpreadKeysEvenlyWithJumpHashing() {
+        // Given
+        SipHashShardRouter router = SipHashShardRouter.jump(SIP_HASH, 10);
+        int[] counts = new int[10];
+
+        // When
+        for (long key = 0; key < 100_000; ++key) {
+            counts[router.route(key)]++;
+        }
+
+        // Then
+        for (int count : counts) {
+            assertThat(count).isBetween(9_500, 10_500);
+        }
+    }
+
+    @Test
+    public void shouldOnlyMoveKeysToNewShardWhenGrowing() {
+        // Given
+        SipHashShardRouter before = SipHashShardRouter.jump(SIP_HASH, 9);
+        SipHashShardRouter after = before.withShardCount(10);
+        int moved = 0;
+
+        // When
+        for (long key = 0; key < 100_000; ++key) {
+            int oldShard = before.route(key);
+            int newShard = after.route(key);
+            if (oldShard != newShard) {
+                assertThat(newShard).isEqualTo(9);
+                moved++;
+            }
+        }
+
+        // Then
+        assertThat(moved).isBetween(9_500, 10_500);
+    }
+
+    @Test
+    public void shouldComputeJumpHashForSmallBucketCounts() {
+        for (long key : new long[] { 0, 1, -1, Long.MIN_VALUE, 0x123456789ABCDEFL }) {
+            assertThat(SipHashShardRouter.jumpConsistentHash(key, 1)).isEqualTo(0);
+            assertThat(SipHashShardRouter.jumpConsistentHash(key, 1_000)).isBetween(0, 999);
+        }
+    }
+
+    @Test
+    public void shouldSpreadKeysEvenlyWithRendezvousHashing() {
+        // Given
+        SipHashShardRouter router = SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("a", "b", "c", "d"));
+        int[] counts = new int[4];
+
+        // When
+        for (long key = 0; key < 100_000; ++key) {
+            counts[router.route(key)]++;
+        }
+
+        // Then
+        for (int count : counts) {
+            assertThat(count).isBetween(24_000, 26_000);
+        }
+    }
+
+    @Test
+    public void shouldOnlyMoveKeysToAddedNode() {
+        // Given
+        SipHashShardRouter before = SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("a", "b", "c"));
+        SipHashShardRouter after = before.withNode("d");
+        int moved = 0;
+
+        // When
+        for (long key = 0; key < 100_000; ++key) {
+            if (before.route(key) != after.route(key)) {
+                assertThat(after.route(key)).isEqualTo(3);
+                moved++;
+            }
+        }
+
+        // Then
+        assertThat(after.nodes()).containsExactly("a", "b", "c", "d");
+        assertThat(moved).isBetween(24_000, 26_000);
+    }
+
+    @Test
+    public void shouldOnlyMoveKeysOfRemovedNode() {
+        // Given
+        SipHashShardRouter before = SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("a", "b", "c", "d"));
+        SipHashShardRouter after = before.withoutNode("b");
+
+        // Then
+        assertThat(after.nodes()).containsExactly("a", "c", "d");
+        for (long key = 0; key < 100_000; ++key) {
+            String oldNode = before.nodes().get(before.route(key));
+            String newNode = after.nodes().get(after.route(key));
+            if (!oldNode.equals("b")) {
+                assertThat(newNode).isEqualTo(oldNode);
+            }
+        }
+    }
+
+    @Test
+    public void shouldGiveSameRoutesWhenUpdatedIncrementally() {
+        // Given
+        SipHashShardRouter incremental = SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("a", "b", "c"))
+                .withNode("d").withNode("e").withoutNode("a");
+        SipHashShardRouter fresh = SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("b", "c", "d", "e"));
+
+        // Then
+        for (long key = 0; key < 10_000; ++key) {
+            assertThat(incremental.route(key)).isEqualTo(fresh.route(key));
+        }
+    }
+
+    @Test
+    public void shouldRouteBatchesLikeSingleKeys() {
+        // Given
+        long[] keys = new Random(42L).longs(1_001).toArray();
+        int[] shards = new int[keys.length];
+
+        for (SipHashShardRouter router : Arrays.asList(SipHashShardRouter.jump(SIP_HASH, 37),
+                SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("x", "y", "z")))) {
+            // When
+            router.route(keys, shards);
+
+            // Then
+            for (int i = 0; i < keys.length; ++i) {
+                assertThat(shards[i]).isEqualTo(router.route(keys[i]));
+            }
+        }
+    }
+
+    @Test
+    public void shouldRouteEqualKeysEqually() {
+        // Given
+        SipHashShardRouter router = SipHashShardRouter.jump(SIP_HASH, 1_000);
+        byte[] request = "GET tenant-42 HTTP".getBytes(StandardCharsets.UTF_8);
+
+        // Then
+        assertThat(router.route(request, 4, 9)).isEqualTo(router.route("tenant-42"));
+        assertThat(router.route("tenant-42".getBytes(StandardCharsets.UTF_8))).isEqualTo(router.route("tenant-42"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectDuplicateNodes() {
+        SipHashShardRouter.rendezvous(SIP_HASH, Arrays.asList("a", "b", "a"));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotAddNamedNodesToJumpRouter() {
+        SipHashShardRouter.jump(SIP_HASH, 3).withNode("d");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRequirePositiveShardCount() {
+        SipHashShardRouter.jump(SIP_HASH, 0);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash.collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class Utf8Test {
+
+    @DataProvider
+    public static Object[][] strings() {
+        return new Object[][] {
+                { "" }, { "ascii" }, { "café" }, { "日本語" }, { "😀" },
+                { "a\ud800b" }, { "\udc00" }, { "trailing\ud83d" }, { "\ud83d😀" },
+                { "mixed é 日 😀 text" }
+        };
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldEncodeTheSameAsGetBytes(String input) {
+        // Given
+        byte[] expected = input.getBytes(StandardCharsets.UTF_8);
+        byte[] out = new byte[expected.length + 2];
+
+        // When
+        int length = Utf8.encodedLength(input);
+        int end = Utf8.encode(input, out, 1);
+
+        // Then
+        assertThat(length).isEqualTo(expected.length);
+        assertThat(end).isEqualTo(expected.length + 1);
+        for (int i = 0; i < expected.length; ++i) {
+            assertThat(out[i + 1]).isEqualTo(expected[i]);
+        }
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldMatchOwnEncoding(String input) {
+        // Given
+        byte[] padded = ("x" + input + "x").getBytes(StandardCharsets.UTF_8);
+
+        // Then
+        assertThat(Utf8.equals(input, padded, 1, padded.length - 2)).isTrue();
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldNotMatchDifferentEncodings(String input) {
+        // Given
+        byte[] encoded = (input + "x").getBytes(StandardCharsets.UTF_8);
+
+        // Then
+        assertThat(Utf8.equals(input, encoded, 0, encoded.length)).isFalse();
+        assertThat(Utf8.equals(input + "x", encoded, 0, encoded.length - 1)).isFalse();
+        assertThat(Utf8.equals(input + "y", encoded, 0, encoded.length)).isFalse();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static jdk.incubator.vector.VectorOperators.GT;
+import static jdk.incubator.vector.VectorOperators.ROL;
+import static jdk.incubator.vector.VectorOperators.XOR;
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SipHash over groups of messages using the JDK Vector API. Each {@link LongVector} holds the same state word (v0, v1,
+ * v2 or v3) for as many messages as the platform's preferred vector size allows (4 with AVX2, 8 with AVX-512), so each
+ * SipHash round is applied to all of them at once. Message words are gathered into lanes with scalar loads, so this
+ * works best for batches of short messages of similar length: a group runs for as many blocks as its longest message,
+ * with shorter messages masked out once they are complete.
+ * <p>
+ * This class links against the incubating {@code jdk.incubator.vector} module and must only be used through
+ * {@link VectorSipHash}, which checks that the module is available.
+ */
+final class LongVectorLanes {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    static final int LANES = SPECIES.length();
+
+    private LongVectorLanes() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Indicates whether messages can be hashed in vector lanes with the given instance. Each lane starts from the
+     * initial state, which is the midstate for an instance created by {@link SipHash#withPrefix(byte[], int, int)}, so
+     * a prefix of whole message words is supported. A prefix that leaves bytes to be carried into the next word shifts
+     * every word of the message, so that case is left to the scalar implementation.
+     */
+    static boolean supports(final SipHash sipHash) {
+        return (sipHash.prefixLength & 7) == 0;
+    }
+
+    static void hashAll(final SipHash sipHash, final byte[][] inputs, final long[] out) {
+        final int count = inputs.length;
+        final int tagWords = sipHash.getMacTagLength() / 64;
+        checkBounds(out.length, 0, count * tagWords);
+
+        final Group group = new Group(sipHash);
+        for (int start = 0; start < count; start += LANES) {
+            final int lanes = Math.min(LANES, count - start);
+            for (int lane = 0; lane < lanes; ++lane) {
+                final byte[] input = inputs[start + lane];
+                group.set(lane, input, 0, input.length);
+            }
+            group.hash(lanes, out, start * tagWords);
+        }
+    }
+
+    static void hashAll(final SipHash sipHash, final byte[] data, final int[] offsets, final int[] lengths,
+            final long[] out) {
+        if (offsets.length != lengths.length) {
+            throw new IllegalArgumentException("Must have the same number of offsets and lengths");
+        }
+        final int count = offsets.length;
+        final int tagWords = sipHash.getMacTagLength() / 64;
+        checkBounds(out.length, 0, count * tagWords);
+
+        final Group group = new Group(sipHash);
+        for (int start = 0; start < count; start += LANES) {
+            final int lanes = Math.min(LANES, count - start);
+            for (int lane = 0; lane < lanes; ++lane) {
+                group.set(lane, data, offsets[start + lane], lengths[start + lane]);
+            }
+            group.hash(lanes, out, start * tagWords);
+        }
+    }
+
+    /**
+     * Scratch space for hashing one group of messages, reused for every group in a batch.
+     */
+    private static final class Group {
+        private final SipHash sipHash;
+        private final byte[][] inputs = new byte[LANES][];
+        private final int[] offsets = new int[LANES];
+        private final int[] lengths = new int[LANES];
+        private final long[] blocks = new long[LANES];
+        private final long[] words = new long[LANES];
+
+        Group(final SipHash sipHash) {
+            this.sipHash = sipHash;
+        }
+
+        void set(final int lane, final byte[] input, final int offset, final int length) {
+            checkBounds(input.length, offset, length);
+            inputs[lane] = input;
+            offsets[lane] = offset;
+            lengths[lane] = length;
+        }
+
+        void hash(final int lanes, final long[] out, final int outOffset) {
+            final int compressionRounds = sipHash.compressionRounds;
+            final int finalizationRounds = sipHash.finalizationRounds;
+            final boolean wide = sipHash.getMacTagLength() == 128;
+            final long[] initialState = sipHash.initialState;
+            // The length byte of the final word counts any prefix as well as the message, modulo 256
+            final long prefixLength = sipHash.prefixLength << 56;
+
+            // Each message has one block per whole word plus the final block. Unused lanes have no blocks at all.
+            int maxBlocks = 0;
+            for (int lane = 0; lane < LANES; ++lane) {
+                blocks[lane] = lane < lanes ? (lengths[lane] >>> 3) + 1 : 0;
+                maxBlocks = Math.max(maxBlocks, (int) blocks[lane]);
+            }
+            final LongVector blockCounts = LongVector.fromArray(SPECIES, blocks, 0);
+
+            LongVector v0 = LongVector.broadcast(SPECIES, initialState[0]);
+            LongVector v1 = LongVector.broadcast(SPECIES, initialState[1]);
+            LongVector v2 = LongVector.broadcast(SPECIES, initialState[2]);
+            LongVector v3 = LongVector.broadcast(SPECIES, initialState[3]);
+
+            for (int block = 0; block < maxBlocks; ++block) {
+                for (int lane = 0; lane < lanes; ++lane) {
+                    final int wholeWords = lengths[lane] >>> 3;
+                    if (block < wholeWords) {
+                        words[lane] = bytesToLong(inputs[lane], offsets[lane] + (block << 3));
+                    } else if (block == wholeWords) {
+                        words[lane] = lastBits(inputs[lane], offsets[lane], lengths[lane]) + prefixLength;
+                    }
+                }
+                final LongVector m = LongVector.fromArray(SPECIES, words, 0);
+                final VectorMask<Long> active = blockCounts.compare(GT, block);
+                final LongVector o0 = v0, o1 = v1, o2 = v2, o3 = v3;
+
+                v3 = v3.lanewise(XOR, m);
+                for (int r = 0; r < compressionRounds; ++r) {
+                    v0 = v0.add(v1); v1 = v1.lanewise(ROL, 13); v1 = v1.lanewise(XOR, v0); v0 = v0.lanewise(ROL, 32);
+                    v2 = v2.add(v3); v3 = v3.lanewise(ROL, 16); v3 = v3.lanewise(XOR, v2);
+                    v0 = v0.add(v3); v3 = v3.lanewise(ROL, 21); v3 = v3.lanewise(XOR, v0);
+                    v2 = v2.add(v1); v1 = v1.lanewise(ROL, 17); v1 = v1.lanewise(XOR, v2); v2 = v2.lanewise(ROL, 32);
+                }
+                v0 = v0.lanewise(XOR, m);
+
+                if (!active.allTrue()) {
+                    v0 = o0.blend(v0, active);
+                    v1 = o1.blend(v1, active);
+                    v2 = o2.blend(v2, active);
+                    v3 = o3.blend(v3, active);
+                }
+            }
+
+            v2 = v2.lanewise(XOR, wide ? 0xee : 0xff);
+            for (int r = 0; r < finalizationRounds; ++r) {
+                v0 = v0.add(v1); v1 = v1.lanewise(ROL, 13); v1 = v1.lanewise(XOR, v0); v0 = v0.lanewise(ROL, 32);
+                v2 = v2.add(v3); v3 = v3.lanewise(ROL, 16); v3 = v3.lanewise(XOR, v2);
+                v0 = v0.add(v3); v3 = v3.lanewise(ROL, 21); v3 = v3.lanewise(XOR, v0);
+                v2 = v2.add(v1); v1 = v1.lanewise(ROL, 17); v1 = v1.lanewise(XOR, v2); v2 = v2.lanewise(ROL, 32);
+            }
+            v0.lanewise(XOR, v1).lanewise(XOR, v2).lanewise(XOR, v3).intoArray(words, 0);
+
+            if (!wide) {
+                System.arraycopy(words, 0, out, outOffset, lanes);
+                return;
+            }
+
+            for (int lane = 0; lane < lanes; ++lane) {
+                out[outOffset + 2 * lane] = words[lane];
+            }
+            v1 = v1.lanewise(XOR, 0xdd);
+            for (int r = 0; r < finalizationRounds; ++r) {
+                v0 = v0.add(v1); v1 = v1.lanewise(ROL, 13); v1 = v1.lanewise(XOR, v0); v0 = v0.lanewise(ROL, 32);
+                v2 = v2.add(v3); v3 = v3.lanewise(ROL, 16); v3 = v3.lanewise(XOR, v2);
+                v0 = v0.add(v3); v3 = v3.lanewise(ROL, 21); v3 = v3.lanewise(XOR, v0);
+                v2 = v2.add(v1); v1 = v1.lanewise(ROL, 17); v1 = v1.lanewise(XOR, v2); v2 = v2.lanewise(ROL, 32);
+            }
+            v0.lanewise(XOR, v1).lanewise(XOR, v2).lanewise(XOR, v3).intoArray(words, 0);
+            for (int lane = 0; lane < lanes; ++lane) {
+                out[outOffset + 2 * lane + 1] = words[lane];
+            }
+        }
+    }
+}
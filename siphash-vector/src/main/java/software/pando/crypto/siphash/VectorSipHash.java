@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+/**
+ * Batch SipHash using the JDK Vector API, hashing as many messages at once as the CPU's preferred vector size allows.
+ * Gives identical results to {@link SipHash#hashAll(byte[][], long[])}, for any SipHash parameters and both tag sizes,
+ * including instances created by {@link SipHash#withPrefix(byte[], int, int)}. Prefixes that are not a multiple of 8
+ * bytes long are hashed with the scalar implementation.
+ * <p>
+ * The Vector API is an incubating feature of Java 17 and later, and must be enabled by running with
+ * {@code --add-modules jdk.incubator.vector}. If it is not available, or the CPU does not support vectors of at least
+ * two longs, the methods of this class fall back to the scalar implementation in {@link SipHash}.
+ */
+public final class VectorSipHash {
+    private static final boolean SUPPORTED = isVectorApiAvailable();
+
+    private VectorSipHash() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Indicates whether the Vector API implementation is in use, or whether calls fall back to the scalar
+     * implementation.
+     *
+     * @return true if the Vector API implementation is in use.
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Computes the tags of a batch of messages.
+     *
+     * @param sipHash the SipHash algorithm and key to use.
+     * @param inputs the messages to hash.
+     * @param out the array to write the tags into.
+     * @throws IndexOutOfBoundsException if the output array is too small to hold all of the tags.
+     * @see SipHash#hashAll(byte[][], long[])
+     */
+    public static void hashAll(final SipHash sipHash, final byte[][] inputs, final long[] out) {
+        if (SUPPORTED && LongVectorLanes.supports(sipHash)) {
+            LongVectorLanes.hashAll(sipHash, inputs, out);
+        } else {
+            sipHash.hashAll(inputs, out);
+        }
+    }
+
+    /**
+     * Computes the tags of a batch of messages packed into a single array.
+     *
+     * @param sipHash the SipHash algorithm and key to use.
+     * @param data the array holding all of the messages.
+     * @param offsets the offset of each message within the data array.
+     * @param lengths the length of each message.
+     * @param out the array to write the tags into.
+     * @throws IllegalArgumentException if the offsets and lengths arrays have different lengths.
+     * @throws IndexOutOfBoundsException if any message does not lie within the data array, or the output array is too
+     * small to hold all of the tags.
+     * @see SipHash#hashAll(byte[], int[], int[], long[])
+     */
+    public static void hashAll(final SipHash sipHash, final byte[] data, final int[] offsets, final int[] lengths,
+            final long[] out) {
+        if (SUPPORTED && LongVectorLanes.supports(sipHash)) {
+            LongVectorLanes.hashAll(sipHash, data, offsets, lengths, out);
+        } else {
+            sipHash.hashAll(data, offsets, lengths, out);
+        }
+    }
+
+    private static boolean isVectorApiAvailable() {
+        try {
+            return LongVectorLanes.LANES >= 2;
+        } catch (LinkageError e) {
+            // jdk.incubator.vector has not been added to the module graph
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the Vector API implementation gives the same results as the scalar implementation.
+ */
+public class VectorSipHashTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    @DataProvider
+    public static Object[][] algorithms() {
+        return new Object[][] {
+                { SipHash.getInstance(1, 3, KEY) },
+                { SipHash.getInstance(2, 4, KEY) },
+                { SipHash.getInstance(4, 8, KEY) },
+                { SipHash.getInstance(2, 4, 128, KEY) }
+        };
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchScalarImplementationForArraysOfMessages(SipHash algorithm) {
+        // Given
+        Random random = new Random(42L);
+        byte[][] inputs = new byte[103][];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = new byte[random.nextInt(70)];
+            random.nextBytes(inputs[i]);
+        }
+        int tagWords = algorithm.getMacTagLength() / 64;
+        long[] expected = new long[inputs.length * tagWords];
+        long[] actual = new long[inputs.length * tagWords];
+        algorithm.hashAll(inputs, expected);
+
+        // When
+        VectorSipHash.hashAll(algorithm, inputs, actual);
+
+        // Then
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchScalarImplementationForPackedMessagesOfEqualLength(SipHash algorithm) {
+        // Given
+        Random random = new Random(43L);
+        byte[] data = new byte[32 * 37];
+        random.nextBytes(data);
+        int[] offsets = new int[37];
+        int[] lengths = new int[37];
+        for (int i = 0; i < offsets.length; ++i) {
+            offsets[i] = i * 32;
+            lengths[i] = 32;
+        }
+        int tagWords = algorithm.getMacTagLength() / 64;
+        long[] expected = new long[offsets.length * tagWords];
+        long[] actual = new long[offsets.length * tagWords];
+        algorithm.hashAll(data, offsets, lengths, expected);
+
+        // When
+        VectorSipHash.hashAll(algorithm, data, offsets, lengths, actual);
+
+        // Then
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @DataProvider
+    public static Object[][] prefixed() {
+        byte[] prefix = new byte[19];
+        new Random(44L).nextBytes(prefix);
+        return new Object[][] {
+                { SipHash.getInstance(KEY).withPrefix(prefix, 0, 3) },
+                { SipHash.getInstance(KEY).withPrefix(prefix, 0, 8) },
+                { SipHash.getInstance(KEY).withPrefix(prefix, 0, 16) },
+                { SipHash.getInstance(1, 3, KEY).withPrefix(prefix, 0, 19) },
+                { SipHash.getInstance(2, 4, 128, KEY).withPrefix(prefix, 0, 3) },
+                { SipHash.getInstance(2, 4, 128, KEY).withPrefix(prefix, 0, 8) }
+        };
+    }
+
+    @Test(dataProvider = "prefixed")
+    public void shouldMatchScalarImplementationForPrefixedInstances(SipHash algorithm) {
+        // Given
+        Random random = new Random(45L);
+        byte[][] inputs = new byte[61][];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = new byte[random.nextInt(70)];
+            random.nextBytes(inputs[i]);
+        }
+        boolean wide = algorithm.getMacTagLength() == 128;
+        long[] expected = new long[inputs.length * (wide ? 2 : 1)];
+        for (int i = 0; i < inputs.length; ++i) {
+            if (wide) {
+                algorithm.hash128(inputs[i], 0, inputs[i].length, expected, 2 * i);
+            } else {
+                expected[i] = algorithm.hash64(inputs[i], 0, inputs[i].length);
+            }
+        }
+        long[] actual = new long[expected.length];
+
+        // When
+        VectorSipHash.hashAll(algorithm, inputs, actual);
+
+        // Then
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectOutputArrayThatIsTooSmall() {
+        VectorSipHash.hashAll(SipHash.getInstance(KEY), new byte[][] { new byte[1], new byte[2] }, new long[1]);
+    }
+}
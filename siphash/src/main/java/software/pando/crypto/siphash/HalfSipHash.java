@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import java.security.Key;
+import java.util.Locale;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Implementation of HalfSipHash, the 32-bit word variant of {@link SipHash}. HalfSipHash takes a 64-bit key and
+ * produces either a 32-bit or a 64-bit tag. It operates on 32-bit words throughout, so it is considerably cheaper
+ * than SipHash on 32-bit platforms and when only a 32-bit result is needed, such as for indexing a hash table, where
+ * computing a 64-bit SipHash tag and discarding half of it wastes most of the work.
+ * <p>
+ * HalfSipHash has received less analysis than SipHash and its security level is bounded by the 64-bit key, so it is
+ * only suitable for protecting hash tables and similar structures against hash-flooding. It should not be used as a
+ * general-purpose MAC.
+ * <p>
+ * The parameters are the same as for {@link SipHash}, except that the tag size must be either 32 or 64 bits and the
+ * key must be at least 64 bits. HalfSipHash-2-4 with a 32-bit tag is the default. HalfSipHash-1-3 is also provided,
+ * and is the variant used for hash tables in the Linux kernel.
+ *
+ * @see <a href="https://github.com/veorq/SipHash">SipHash reference implementation</a>
+ */
+public class HalfSipHash {
+    final int compressionRounds;
+    final int finalizationRounds;
+    final int[] initialState;
+
+    /**
+     * Returns a HalfSipHash implementation for the given algorithm parameters.
+     *
+     * @param compressionRounds the number of compression rounds. Must be at least 1.
+     * @param finalizationRounds the number of finalization rounds. Must be at least 3.
+     * @param tagSize the output tag size. Must be 32 or 64 bits.
+     * @param key the key to use for the hash. Must be RAW and at least 64 bits.
+     * @return the configured HalfSipHash instance.
+     * @throws IllegalArgumentException if any of the parameters or the key are invalid.
+     */
+    public static HalfSipHash getInstance(int compressionRounds, int finalizationRounds, int tagSize,
+            SecretKey key) {
+        if (compressionRounds < 1) {
+            throw new IllegalArgumentException("Must have at least one compression round");
+        }
+        if (finalizationRounds < 3) {
+            throw new IllegalArgumentException("Must have at least three finalization rounds");
+        }
+        if (tagSize != 32 && tagSize != 64) {
+            throw new IllegalArgumentException("Invalid tag size: must be 32 or 64 bits");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Invalid key: must be at least 64 bits");
+        }
+        if (!"RAW".equals(key.getAlgorithm())) {
+            throw new IllegalArgumentException("Key should be RAW format");
+        }
+
+        // Use an optimized special case for the common parameter choices
+        if (tagSize == 64) {
+            return new HalfSipHash64(compressionRounds, finalizationRounds, key);
+        } else if (compressionRounds == 1 && finalizationRounds == 3) {
+            return new HalfSipHash13(key);
+        } else if (compressionRounds == 2 && finalizationRounds == 4) {
+            return new HalfSipHash24(key);
+        } else {
+            return new HalfSipHash(compressionRounds, finalizationRounds, key);
+        }
+    }
+
+    /**
+     * Returns a 32-bit output tag HalfSipHash instance with the given parameters.
+     *
+     * @param compressionRounds the number of compression rounds. Must be at least 1.
+     * @param finalizationRounds the number of finalization rounds. Must be at least 3.
+     * @param key the key to use for the hash. Must be RAW and at least 64 bits.
+     * @return the configured HalfSipHash instance.
+     * @throws IllegalArgumentException if any of the parameters or the key are invalid.
+     */
+    public static HalfSipHash getInstance(int compressionRounds, int finalizationRounds, SecretKey key) {
+        return getInstance(compressionRounds, finalizationRounds, 32, key);
+    }
+
+    /**
+     * Returns a 32-bit HalfSipHash-2-4 implementation.
+     *
+     * @param key the key to use for the hash. Must be RAW and at least 64 bits.
+     * @return the configured HalfSipHash instance.
+     * @throws IllegalArgumentException if the key is invalid.
+     */
+    public static HalfSipHash getInstance(SecretKey key) {
+        return getInstance(2, 4, 32, key);
+    }
+
+    /**
+     * Initialises the algorithm with the given parameters and key.
+     */
+    HalfSipHash(final int compressionRounds, final int finalizationRounds, final Key key) {
+        this.compressionRounds = compressionRounds;
+        this.finalizationRounds = finalizationRounds;
+
+        final byte[] encoded = key.getEncoded();
+        if (encoded == null || encoded.length < 8) {
+            throw new IllegalArgumentException("Invalid key: must be at least 64 bits");
+        }
+        final int k0 = bytesToInt(encoded, 0);
+        final int k1 = bytesToInt(encoded, 4);
+
+        this.initialState = new int[] { k0, k1, 0x6c796765 ^ k0, 0x74656462 ^ k1 };
+    }
+
+    public int getMacTagLength() {
+        return 32;
+    }
+
+    /**
+     * Computes a message authentication code (MAC) tag for the given input data and the configured secret key.
+     *
+     * @param input the input data.
+     * @return the computed HalfSipHash tag for the data using the configured key.
+     */
+    public byte[] mac(final byte[] input) {
+        return mac(input, 0, input.length);
+    }
+
+    /**
+     * Computes a message authentication code (MAC) tag for the given range of the input data and the configured
+     * secret key.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the computed HalfSipHash tag for the data using the configured key.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     */
+    public byte[] mac(final byte[] input, final int offset, final int length) {
+        final byte[] out = new byte[getMacTagLength() / 8];
+        mac(input, offset, length, out, 0);
+        return out;
+    }
+
+    /**
+     * Computes a message authentication code (MAC) tag for the given range of the input data and writes it into the
+     * given output array. This method does not allocate any memory.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @param out the array to write the tag into.
+     * @param outOffset the offset in the output array at which to write the tag.
+     * @throws IndexOutOfBoundsException if either range does not lie within its array.
+     */
+    public void mac(final byte[] input, final int offset, final int length, final byte[] out, final int outOffset) {
+        checkBounds(out.length, outOffset, 4);
+        intToBytes(out, outOffset, hash32(input, offset, length));
+    }
+
+    /**
+     * Computes the 32-bit HalfSipHash tag of the given input data as an int. The tag is the little-endian
+     * interpretation of the bytes returned by {@link #mac(byte[])}.
+     *
+     * @param input the input data.
+     * @return the computed HalfSipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 64-bit tags.
+     */
+    public int hash32(final byte[] input) {
+        return hash32(input, 0, input.length);
+    }
+
+    /**
+     * Computes the 32-bit HalfSipHash tag of the given range of the input data as an int. This method does not
+     * allocate any memory.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the computed HalfSipHash tag.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     * @throws UnsupportedOperationException if this instance produces 64-bit tags.
+     */
+    public int hash32(final byte[] input, final int offset, final int length) {
+        checkBounds(input.length, offset, length);
+        int v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length - (length & 3);
+        for (int i = offset; i < end; i += 4) {
+            final int m = bytesToInt(input, i);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+                v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+                v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+                v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+            }
+            v0 ^= m;
+        }
+
+        final int b = lastBits32(input, offset, length);
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+        }
+
+        return v1 ^ v3;
+    }
+
+    /**
+     * Computes the 64-bit HalfSipHash tag of the given input data as a long. The tag is the little-endian
+     * interpretation of the bytes returned by {@link #mac(byte[])}.
+     *
+     * @param input the input data.
+     * @return the computed HalfSipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 32-bit tags.
+     */
+    public long hash64(final byte[] input) {
+        return hash64(input, 0, input.length);
+    }
+
+    /**
+     * Computes the 64-bit HalfSipHash tag of the given range of the input data as a long. This method does not
+     * allocate any memory.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the computed HalfSipHash tag.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     * @throws UnsupportedOperationException if this instance produces 32-bit tags.
+     */
+    public long hash64(final byte[] input, final int offset, final int length) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "HalfSipHash-%d-%d (32-bit)", compressionRounds, finalizationRounds);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import java.security.Key;
+
+/**
+ * Manually unrolled HalfSipHash-2-4 implementation for optimal speed.
+ */
+final class HalfSipHash24 extends HalfSipHash {
+
+    HalfSipHash24(final Key key) {
+        super(2, 4, key);
+    }
+
+    @Override
+    public int hash32(final byte[] input, final int offset, final int length) {
+        checkBounds(input.length, offset, length);
+        int v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length - (length & 3);
+        for (int i = offset; i < end; i += 4) {
+            final int m = bytesToInt(input, i);
+            v3 ^= m;
+
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+            v0 ^= m;
+        }
+
+        final int b = lastBits32(input, offset, length);
+
+        v3 ^= b;
+        v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+        v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+        v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+        v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+        v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+        v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+        v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+        v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+        v0 ^= b;
+        v2 ^= 0xff;
+        v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+        v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+        v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+        v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+        v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+        v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+        v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+        v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+        v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+        v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+        v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+        v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+        v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+        v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+        v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+        v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+
+        return v1 ^ v3;
+    }
+
+    @Override
+    public String toString() {
+        return "HalfSipHash-2-4 (32-bit, unrolled)";
+    }
+
+}
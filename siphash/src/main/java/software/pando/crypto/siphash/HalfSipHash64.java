@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import java.security.Key;
+import java.util.Locale;
+
+/**
+ * 64-bit output HalfSipHash variant.
+ */
+final class HalfSipHash64 extends HalfSipHash {
+
+    HalfSipHash64(final int compressionRounds, final int finalizationRounds, final Key key) {
+        super(compressionRounds, finalizationRounds, key);
+
+        initialState[1] ^= 0xee;
+    }
+
+    @Override
+    public int getMacTagLength() {
+        return 64;
+    }
+
+    @Override
+    public void mac(final byte[] input, final int offset, final int length, final byte[] out, final int outOffset) {
+        checkBounds(out.length, outOffset, 8);
+        longToBytes(out, outOffset, hash64(input, offset, length));
+    }
+
+    @Override
+    public int hash32(final byte[] input, final int offset, final int length) {
+        throw new UnsupportedOperationException("32-bit tags are not supported by " + this);
+    }
+
+    @Override
+    public long hash64(final byte[] input, final int offset, final int length) {
+        checkBounds(input.length, offset, length);
+        int v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length - (length & 3);
+        for (int i = offset; i < end; i += 4) {
+            final int m = bytesToInt(input, i);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+                v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+                v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+                v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+            }
+            v0 ^= m;
+        }
+
+        final int b = lastBits32(input, offset, length);
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xee;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+        }
+        final int lo = v1 ^ v3;
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Integer.rotateLeft(v1, 5); v1 ^= v0; v0 = Integer.rotateLeft(v0, 16);
+            v2 += v3; v3 = Integer.rotateLeft(v3, 8); v3 ^= v2;
+            v0 += v3; v3 = Integer.rotateLeft(v3, 7); v3 ^= v0;
+            v2 += v1; v1 = Integer.rotateLeft(v1, 13); v1 ^= v2; v2 = Integer.rotateLeft(v2, 16);
+        }
+        final int hi = v1 ^ v3;
+
+        return (lo & 0xffffffffL) | ((long) hi << 32);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "HalfSipHash-%d-%d (64-bit)", compressionRounds, finalizationRounds);
+    }
+}
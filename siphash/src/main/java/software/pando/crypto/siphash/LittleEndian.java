@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+/**
+ * Reads little-endian 32-bit and 64-bit words from byte arrays. This is the Java 8 implementation, which assembles
+ * each word from individual bytes. A faster implementation for Java 9 and later is included in the multi-release JAR.
+ */
+final class LittleEndian {
+    private LittleEndian() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    static long getLong(final byte[] p, final int offset) {
+        return l(p[offset]) | (l(p[offset + 1]) << 8) | (l(p[offset + 2]) << 16) | (l(p[offset + 3]) << 24)
+                | (l(p[offset + 4]) << 32) | (l(p[offset + 5]) << 40) | (l(p[offset + 6]) << 48)
+                | (l(p[offset + 7]) << 56);
+    }
+
+    static int getInt(final byte[] p, final int offset) {
+        return (p[offset] & 0xff) | ((p[offset + 1] & 0xff) << 8) | ((p[offset + 2] & 0xff) << 16)
+                | ((p[offset + 3] & 0xff) << 24);
+    }
+
+    private static long l(byte b) {
+        return b & 0xffL;
+    }
+}
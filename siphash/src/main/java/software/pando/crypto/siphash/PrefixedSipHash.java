@@ -0,0 +1,561 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * A SipHash instance that has already absorbed a prefix, created by {@link SipHash#withPrefix(byte[], int, int)}.
+ * The initial state is the midstate after the prefix's whole message words, and any remaining bytes of the prefix are
+ * carried in {@code prefixWord}. Each message word is shifted up past those carried bytes, and its top bytes carried
+ * on into the next word, so that the words compressed are exactly those of the prefix followed by the message. The
+ * final word includes the length of the prefix as well as the message. Works for any number of rounds and either tag
+ * size.
+ */
+final class PrefixedSipHash extends SipHash {
+    // Masks off the length byte of the final message word, leaving only the trailing bytes
+    private static final long TAIL_BYTES = 0x00ffffffffffffffL;
+
+    private final int tagSize;
+    // The number of carried prefix bytes, and the shift that places a message word after them
+    private final int carried;
+    private final int shift;
+    // The top (64 - shift) bits of a word carry over into the next one. Java only uses the low 6 bits of a shift
+    // distance, so w >>> -shift is the carry when shift is non-zero; when it is zero there is no carry, so mask it off.
+    private final long carryMask;
+
+    PrefixedSipHash(final SipHash sipHash, final long[] midstate, final long pending, final long prefixLength) {
+        super(sipHash.compressionRounds, sipHash.finalizationRounds, midstate, pending, prefixLength);
+        this.tagSize = sipHash.getMacTagLength();
+        this.carried = (int) prefixLength & 7;
+        this.shift = carried << 3;
+        this.carryMask = carried == 0 ? 0 : -1L;
+    }
+
+    @Override
+    public int getMacTagLength() {
+        return tagSize;
+    }
+
+    @Override
+    public void mac(final byte[] input, final int offset, final int length, final byte[] out, final int outOffset) {
+        checkBounds(out.length, outOffset, tagSize / 8);
+        hashBytes(input, offset, length, null, out, outOffset);
+    }
+
+    @Override
+    public long hash64(final byte[] input, final int offset, final int length) {
+        check64();
+        return hashBytes(input, offset, length, null, null, 0);
+    }
+
+    @Override
+    public void hash128(final byte[] input, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        check128();
+        checkBounds(out.length, outOffset, 2);
+        hashBytes(input, offset, length, out, null, outOffset);
+    }
+
+    @Override
+    public byte[] mac(final ByteBuffer input) {
+        final byte[] out = new byte[tagSize / 8];
+        hashBytes(input, input.position(), input.remaining(), null, out, 0);
+        return out;
+    }
+
+    @Override
+    public long hash64(final ByteBuffer input, final int index, final int length) {
+        check64();
+        return hashBytes(input, index, length, null, null, 0);
+    }
+
+    @Override
+    public void hash128(final ByteBuffer input, final int index, final int length, final long[] out,
+            final int outOffset) {
+        check128();
+        checkBounds(out.length, outOffset, 2);
+        hashBytes(input, index, length, out, null, outOffset);
+    }
+
+    @Override
+    public long hashLong(final long value) {
+        check64();
+        return hashWords(value, 0, 1);
+    }
+
+    @Override
+    public long hashLongs(final long a, final long b) {
+        check64();
+        return hashWords(a, b, 2);
+    }
+
+    @Override
+    public long hash(final long[] input, final int offset, final int length) {
+        check64();
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+        long m = prefixWord;
+
+        final int end = offset + length;
+        for (int i = offset; i < end; ++i) {
+            final long w = input[i];
+            final long word = m | w << shift;
+            m = (w >>> -shift) & carryMask;
+            v3 ^= word;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+        }
+
+        final long b = m | (prefixLength + 8L * length) << 56;
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    @Override
+    public long hash(final int[] input, final int offset, final int length) {
+        check64();
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+        long m = prefixWord;
+
+        final int end = offset + length - (length & 1);
+        for (int i = offset; i < end; i += 2) {
+            final long w = (input[i] & 0xffffffffL) | ((long) input[i + 1] << 32);
+            final long word = m | w << shift;
+            m = (w >>> -shift) & carryMask;
+            v3 ^= word;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+        }
+
+        // An odd trailing int is four more bytes, which may spill over into one more message word
+        if ((length & 1) != 0) {
+            final long tail = input[end] & 0xffffffffL;
+            if (carried + 4 >= 8) {
+                final long word = m | tail << shift;
+                v3 ^= word;
+                for (int r = 0; r < compressionRounds; ++r) {
+                    v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                    v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                    v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                    v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                }
+                v0 ^= word;
+                m = tail >>> -shift;
+            } else {
+                m |= tail << shift;
+            }
+        }
+
+        final long b = m | (prefixLength + 4L * length) << 56;
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    @Override
+    public long hash64(final CharSequence input) {
+        check64();
+        return hashChars(input, false, null, 0);
+    }
+
+    @Override
+    public long hash64(final CharSequence input, final Charset charset) {
+        check64();
+        return hashChars(input, isUtf16(charset), null, 0);
+    }
+
+    @Override
+    public void hash128(final CharSequence input, final long[] out, final int outOffset) {
+        check128();
+        checkBounds(out.length, outOffset, 2);
+        hashChars(input, false, out, outOffset);
+    }
+
+    @Override
+    public void hash128(final CharSequence input, final Charset charset, final long[] out, final int outOffset) {
+        check128();
+        final boolean utf16 = isUtf16(charset);
+        checkBounds(out.length, outOffset, 2);
+        hashChars(input, utf16, out, outOffset);
+    }
+
+    // The two-lane batch code starts every message from the initial state with nothing carried, so batches are hashed
+    // one message at a time
+
+    @Override
+    public void hashAll(final byte[][] inputs, final long[] out) {
+        final int tagWords = tagSize / 64;
+        checkBounds(out.length, 0, inputs.length * tagWords);
+        for (int i = 0; i < inputs.length; ++i) {
+            hashInto(inputs[i], 0, inputs[i].length, out, i * tagWords);
+        }
+    }
+
+    @Override
+    public void hashAll(final byte[] data, final int[] offsets, final int[] lengths, final long[] out) {
+        if (offsets.length != lengths.length) {
+            throw new IllegalArgumentException("Must have the same number of offsets and lengths");
+        }
+        final int tagWords = tagSize / 64;
+        checkBounds(out.length, 0, offsets.length * tagWords);
+        for (int i = 0; i < offsets.length; ++i) {
+            hashInto(data, offsets[i], lengths[i], out, i * tagWords);
+        }
+    }
+
+    @Override
+    void hashAll(final ByteBuffer data, final int[] offsets, final int[] lengths, final int count, final long[] out) {
+        final int tagWords = tagSize / 64;
+        checkBounds(offsets.length, 0, count);
+        checkBounds(lengths.length, 0, count);
+        checkBounds(out.length, 0, count * tagWords);
+        for (int i = 0; i < count; ++i) {
+            if (tagSize == 128) {
+                hash128(data, offsets[i], lengths[i], out, i * 2);
+            } else {
+                out[i] = hash64(data, offsets[i], lengths[i]);
+            }
+        }
+    }
+
+    @Override
+    public void hashAll(final long[] values, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        check64();
+        checkBounds(values.length, offset, length);
+        checkBounds(out.length, outOffset, length);
+        for (int i = 0; i < length; ++i) {
+            out[outOffset + i] = hashWords(values[offset + i], 0, 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "SipHash-%d-%d (%d-bit, %d-byte prefix)", compressionRounds,
+                finalizationRounds, tagSize, prefixLength);
+    }
+
+    private void hashInto(final byte[] input, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        if (tagSize == 128) {
+            hashBytes(input, offset, length, out, null, outOffset);
+        } else {
+            out[outOffset] = hashBytes(input, offset, length, null, null, 0);
+        }
+    }
+
+    private void check64() {
+        if (tagSize != 64) {
+            throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+        }
+    }
+
+    private void check128() {
+        if (tagSize != 128) {
+            throw new UnsupportedOperationException("128-bit tags are not supported by " + this);
+        }
+    }
+
+    /**
+     * Computes the tag of the prefix followed by the given range of the input. For 64-bit tags the tag is returned,
+     * and also written to {@code byteOut} if that is non-null. For 128-bit tags it is written to whichever of the two
+     * output arrays is non-null, and the first half is returned.
+     */
+    private long hashBytes(final byte[] input, final int offset, final int length, final long[] longOut,
+            final byte[] byteOut, final int outOffset) {
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+        long m = prefixWord;
+
+        final int end = offset + length - (length & 7);
+        for (int i = offset; i < end; i += 8) {
+            final long w = bytesToLong(input, i);
+            final long word = m | w << shift;
+            m = (w >>> -shift) & carryMask;
+            v3 ^= word;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+        }
+
+        // The trailing bytes follow any carried bytes, and may spill over into one more message word
+        final long tail = lastBits(input, offset, length) & TAIL_BYTES;
+        if (carried + (length & 7) >= 8) {
+            final long word = m | tail << shift;
+            v3 ^= word;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+            m = tail >>> -shift;
+        } else {
+            m |= tail << shift;
+        }
+
+        final long b = m | (prefixLength + length) << 56;
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        if (tagSize == 64) {
+            v2 ^= 0xff;
+            for (int r = 0; r < finalizationRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            final long tag = v0 ^ v1 ^ v2 ^ v3;
+            if (byteOut != null) {
+                longToBytes(byteOut, outOffset, tag);
+            }
+            return tag;
+        }
+
+        v2 ^= 0xee;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long lo = v0 ^ v1 ^ v2 ^ v3;
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long hi = v0 ^ v1 ^ v2 ^ v3;
+
+        if (longOut != null) {
+            longOut[outOffset] = lo;
+            longOut[outOffset + 1] = hi;
+        } else if (byteOut != null) {
+            longToBytes(byteOut, outOffset, lo);
+            longToBytes(byteOut, outOffset + 8, hi);
+        }
+        return lo;
+    }
+
+    /**
+     * Computes the tag of the prefix followed by the given range of a buffer. See
+     * {@link #hashBytes(byte[], int, int, long[], byte[], int)}.
+     */
+    private long hashBytes(final ByteBuffer input, final int index, final int length, final long[] longOut,
+            final byte[] byteOut, final int outOffset) {
+        checkBounds(input.limit(), index, length);
+        if (input.hasArray()) {
+            return hashBytes(input.array(), input.arrayOffset() + index, length, longOut, byteOut, outOffset);
+        }
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+        long m = prefixWord;
+
+        final int end = index + length - (length & 7);
+        for (int i = index; i < end; i += 8) {
+            final long w = bytesToLong(input, i);
+            final long word = m | w << shift;
+            m = (w >>> -shift) & carryMask;
+            v3 ^= word;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+        }
+
+        // The trailing bytes follow any carried bytes, and may spill over into one more message word
+        final long tail = lastBits(input, index, length) & TAIL_BYTES;
+        if (carried + (length & 7) >= 8) {
+            final long word = m | tail << shift;
+            v3 ^= word;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+            m = tail >>> -shift;
+        } else {
+            m |= tail << shift;
+        }
+
+        final long b = m | (prefixLength + length) << 56;
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        if (tagSize == 64) {
+            v2 ^= 0xff;
+            for (int r = 0; r < finalizationRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            final long tag = v0 ^ v1 ^ v2 ^ v3;
+            if (byteOut != null) {
+                longToBytes(byteOut, outOffset, tag);
+            }
+            return tag;
+        }
+
+        v2 ^= 0xee;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long lo = v0 ^ v1 ^ v2 ^ v3;
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long hi = v0 ^ v1 ^ v2 ^ v3;
+
+        if (longOut != null) {
+            longOut[outOffset] = lo;
+            longOut[outOffset + 1] = hi;
+        } else if (byteOut != null) {
+            longToBytes(byteOut, outOffset, lo);
+            longToBytes(byteOut, outOffset + 8, hi);
+        }
+        return lo;
+    }
+
+    /**
+     * Computes the 64-bit tag of the prefix followed by one or two long values.
+     */
+    private long hashWords(final long a, final long b, final int count) {
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final long wa = prefixWord | a << shift;
+        long m = (a >>> -shift) & carryMask;
+        v3 ^= wa;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= wa;
+
+        if (count == 2) {
+            final long wb = m | b << shift;
+            m = (b >>> -shift) & carryMask;
+            v3 ^= wb;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= wb;
+        }
+
+        final long last = m | (prefixLength + 8 * count) << 56;
+        v3 ^= last;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= last;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+}
@@ -16,8 +16,10 @@ package software.pando.crypto.siphash;
 
 import static software.pando.crypto.siphash.SipHashUtils.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
-import java.util.Arrays;
 import java.util.Locale;
 
 import javax.crypto.SecretKey;
@@ -48,8 +50,10 @@ import javax.crypto.SecretKey;
  * implement the 128-bit variant, although this has received less analysis.
  * <p>
  * The algorithm is designed to work well with short inputs, typically less than 1KiB in size. The interface is
- * therefore designed to accept the input directly as a single byte array. It is not recommended to use it with
- * significantly larger inputs, as other hash algorithms will likely be faster.
+ * therefore designed to accept the input directly as a single byte array. Inputs that arrive in several pieces can be
+ * hashed without first copying them into a single array by using a {@link Hasher}, obtained from
+ * {@link #newHasher()}. It is not recommended to use it with significantly larger inputs, as other hash algorithms will
+ * likely be faster.
  *
  * @see <a href="http://131002.net/siphash/">SipHash Website</a>
  */
@@ -57,6 +61,9 @@ public class SipHash {
     final int compressionRounds;
     final int finalizationRounds;
     final long[] initialState;
+    // Any bytes of a prefix absorbed by withPrefix that did not fill a whole message word, and the prefix length
+    final long prefixWord;
+    final long prefixLength;
 
     /**
      * Returns a SipHash implementation for the given algorithm parameters.
@@ -78,18 +85,25 @@ public class SipHash {
         if (tagSize != 64 && tagSize != 128) {
             throw new IllegalArgumentException("Invalid tag size: must be 64 or 128 bits");
         }
-        if (key == null || key.getEncoded() == null || key.getEncoded().length < 16) {
+        if (key == null) {
             throw new IllegalArgumentException("Invalid key: must be at least 128 bits");
         }
         if (!"RAW".equals(key.getAlgorithm())) {
             throw new IllegalArgumentException("Key should be RAW format");
         }
 
+        // Use an optimized special case for the common parameter choices
         if (tagSize == 128) {
+            if (compressionRounds == 2 && finalizationRounds == 4) {
+                return new SipHash24x128(key);
+            }
             return new SipHash128(compressionRounds, finalizationRounds, key);
-        } else if (compressionRounds == 2 && finalizationRounds ==4) {
-            // Optimized special case
+        } else if (compressionRounds == 1 && finalizationRounds == 3) {
+            return new SipHash13(key);
+        } else if (compressionRounds == 2 && finalizationRounds == 4) {
             return new SipHash24(key);
+        } else if (compressionRounds == 4 && finalizationRounds == 8) {
+            return new SipHash48(key);
         } else {
             return new SipHash(compressionRounds, finalizationRounds, key);
         }
@@ -126,14 +140,34 @@ public class SipHash {
         this.compressionRounds = compressionRounds;
         this.finalizationRounds = finalizationRounds;
 
+        // Many providers return a fresh copy of the key each time, so only ask for it once
+        final byte[] encoded = key.getEncoded();
+        if (encoded == null || encoded.length < 16) {
+            throw new IllegalArgumentException("Invalid key: must be at least 128 bits");
+        }
         this.initialState = initialState();
-        final long k0 = bytesToLong(key.getEncoded(), 0);
-        final long k1 = bytesToLong(key.getEncoded(), 8);
+        final long k0 = bytesToLong(encoded, 0);
+        final long k1 = bytesToLong(encoded, 8);
 
         initialState[3] ^= k1;
         initialState[2] ^= k0;
         initialState[1] ^= k1;
         initialState[0] ^= k0;
+        this.prefixWord = 0;
+        this.prefixLength = 0;
+    }
+
+    /**
+     * Initialises the algorithm from a state that has already absorbed some input, as captured by
+     * {@link #withPrefix(byte[], int, int)}.
+     */
+    SipHash(final int compressionRounds, final int finalizationRounds, final long[] initialState,
+            final long prefixWord, final long prefixLength) {
+        this.compressionRounds = compressionRounds;
+        this.finalizationRounds = finalizationRounds;
+        this.initialState = initialState;
+        this.prefixWord = prefixWord;
+        this.prefixLength = prefixLength;
     }
 
     public int getMacTagLength() {
@@ -147,44 +181,1116 @@ public class SipHash {
      * @return the computed SipHash tag for the data using the configured key.
      */
     public byte[] mac(final byte[] input) {
-        long state[] = Arrays.copyOf(initialState, 4);
+        return mac(input, 0, input.length);
+    }
 
-        int len = input.length - (input.length % 8);
-        for (int offset = 0; offset < len; offset += 8) {
-            long m = bytesToLong(input, offset);
-            state[3] ^= m;
+    /**
+     * Computes a message authentication code (MAC) tag for the given range of the input data and the configured
+     * secret key.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the computed SipHash tag for the data using the configured key.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     */
+    public byte[] mac(final byte[] input, final int offset, final int length) {
+        final byte[] out = new byte[getMacTagLength() / 8];
+        mac(input, offset, length, out, 0);
+        return out;
+    }
 
-            for (int i = 0; i < compressionRounds; ++i) {
-                sipround(state);
+    /**
+     * Computes a message authentication code (MAC) tag for the given range of the input data and writes it into the
+     * given output array. This method does not allocate any memory.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @param out the array to write the tag into.
+     * @param outOffset the offset in the output array at which to write the tag.
+     * @throws IndexOutOfBoundsException if either range does not lie within its array.
+     */
+    public void mac(final byte[] input, final int offset, final int length, final byte[] out, final int outOffset) {
+        checkBounds(out.length, outOffset, 8);
+        longToBytes(out, outOffset, hash64(input, offset, length));
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the given input data as a long. The tag is the little-endian interpretation
+     * of the bytes returned by {@link #mac(byte[])}.
+     *
+     * @param input the input data.
+     * @return the computed SipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash64(final byte[] input) {
+        return hash64(input, 0, input.length);
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the given range of the input data as a long. This method does not allocate
+     * any memory.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the computed SipHash tag.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash64(final byte[] input, final int offset, final int length) {
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length - (length & 7);
+        for (int i = offset; i < end; i += 8) {
+            final long m = bytesToLong(input, i);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
             }
+            v0 ^= m;
+        }
 
-            state[0] ^= m;
+        final long b = lastBits(input, offset, length);
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
         }
+        v0 ^= b;
 
-        long b = lastBits(input);
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
 
-        state[3] ^= b;
-        for (int i = 0; i < compressionRounds; ++i) {
-            sipround(state);
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /**
+     * Computes a message authentication code (MAC) tag for the remaining bytes of the given buffer, between its
+     * position and its limit. The buffer's position is not changed. Heap, direct and read-only buffers are supported,
+     * and the data is read directly from the buffer without copying, regardless of its byte order.
+     *
+     * @param input the input data.
+     * @return the computed SipHash tag for the data using the configured key.
+     */
+    public byte[] mac(final ByteBuffer input) {
+        final byte[] out = new byte[8];
+        longToBytes(out, 0, hash64(input));
+        return out;
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the remaining bytes of the given buffer, between its position and its limit.
+     * The buffer's position is not changed. Use {@link Hasher#update(ByteBuffer)} to consume the input instead.
+     *
+     * @param input the input data.
+     * @return the computed SipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash64(final ByteBuffer input) {
+        return hash64(input, input.position(), input.remaining());
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the given range of a buffer, using absolute indices. The range must lie
+     * before the buffer's limit, but the buffer's position and byte order are ignored, and its position and limit are
+     * not changed. This method does not allocate any memory.
+     *
+     * @param input the input data.
+     * @param index the absolute index of the start of the message in the buffer.
+     * @param length the length of the message.
+     * @return the computed SipHash tag.
+     * @throws IndexOutOfBoundsException if the range does not lie between zero and the buffer's limit.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash64(final ByteBuffer input, final int index, final int length) {
+        checkBounds(input.limit(), index, length);
+        if (input.hasArray()) {
+            return hash64(input.array(), input.arrayOffset() + index, length);
         }
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
 
-        state[0] ^= b;
-        state[2] ^= 0xff;
-        for (int i = 0; i < finalizationRounds; ++i) {
-            sipround(state);
+        final int end = index + length - (length & 7);
+        for (int i = index; i < end; i += 8) {
+            final long m = bytesToLong(input, i);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
         }
 
-        b = state[0] ^ state[1] ^ state[2] ^ state[3];
+        final long b = lastBits(input, index, length);
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
 
-        byte[] out = new byte[8];
-        longToBytes(out, b);
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
 
-        return out;
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of a single long value. The result is the same as {@link #hash64(byte[])} of
+     * the 8-byte little-endian encoding of the value, but the value is fed directly into the compression function
+     * without encoding it. This method does not allocate any memory.
+     *
+     * @param value the value to hash.
+     * @return the computed SipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hashLong(final long value) {
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        v3 ^= value;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= value;
+
+        v3 ^= LAST_BITS_8;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= LAST_BITS_8;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of a pair of long values, such as the two halves of a {@link java.util.UUID}.
+     * The result is the same as {@link #hash64(byte[])} of the 16-byte little-endian encoding of {@code a} followed by
+     * {@code b}. This method does not allocate any memory.
+     *
+     * @param a the first value to hash.
+     * @param b the second value to hash.
+     * @return the computed SipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hashLongs(final long a, final long b) {
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        v3 ^= a;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= a;
+
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v3 ^= LAST_BITS_16;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= LAST_BITS_16;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
     }
 
+    /**
+     * Computes the 64-bit SipHash tag of the given range of an array of longs. The result is the same as
+     * {@link #hash64(byte[])} of the little-endian encoding of each element in turn. This method does not allocate
+     * any memory.
+     *
+     * @param input the input data.
+     * @param offset the index of the first element to hash.
+     * @param length the number of elements to hash.
+     * @return the computed SipHash tag.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash(final long[] input, final int offset, final int length) {
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length;
+        for (int i = offset; i < end; ++i) {
+            final long m = input[i];
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+
+        // No trailing bytes, so the final word is just the low byte of the length in bytes (8 * length)
+        final long b = (long) length << 59;
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the given range of an array of ints. The result is the same as
+     * {@link #hash64(byte[])} of the little-endian encoding of each element in turn. This method does not allocate
+     * any memory.
+     *
+     * @param input the input data.
+     * @param offset the index of the first element to hash.
+     * @param length the number of elements to hash.
+     * @return the computed SipHash tag.
+     * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash(final int[] input, final int offset, final int length) {
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length - (length & 1);
+        for (int i = offset; i < end; i += 2) {
+            final long m = (input[i] & 0xffffffffL) | ((long) input[i + 1] << 32);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+
+        // The low byte of the length in bytes (4 * length), plus any odd trailing int
+        long b = (long) length << 58;
+        if ((length & 1) != 0) {
+            b |= input[end] & 0xffffffffL;
+        }
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /**
+     * Computes the 128-bit SipHash tag of the given range of the input data and writes it into the given array as
+     * two longs: the first (low) half of the tag followed by the second (high) half. This method does not allocate
+     * any memory.
+     *
+     * @param input the input data.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @param out the array to write the tag into.
+     * @param outOffset the index in the output array at which to write the first half of the tag.
+     * @throws IndexOutOfBoundsException if either range does not lie within its array.
+     * @throws UnsupportedOperationException if this instance produces 64-bit tags.
+     */
+    public void hash128(final byte[] input, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        throw new UnsupportedOperationException("128-bit tags are not supported by " + this);
+    }
+
+    /**
+     * Computes the 128-bit SipHash tag of the given range of a buffer, using absolute indices, and writes it into the
+     * given array as two longs. The range must lie before the buffer's limit, but the buffer's position and byte order
+     * are ignored, and its position and limit are not changed. This method does not allocate any memory.
+     *
+     * @param input the input data.
+     * @param index the absolute index of the start of the message in the buffer.
+     * @param length the length of the message.
+     * @param out the array to write the tag into.
+     * @param outOffset the index in the output array at which to write the first half of the tag.
+     * @throws IndexOutOfBoundsException if either range is invalid.
+     * @throws UnsupportedOperationException if this instance produces 64-bit tags.
+     * @see #hash128(byte[], int, int, long[], int)
+     */
+    public void hash128(final ByteBuffer input, final int index, final int length, final long[] out,
+            final int outOffset) {
+        throw new UnsupportedOperationException("128-bit tags are not supported by " + this);
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the UTF-8 encoding of the given characters. The result is the same as
+     * {@code hash64(input.toString().getBytes(StandardCharsets.UTF_8))}, but the characters are encoded directly into
+     * the message words as they are read, so no memory is allocated. Runs of ASCII characters are packed eight at a
+     * time. Unpaired surrogates are encoded as {@code '?'}, as they are by {@link String#getBytes(Charset)}.
+     *
+     * @param input the characters to hash.
+     * @return the computed SipHash tag.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public long hash64(final CharSequence input) {
+        return hashChars(input, false, null, 0);
+    }
+
+    /**
+     * Computes the 64-bit SipHash tag of the given characters encoded with the given character set, which must be
+     * either UTF-8 or UTF-16LE. The result is the same as {@code hash64(input.toString().getBytes(charset))}, but no
+     * memory is allocated. Unpaired surrogates are replaced in the same way as by {@link String#getBytes(Charset)}.
+     *
+     * @param input the characters to hash.
+     * @param charset the character set to encode the characters with. Must be UTF-8 or UTF-16LE.
+     * @return the computed SipHash tag.
+     * @throws IllegalArgumentException if the character set is not supported.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     * @see #hash64(CharSequence)
+     */
+    public long hash64(final CharSequence input, final Charset charset) {
+        return hashChars(input, isUtf16(charset), null, 0);
+    }
+
+    /**
+     * Computes the 128-bit SipHash tag of the UTF-8 encoding of the given characters and writes it into the given
+     * array as two longs, in the same way as {@link #hash128(byte[], int, int, long[], int)}. This method does not
+     * allocate any memory.
+     *
+     * @param input the characters to hash.
+     * @param out the array to write the tag into.
+     * @param outOffset the index in the output array at which to write the first half of the tag.
+     * @throws IndexOutOfBoundsException if the output array does not have room for two longs at the given offset.
+     * @throws UnsupportedOperationException if this instance produces 64-bit tags.
+     * @see #hash64(CharSequence)
+     */
+    public void hash128(final CharSequence input, final long[] out, final int outOffset) {
+        throw new UnsupportedOperationException("128-bit tags are not supported by " + this);
+    }
+
+    /**
+     * Computes the 128-bit SipHash tag of the given characters encoded with the given character set, which must be
+     * either UTF-8 or UTF-16LE. This method does not allocate any memory.
+     *
+     * @param input the characters to hash.
+     * @param charset the character set to encode the characters with. Must be UTF-8 or UTF-16LE.
+     * @param out the array to write the tag into.
+     * @param outOffset the index in the output array at which to write the first half of the tag.
+     * @throws IllegalArgumentException if the character set is not supported.
+     * @throws IndexOutOfBoundsException if the output array does not have room for two longs at the given offset.
+     * @throws UnsupportedOperationException if this instance produces 64-bit tags.
+     * @see #hash64(CharSequence, Charset)
+     */
+    public void hash128(final CharSequence input, final Charset charset, final long[] out, final int outOffset) {
+        throw new UnsupportedOperationException("128-bit tags are not supported by " + this);
+    }
+
+    static boolean isUtf16(final Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return false;
+        }
+        if (StandardCharsets.UTF_16LE.equals(charset)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unsupported charset: " + charset);
+    }
+
+    /**
+     * Encodes the characters as UTF-8 or UTF-16LE and hashes the encoded bytes. Each character (or surrogate pair) is
+     * encoded into up to four bytes, which are appended to the partially filled message word. When a run of characters
+     * needs only one byte each in UTF-8 (or two in UTF-16LE), a whole word is assembled from them at once instead. If
+     * {@code out} is null then the 64-bit tag is returned, otherwise the 128-bit tag is written into it.
+     */
+    final long hashChars(final CharSequence input, final boolean utf16, final long[] out, final int outOffset) {
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int len = input.length();
+        // The pending bytes of the current message word, and how many of them there are
+        long m = prefixWord;
+        int n = (int) prefixLength & 7;
+        // Only the low byte of the total length is used, so overflow does not matter
+        int total = (int) prefixLength;
+
+        int i = 0;
+        while (i < len) {
+            if (!utf16 && i + 8 <= len) {
+                final char c0 = input.charAt(i), c1 = input.charAt(i + 1), c2 = input.charAt(i + 2),
+                        c3 = input.charAt(i + 3), c4 = input.charAt(i + 4), c5 = input.charAt(i + 5),
+                        c6 = input.charAt(i + 6), c7 = input.charAt(i + 7);
+                if ((c0 | c1 | c2 | c3 | c4 | c5 | c6 | c7) < 0x80) {
+                    final long w = c0 | (long) c1 << 8 | (long) c2 << 16 | (long) c3 << 24 | (long) c4 << 32
+                            | (long) c5 << 40 | (long) c6 << 48 | (long) c7 << 56;
+                    final long word = m | w << (n << 3);
+                    m = n == 0 ? 0 : w >>> (64 - (n << 3));
+                    v3 ^= word;
+                    for (int r = 0; r < compressionRounds; ++r) {
+                        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                    }
+                    v0 ^= word;
+                    i += 8;
+                    total += 8;
+                    continue;
+                }
+            } else if (utf16 && i + 4 <= len) {
+                final char c0 = input.charAt(i), c1 = input.charAt(i + 1), c2 = input.charAt(i + 2),
+                        c3 = input.charAt(i + 3);
+                if (!Character.isSurrogate(c0) && !Character.isSurrogate(c1) && !Character.isSurrogate(c2)
+                        && !Character.isSurrogate(c3)) {
+                    final long w = c0 | (long) c1 << 16 | (long) c2 << 32 | (long) c3 << 48;
+                    final long word = m | w << (n << 3);
+                    m = n == 0 ? 0 : w >>> (64 - (n << 3));
+                    v3 ^= word;
+                    for (int r = 0; r < compressionRounds; ++r) {
+                        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                    }
+                    v0 ^= word;
+                    i += 4;
+                    total += 8;
+                    continue;
+                }
+            }
+
+            // Encode a single character or surrogate pair into k bytes, packed little-endian into enc
+            final char c = input.charAt(i++);
+            final int enc, k;
+            if (utf16) {
+                if (!Character.isSurrogate(c)) {
+                    enc = c;
+                    k = 2;
+                } else if (Character.isHighSurrogate(c) && i < len && Character.isLowSurrogate(input.charAt(i))) {
+                    enc = c | input.charAt(i++) << 16;
+                    k = 4;
+                } else {
+                    enc = 0xfffd;
+                    k = 2;
+                }
+            } else if (c < 0x80) {
+                enc = c;
+                k = 1;
+            } else if (c < 0x800) {
+                enc = (0xc0 | c >>> 6) | (0x80 | c & 0x3f) << 8;
+                k = 2;
+            } else if (!Character.isSurrogate(c)) {
+                enc = (0xe0 | c >>> 12) | (0x80 | c >>> 6 & 0x3f) << 8 | (0x80 | c & 0x3f) << 16;
+                k = 3;
+            } else if (Character.isHighSurrogate(c) && i < len && Character.isLowSurrogate(input.charAt(i))) {
+                final int cp = Character.toCodePoint(c, input.charAt(i++));
+                enc = (0xf0 | cp >>> 18) | (0x80 | cp >>> 12 & 0x3f) << 8 | (0x80 | cp >>> 6 & 0x3f) << 16
+                        | (0x80 | cp & 0x3f) << 24;
+                k = 4;
+            } else {
+                enc = '?';
+                k = 1;
+            }
+
+            total += k;
+            m |= (enc & 0xffffffffL) << (n << 3);
+            n += k;
+            if (n >= 8) {
+                v3 ^= m;
+                for (int r = 0; r < compressionRounds; ++r) {
+                    v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                    v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                    v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                    v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                }
+                v0 ^= m;
+                // Carry over the bytes of this character that did not fit into the word
+                n -= 8;
+                m = n == 0 ? 0 : (enc & 0xffffffffL) >>> ((k - n) << 3);
+            }
+        }
+
+        final long b = (long) total << 56 | m;
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        if (out == null) {
+            v2 ^= 0xff;
+            for (int r = 0; r < finalizationRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+
+        v2 ^= 0xee;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        out[outOffset] = v0 ^ v1 ^ v2 ^ v3;
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        out[outOffset + 1] = v0 ^ v1 ^ v2 ^ v3;
+        return 0;
+    }
+
+    /**
+     * Computes the tags of a batch of messages. Messages are hashed two at a time with their rounds interleaved, which
+     * gives substantially higher throughput than hashing them one by one when the messages are short. The results are
+     * identical to calling {@link #hash64(byte[])} or {@link #hash128(byte[], int, int, long[], int)} for each
+     * message in turn.
+     * <p>
+     * For 64-bit tags, the tag of {@code inputs[i]} is written to {@code out[i]}. For 128-bit tags, the two halves of
+     * the tag are written to {@code out[2*i]} and {@code out[2*i + 1]}. This method does not allocate any memory.
+     *
+     * @param inputs the messages to hash.
+     * @param out the array to write the tags into.
+     * @throws IndexOutOfBoundsException if the output array is too small to hold all of the tags.
+     */
+    public void hashAll(final byte[][] inputs, final long[] out) {
+        final int count = inputs.length;
+        final int tagWords = getMacTagLength() / 64;
+        checkBounds(out.length, 0, count * tagWords);
+
+        int i = 0;
+        for (; i + 1 < count; i += 2) {
+            final byte[] a = inputs[i], b = inputs[i + 1];
+            TwoLaneSipHash.hash(this, a, 0, a.length, b, 0, b.length, out, i * tagWords);
+        }
+        if (i < count) {
+            hashOne(inputs[i], 0, inputs[i].length, out, i * tagWords);
+        }
+    }
+
+    /**
+     * Computes the tags of a batch of messages packed into a single array. Message {@code i} is the range of
+     * {@code data} starting at {@code offsets[i]} of length {@code lengths[i]}. Otherwise identical to
+     * {@link #hashAll(byte[][], long[])}.
+     *
+     * @param data the array holding all of the messages.
+     * @param offsets the offset of each message within the data array.
+     * @param lengths the length of each message.
+     * @param out the array to write the tags into.
+     * @throws IllegalArgumentException if the offsets and lengths arrays have different lengths.
+     * @throws IndexOutOfBoundsException if any message does not lie within the data array, or the output array is too
+     * small to hold all of the tags.
+     */
+    public void hashAll(final byte[] data, final int[] offsets, final int[] lengths, final long[] out) {
+        if (offsets.length != lengths.length) {
+            throw new IllegalArgumentException("Must have the same number of offsets and lengths");
+        }
+        final int count = offsets.length;
+        final int tagWords = getMacTagLength() / 64;
+        checkBounds(out.length, 0, count * tagWords);
+
+        int i = 0;
+        for (; i + 1 < count; i += 2) {
+            TwoLaneSipHash.hash(this, data, offsets[i], lengths[i], data, offsets[i + 1], lengths[i + 1], out,
+                    i * tagWords);
+        }
+        if (i < count) {
+            hashOne(data, offsets[i], lengths[i], out, i * tagWords);
+        }
+    }
+
+    /**
+     * Computes the tags of a batch of messages packed into a single buffer, such as a batch of received datagrams.
+     * Message {@code i} is the range of {@code data} starting at the absolute index {@code offsets[i]} of length
+     * {@code lengths[i]}. Every message must lie before the buffer's limit, but the buffer's position and byte order
+     * are ignored, and its position and limit are not changed. Otherwise identical to
+     * {@link #hashAll(byte[][], long[])}: direct buffers are read in place, without copying onto the heap.
+     *
+     * @param data the buffer holding all of the messages.
+     * @param offsets the absolute index of each message within the buffer.
+     * @param lengths the length of each message.
+     * @param out the array to write the tags into.
+     * @throws IllegalArgumentException if the offsets and lengths arrays have different lengths.
+     * @throws IndexOutOfBoundsException if any message does not lie between zero and the buffer's limit, or the output
+     * array is too small to hold all of the tags.
+     */
+    public void hashAll(final ByteBuffer data, final int[] offsets, final int[] lengths, final long[] out) {
+        if (offsets.length != lengths.length) {
+            throw new IllegalArgumentException("Must have the same number of offsets and lengths");
+        }
+        hashAll(data, offsets, lengths, offsets.length, out);
+    }
+
+    /**
+     * Computes the tags of the first {@code count} messages described by the offsets and lengths arrays, which may be
+     * longer, so that callers can reuse the same arrays for batches of different sizes.
+     */
+    void hashAll(final ByteBuffer data, final int[] offsets, final int[] lengths, final int count,
+            final long[] out) {
+        final int tagWords = getMacTagLength() / 64;
+        checkBounds(offsets.length, 0, count);
+        checkBounds(lengths.length, 0, count);
+        checkBounds(out.length, 0, count * tagWords);
+
+        int i = 0;
+        for (; i + 1 < count; i += 2) {
+            TwoLaneSipHash.hash(this, data, offsets[i], lengths[i], data, offsets[i + 1], lengths[i + 1], out,
+                    i * tagWords);
+        }
+        if (i < count) {
+            hashOne(data, offsets[i], lengths[i], out, i * tagWords);
+        }
+    }
+
+    /**
+     * Computes the 64-bit tags of a batch of long values, such as numeric IDs. Values are hashed two at a time with
+     * their rounds interleaved, as in {@link #hashAll(byte[][], long[])}, and the tag of {@code values[i]} written to
+     * {@code out[i]} is the same as {@link #hashLong(long) hashLong(values[i])}. This method does not allocate any
+     * memory.
+     *
+     * @param values the values to hash.
+     * @param out the array to write the tags into.
+     * @throws IndexOutOfBoundsException if the output array is shorter than the array of values.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public void hashAll(final long[] values, final long[] out) {
+        hashAll(values, 0, values.length, out, 0);
+    }
+
+    /**
+     * Computes the 64-bit tags of a range of an array of long values, writing the tag of {@code values[offset + i]}
+     * to {@code out[outOffset + i]}. Otherwise identical to {@link #hashAll(long[], long[])}.
+     *
+     * @param values the array holding the values to hash.
+     * @param offset the offset of the first value to hash.
+     * @param length the number of values to hash.
+     * @param out the array to write the tags into.
+     * @param outOffset the offset in the output array to write the first tag at.
+     * @throws IndexOutOfBoundsException if either range does not lie within its array.
+     * @throws UnsupportedOperationException if this instance produces 128-bit tags.
+     */
+    public void hashAll(final long[] values, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        checkBounds(values.length, offset, length);
+        checkBounds(out.length, outOffset, length);
+
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            TwoLaneSipHash.hashLongs(this, values[offset + i], values[offset + i + 1], out, outOffset + i);
+        }
+        if (i < length) {
+            out[outOffset + i] = hashLong(values[offset + i]);
+        }
+    }
+
+    private void hashOne(final byte[] input, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        if (getMacTagLength() == 128) {
+            hash128(input, offset, length, out, outOffset);
+        } else {
+            out[outOffset] = hash64(input, offset, length);
+        }
+    }
+
+    private void hashOne(final ByteBuffer input, final int index, final int length, final long[] out,
+            final int outOffset) {
+        if (getMacTagLength() == 128) {
+            hash128(input, index, length, out, outOffset);
+        } else {
+            out[outOffset] = hash64(input, index, length);
+        }
+    }
+
+    /**
+     * Returns an instance that computes the tag of the given prefix followed by each message, for protocols where many
+     * messages share a common header, domain separation string or tenant ID. The prefix is absorbed once and the
+     * resulting internal state, including any trailing bytes of the prefix that do not fill a whole message word, is
+     * captured in the returned instance. Each call then starts from that state, so only the message itself is
+     * processed: {@code sipHash.withPrefix(prefix).mac(message)} is the same as {@code sipHash.mac(prefix || message)}.
+     * <p>
+     * The returned instance has the same parameters and tag size as this one, supports every method of this class,
+     * and is immutable and safe to share between threads, just like this one. Prefixes may be nested. Prefixes that
+     * are a multiple of 8 bytes long are slightly faster, as the messages then do not need to be shifted into place.
+     *
+     * @param prefix the prefix to absorb.
+     * @return an instance that prepends the prefix to every message.
+     */
+    public SipHash withPrefix(final byte[] prefix) {
+        return withPrefix(prefix, 0, prefix.length);
+    }
+
+    /**
+     * Returns an instance that computes the tag of the given range of the prefix array followed by each message. See
+     * {@link #withPrefix(byte[])}.
+     *
+     * @param prefix the array holding the prefix.
+     * @param offset the offset of the start of the prefix.
+     * @param length the length of the prefix.
+     * @return an instance that prepends the prefix to every message.
+     * @throws IndexOutOfBoundsException if the range does not lie within the prefix array.
+     */
+    public SipHash withPrefix(final byte[] prefix, final int offset, final int length) {
+        final Hasher hasher = newHasher();
+        hasher.update(prefix, offset, length);
+        return new PrefixedSipHash(this, new long[] { hasher.v0, hasher.v1, hasher.v2, hasher.v3 }, hasher.pending,
+                hasher.count);
+    }
+
+    /**
+     * Creates a new {@link Hasher} for incrementally computing tags with this algorithm and key.
+     *
+     * @return a new hasher, ready to accept input.
+     */
+    public Hasher newHasher() {
+        return new Hasher(this);
+    }
 
     @Override
     public String toString() {
         return String.format(Locale.ENGLISH, "SipHash-%d-%d (64-bit)", compressionRounds, finalizationRounds);
     }
+
+    /**
+     * Incrementally computes a SipHash tag over input that is supplied in several pieces, producing exactly the same
+     * tag as if all of the pieces had been concatenated and passed to {@link SipHash#mac(byte[])}. Only the four
+     * words of internal state, a partial message word and the total length are retained between updates, so memory
+     * use is constant regardless of the amount of input.
+     * <p>
+     * A hasher is reset to its initial state after each call to one of the {@code doFinal} methods, so it can be
+     * reused for any number of messages. Hashers are not thread-safe.
+     */
+    public static final class Hasher {
+        private final SipHash sipHash;
+        private long v0, v1, v2, v3;
+        private long pending;
+        private long count;
+
+        Hasher(final SipHash sipHash) {
+            this.sipHash = sipHash;
+            reset();
+        }
+
+        /**
+         * Returns the size of the tag produced by this hasher in bits.
+         *
+         * @return the tag size in bits (64 or 128).
+         */
+        public int getMacTagLength() {
+            return sipHash.getMacTagLength();
+        }
+
+        /**
+         * Resets this hasher to its initial state, discarding any input supplied since the last tag was computed.
+         */
+        public void reset() {
+            final long[] initialState = sipHash.initialState;
+            v0 = initialState[0];
+            v1 = initialState[1];
+            v2 = initialState[2];
+            v3 = initialState[3];
+            pending = sipHash.prefixWord;
+            count = sipHash.prefixLength;
+        }
+
+        /**
+         * Processes a single byte of input.
+         *
+         * @param input the input byte.
+         */
+        public void update(final byte input) {
+            final int fill = (int) count & 7;
+            pending |= (input & 0xffL) << (fill << 3);
+            ++count;
+            if (fill == 7) {
+                compress(pending);
+                pending = 0;
+            }
+        }
+
+        /**
+         * Processes all of the given input.
+         *
+         * @param input the input data.
+         */
+        public void update(final byte[] input) {
+            update(input, 0, input.length);
+        }
+
+        /**
+         * Processes the given range of the input data.
+         *
+         * @param input the input data.
+         * @param offset the offset of the start of the data in the input array.
+         * @param length the length of the data.
+         * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+         */
+        public void update(final byte[] input, final int offset, final int length) {
+            checkBounds(input.length, offset, length);
+            int i = offset;
+            final int end = offset + length;
+
+            // Top up any partial word left over from the previous update
+            while ((count & 7) != 0 && i < end) {
+                update(input[i++]);
+            }
+
+            final int wordsEnd = end - ((end - i) & 7);
+            if (i < wordsEnd) {
+                long v0 = this.v0, v1 = this.v1, v2 = this.v2, v3 = this.v3;
+                final int compressionRounds = sipHash.compressionRounds;
+                final int start = i;
+                for (; i < wordsEnd; i += 8) {
+                    final long m = bytesToLong(input, i);
+                    v3 ^= m;
+                    for (int r = 0; r < compressionRounds; ++r) {
+                        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                    }
+                    v0 ^= m;
+                }
+                this.v0 = v0;
+                this.v1 = v1;
+                this.v2 = v2;
+                this.v3 = v3;
+                count += wordsEnd - start;
+            }
+
+            while (i < end) {
+                update(input[i++]);
+            }
+        }
+
+        /**
+         * Processes all of the remaining bytes in the given buffer. On return the buffer's position will be equal to
+         * its limit. Heap, direct and read-only buffers are all supported, in either byte order.
+         *
+         * @param input the input buffer.
+         */
+        public void update(final ByteBuffer input) {
+            int i = input.position();
+            final int end = input.limit();
+            if (input.hasArray()) {
+                update(input.array(), input.arrayOffset() + i, end - i);
+                input.position(end);
+                return;
+            }
+
+            while ((count & 7) != 0 && i < end) {
+                update(input.get(i++));
+            }
+
+            final int wordsEnd = end - ((end - i) & 7);
+            if (i < wordsEnd) {
+                long v0 = this.v0, v1 = this.v1, v2 = this.v2, v3 = this.v3;
+                final int compressionRounds = sipHash.compressionRounds;
+                final int start = i;
+                for (; i < wordsEnd; i += 8) {
+                    final long m = bytesToLong(input, i);
+                    v3 ^= m;
+                    for (int r = 0; r < compressionRounds; ++r) {
+                        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                    }
+                    v0 ^= m;
+                }
+                this.v0 = v0;
+                this.v1 = v1;
+                this.v2 = v2;
+                this.v3 = v3;
+                count += wordsEnd - start;
+            }
+
+            while (i < end) {
+                update(input.get(i++));
+            }
+            input.position(end);
+        }
+
+        /**
+         * Completes the tag computation and returns the tag, then resets this hasher.
+         *
+         * @return the computed tag, as would be returned by {@link SipHash#mac(byte[])}.
+         */
+        public byte[] doFinal() {
+            final byte[] out = new byte[getMacTagLength() / 8];
+            doFinal(out, 0);
+            return out;
+        }
+
+        /**
+         * Completes the tag computation and writes the tag into the given array, then resets this hasher.
+         *
+         * @param out the array to write the tag into.
+         * @param outOffset the offset in the output array at which to write the tag.
+         * @throws IndexOutOfBoundsException if the tag would not fit into the output array at the given offset.
+         */
+        public void doFinal(final byte[] out, final int outOffset) {
+            final int tagBytes = getMacTagLength() / 8;
+            checkBounds(out.length, outOffset, tagBytes);
+            longToBytes(out, outOffset, finish());
+            if (tagBytes == 16) {
+                longToBytes(out, outOffset + 8, finishHigh());
+            }
+            reset();
+        }
+
+        /**
+         * Completes the computation of a 64-bit tag and returns it as a long, then resets this hasher.
+         *
+         * @return the computed tag, as would be returned by {@link SipHash#hash64(byte[], int, int)}.
+         * @throws UnsupportedOperationException if this hasher produces 128-bit tags.
+         */
+        public long doFinal64() {
+            if (getMacTagLength() != 64) {
+                throw new UnsupportedOperationException("64-bit tags are not supported by " + sipHash);
+            }
+            final long tag = finish();
+            reset();
+            return tag;
+        }
+
+        /**
+         * Completes the computation of a 128-bit tag and writes it into the given array as two longs, then resets this
+         * hasher.
+         *
+         * @param out the array to write the tag into.
+         * @param outOffset the index in the output array at which to write the first half of the tag.
+         * @throws IndexOutOfBoundsException if the tag would not fit into the output array at the given offset.
+         * @throws UnsupportedOperationException if this hasher produces 64-bit tags.
+         * @see SipHash#hash128(byte[], int, int, long[], int)
+         */
+        public void doFinal128(final long[] out, final int outOffset) {
+            if (getMacTagLength() != 128) {
+                throw new UnsupportedOperationException("128-bit tags are not supported by " + sipHash);
+            }
+            checkBounds(out.length, outOffset, 2);
+            out[outOffset] = finish();
+            out[outOffset + 1] = finishHigh();
+            reset();
+        }
+
+        /**
+         * Processes the final message word and runs the finalization rounds, returning the (first half of the) tag.
+         */
+        private long finish() {
+            final long b = pending | (count << 56);
+            compress(b);
+            v2 ^= getMacTagLength() == 128 ? 0xee : 0xff;
+            for (int r = 0; r < sipHash.finalizationRounds; ++r) {
+                sipround();
+            }
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+
+        /**
+         * Runs the second set of finalization rounds for a 128-bit tag. Must be called after {@link #finish()}.
+         */
+        private long finishHigh() {
+            v1 ^= 0xdd;
+            for (int r = 0; r < sipHash.finalizationRounds; ++r) {
+                sipround();
+            }
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+
+        private void compress(final long m) {
+            v3 ^= m;
+            for (int r = 0; r < sipHash.compressionRounds; ++r) {
+                sipround();
+            }
+            v0 ^= m;
+        }
+
+        private void sipround() {
+            long v0 = this.v0, v1 = this.v1, v2 = this.v2, v3 = this.v3;
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            this.v0 = v0;
+            this.v1 = v1;
+            this.v2 = v2;
+            this.v3 = v3;
+        }
+    }
 }
@@ -16,14 +16,15 @@ package software.pando.crypto.siphash;
 
 import static software.pando.crypto.siphash.SipHashUtils.*;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.Key;
-import java.util.Arrays;
 import java.util.Locale;
 
 /**
  * 128-bit output SipHash variant.
  */
-final class SipHash128 extends SipHash {
+class SipHash128 extends SipHash {
 
     SipHash128(final int compressionRounds, final int finalizationRounds, final Key key) {
         super(compressionRounds, finalizationRounds, key);
@@ -36,57 +37,210 @@ final class SipHash128 extends SipHash {
         return 128;
     }
 
-    /**
-     * Produces a Message Authentication Code (MAC) tag for the given key and input.
-     *
-     * @param input the input message to produce a MAC tag for.
-     * @return the MAC tag. This will always be exactly 16 bytes long.
-     * @throws IllegalArgumentException if the key is not at least 128 bits long.
-     */
-    public final byte[] mac(final byte[] input) {
-        long state[] = Arrays.copyOf(initialState, 4);
+    @Override
+    public void mac(final byte[] input, final int offset, final int length, final byte[] out, final int outOffset) {
+        checkBounds(out.length, outOffset, 16);
+        hash128(input, offset, length, null, out, outOffset);
+    }
 
-        int len = input.length - (input.length % 8);
-        for (int offset = 0; offset < len; offset += 8) {
-            long m = bytesToLong(input, offset);
-            state[3] ^= m;
+    @Override
+    public long hash64(final byte[] input, final int offset, final int length) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-            for (int i = 0; i < compressionRounds; ++i) {
-                sipround(state);
-            }
+    @Override
+    public long hashLong(final long value) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-            state[0] ^= m;
-        }
+    @Override
+    public long hashLongs(final long a, final long b) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-        long b = lastBits(input);
-        state[3] ^= b;
+    @Override
+    public void hashAll(final long[] values, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-        for (int i = 0; i < compressionRounds; ++i) {
-            sipround(state);
-        }
+    @Override
+    public long hash(final long[] input, final int offset, final int length) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
+
+    @Override
+    public long hash(final int[] input, final int offset, final int length) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-        state[0] ^= b;
-        state[2] ^= 0xee;
+    @Override
+    public void hash128(final byte[] input, final int offset, final int length, final long[] out,
+            final int outOffset) {
+        checkBounds(out.length, outOffset, 2);
+        hash128(input, offset, length, out, null, outOffset);
+    }
 
-        for (int i = 0; i < finalizationRounds; ++i) {
-            sipround(state);
-        }
+    @Override
+    public byte[] mac(final ByteBuffer input) {
+        final byte[] out = new byte[16];
+        hash128(input, input.position(), input.remaining(), null, out, 0);
+        return out;
+    }
+
+    @Override
+    public long hash64(final ByteBuffer input, final int index, final int length) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
+
+    @Override
+    public void hash128(final ByteBuffer input, final int index, final int length, final long[] out,
+            final int outOffset) {
+        checkBounds(out.length, outOffset, 2);
+        hash128(input, index, length, out, null, outOffset);
+    }
 
-        b = state[0] ^ state[1] ^ state[2] ^ state[3];
+    @Override
+    public long hash64(final CharSequence input, final Charset charset) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-        byte[] out = new byte[16];
-        longToBytes(out, b);
+    @Override
+    public long hash64(final CharSequence input) {
+        throw new UnsupportedOperationException("64-bit tags are not supported by " + this);
+    }
 
-        state[1] ^= 0xdd;
+    @Override
+    public void hash128(final CharSequence input, final long[] out, final int outOffset) {
+        checkBounds(out.length, outOffset, 2);
+        hashChars(input, false, out, outOffset);
+    }
+
+    @Override
+    public void hash128(final CharSequence input, final Charset charset, final long[] out, final int outOffset) {
+        final boolean utf16 = isUtf16(charset);
+        checkBounds(out.length, outOffset, 2);
+        hashChars(input, utf16, out, outOffset);
+    }
+
+    /**
+     * Computes the 128-bit tag and writes it to whichever of the two output arrays is non-null.
+     */
+    void hash128(final byte[] input, final int offset, final int length, final long[] longOut,
+            final byte[] byteOut, final int outOffset) {
+        checkBounds(input.length, offset, length);
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = offset + length - (length & 7);
+        for (int i = offset; i < end; i += 8) {
+            final long m = bytesToLong(input, i);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
 
-        for (int i = 0; i < finalizationRounds; ++i) {
-            sipround(state);
+        final long b = lastBits(input, offset, length);
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xee;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long lo = v0 ^ v1 ^ v2 ^ v3;
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long hi = v0 ^ v1 ^ v2 ^ v3;
+
+        if (longOut != null) {
+            longOut[outOffset] = lo;
+            longOut[outOffset + 1] = hi;
+        } else {
+            longToBytes(byteOut, outOffset, lo);
+            longToBytes(byteOut, outOffset + 8, hi);
         }
+    }
 
-        b = state[0] ^ state[1] ^ state[2] ^ state[3];
-        longToBytesPlus8(out, b);
+    /**
+     * Computes the 128-bit tag of a range of a buffer and writes it to whichever of the two output arrays is non-null.
+     */
+    private void hash128(final ByteBuffer input, final int index, final int length, final long[] longOut,
+            final byte[] byteOut, final int outOffset) {
+        checkBounds(input.limit(), index, length);
+        if (input.hasArray()) {
+            hash128(input.array(), input.arrayOffset() + index, length, longOut, byteOut, outOffset);
+            return;
+        }
+        long v0 = initialState[0], v1 = initialState[1], v2 = initialState[2], v3 = initialState[3];
+
+        final int end = index + length - (length & 7);
+        for (int i = index; i < end; i += 8) {
+            final long m = bytesToLong(input, i);
+            v3 ^= m;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
 
-        return out;
+        final long b = lastBits(input, index, length);
+        v3 ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= b;
+
+        v2 ^= 0xee;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long lo = v0 ^ v1 ^ v2 ^ v3;
+
+        v1 ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        final long hi = v0 ^ v1 ^ v2 ^ v3;
+
+        if (longOut != null) {
+            longOut[outOffset] = lo;
+            longOut[outOffset + 1] = hi;
+        } else {
+            longToBytes(byteOut, outOffset, lo);
+            longToBytes(byteOut, outOffset + 8, hi);
+        }
     }
 
     @Override
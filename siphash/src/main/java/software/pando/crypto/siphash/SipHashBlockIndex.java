@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.checkBounds;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maintains a keyed integrity tag over a large mutable buffer, such as a page cache or a shared-memory segment, that
+ * can be brought up to date after a small write without hashing the whole buffer again. The buffer is divided into
+ * fixed-size blocks, each with its own 128-bit SipHash tag, and the block tags are combined into an aggregate tag
+ * exactly as the leaves of a {@link SipHashTree} are. After a write, {@link #update(int, int)} hashes only the blocks
+ * that the write touched and recomputes their ancestors in the tree, which costs {@code O(log n)} node hashes for
+ * {@code n} blocks. {@link #verify(int, int)} checks a range of the buffer by hashing only the blocks that it covers.
+ * <p>
+ * The aggregate tag returned by {@link #tag()} is always the same as the {@link SipHashTree#hash(ByteBuffer)} of the
+ * current contents of the buffer, with the block size as the leaf size, so a buffer can be checked against a tag
+ * computed when it was written to disk, or on another machine, and vice versa.
+ * <p>
+ * The tags of all blocks and internal nodes are stored in a single {@code long[]}, using an in-order layout: the tag
+ * of block {@code i} is at position {@code 2i}, and the tag of the internal node whose right subtree starts with block
+ * {@code s} is at position {@code 2s - 1}, so the index takes 32 bytes per block in total. Instances are not
+ * thread-safe: callers must prevent writes to the buffer while it is being updated or verified.
+ */
+public final class SipHashBlockIndex {
+    private final SipHashTree tree;
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int length;
+    private final int blockSize;
+    private final int blockShift;
+    private final int blocks;
+    private final long[] tags;
+    private final long[] blockTag = new long[2];
+    private final byte[] scratch = new byte[32];
+
+    /**
+     * Creates an index over the remaining bytes of the given buffer, between its position and its limit, and computes
+     * the tags of all of its blocks. The buffer is not copied, and its position and limit are not used after this
+     * constructor returns.
+     *
+     * @param tree the tree hash to use. Its leaf size is used as the block size.
+     * @param buffer the buffer to index.
+     */
+    public SipHashBlockIndex(final SipHashTree tree, final ByteBuffer buffer) {
+        this.tree = tree;
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.length = buffer.remaining();
+        this.blockSize = tree.getLeafSize();
+        this.blockShift = Integer.numberOfTrailingZeros(blockSize);
+        this.blocks = Math.max(1, (int) ((length + (long) blockSize - 1) >>> blockShift));
+        this.tags = new long[2 * (2 * blocks - 1)];
+        update(0, blocks, 0, blocks - 1);
+    }
+
+    /**
+     * Returns the size of each block in bytes.
+     *
+     * @return the block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of blocks in the buffer. The last block may be shorter than the block size.
+     *
+     * @return the number of blocks.
+     */
+    public int getBlockCount() {
+        return blocks;
+    }
+
+    /**
+     * Updates the index after a write to the given range of the buffer, hashing each block that overlaps the range.
+     *
+     * @param offset the offset of the start of the range, relative to the buffer's position when the index was created.
+     * @param length the length of the range.
+     * @throws IndexOutOfBoundsException if the range does not lie within the indexed buffer.
+     */
+    public void update(final int offset, final int length) {
+        checkBounds(this.length, offset, length);
+        if (length > 0) {
+            update(0, blocks, offset >>> blockShift, (offset + length - 1) >>> blockShift);
+        }
+    }
+
+    /**
+     * Checks that the given range of the buffer has not changed since it was last indexed, by hashing each block that
+     * overlaps the range and comparing it with the stored tag in constant time.
+     *
+     * @param offset the offset of the start of the range, relative to the buffer's position when the index was created.
+     * @param length the length of the range.
+     * @return whether every block overlapping the range matches its stored tag.
+     * @throws IndexOutOfBoundsException if the range does not lie within the indexed buffer.
+     */
+    public boolean verify(final int offset, final int length) {
+        checkBounds(this.length, offset, length);
+        if (length == 0) {
+            return true;
+        }
+        long diff = 0;
+        for (int block = offset >>> blockShift, last = (offset + length - 1) >>> blockShift; block <= last; ++block) {
+            hashBlock(block, blockTag, 0);
+            diff |= (blockTag[0] ^ tags[4 * block]) | (blockTag[1] ^ tags[4 * block + 1]);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Writes the stored tag of a single block into the given array as two longs, in the same form as
+     * {@link SipHash#hash128(byte[], int, int, long[], int)}.
+     *
+     * @param block the index of the block.
+     * @param out the array to write the tag into.
+     * @param outOffset the index in the output array at which to write the first half of the tag.
+     * @throws IndexOutOfBoundsException if the block does not exist or the tag would not fit into the output array.
+     */
+    public void blockTag(final int block, final long[] out, final int outOffset) {
+        checkBounds(blocks, block, 1);
+        checkBounds(out.length, outOffset, 2);
+        out[outOffset] = tags[4 * block];
+        out[outOffset + 1] = tags[4 * block + 1];
+    }
+
+    /**
+     * Returns the aggregate tag over the whole buffer, as of the last update. This takes constant time, as the tag of
+     * the root of the tree is kept up to date by {@link #update(int, int)}.
+     *
+     * @return the 16-byte aggregate tag, equal to the {@link SipHashTree} tag of the buffer.
+     */
+    public byte[] tag() {
+        final byte[] out = new byte[16];
+        tree.root(tags, 2 * position(0, blocks), length, scratch, out, 0);
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashBlockIndex{blockSize=" + blockSize + ", blocks=" + blocks + "}";
+    }
+
+    /**
+     * Recomputes the tag of the subtree of blocks {@code from} (inclusive) to {@code to} (exclusive), hashing only
+     * the blocks between {@code first} and {@code last} inclusive and the internal nodes above them.
+     */
+    private void update(final int from, final int to, final int first, final int last) {
+        if (to - from == 1) {
+            hashBlock(from, tags, 4 * from);
+            return;
+        }
+        final int split = from + Integer.highestOneBit(to - from - 1);
+        if (first < split) {
+            update(from, split, first, last);
+        }
+        if (last >= split) {
+            update(split, to, first, last);
+        }
+        tree.node(tags, 2 * position(from, split), 2 * position(split, to), scratch, tags, 2 * (2 * split - 1));
+    }
+
+    private void hashBlock(final int block, final long[] out, final int outOffset) {
+        final int offset = block << blockShift;
+        tree.leaf(buffer, start + offset, Math.min(blockSize, length - offset), out, outOffset);
+    }
+
+    /**
+     * Returns the position in the in-order layout of the root of the subtree of blocks {@code from} to {@code to}.
+     */
+    private static int position(final int from, final int to) {
+        if (to - from == 1) {
+            return 2 * from;
+        }
+        return 2 * (from + Integer.highestOneBit(to - from - 1)) - 1;
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.checkBounds;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+/**
+ * Authenticates and verifies UDP datagrams sent over a {@link DatagramChannel}, for protocols such as telemetry that
+ * must be authenticated at line rate. Each datagram carries an 8-byte sequence number, the payload and a SipHash tag
+ * of both, all little-endian:
+ * <pre>
+ *     sequence number (8 bytes) || payload || tag (8 or 16 bytes)
+ * </pre>
+ * Datagrams are sent and received in a {@link Batch}, a single direct buffer divided into one slot per datagram. The
+ * payload is written directly into its slot by the sender and read directly from it by the receiver, and the sequence
+ * number and tag are written and checked in place, so no datagram is ever copied onto the heap. All of the tags in a
+ * batch are computed with {@link SipHash#hashAll(ByteBuffer, int[], int[], long[])}, which hashes two datagrams at a
+ * time with their rounds interleaved.
+ * <p>
+ * The receiver rejects any datagram whose sequence number it has already accepted, or that is older than the most
+ * recent sequence number it has seen by more than the size of its replay window, which allows datagrams to be
+ * reordered in the network by up to that many positions. Sequence numbers start at 1 for each new instance, so a
+ * sender and receiver should use a fresh key for each session, for example derived from a long-term key and a session
+ * ID, and each sender should have its own key.
+ * <p>
+ * Statistics are kept of the number of datagrams sent, received and accepted, and of those rejected as forged or
+ * replayed. Instances are not thread-safe: use one instance for each channel and thread.
+ */
+public final class SipHashDatagramAuthenticator {
+    /**
+     * The default size of the replay window, in datagrams.
+     */
+    public static final int DEFAULT_REPLAY_WINDOW = 1024;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private final SipHash sipHash;
+    private final int tagLength;
+    private final long[] window;
+    private final int windowMask;
+    private long highestSequenceNumber;
+    private long nextSequenceNumber = 1;
+
+    private long packetsSent;
+    private long packetsReceived;
+    private long packetsAccepted;
+    private long authenticationFailures;
+    private long replaysRejected;
+    private long statisticsStart = System.nanoTime();
+
+    /**
+     * Creates an authenticator with the default replay window.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Either tag size may be used.
+     */
+    public SipHashDatagramAuthenticator(final SipHash sipHash) {
+        this(sipHash, DEFAULT_REPLAY_WINDOW);
+    }
+
+    /**
+     * Creates an authenticator with the given replay window.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Either tag size may be used.
+     * @param replayWindow the number of recent sequence numbers to remember. Must be a power of two, at least 64.
+     * @throws IllegalArgumentException if the replay window size is invalid.
+     */
+    public SipHashDatagramAuthenticator(final SipHash sipHash, final int replayWindow) {
+        if (replayWindow < 64 || Integer.bitCount(replayWindow) != 1) {
+            throw new IllegalArgumentException("Replay window must be a power of two of at least 64");
+        }
+        this.sipHash = sipHash;
+        this.tagLength = sipHash.getMacTagLength() / 8;
+        this.window = new long[replayWindow / 64];
+        this.windowMask = replayWindow - 1;
+    }
+
+    /**
+     * Creates a new batch for sending or receiving datagrams with this authenticator.
+     *
+     * @param capacity the maximum number of datagrams in the batch.
+     * @param maxPayloadLength the maximum length of the payload of each datagram. Received datagrams that are longer
+     * than this are truncated and so fail verification.
+     * @return a new, empty batch.
+     * @throws IllegalArgumentException if the capacity is less than 1 or the maximum payload length is negative, or
+     * the batch would be larger than 2GiB.
+     */
+    public Batch newBatch(final int capacity, final int maxPayloadLength) {
+        return new Batch(capacity, maxPayloadLength, tagLength);
+    }
+
+    /**
+     * Returns the number of bytes added to each payload: the sequence number and the tag.
+     *
+     * @return the overhead per datagram in bytes.
+     */
+    public int getOverhead() {
+        return HEADER_LENGTH + tagLength;
+    }
+
+    /**
+     * Assigns the next sequence numbers to each datagram in the batch and writes them and the tags into the batch,
+     * without sending it. This is done automatically by the {@code send} methods.
+     *
+     * @param batch the batch to tag.
+     */
+    public void tag(final Batch batch) {
+        final ByteBuffer buffer = batch.buffer;
+        for (int i = 0; i < batch.size; ++i) {
+            buffer.putLong(batch.offsets[i], nextSequenceNumber++);
+        }
+        sipHash.hashAll(buffer, batch.offsets, batch.messageLengths, batch.size, batch.tags);
+        final int tagWords = tagLength / 8;
+        for (int i = 0; i < batch.size; ++i) {
+            final int tagOffset = batch.offsets[i] + batch.messageLengths[i];
+            buffer.putLong(tagOffset, batch.tags[i * tagWords]);
+            if (tagWords == 2) {
+                buffer.putLong(tagOffset + 8, batch.tags[i * 2 + 1]);
+            }
+        }
+    }
+
+    /**
+     * Tags every datagram in the batch and sends them on the given connected channel, then clears the batch. If the
+     * channel is in non-blocking mode and its send buffer fills up, the remaining datagrams are dropped, just as they
+     * might be by the network.
+     *
+     * @param channel the connected channel to send on.
+     * @param batch the batch of datagrams to send.
+     * @return the number of datagrams sent.
+     * @throws IOException if an I/O error occurs.
+     * @throws java.nio.channels.NotYetConnectedException if the channel is not connected.
+     */
+    public int send(final DatagramChannel channel, final Batch batch) throws IOException {
+        return send(channel, batch, null);
+    }
+
+    /**
+     * Tags every datagram in the batch and sends them to the given address, then clears the batch. Otherwise the same
+     * as {@link #send(DatagramChannel, Batch)}.
+     *
+     * @param channel the channel to send on.
+     * @param batch the batch of datagrams to send.
+     * @param target the address to send the datagrams to, or {@code null} to send on a connected channel.
+     * @return the number of datagrams sent.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int send(final DatagramChannel channel, final Batch batch, final SocketAddress target) throws IOException {
+        tag(batch);
+        int sent = 0;
+        try {
+            for (; sent < batch.size; ++sent) {
+                final ByteBuffer packet = batch.packet(sent);
+                if ((target == null ? channel.write(packet) : channel.send(packet, target)) == 0) {
+                    break;
+                }
+            }
+        } finally {
+            packetsSent += sent;
+            batch.clear();
+        }
+        return sent;
+    }
+
+    /**
+     * Clears the batch and receives datagrams into it from the given channel until the batch is full or, if the channel
+     * is in non-blocking mode, no more datagrams are waiting. Each datagram is then verified, and the payloads of
+     * those that are authentic and not replayed can be read with {@link Batch#payload(int)}. A channel in blocking mode
+     * waits until the batch is full, so non-blocking mode with a {@link java.nio.channels.Selector} is more suitable for
+     * low or bursty traffic.
+     *
+     * @param channel the channel to receive from.
+     * @param batch the batch to receive into.
+     * @return the number of datagrams accepted as authentic.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int receive(final DatagramChannel channel, final Batch batch) throws IOException {
+        batch.clear();
+        while (batch.size < batch.capacity) {
+            final ByteBuffer packet = batch.packets[batch.size];
+            packet.clear();
+            if (channel.receive(packet) == null) {
+                break;
+            }
+            batch.received(packet.position());
+        }
+        return verify(batch);
+    }
+
+    /**
+     * Returns the number of datagrams sent since the statistics were last reset.
+     *
+     * @return the number of datagrams sent.
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * Returns the number of datagrams received since the statistics were last reset, whether or not they were accepted.
+     *
+     * @return the number of datagrams received.
+     */
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * Returns the number of datagrams received and accepted as authentic since the statistics were last reset.
+     *
+     * @return the number of datagrams accepted.
+     */
+    public long getPacketsAccepted() {
+        return packetsAccepted;
+    }
+
+    /**
+     * Returns the number of datagrams rejected because they were too short or their tag was incorrect since the
+     * statistics were last reset.
+     *
+     * @return the number of verification failures.
+     */
+    public long getAuthenticationFailures() {
+        return authenticationFailures;
+    }
+
+    /**
+     * Returns the number of authentic datagrams rejected because their sequence number had already been seen or was
+     * outside of the replay window since the statistics were last reset.
+     *
+     * @return the number of replayed datagrams.
+     */
+    public long getReplaysRejected() {
+        return replaysRejected;
+    }
+
+    /**
+     * Returns the rate at which datagrams have been sent and received since the statistics were last reset.
+     *
+     * @return the number of datagrams sent and received per second.
+     */
+    public double getPacketsPerSecond() {
+        final long elapsed = System.nanoTime() - statisticsStart;
+        return elapsed <= 0 ? 0 : (packetsSent + packetsReceived) * 1e9 / elapsed;
+    }
+
+    /**
+     * Resets all of the statistics to zero and restarts the clock used for {@link #getPacketsPerSecond()}. The replay
+     * window and sequence numbers are not affected.
+     */
+    public void resetStatistics() {
+        packetsSent = 0;
+        packetsReceived = 0;
+        packetsAccepted = 0;
+        authenticationFailures = 0;
+        replaysRejected = 0;
+        statisticsStart = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SipHashDatagramAuthenticator{sent=%d, received=%d, accepted=%d, failures=%d, "
+                        + "replays=%d, packetsPerSecond=%.0f}", packetsSent, packetsReceived, packetsAccepted,
+                authenticationFailures, replaysRejected, getPacketsPerSecond());
+    }
+
+    /**
+     * Verifies the tags of all of the datagrams received into the batch, then checks the sequence numbers of the
+     * authentic ones against the replay window.
+     */
+    private int verify(final Batch batch) {
+        final ByteBuffer buffer = batch.buffer;
+        final int minimumLength = HEADER_LENGTH + tagLength;
+        for (int i = 0; i < batch.size; ++i) {
+            // Datagrams too short to hold a tag are hashed as empty messages, and then rejected below
+            batch.messageLengths[i] = Math.max(0, batch.packetLengths[i] - tagLength);
+        }
+        sipHash.hashAll(buffer, batch.offsets, batch.messageLengths, batch.size, batch.tags);
+
+        final int tagWords = tagLength / 8;
+        int accepted = 0;
+        for (int i = 0; i < batch.size; ++i) {
+            final int offset = batch.offsets[i];
+            final int tagOffset = offset + batch.messageLengths[i];
+            long diff = buffer.getLong(tagOffset) ^ batch.tags[i * tagWords];
+            if (tagWords == 2) {
+                diff |= buffer.getLong(tagOffset + 8) ^ batch.tags[i * 2 + 1];
+            }
+            if (diff != 0 || batch.packetLengths[i] < minimumLength) {
+                ++authenticationFailures;
+                batch.reject(i);
+            } else if (!checkReplayWindow(buffer.getLong(offset))) {
+                ++replaysRejected;
+                batch.reject(i);
+            } else {
+                batch.accept(i);
+                ++accepted;
+            }
+        }
+        packetsReceived += batch.size;
+        packetsAccepted += accepted;
+        return accepted;
+    }
+
+    /**
+     * Checks whether the sequence number has not been seen before and is within the window, and if so records it. The
+     * window is a ring of bits indexed by the low bits of the sequence number, covering the sequence numbers up to and
+     * including the highest seen so far. Moving the window forward clears the bits of the numbers skipped over.
+     */
+    private boolean checkReplayWindow(final long sequenceNumber) {
+        if (sequenceNumber <= 0) {
+            return false;
+        }
+        if (sequenceNumber > highestSequenceNumber) {
+            if (sequenceNumber - highestSequenceNumber > windowMask) {
+                Arrays.fill(window, 0L);
+            } else {
+                for (long skipped = highestSequenceNumber + 1; skipped < sequenceNumber; ++skipped) {
+                    final int bit = (int) skipped & windowMask;
+                    window[bit >>> 6] &= ~(1L << bit);
+                }
+            }
+            highestSequenceNumber = sequenceNumber;
+            final int bit = (int) sequenceNumber & windowMask;
+            window[bit >>> 6] |= 1L << bit;
+            return true;
+        }
+        if (highestSequenceNumber - sequenceNumber > windowMask) {
+            return false;
+        }
+        final int bit = (int) sequenceNumber & windowMask;
+        final long mask = 1L << bit;
+        if ((window[bit >>> 6] & mask) != 0) {
+            return false;
+        }
+        window[bit >>> 6] |= mask;
+        return true;
+    }
+
+    /**
+     * A batch of datagrams held in a single direct buffer, with a fixed-size slot for each datagram. To send a batch,
+     * call {@link #add(int)} for each datagram and write its payload into the returned buffer, then pass the batch to
+     * {@link SipHashDatagramAuthenticator#send(DatagramChannel, Batch)}. After
+     * {@link SipHashDatagramAuthenticator#receive(DatagramChannel, Batch)}, check {@link #isAuthentic(int)} before
+     * reading each datagram's {@link #payload(int)}.
+     * <p>
+     * The buffers returned by {@link #add(int)} and {@link #payload(int)} are views of the batch's memory, and are
+     * reused by each new batch of datagrams. They are allocated once when the batch is created, so sending and receiving
+     * does not allocate any memory. Batches are not thread-safe.
+     */
+    public static final class Batch {
+        private final ByteBuffer buffer;
+        private final int capacity;
+        private final int maxPayloadLength;
+        private final int tagLength;
+        private final int[] offsets;
+        private final int[] packetLengths;
+        private final int[] messageLengths;
+        private final boolean[] authentic;
+        private final long[] tags;
+        private final ByteBuffer[] packets;
+        private final ByteBuffer[] payloads;
+        private int size;
+
+        Batch(final int capacity, final int maxPayloadLength, final int tagLength) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Capacity must be at least 1");
+            }
+            if (maxPayloadLength < 0) {
+                throw new IllegalArgumentException("Maximum payload length must not be negative");
+            }
+            final long slotSize = HEADER_LENGTH + (long) maxPayloadLength + tagLength;
+            if (slotSize * capacity > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Batch is too large");
+            }
+            this.buffer = ByteBuffer.allocateDirect((int) slotSize * capacity).order(ByteOrder.LITTLE_ENDIAN);
+            this.capacity = capacity;
+            this.maxPayloadLength = maxPayloadLength;
+            this.tagLength = tagLength;
+            this.offsets = new int[capacity];
+            this.packetLengths = new int[capacity];
+            this.messageLengths = new int[capacity];
+            this.authentic = new boolean[capacity];
+            this.tags = new long[capacity * tagLength / 8];
+            this.packets = new ByteBuffer[capacity];
+            this.payloads = new ByteBuffer[capacity];
+            for (int i = 0; i < capacity; ++i) {
+                offsets[i] = i * (int) slotSize;
+                buffer.limit(offsets[i] + (int) slotSize).position(offsets[i]);
+                packets[i] = buffer.slice();
+                buffer.position(offsets[i] + HEADER_LENGTH);
+                payloads[i] = buffer.slice();
+                buffer.clear();
+            }
+        }
+
+        /**
+         * Returns the maximum number of datagrams in the batch.
+         *
+         * @return the capacity of the batch.
+         */
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * Returns the number of datagrams currently in the batch.
+         *
+         * @return the number of datagrams.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the maximum length of the payload of each datagram.
+         *
+         * @return the maximum payload length.
+         */
+        public int getMaxPayloadLength() {
+            return maxPayloadLength;
+        }
+
+        /**
+         * Adds a datagram to the batch and returns a buffer for writing its payload, with position zero and limit equal
+         * to the payload length. The payload can be written with either relative or absolute puts.
+         *
+         * @param payloadLength the length of the payload.
+         * @return a view of the payload in the batch.
+         * @throws IllegalArgumentException if the payload length is negative or greater than the maximum.
+         * @throws IllegalStateException if the batch is full.
+         */
+        public ByteBuffer add(final int payloadLength) {
+            if (payloadLength < 0 || payloadLength > maxPayloadLength) {
+                throw new IllegalArgumentException("Invalid payload length: " + payloadLength);
+            }
+            if (size == capacity) {
+                throw new IllegalStateException("Batch is full");
+            }
+            messageLengths[size] = HEADER_LENGTH + payloadLength;
+            packetLengths[size] = HEADER_LENGTH + payloadLength + tagLength;
+            authentic[size] = false;
+            final ByteBuffer payload = payloads[size++];
+            payload.clear().limit(payloadLength);
+            return payload;
+        }
+
+        /**
+         * Returns whether the given received datagram was authentic and not a replay.
+         *
+         * @param index the index of the datagram in the batch.
+         * @return whether the datagram was accepted.
+         * @throws IndexOutOfBoundsException if there is no datagram at the given index.
+         */
+        public boolean isAuthentic(final int index) {
+            checkBounds(size, index, 1);
+            return authentic[index];
+        }
+
+        /**
+         * Returns the payload of the given datagram, with position zero and limit equal to the payload length. For a
+         * received datagram that was not accepted as authentic, the payload is empty.
+         *
+         * @param index the index of the datagram in the batch.
+         * @return a view of the payload in the batch.
+         * @throws IndexOutOfBoundsException if there is no datagram at the given index.
+         */
+        public ByteBuffer payload(final int index) {
+            checkBounds(size, index, 1);
+            final ByteBuffer payload = payloads[index];
+            payload.clear().limit(messageLengths[index] - HEADER_LENGTH);
+            return payload;
+        }
+
+        /**
+         * Returns the sequence number of the given datagram. For a received datagram, this is only meaningful if it
+         * was accepted as authentic.
+         *
+         * @param index the index of the datagram in the batch.
+         * @return the sequence number.
+         * @throws IndexOutOfBoundsException if there is no datagram at the given index.
+         */
+        public long sequenceNumber(final int index) {
+            checkBounds(size, index, 1);
+            return buffer.getLong(offsets[index]);
+        }
+
+        /**
+         * Removes all datagrams from the batch.
+         */
+        public void clear() {
+            size = 0;
+        }
+
+        /**
+         * Returns the complete tagged datagram at the given index, ready to be sent.
+         */
+        ByteBuffer packet(final int index) {
+            final ByteBuffer packet = packets[index];
+            packet.clear().limit(packetLengths[index]);
+            return packet;
+        }
+
+        void received(final int length) {
+            packetLengths[size] = length;
+            authentic[size] = false;
+            ++size;
+        }
+
+        void accept(final int index) {
+            authentic[index] = true;
+        }
+
+        void reject(final int index) {
+            // Hide the payload of datagrams that were not accepted
+            messageLengths[index] = HEADER_LENGTH;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Computes {@link SipHashTree} tags of files, for fingerprinting large sets of files such as log segments or build
+ * artifacts. Files are memory-mapped with {@link FileChannel#map} and the leaves are hashed directly from the mapping, so
+ * no file data is copied onto the heap. Many files are hashed concurrently in a bounded {@link ForkJoinPool}, and the
+ * leaves of each file are hashed in parallel in the same pool, so a single large file and many small files both keep
+ * every thread busy.
+ * <p>
+ * Files larger than 2GiB, which cannot be mapped as a single buffer, are mapped one 1GiB window at a time. Each window is
+ * a whole subtree of the file's tree, so the tag is always exactly the same as {@link SipHashTree#hash(ByteBuffer)} of
+ * the complete file contents, and the same as computed by {@link SipHashTree.Hasher} when the file is written.
+ * <p>
+ * This class can also be run from the command line, printing the hex-encoded tag of each file followed by its name, in
+ * the style of {@code sha256sum}, and the overall throughput to standard error:
+ * <pre>{@code
+ * java -cp siphash.jar software.pando.crypto.siphash.SipHashFiles [-t threads] [-l leafSize] keyFile file...
+ * }</pre>
+ * The key file must contain the raw bytes of a 128-bit key. Instances are thread-safe, and must be closed to shut down
+ * the thread pool.
+ */
+public final class SipHashFiles implements AutoCloseable {
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SipHashTree tree;
+    private final ForkJoinPool pool;
+    private final int windowSize;
+    private final LongAdder filesHashed = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+
+    /**
+     * Creates an instance that hashes files with one thread for each available processor.
+     *
+     * @param tree the tree hash to compute for each file.
+     */
+    public SipHashFiles(final SipHashTree tree) {
+        this(tree, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an instance that hashes files with the given number of threads. For files on local SSDs a thread per
+     * processor is usually enough to saturate the disk, as reads are done by the operating system's read-ahead as each
+     * mapped page is first touched. Slower or network file systems may benefit from more threads, to keep more reads in
+     * flight.
+     *
+     * @param tree the tree hash to compute for each file.
+     * @param threads the maximum number of threads to use.
+     * @throws IllegalArgumentException if the number of threads is less than 1.
+     */
+    public SipHashFiles(final SipHashTree tree, final int threads) {
+        this(tree, threads, DEFAULT_WINDOW_SIZE);
+    }
+
+    SipHashFiles(final SipHashTree tree, final int threads, final int windowSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (windowSize < tree.getLeafSize() || Integer.bitCount(windowSize) != 1) {
+            throw new IllegalArgumentException("Window size must be a power of two no smaller than the leaf size");
+        }
+        this.tree = tree;
+        this.pool = new ForkJoinPool(threads);
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Computes the tree tag of the contents of a file, using the thread pool to hash the file in parallel.
+     *
+     * @param file the file to hash.
+     * @return the 16-byte tag.
+     * @throws IOException if the file cannot be read.
+     */
+    public byte[] hash(final Path file) throws IOException {
+        final FileTask task = new FileTask(file);
+        pool.invoke(task);
+        return task.result();
+    }
+
+    /**
+     * Computes the tree tags of the contents of several files, hashing as many of them at once as there are threads.
+     *
+     * @param files the files to hash.
+     * @return the tag of each file, in the iteration order of the input collection.
+     * @throws IOException if any of the files cannot be read. Other files that could not be read are added to the
+     * exception as suppressed exceptions.
+     */
+    public Map<Path, byte[]> hashAll(final Collection<Path> files) throws IOException {
+        final Map<Path, byte[]> results = new LinkedHashMap<>();
+        IOException failure = null;
+        for (FileTask task : hashFiles(files)) {
+            try {
+                results.put(task.file, task.result());
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Hashes the files named on the command line. See the class documentation for the arguments.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(final String... args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(final String[] args, final PrintStream out, final PrintStream err) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int leafSize = SipHashTree.DEFAULT_LEAF_SIZE;
+        int arg = 0;
+        try {
+            for (; arg < args.length && args[arg].startsWith("-"); arg += 2) {
+                if (arg + 1 == args.length) {
+                    return usage(err);
+                } else if (args[arg].equals("-t")) {
+                    threads = Integer.parseInt(args[arg + 1]);
+                } else if (args[arg].equals("-l")) {
+                    leafSize = Integer.parseInt(args[arg + 1]);
+                } else {
+                    return usage(err);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return usage(err);
+        }
+        if (args.length - arg < 2) {
+            return usage(err);
+        }
+
+        final SipHash sipHash;
+        try {
+            final byte[] key = Files.readAllBytes(Paths.get(args[arg]));
+            sipHash = SipHash.getInstance(2, 4, 128, new SecretKeySpec(key, "RAW"));
+        } catch (IOException | IllegalArgumentException e) {
+            err.println("Unable to read key from " + args[arg] + ": " + e.getMessage());
+            return 2;
+        }
+
+        final List<Path> files = new ArrayList<>();
+        for (int i = arg + 1; i < args.length; ++i) {
+            files.add(Paths.get(args[i]));
+        }
+
+        int status = 0;
+        final long start = System.nanoTime();
+        try (SipHashFiles hasher = new SipHashFiles(new SipHashTree(sipHash, leafSize), threads)) {
+            for (FileTask task : hasher.hashFiles(files)) {
+                try {
+                    out.println(toHex(task.result()) + "  " + task.file);
+                } catch (IOException e) {
+                    err.println(task.file + ": " + e);
+                    status = 1;
+                }
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final double mebibytes = hasher.getBytesHashed() / (double) (1 << 20);
+            err.printf("Hashed %d files (%.1f MiB) in %.3fs: %.1f MiB/s%n", hasher.getFilesHashed(), mebibytes,
+                    seconds, mebibytes / seconds);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+        return status;
+    }
+
+    private static int usage(final PrintStream err) {
+        err.println("Usage: SipHashFiles [-t threads] [-l leafSize] keyFile file...");
+        return 2;
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[i * 2] = HEX[(bytes[i] >>> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the number of files successfully hashed by this instance so far.
+     *
+     * @return the number of files hashed.
+     */
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    /**
+     * Returns the total size of all of the files successfully hashed by this instance so far. Divide by the elapsed
+     * time to find the throughput.
+     *
+     * @return the number of bytes hashed.
+     */
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    /**
+     * Shuts down the thread pool. Files that are already being hashed are completed.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashFiles{" + tree + ", threads=" + pool.getParallelism() + "}";
+    }
+
+    private List<FileTask> hashFiles(final Collection<Path> files) {
+        final List<FileTask> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            tasks.add(new FileTask(file));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+        return tasks;
+    }
+
+    /**
+     * Hashes a file one window at a time. Every window except the last is a whole number of leaves, and a power of two,
+     * so its subtree tag can be combined with the others exactly as {@link SipHashTree.Hasher} combines leaf tags.
+     */
+    private byte[] hashFile(final Path file) throws IOException {
+        final long[] stack = new long[2 * 64];
+        final long[] window = new long[2];
+        final byte[] scratch = new byte[32];
+        final byte[] tag = new byte[16];
+        int depth = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size == 0) {
+                tree.subtree(ByteBuffer.allocate(0), 0, 0, pool, stack);
+                depth = 1;
+            }
+            long windows = 0;
+            for (long position = 0; position < size; position += windowSize) {
+                final int length = (int) Math.min(windowSize, size - position);
+                // The mapping is released when the buffer is garbage collected, as Java 8 has no way to unmap it
+                final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                tree.subtree(mapped, 0, length, pool, window);
+                stack[depth * 2] = window[0];
+                stack[depth * 2 + 1] = window[1];
+                ++depth;
+                ++windows;
+                for (long n = windows; (n & 1) == 0; n >>>= 1) {
+                    --depth;
+                    tree.node(stack, (depth - 1) * 2, depth * 2, scratch, stack, (depth - 1) * 2);
+                }
+            }
+            while (depth > 1) {
+                --depth;
+                tree.node(stack, (depth - 1) * 2, depth * 2, scratch, stack, (depth - 1) * 2);
+            }
+            tree.root(stack, 0, size, scratch, tag, 0);
+            filesHashed.increment();
+            bytesHashed.add(size);
+        }
+        return tag;
+    }
+
+    @SuppressWarnings("serial")
+    private final class FileTask extends RecursiveAction {
+        private final Path file;
+        private byte[] tag;
+        private IOException error;
+
+        FileTask(final Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                tag = hashFile(file);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        byte[] result() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            return tag;
+        }
+    }
+}
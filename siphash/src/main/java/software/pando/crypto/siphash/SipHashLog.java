@@ -0,0 +1,580 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * An append-only log of records, each with its own SipHash tag, for high-rate event logs that need a cheap keyed
+ * integrity check on every record. The log is a directory of segment files, each named after the log position of its
+ * first byte. A new segment is started when the current one reaches the segment size.
+ * <p>
+ * Each segment starts with a header, and is followed by records, all little-endian:
+ * <pre>
+ *     header: magic "SIPHLOG1" (8 bytes) || base position (8 bytes) || tag (8 or 16 bytes)
+ *     record: payload length (4 bytes) || record position (8 bytes) || payload || tag (8 or 16 bytes)
+ * </pre>
+ * The tag of the header covers the magic and base position, and the tag of each record covers its length, position
+ * and payload, so records cannot be moved, removed from the middle of the log or copied between logs without
+ * detection. The tag is computed in place in the write buffer as each record is appended. The header is written and
+ * synced when the segment is created, so a header that fails verification means the wrong key or a damaged file,
+ * rather than a crash.
+ * <p>
+ * When a log is opened, every segment is memory-mapped and verified in parallel, hashing the records of each segment
+ * in batches with {@link SipHash#hashAll(ByteBuffer, int[], int[], long[])}. Segments are synced before a new one is
+ * started, so an invalid record in any segment but the last is reported as corruption. In the last segment, the first
+ * record that is incomplete or fails verification marks the torn tail left by a crash, and the segment is truncated
+ * there. Whole records at the very end of the log that were never synced can be lost in a crash without being
+ * detected, as with any log: call {@link #sync()} to make appended records durable.
+ * <p>
+ * Records are read through memory mappings, and every record's tag is verified as it is read. All public methods are
+ * synchronized, so a log can be shared between threads.
+ */
+public final class SipHashLog implements Closeable {
+    /**
+     * The default maximum size of each segment file, 64MiB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+    /**
+     * The maximum length of the payload of a single record, 1MiB.
+     */
+    public static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private static final long MAGIC = 0x31474f4c48504953L; // "SIPHLOG1", little-endian
+    private static final int RECORD_HEADER_LENGTH = 12;
+    private static final int MIN_SEGMENT_SIZE = 1 << 12;
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+    private static final int VERIFY_BATCH_SIZE = 256;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final SipHash sipHash;
+    private final int tagLength;
+    private final int segmentHeaderLength;
+    private final int segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ByteBuffer writeBuffer;
+    private final long[] tag = new long[2];
+    private final long recordsVerified;
+    private final long truncatedBytes;
+
+    private Segment active;
+    private FileChannel channel;
+    // Length of the active segment, including records still in the write buffer
+    private long activeLength;
+
+    private SipHashLog(final Path directory, final SipHash sipHash, final int segmentSize, final ForkJoinPool pool)
+            throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 4KiB and 1GiB");
+        }
+        this.directory = directory;
+        this.sipHash = sipHash;
+        this.tagLength = sipHash.getMacTagLength() / 8;
+        this.segmentHeaderLength = 16 + tagLength;
+        this.segmentSize = segmentSize;
+        this.writeBuffer = ByteBuffer.allocateDirect(RECORD_HEADER_LENGTH + MAX_RECORD_LENGTH + tagLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                final Segment segment = new Segment(file, parseBase(file));
+                segments.put(segment.base, segment);
+            }
+        }
+        final List<Verification> verifications = new ArrayList<>(segments.size());
+        for (Segment segment : segments.values()) {
+            verifications.add(new Verification(segment));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(verifications);
+            }
+        });
+
+        long records = 0;
+        long truncated = 0;
+        long expectedBase = segments.isEmpty() ? 0 : segments.firstKey();
+        for (Verification verification : verifications) {
+            final Segment segment = verification.segment;
+            final boolean last = segment == segments.lastEntry().getValue();
+            if (verification.error != null) {
+                throw verification.error;
+            }
+            if (segment.base != expectedBase) {
+                throw new IOException("Segment missing or truncated before " + segment.path);
+            }
+            if (verification.validLength < verification.size) {
+                if (!last) {
+                    throw new IOException("Corrupt record in " + segment.path + " at offset "
+                            + verification.validLength);
+                }
+                truncated = verification.size - verification.validLength;
+            }
+            records += verification.records;
+            expectedBase = segment.base + verification.validLength;
+        }
+        this.recordsVerified = records;
+        this.truncatedBytes = truncated;
+
+        if (segments.isEmpty()) {
+            startSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+            channel = FileChannel.open(active.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            activeLength = verifications.get(verifications.size() - 1).validLength;
+            if (activeLength < segmentHeaderLength) {
+                // Crashed while creating the segment, before its header was synced
+                channel.truncate(0);
+                writeSegmentHeader();
+            } else if (truncatedBytes > 0) {
+                channel.truncate(activeLength);
+                channel.force(true);
+            }
+            channel.position(activeLength);
+        }
+    }
+
+    /**
+     * Opens the log in the given directory, creating it if it does not exist, with the default segment size. Existing
+     * segments are verified in parallel in the common fork-join pool.
+     *
+     * @param directory the directory holding the log's segment files.
+     * @param sipHash the SipHash algorithm and key to use. Either tag size may be used, but must be the same every time
+     * the log is opened.
+     * @return the opened log.
+     * @throws IOException if the log cannot be read or created, or a segment is corrupt or was written with another
+     * key.
+     */
+    public static SipHashLog open(final Path directory, final SipHash sipHash) throws IOException {
+        return open(directory, sipHash, DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Opens the log in the given directory, creating it if it does not exist.
+     *
+     * @param directory the directory holding the log's segment files.
+     * @param sipHash the SipHash algorithm and key to use. Either tag size may be used, but must be the same every time
+     * the log is opened.
+     * @param segmentSize the size at which to start a new segment, between 4KiB and 1GiB. A record that would take the
+     * segment past this size is written to a new segment, unless the current segment is empty.
+     * @param pool the pool to verify existing segments in.
+     * @return the opened log.
+     * @throws IOException if the log cannot be read or created, or a segment is corrupt or was written with another
+     * key.
+     * @throws IllegalArgumentException if the segment size is invalid.
+     */
+    public static SipHashLog open(final Path directory, final SipHash sipHash, final int segmentSize,
+            final ForkJoinPool pool) throws IOException {
+        return new SipHashLog(directory, sipHash, segmentSize, pool);
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @param payload the payload of the record.
+     * @return the position of the record in the log.
+     * @throws IOException if an I/O error occurs.
+     * @throws IllegalArgumentException if the payload is longer than {@link #MAX_RECORD_LENGTH}.
+     */
+    public long append(final byte[] payload) throws IOException {
+        return append(payload, 0, payload.length);
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @param payload the array holding the payload of the record.
+     * @param offset the offset of the payload in the array.
+     * @param length the length of the payload.
+     * @return the position of the record in the log.
+     * @throws IOException if an I/O error occurs.
+     * @throws IllegalArgumentException if the payload is longer than {@link #MAX_RECORD_LENGTH}.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    public synchronized long append(final byte[] payload, final int offset, final int length) throws IOException {
+        SipHashUtils.checkBounds(payload.length, offset, length);
+        final int start = beginRecord(length);
+        writeBuffer.put(payload, offset, length);
+        return endRecord(start, length);
+    }
+
+    /**
+     * Appends a record to the log, consuming the remaining bytes of the given buffer.
+     *
+     * @param payload the payload of the record.
+     * @return the position of the record in the log.
+     * @throws IOException if an I/O error occurs.
+     * @throws IllegalArgumentException if the payload is longer than {@link #MAX_RECORD_LENGTH}.
+     */
+    public synchronized long append(final ByteBuffer payload) throws IOException {
+        final int length = payload.remaining();
+        final int start = beginRecord(length);
+        writeBuffer.put(payload);
+        return endRecord(start, length);
+    }
+
+    /**
+     * Reads the record at the given position, verifying its tag.
+     *
+     * @param position the position returned when the record was appended.
+     * @return a read-only view of the record's payload in the memory-mapped segment.
+     * @throws IOException if there is no record at the given position, or it fails verification.
+     */
+    public synchronized ByteBuffer read(final long position) throws IOException {
+        flush();
+        final Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+        if (entry == null) {
+            throw new IOException("No record at position " + position);
+        }
+        final Segment segment = entry.getValue();
+        final ByteBuffer mapped = segment.map(segment == active ? activeLength : -1);
+        final long offset = position - segment.base;
+        if (offset < segmentHeaderLength || offset + RECORD_HEADER_LENGTH + tagLength > mapped.limit()) {
+            throw new IOException("No record at position " + position);
+        }
+        final int start = (int) offset;
+        final int length = mapped.getInt(start);
+        if (length < 0 || length > MAX_RECORD_LENGTH || mapped.getLong(start + 4) != position
+                || start + RECORD_HEADER_LENGTH + (long) length + tagLength > mapped.limit()
+                || !verify(mapped, start, RECORD_HEADER_LENGTH + length, tag)) {
+            throw new IOException("Corrupt record at position " + position);
+        }
+        final ByteBuffer payload = mapped.duplicate();
+        payload.limit(start + RECORD_HEADER_LENGTH + length).position(start + RECORD_HEADER_LENGTH);
+        return payload.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Passes every record in the log to the given action in order, with its position, verifying each record's tag.
+     * The payload buffer is a read-only view of the memory-mapped segment that is reused for each record, so is only
+     * valid for the duration of the call.
+     *
+     * @param action the action to perform on each record's payload and position.
+     * @throws IOException if a record fails verification.
+     */
+    public synchronized void forEach(final ObjLongConsumer<ByteBuffer> action) throws IOException {
+        flush();
+        for (Segment segment : segments.values()) {
+            final ByteBuffer mapped = segment.map(segment == active ? activeLength : -1);
+            final Verification scan = new Verification(segment);
+            scan.scan(mapped, action);
+            if (scan.validLength < mapped.limit()) {
+                throw new IOException("Corrupt record in " + segment.path + " at offset " + scan.validLength);
+            }
+        }
+    }
+
+    /**
+     * Writes any buffered records to the active segment file. The records are then visible to other processes, but
+     * may not survive a crash until {@link #sync()} is called.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Writes any buffered records to the active segment file and forces them to the storage device.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * Returns the position at which the next record will be appended, which is also the total size of the log.
+     *
+     * @return the end position of the log.
+     */
+    public synchronized long getEndPosition() {
+        return active.base + activeLength;
+    }
+
+    /**
+     * Returns the number of records that were verified when the log was opened.
+     *
+     * @return the number of records found.
+     */
+    public long getRecordsVerified() {
+        return recordsVerified;
+    }
+
+    /**
+     * Returns the number of bytes of incomplete or invalid records that were removed from the end of the log when it
+     * was opened, or zero if the log was closed cleanly.
+     *
+     * @return the size of the torn tail.
+     */
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Writes any buffered records to the active segment file and closes it. Use {@link #sync()} first to ensure that
+     * the records are durable. Segments that have been read remain mapped until the buffers are garbage collected.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashLog{" + directory + ", segments=" + segments.size() + "}";
+    }
+
+    /**
+     * Makes room for a record of the given length, starting a new segment or flushing the write buffer if necessary,
+     * and writes the record header. Returns the start of the record in the write buffer.
+     */
+    private int beginRecord(final int length) throws IOException {
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("Record is longer than " + MAX_RECORD_LENGTH + " bytes");
+        }
+        final int recordLength = RECORD_HEADER_LENGTH + length + tagLength;
+        if (activeLength + recordLength > segmentSize && activeLength > segmentHeaderLength) {
+            flush();
+            channel.force(false);
+            channel.close();
+            active.seal();
+            startSegment(active.base + activeLength);
+        }
+        if (writeBuffer.remaining() < recordLength) {
+            flush();
+        }
+        final int start = writeBuffer.position();
+        writeBuffer.putInt(length).putLong(active.base + activeLength);
+        return start;
+    }
+
+    /**
+     * Computes the tag of the record just written to the write buffer, in place, and appends it.
+     */
+    private long endRecord(final int start, final int length) {
+        final long position = active.base + activeLength;
+        putTag(writeBuffer, start, RECORD_HEADER_LENGTH + length);
+        activeLength += RECORD_HEADER_LENGTH + length + tagLength;
+        return position;
+    }
+
+    private void putTag(final ByteBuffer buffer, final int start, final int length) {
+        final int end = start + length;
+        if (tagLength == 8) {
+            buffer.putLong(end, sipHash.hash64(buffer, start, length));
+        } else {
+            sipHash.hash128(buffer, start, length, tag, 0);
+            buffer.putLong(end, tag[0]).putLong(end + 8, tag[1]);
+        }
+        buffer.position(end + tagLength);
+    }
+
+    private boolean verify(final ByteBuffer buffer, final int start, final int length, final long[] scratch) {
+        final int end = start + length;
+        if (tagLength == 8) {
+            return (buffer.getLong(end) ^ sipHash.hash64(buffer, start, length)) == 0;
+        }
+        sipHash.hash128(buffer, start, length, scratch, 0);
+        return ((buffer.getLong(end) ^ scratch[0]) | (buffer.getLong(end + 8) ^ scratch[1])) == 0;
+    }
+
+    private void startSegment(final long base) throws IOException {
+        active = new Segment(directory.resolve(String.format("%020d%s", base, SUFFIX)), base);
+        segments.put(base, active);
+        channel = FileChannel.open(active.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        writeSegmentHeader();
+    }
+
+    /**
+     * Writes the header of the active segment and syncs it, so that it is always durable before any records.
+     */
+    private void writeSegmentHeader() throws IOException {
+        writeBuffer.clear();
+        writeBuffer.putLong(MAGIC).putLong(active.base);
+        putTag(writeBuffer, 0, 16);
+        flush();
+        channel.force(true);
+        activeLength = segmentHeaderLength;
+    }
+
+    private static long parseBase(final Path file) throws IOException {
+        final String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a log segment: " + file, e);
+        }
+    }
+
+    /**
+     * A segment file, and a read-only mapping of it that is reused for as long as it covers the segment.
+     */
+    private static final class Segment {
+        final Path path;
+        final long base;
+        MappedByteBuffer mapping;
+
+        Segment(final Path path, final long base) {
+            this.path = path;
+            this.base = base;
+        }
+
+        /**
+         * Returns a little-endian view of the segment up to the given length, or the whole file if the length is -1,
+         * mapping it again if it has grown.
+         */
+        ByteBuffer map(final long length) throws IOException {
+            if (mapping == null || (length >= 0 && mapping.capacity() < length)) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    final long size = length >= 0 ? length : file.size();
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IOException("Segment is too large: " + path);
+                    }
+                    mapping = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+            final ByteBuffer view = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (length >= 0) {
+                view.limit((int) length);
+            }
+            return view;
+        }
+
+        /**
+         * Drops any mapping made while this was the active segment, which may not cover the records appended since, so
+         * that the whole of the sealed file is mapped the next time it is read.
+         */
+        void seal() {
+            mapping = null;
+        }
+    }
+
+    /**
+     * Verifies a segment: its header, then every record in order until the end of the file or the first record that
+     * is incomplete or fails verification. Records are hashed in batches, two at a time.
+     */
+    @SuppressWarnings("serial")
+    private final class Verification extends RecursiveAction {
+        final Segment segment;
+        long size;
+        int validLength;
+        long records;
+        IOException error;
+
+        Verification(final Segment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final ByteBuffer mapped = segment.map(-1);
+                size = mapped.limit();
+                scan(mapped, null);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        void scan(final ByteBuffer mapped, final ObjLongConsumer<ByteBuffer> action) throws IOException {
+            final int limit = mapped.limit();
+            if (limit < segmentHeaderLength) {
+                // A segment whose header was never completely written has no records
+                validLength = 0;
+                return;
+            }
+            final int[] offsets = new int[VERIFY_BATCH_SIZE];
+            final int[] lengths = new int[VERIFY_BATCH_SIZE];
+            final long[] tags = new long[VERIFY_BATCH_SIZE * tagLength / 8];
+            if (mapped.getLong(0) != MAGIC || mapped.getLong(8) != segment.base || !verify(mapped, 0, 16, tags)) {
+                throw new IOException("Invalid segment header, or wrong key: " + segment.path);
+            }
+
+            final ByteBuffer payload = action == null ? null : mapped.asReadOnlyBuffer();
+            int position = segmentHeaderLength;
+            while (true) {
+                int count = 0;
+                int next = position;
+                while (count < VERIFY_BATCH_SIZE && next + RECORD_HEADER_LENGTH <= limit) {
+                    final int length = mapped.getInt(next);
+                    if (length < 0 || length > MAX_RECORD_LENGTH || mapped.getLong(next + 4) != segment.base + next
+                            || next + RECORD_HEADER_LENGTH + (long) length + tagLength > limit) {
+                        break;
+                    }
+                    offsets[count] = next;
+                    lengths[count++] = RECORD_HEADER_LENGTH + length;
+                    next += RECORD_HEADER_LENGTH + length + tagLength;
+                }
+                if (count == 0) {
+                    validLength = position;
+                    return;
+                }
+
+                sipHash.hashAll(mapped, offsets, lengths, count, tags);
+                for (int i = 0; i < count; ++i) {
+                    final int end = offsets[i] + lengths[i];
+                    long diff = mapped.getLong(end) ^ tags[i * tagLength / 8];
+                    if (tagLength == 16) {
+                        diff |= mapped.getLong(end + 8) ^ tags[i * 2 + 1];
+                    }
+                    if (diff != 0) {
+                        validLength = offsets[i];
+                        return;
+                    }
+                    ++records;
+                    if (action != null) {
+                        payload.limit(end).position(offsets[i] + RECORD_HEADER_LENGTH);
+                        action.accept(payload, segment.base + offsets[i]);
+                    }
+                }
+                position = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A keyed tree hash built on 128-bit SipHash, for inputs that are too large to hash efficiently with a single call to
+ * {@link SipHash}, such as multi-gigabyte files. The input is divided into fixed-size leaves, which are hashed
+ * independently and then combined pairwise into a binary tree, so the leaves can be hashed in parallel on all available
+ * cores. A {@link Hasher} computes exactly the same root tag sequentially, for input that arrives as a stream.
+ * <p>
+ * The tree is defined as follows, where {@code H(d, m)} is the 128-bit SipHash tag of the message {@code m} preceded
+ * by an 8-byte little-endian domain separation word {@code d}:
+ * <ul>
+ *     <li>The input is split into leaves of exactly {@code leafSize} bytes, except for the last, which may be shorter.
+ *     An empty input has a single empty leaf. The tag of a leaf is {@code H(0, leaf)}.</li>
+ *     <li>The tag of a subtree of {@code n > 1} leaves is {@code H(1, left || right)}, where {@code left} is the tag of
+ *     the subtree of its first {@code k} leaves, {@code right} the tag of the subtree of the remaining leaves, and
+ *     {@code k} is the largest power of two less than {@code n}. Every left subtree is therefore complete, which is
+ *     what allows the tree to be computed with a small stack as the input is read.</li>
+ *     <li>The root tag is {@code H(2, top || length)}, where {@code top} is the tag of the whole tree and
+ *     {@code length} is the 8-byte little-endian length of the input.</li>
+ * </ul>
+ * The separate domains ensure that a leaf can never be confused with an internal node, or a subtree with a whole
+ * input. Each domain word is absorbed once, using {@link SipHash#withPrefix(byte[])}, so it adds no cost per leaf.
+ * Tags are written in the same format as {@link SipHash#mac(byte[])}. Instances are immutable and thread-safe.
+ */
+public final class SipHashTree {
+    /**
+     * The default leaf size, 64KiB. Large enough that combining the leaves costs well under 1% of hashing them.
+     */
+    public static final int DEFAULT_LEAF_SIZE = 1 << 16;
+
+    private static final int MIN_LEAF_SIZE = 1 << 10;
+    private static final int MAX_LEAF_SIZE = 1 << 24;
+    // Each parallel task hashes at least this much input, to amortise the cost of forking it
+    private static final int MIN_TASK_SIZE = 1 << 20;
+
+    private final SipHash leafHash;
+    private final SipHash nodeHash;
+    private final SipHash rootHash;
+    private final int leafSize;
+    private final int leafShift;
+
+    /**
+     * Creates a tree hash with the default leaf size.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 128-bit tags.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 128-bit tags.
+     */
+    public SipHashTree(final SipHash sipHash) {
+        this(sipHash, DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * Creates a tree hash with the given leaf size. Trees with different leaf sizes produce different tags for the
+     * same input.
+     *
+     * @param sipHash the SipHash algorithm and key to use. Must produce 128-bit tags.
+     * @param leafSize the size of each leaf in bytes. Must be a power of two between 1KiB and 16MiB.
+     * @throws IllegalArgumentException if the SipHash instance does not produce 128-bit tags, or the leaf size is
+     * invalid.
+     */
+    public SipHashTree(final SipHash sipHash, final int leafSize) {
+        if (sipHash.getMacTagLength() != 128) {
+            throw new IllegalArgumentException("SipHash instance must produce 128-bit tags");
+        }
+        if (leafSize < MIN_LEAF_SIZE || leafSize > MAX_LEAF_SIZE || Integer.bitCount(leafSize) != 1) {
+            throw new IllegalArgumentException("Leaf size must be a power of two between 1KiB and 16MiB");
+        }
+        this.leafHash = sipHash.withPrefix(domain(0));
+        this.nodeHash = sipHash.withPrefix(domain(1));
+        this.rootHash = sipHash.withPrefix(domain(2));
+        this.leafSize = leafSize;
+        this.leafShift = Integer.numberOfTrailingZeros(leafSize);
+    }
+
+    /**
+     * Returns the size of each leaf in bytes.
+     *
+     * @return the leaf size.
+     */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * Computes the 128-bit root tag of the given input, hashing the leaves in parallel in the common fork-join pool.
+     *
+     * @param input the input data.
+     * @return the 16-byte root tag.
+     */
+    public byte[] hash(final byte[] input) {
+        return hash(ByteBuffer.wrap(input), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the 128-bit root tag of the remaining bytes of the given buffer, between its position and its limit,
+     * hashing the leaves in parallel in the common fork-join pool. The buffer's position is not changed. The leaves are
+     * read directly from the buffer, so a direct buffer or a memory-mapped file is hashed without copying it onto the
+     * heap.
+     *
+     * @param input the input data.
+     * @return the 16-byte root tag.
+     */
+    public byte[] hash(final ByteBuffer input) {
+        return hash(input, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the 128-bit root tag of the remaining bytes of the given buffer, hashing the leaves in parallel in the
+     * given fork-join pool. The buffer's position is not changed.
+     *
+     * @param input the input data.
+     * @param pool the pool to run the hashing tasks in.
+     * @return the 16-byte root tag.
+     */
+    public byte[] hash(final ByteBuffer input, final ForkJoinPool pool) {
+        final long[] top = new long[2];
+        subtree(input, input.position(), input.remaining(), pool, top);
+
+        final byte[] tag = new byte[16];
+        root(top, 0, input.remaining(), new byte[24], tag, 0);
+        return tag;
+    }
+
+    /**
+     * Creates a new {@link Hasher} for computing root tags sequentially from a stream of input.
+     *
+     * @return a new hasher, ready to accept input.
+     */
+    public Hasher newHasher() {
+        return new Hasher(this);
+    }
+
+    @Override
+    public String toString() {
+        return "SipHashTree{" + leafHash.toString().replaceFirst(" \\(.*", "") + ", leafSize=" + leafSize + "}";
+    }
+
+    private static byte[] domain(final int domain) {
+        final byte[] word = new byte[8];
+        word[0] = (byte) domain;
+        return word;
+    }
+
+    /**
+     * Computes the tag of the subtree of all of the leaves in the given range of the buffer, hashing them in parallel in
+     * the given pool, and writes it to the first two elements of {@code out}. If the range is not a whole number of
+     * leaves then the last leaf is partial. If called from a task already running in the pool, the subtree is computed
+     * in the current task rather than waiting for a new one.
+     */
+    void subtree(final ByteBuffer input, final int start, final int length, final ForkJoinPool pool,
+            final long[] out) {
+        final int leaves = Math.max(1, (int) ((length + (long) leafSize - 1) >>> leafShift));
+        final int leavesPerTask = Math.max(1, MIN_TASK_SIZE >>> leafShift);
+        final SubtreeTask task = new SubtreeTask(input, start, length, 0, leaves, leavesPerTask, out);
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * Hashes one leaf: the given range of the input, which must be no longer than the leaf size.
+     */
+    void leaf(final ByteBuffer input, final int index, final int length, final long[] out, final int outOffset) {
+        leafHash.hash128(input, index, length, out, outOffset);
+    }
+
+    /**
+     * Combines the tags of a left and right subtree, at {@code tags[left]} and {@code tags[right]}, into the tag of
+     * their parent, which is written to {@code out[outOffset]}. {@code scratch} must have room for 32 bytes.
+     */
+    void node(final long[] tags, final int left, final int right, final byte[] scratch, final long[] out,
+            final int outOffset) {
+        longToBytes(scratch, 0, tags[left]);
+        longToBytes(scratch, 8, tags[left + 1]);
+        longToBytes(scratch, 16, tags[right]);
+        longToBytes(scratch, 24, tags[right + 1]);
+        nodeHash.hash128(scratch, 0, 32, out, outOffset);
+    }
+
+    /**
+     * Computes the root tag from the tag of the whole tree and the total length of the input, and writes it to
+     * {@code out}. {@code scratch} must have room for 24 bytes.
+     */
+    void root(final long[] top, final int topOffset, final long length, final byte[] scratch, final byte[] out,
+            final int outOffset) {
+        longToBytes(scratch, 0, top[topOffset]);
+        longToBytes(scratch, 8, top[topOffset + 1]);
+        longToBytes(scratch, 16, length);
+        rootHash.mac(scratch, 0, 24, out, outOffset);
+    }
+
+    /**
+     * Computes the tag of the subtree of the given range of leaves, splitting it into a left subtree of the largest
+     * power of two leaves and a right subtree of the rest. The two halves are hashed in parallel until the number of
+     * leaves falls below the task size.
+     */
+    @SuppressWarnings("serial")
+    private final class SubtreeTask extends RecursiveAction {
+        private final ByteBuffer input;
+        private final int start;
+        private final int length;
+        private final int from;
+        private final int to;
+        private final int leavesPerTask;
+        private final long[] out;
+
+        SubtreeTask(final ByteBuffer input, final int start, final int length, final int from, final int to,
+                final int leavesPerTask, final long[] out) {
+            this.input = input;
+            this.start = start;
+            this.length = length;
+            this.from = from;
+            this.to = to;
+            this.leavesPerTask = leavesPerTask;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leavesPerTask) {
+                subtree(from, to, out, 0, new byte[32]);
+                return;
+            }
+            final int split = from + Integer.highestOneBit(to - from - 1);
+            final long[] children = new long[4];
+            final SubtreeTask left = new SubtreeTask(input, start, length, from, split, leavesPerTask, children);
+            final SubtreeTask right = new SubtreeTask(input, start, length, split, to, leavesPerTask,
+                    new long[2]);
+            right.fork();
+            left.compute();
+            right.join();
+            children[2] = right.out[0];
+            children[3] = right.out[1];
+            node(children, 0, 2, new byte[32], out, 0);
+        }
+
+        private void subtree(final int from, final int to, final long[] out, final int outOffset,
+                final byte[] scratch) {
+            if (to - from == 1) {
+                final int offset = from << leafShift;
+                leaf(input, start + offset, Math.min(leafSize, length - offset), out, outOffset);
+                return;
+            }
+            final int split = from + Integer.highestOneBit(to - from - 1);
+            final long[] children = new long[4];
+            subtree(from, split, children, 0, scratch);
+            subtree(split, to, children, 2, scratch);
+            node(children, 0, 2, scratch, out, outOffset);
+        }
+    }
+
+    /**
+     * Computes a root tag sequentially from input supplied in several pieces, producing exactly the same tag as
+     * {@link SipHashTree#hash(ByteBuffer)} of all of the pieces concatenated. There is no limit on the total length.
+     * <p>
+     * The current leaf is hashed incrementally as it arrives, so no input is buffered. The tags of completed subtrees
+     * are kept on a stack: when a leaf is finished its tag is pushed, and then the top two entries are combined once for
+     * each trailing zero bit in the number of leaves so far, just like carrying when adding one to a binary counter.
+     * The stack therefore never holds more than 64 tags. Only the last leaf may be partial, so a finished leaf is not
+     * pushed until more input arrives.
+     * <p>
+     * A hasher is reset after each call to {@code doFinal}, and can be reused. Hashers are not thread-safe.
+     */
+    public static final class Hasher {
+        private final SipHashTree tree;
+        private final SipHash.Hasher leaf;
+        private final long[] stack = new long[2 * 64];
+        private final byte[] scratch = new byte[32];
+        private int depth;
+        private long leaves;
+        private int leafFill;
+        private long length;
+
+        Hasher(final SipHashTree tree) {
+            this.tree = tree;
+            this.leaf = tree.leafHash.newHasher();
+        }
+
+        /**
+         * Processes all of the given input.
+         *
+         * @param input the input data.
+         */
+        public void update(final byte[] input) {
+            update(input, 0, input.length);
+        }
+
+        /**
+         * Processes the given range of the input data.
+         *
+         * @param input the input data.
+         * @param offset the offset of the start of the data in the input array.
+         * @param length the length of the data.
+         * @throws IndexOutOfBoundsException if the range does not lie within the input array.
+         */
+        public void update(final byte[] input, final int offset, final int length) {
+            checkBounds(input.length, offset, length);
+            int i = offset;
+            final int end = offset + length;
+            while (i < end) {
+                final int n = Math.min(end - i, startLeaf());
+                leaf.update(input, i, n);
+                leafFill += n;
+                i += n;
+            }
+            this.length += length;
+        }
+
+        /**
+         * Processes all of the remaining bytes in the given buffer. On return the buffer's position will be equal to
+         * its limit.
+         *
+         * @param input the input buffer.
+         */
+        public void update(final ByteBuffer input) {
+            final int end = input.limit();
+            this.length += input.remaining();
+            while (input.position() < end) {
+                input.limit(input.position() + Math.min(end - input.position(), startLeaf()));
+                leafFill += input.remaining();
+                leaf.update(input);
+                input.limit(end);
+            }
+        }
+
+        /**
+         * Completes the computation and returns the 16-byte root tag, then resets this hasher.
+         *
+         * @return the root tag, as would be returned by {@link SipHashTree#hash(ByteBuffer)}.
+         */
+        public byte[] doFinal() {
+            final byte[] out = new byte[16];
+            doFinal(out, 0);
+            return out;
+        }
+
+        /**
+         * Completes the computation and writes the 16-byte root tag into the given array, then resets this hasher.
+         *
+         * @param out the array to write the tag into.
+         * @param outOffset the offset in the output array at which to write the tag.
+         * @throws IndexOutOfBoundsException if the tag would not fit into the output array at the given offset.
+         */
+        public void doFinal(final byte[] out, final int outOffset) {
+            checkBounds(out.length, outOffset, 16);
+            // The last leaf is always still open: possibly empty, if there was no input at all
+            finishLeaf();
+            while (depth > 1) {
+                combine();
+            }
+            tree.root(stack, 0, length, scratch, out, outOffset);
+            reset();
+        }
+
+        /**
+         * Resets this hasher to its initial state, discarding any input supplied since the last tag was computed.
+         */
+        public void reset() {
+            leaf.reset();
+            depth = 0;
+            leaves = 0;
+            leafFill = 0;
+            length = 0;
+        }
+
+        /**
+         * Finishes the current leaf if it is full, as more input has arrived, and returns the space left in the leaf.
+         */
+        private int startLeaf() {
+            if (leafFill == tree.leafSize) {
+                finishLeaf();
+            }
+            return tree.leafSize - leafFill;
+        }
+
+        private void finishLeaf() {
+            leaf.doFinal128(stack, depth * 2);
+            ++depth;
+            ++leaves;
+            leafFill = 0;
+            for (long n = leaves; (n & 1) == 0; n >>>= 1) {
+                combine();
+            }
+        }
+
+        private void combine() {
+            --depth;
+            tree.node(stack, (depth - 1) * 2, depth * 2, scratch, stack, (depth - 1) * 2);
+        }
+    }
+}
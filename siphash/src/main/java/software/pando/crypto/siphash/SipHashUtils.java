@@ -14,10 +14,22 @@
 
 package software.pando.crypto.siphash;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
- * Utility methods used by both algorithm variants.
+ * Utility methods used by all of the algorithm variants.
  */
 final class SipHashUtils {
+    /**
+     * The final message word of an 8-byte message: there are no trailing bytes, so it only contains the length.
+     */
+    static final long LAST_BITS_8 = 8L << 56;
+    /**
+     * The final message word of a 16-byte message.
+     */
+    static final long LAST_BITS_16 = 16L << 56;
+
     private SipHashUtils() {
         throw new UnsupportedOperationException("Utility class");
     }
@@ -31,27 +43,51 @@ final class SipHashUtils {
         };
     }
 
+    /**
+     * Checks that the given offset and length describe a valid range within an array of the given size.
+     *
+     * @param arrayLength the length of the array.
+     * @param offset the offset of the start of the range.
+     * @param length the length of the range.
+     * @throws IndexOutOfBoundsException if the range does not lie within the array.
+     */
+    static void checkBounds(final int arrayLength, final int offset, final int length) {
+        if ((offset | length | (offset + length) | (arrayLength - (offset + length))) < 0) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", array length="
+                    + arrayLength);
+        }
+    }
+
+    /**
+     * Computes the final message word for the given range of the input, consisting of the 0-7 trailing bytes that do
+     * not make up a complete word, with the low byte of the message length in the most significant byte.
+     *
+     * @param input the input message.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the final message word.
+     */
     @SuppressWarnings("fallthrough")
-    static long lastBits(final byte[] input) {
-        final int left = input.length & 7;
-        final int len = input.length - (input.length % 8);
-        long b = (long) input.length << 56;
+    static long lastBits(final byte[] input, final int offset, final int length) {
+        final int left = length & 7;
+        final int len = offset + length - left;
+        long b = (long) length << 56;
 
         switch (left) {
             case 7:
-                b |= ((long) input[len + 6]) << 48;
+                b |= ((long) input[len + 6] & 0xffL) << 48;
             case 6:
-                b |= ((long) input[len + 5]) << 40;
+                b |= ((long) input[len + 5] & 0xffL) << 40;
             case 5:
-                b |= ((long) input[len + 4]) << 32;
+                b |= ((long) input[len + 4] & 0xffL) << 32;
             case 4:
-                b |= ((long) input[len + 3]) << 24;
+                b |= ((long) input[len + 3] & 0xffL) << 24;
             case 3:
-                b |= ((long) input[len + 2]) << 16;
+                b |= ((long) input[len + 2] & 0xffL) << 16;
             case 2:
-                b |= ((long) input[len + 1]) << 8;
+                b |= ((long) input[len + 1] & 0xffL) << 8;
             case 1:
-                b |= ((long) input[len]);
+                b |= ((long) input[len] & 0xffL);
                 break;
             case 0:
                 break;
@@ -60,66 +96,101 @@ final class SipHashUtils {
     }
 
     /**
-     * Implements a single round of the SipHash algorithm.
+     * Computes the final message word for the given range of a buffer. See {@link #lastBits(byte[], int, int)}.
+     */
+    @SuppressWarnings("fallthrough")
+    static long lastBits(final ByteBuffer input, final int index, final int length) {
+        final int left = length & 7;
+        final int len = index + length - left;
+        long b = (long) length << 56;
+
+        switch (left) {
+            case 7:
+                b |= ((long) input.get(len + 6) & 0xffL) << 48;
+            case 6:
+                b |= ((long) input.get(len + 5) & 0xffL) << 40;
+            case 5:
+                b |= ((long) input.get(len + 4) & 0xffL) << 32;
+            case 4:
+                b |= ((long) input.get(len + 3) & 0xffL) << 24;
+            case 3:
+                b |= ((long) input.get(len + 2) & 0xffL) << 16;
+            case 2:
+                b |= ((long) input.get(len + 1) & 0xffL) << 8;
+            case 1:
+                b |= ((long) input.get(len) & 0xffL);
+                break;
+            case 0:
+                break;
+        }
+        return b;
+    }
+
+    /**
+     * Computes the final 32-bit message word for HalfSipHash, consisting of the 0-3 trailing bytes that do not make up
+     * a complete word, with the low byte of the message length in the most significant byte.
      *
-     * @param state the internal state of the PRF. Must have exactly 4 elements.
+     * @param input the input message.
+     * @param offset the offset of the start of the message in the input array.
+     * @param length the length of the message.
+     * @return the final message word.
      */
-    static void sipround(long[] state) {
-        long v0 = state[0], v1 = state[1], v2 = state[2], v3 = state[3];
-
-        v0 += v1;
-        v2 += v3;
-        v1 = Long.rotateLeft(v1, 13);
-        v3 = Long.rotateLeft(v3, 16);
-        v1 ^= v0;
-        v3 ^= v2;
-
-        v0 = Long.rotateLeft(v0, 32);
-
-        v2 += v1;
-        v0 += v3;
-        v1 = Long.rotateLeft(v1, 17);
-        v3 = Long.rotateLeft(v3, 21);
-        v1 ^= v2;
-        v3 ^= v0;
-
-        v2 = Long.rotateLeft(v2, 32);
-
-        state[0] = v0;
-        state[1] = v1;
-        state[2] = v2;
-        state[3] = v3;
+    @SuppressWarnings("fallthrough")
+    static int lastBits32(final byte[] input, final int offset, final int length) {
+        final int left = length & 3;
+        final int len = offset + length - left;
+        int b = length << 24;
+
+        switch (left) {
+            case 3:
+                b |= (input[len + 2] & 0xff) << 16;
+            case 2:
+                b |= (input[len + 1] & 0xff) << 8;
+            case 1:
+                b |= (input[len] & 0xff);
+                break;
+            case 0:
+                break;
+        }
+        return b;
+    }
+
+    static void intToBytes(byte[] p, int offset, int v) {
+        p[offset] = (byte) v;
+        p[offset + 1] = (byte) (v >>> 8);
+        p[offset + 2] = (byte) (v >>> 16);
+        p[offset + 3] = (byte) (v >>> 24);
     }
 
     static void longToBytes(byte[] p, long v) {
-        p[0] = (byte) v;
-        p[1] = (byte) (v >>> 8);
-        p[2] = (byte) (v >>> 16);
-        p[3] = (byte) (v >>> 24);
-        p[4] = (byte) (v >>> 32);
-        p[5] = (byte) (v >>> 40);
-        p[6] = (byte) (v >>> 48);
-        p[7] = (byte) (v >>> 56);
+        longToBytes(p, 0, v);
     }
 
-    static void longToBytesPlus8(byte[] p, long v) {
-        p[8] = (byte) v;
-        p[9] = (byte) (v >>> 8);
-        p[10] = (byte) (v >>> 16);
-        p[11] = (byte) (v >>> 24);
-        p[12] = (byte) (v >>> 32);
-        p[13] = (byte) (v >>> 40);
-        p[14] = (byte) (v >>> 48);
-        p[15] = (byte) (v >>> 56);
+    static void longToBytes(byte[] p, int offset, long v) {
+        p[offset] = (byte) v;
+        p[offset + 1] = (byte) (v >>> 8);
+        p[offset + 2] = (byte) (v >>> 16);
+        p[offset + 3] = (byte) (v >>> 24);
+        p[offset + 4] = (byte) (v >>> 32);
+        p[offset + 5] = (byte) (v >>> 40);
+        p[offset + 6] = (byte) (v >>> 48);
+        p[offset + 7] = (byte) (v >>> 56);
     }
 
     static long bytesToLong(byte[] p, int offset) {
-        return l(p[offset]) | (l(p[offset + 1]) << 8) | (l(p[offset + 2]) << 16) | (l(p[offset + 3]) << 24)
-                | (l(p[offset + 4]) << 32) | (l(p[offset + 5]) << 40) | (l(p[offset + 6]) << 48)
-                | (l(p[offset + 7]) << 56);
+        return LittleEndian.getLong(p, offset);
+    }
+
+    static int bytesToInt(byte[] p, int offset) {
+        return LittleEndian.getInt(p, offset);
     }
 
-    private static long l(byte b) {
-        return b & 0xffL;
+    /**
+     * Reads a little-endian 64-bit word from the given absolute index of the buffer, regardless of the buffer's byte
+     * order and without changing its position.
+     */
+    static long bytesToLong(ByteBuffer buffer, int index) {
+        final long v = buffer.getLong(index);
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? v : Long.reverseBytes(v);
     }
 }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static software.pando.crypto.siphash.SipHashUtils.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Computes the SipHash tags of two independent messages at once, interleaving the rounds of the two states so that
+ * they can execute in parallel. Each SipHash round is a long chain of dependent operations, so a single message leaves
+ * most of a modern CPU's execution units idle; two interleaved chains keep more of them busy. Two lanes need eight
+ * state words, which fit comfortably in registers; four lanes would need all sixteen general purpose registers on
+ * x86-64 and so spill to the stack.
+ * <p>
+ * Supports any number of compression and finalization rounds and both 64-bit and 128-bit tags, using the initial
+ * state of the given {@link SipHash} instance.
+ */
+final class TwoLaneSipHash {
+    private TwoLaneSipHash() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Computes the tags of messages {@code a} and {@code b}, writing the tag of {@code a} at {@code outOffset} and the
+     * tag of {@code b} immediately after it. Each tag occupies one element of the output array for 64-bit tags, or
+     * two for 128-bit tags.
+     */
+    static void hash(final SipHash sipHash, final byte[] a, final int aOffset, final int aLength, final byte[] b,
+            final int bOffset, final int bLength, final long[] out, final int outOffset) {
+        checkBounds(a.length, aOffset, aLength);
+        checkBounds(b.length, bOffset, bLength);
+        final int compressionRounds = sipHash.compressionRounds;
+        final int finalizationRounds = sipHash.finalizationRounds;
+        final boolean wide = sipHash.getMacTagLength() == 128;
+        final long[] initialState = sipHash.initialState;
+
+        long v0a = initialState[0], v1a = initialState[1], v2a = initialState[2], v3a = initialState[3];
+        long v0b = v0a, v1b = v1a, v2b = v2a, v3b = v3a;
+
+        final int aEnd = aOffset + aLength - (aLength & 7);
+        final int bEnd = bOffset + bLength - (bLength & 7);
+        int i = aOffset, j = bOffset;
+
+        // Compress both messages together for as long as both have whole words left
+        for (; i < aEnd && j < bEnd; i += 8, j += 8) {
+            final long ma = bytesToLong(a, i);
+            final long mb = bytesToLong(b, j);
+            v3a ^= ma;
+            v3b ^= mb;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+                v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+                v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+                v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+                v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+                v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+                v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+                v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+            }
+            v0a ^= ma;
+            v0b ^= mb;
+        }
+
+        // Then whatever is left of the longer message on its own
+        for (; i < aEnd; i += 8) {
+            final long ma = bytesToLong(a, i);
+            v3a ^= ma;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+                v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+                v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+                v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            }
+            v0a ^= ma;
+        }
+        for (; j < bEnd; j += 8) {
+            final long mb = bytesToLong(b, j);
+            v3b ^= mb;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+                v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+                v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+                v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+            }
+            v0b ^= mb;
+        }
+
+        final long ba = lastBits(a, aOffset, aLength);
+        final long bb = lastBits(b, bOffset, bLength);
+        v3a ^= ba;
+        v3b ^= bb;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+        v0a ^= ba;
+        v0b ^= bb;
+
+        final long finalizationConstant = wide ? 0xee : 0xff;
+        v2a ^= finalizationConstant;
+        v2b ^= finalizationConstant;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+
+        if (!wide) {
+            out[outOffset] = v0a ^ v1a ^ v2a ^ v3a;
+            out[outOffset + 1] = v0b ^ v1b ^ v2b ^ v3b;
+            return;
+        }
+
+        out[outOffset] = v0a ^ v1a ^ v2a ^ v3a;
+        out[outOffset + 2] = v0b ^ v1b ^ v2b ^ v3b;
+
+        v1a ^= 0xdd;
+        v1b ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+
+        out[outOffset + 1] = v0a ^ v1a ^ v2a ^ v3a;
+        out[outOffset + 3] = v0b ^ v1b ^ v2b ^ v3b;
+    }
+
+    /**
+     * Computes the tags of two messages held in buffers, using absolute indices, as
+     * {@link #hash(SipHash, byte[], int, int, byte[], int, int, long[], int)} does for arrays. Each range must lie
+     * before its buffer's limit, but the buffers' positions and byte orders are ignored, and no position or limit is
+     * changed.
+     */
+    static void hash(final SipHash sipHash, final ByteBuffer a, final int aOffset, final int aLength,
+            final ByteBuffer b, final int bOffset, final int bLength, final long[] out, final int outOffset) {
+        checkBounds(a.limit(), aOffset, aLength);
+        checkBounds(b.limit(), bOffset, bLength);
+        if (a.hasArray() && b.hasArray()) {
+            hash(sipHash, a.array(), a.arrayOffset() + aOffset, aLength, b.array(), b.arrayOffset() + bOffset, bLength,
+                    out, outOffset);
+            return;
+        }
+        final int compressionRounds = sipHash.compressionRounds;
+        final int finalizationRounds = sipHash.finalizationRounds;
+        final boolean wide = sipHash.getMacTagLength() == 128;
+        final long[] initialState = sipHash.initialState;
+
+        long v0a = initialState[0], v1a = initialState[1], v2a = initialState[2], v3a = initialState[3];
+        long v0b = v0a, v1b = v1a, v2b = v2a, v3b = v3a;
+
+        final int aEnd = aOffset + aLength - (aLength & 7);
+        final int bEnd = bOffset + bLength - (bLength & 7);
+        int i = aOffset, j = bOffset;
+
+        // Compress both messages together for as long as both have whole words left
+        for (; i < aEnd && j < bEnd; i += 8, j += 8) {
+            final long ma = bytesToLong(a, i);
+            final long mb = bytesToLong(b, j);
+            v3a ^= ma;
+            v3b ^= mb;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+                v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+                v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+                v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+                v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+                v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+                v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+                v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+            }
+            v0a ^= ma;
+            v0b ^= mb;
+        }
+
+        // Then whatever is left of the longer message on its own
+        for (; i < aEnd; i += 8) {
+            final long ma = bytesToLong(a, i);
+            v3a ^= ma;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+                v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+                v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+                v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            }
+            v0a ^= ma;
+        }
+        for (; j < bEnd; j += 8) {
+            final long mb = bytesToLong(b, j);
+            v3b ^= mb;
+            for (int r = 0; r < compressionRounds; ++r) {
+                v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+                v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+                v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+                v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+            }
+            v0b ^= mb;
+        }
+
+        final long ba = lastBits(a, aOffset, aLength);
+        final long bb = lastBits(b, bOffset, bLength);
+        v3a ^= ba;
+        v3b ^= bb;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+        v0a ^= ba;
+        v0b ^= bb;
+
+        final long finalizationConstant = wide ? 0xee : 0xff;
+        v2a ^= finalizationConstant;
+        v2b ^= finalizationConstant;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+
+        if (!wide) {
+            out[outOffset] = v0a ^ v1a ^ v2a ^ v3a;
+            out[outOffset + 1] = v0b ^ v1b ^ v2b ^ v3b;
+            return;
+        }
+
+        out[outOffset] = v0a ^ v1a ^ v2a ^ v3a;
+        out[outOffset + 2] = v0b ^ v1b ^ v2b ^ v3b;
+
+        v1a ^= 0xdd;
+        v1b ^= 0xdd;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+
+        out[outOffset + 1] = v0a ^ v1a ^ v2a ^ v3a;
+        out[outOffset + 3] = v0b ^ v1b ^ v2b ^ v3b;
+    }
+
+    /**
+     * Computes the 64-bit tags of two long values, as {@link SipHash#hashLong(long)} does for each, writing the tag of
+     * {@code a} at {@code outOffset} and the tag of {@code b} immediately after it.
+     */
+    static void hashLongs(final SipHash sipHash, final long a, final long b, final long[] out, final int outOffset) {
+        final int compressionRounds = sipHash.compressionRounds;
+        final int finalizationRounds = sipHash.finalizationRounds;
+        final long[] initialState = sipHash.initialState;
+
+        long v0a = initialState[0], v1a = initialState[1], v2a = initialState[2], v3a = initialState[3];
+        long v0b = v0a, v1b = v1a, v2b = v2a, v3b = v3a;
+
+        v3a ^= a;
+        v3b ^= b;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+        v0a ^= a;
+        v0b ^= b;
+
+        v3a ^= LAST_BITS_8;
+        v3b ^= LAST_BITS_8;
+        for (int r = 0; r < compressionRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+        v0a ^= LAST_BITS_8;
+        v0b ^= LAST_BITS_8;
+
+        v2a ^= 0xff;
+        v2b ^= 0xff;
+        for (int r = 0; r < finalizationRounds; ++r) {
+            v0a += v1a; v1a = Long.rotateLeft(v1a, 13); v1a ^= v0a; v0a = Long.rotateLeft(v0a, 32);
+            v0b += v1b; v1b = Long.rotateLeft(v1b, 13); v1b ^= v0b; v0b = Long.rotateLeft(v0b, 32);
+            v2a += v3a; v3a = Long.rotateLeft(v3a, 16); v3a ^= v2a;
+            v2b += v3b; v3b = Long.rotateLeft(v3b, 16); v3b ^= v2b;
+            v0a += v3a; v3a = Long.rotateLeft(v3a, 21); v3a ^= v0a;
+            v0b += v3b; v3b = Long.rotateLeft(v3b, 21); v3b ^= v0b;
+            v2a += v1a; v1a = Long.rotateLeft(v1a, 17); v1a ^= v2a; v2a = Long.rotateLeft(v2a, 32);
+            v2b += v1b; v1b = Long.rotateLeft(v1b, 17); v1b ^= v2b; v2b = Long.rotateLeft(v2b, 32);
+        }
+
+        out[outOffset] = v0a ^ v1a ^ v2a ^ v3a;
+        out[outOffset + 1] = v0b ^ v1b ^ v2b ^ v3b;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Reads little-endian 32-bit and 64-bit words from byte arrays. This is the Java 9+ implementation, which uses a byte
+ * array view {@link VarHandle} so that each word is read with a single (possibly unaligned) load rather than eight
+ * byte loads.
+ */
+final class LittleEndian {
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private LittleEndian() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    static long getLong(final byte[] p, final int offset) {
+        return (long) LONG_VIEW.get(p, offset);
+    }
+
+    static int getInt(final byte[] p, final int offset) {
+        return (int) INT_VIEW.get(p, offset);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * HalfSipHash-1-3 32-bit tests. Expected outputs were generated from the reference implementation using the same
+ * key and inputs as the official HalfSipHash-2-4 test vectors.
+ */
+public class HalfSipHash13Test {
+    // 64-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07 },
+            "RAW");
+
+    private static final int[][] EXPECTED_OUTPUT = {
+            { 0x96, 0xc8, 0x14, 0x58, },
+            { 0xca, 0x64, 0xe8, 0xe7, },
+            { 0x30, 0x0e, 0x4b, 0xbc, },
+            { 0x39, 0x99, 0x53, 0x01, },
+            { 0xa6, 0x9e, 0x05, 0x7e, },
+            { 0x9b, 0xd8, 0xe3, 0x88, },
+            { 0x65, 0x0b, 0x08, 0xa0, },
+            { 0xd6, 0xd9, 0x38, 0x9d, },
+            { 0xb1, 0x99, 0x79, 0x57, },
+            { 0xed, 0xca, 0x39, 0xc8, },
+            { 0xcf, 0x32, 0xfa, 0xe4, },
+            { 0xee, 0x46, 0x92, 0x95, },
+            { 0x6c, 0x09, 0x28, 0x6b, },
+            { 0xd6, 0x9c, 0xdd, 0x66, },
+            { 0x7c, 0x8a, 0x65, 0x16, },
+            { 0x04, 0x7b, 0x25, 0xd0, },
+            { 0x01, 0xd5, 0x31, 0x8b, },
+            { 0x4b, 0xd0, 0x1c, 0x2b, },
+            { 0x39, 0x23, 0x71, 0x06, },
+            { 0x67, 0xca, 0x2a, 0x52, },
+            { 0x05, 0xb6, 0x1b, 0x91, },
+            { 0x0e, 0x5f, 0xa6, 0x90, },
+            { 0x7b, 0xef, 0x26, 0xf8, },
+            { 0xeb, 0x2d, 0x51, 0x62, },
+            { 0xd7, 0x0a, 0x15, 0x57, },
+            { 0x07, 0x35, 0x47, 0x5d, },
+            { 0x42, 0x74, 0xc4, 0x1e, },
+            { 0xd3, 0xaf, 0x64, 0xab, },
+            { 0xd0, 0x00, 0x41, 0x0a, },
+            { 0x52, 0xe6, 0x2c, 0x6d, },
+            { 0xa3, 0xb6, 0x31, 0x23, },
+            { 0x1a, 0x79, 0xd8, 0x08, },
+            { 0x8d, 0xda, 0x6d, 0xbc, },
+            { 0x34, 0xc9, 0xf6, 0xe0, },
+            { 0x33, 0x20, 0x65, 0xb0, },
+            { 0xcc, 0x51, 0x98, 0x9b, },
+            { 0x7f, 0xfb, 0x46, 0x7c, },
+            { 0xcb, 0xa8, 0x2b, 0x73, },
+            { 0x7a, 0x99, 0x42, 0xf1, },
+            { 0x1b, 0xaa, 0xc9, 0xfc, },
+            { 0xb2, 0x7e, 0x32, 0x05, },
+            { 0x1c, 0x13, 0x10, 0xe1, },
+            { 0xc0, 0xe7, 0xe5, 0xf9, },
+            { 0xa6, 0x08, 0xd7, 0xa7, },
+            { 0xb1, 0x5a, 0x79, 0x11, },
+            { 0x19, 0x16, 0x67, 0x65, },
+            { 0x91, 0xff, 0x5f, 0x9f, },
+            { 0x67, 0x52, 0x9c, 0xd8, },
+            { 0xeb, 0x83, 0x77, 0x00, },
+            { 0x43, 0x62, 0x76, 0x95, },
+            { 0x62, 0x92, 0x63, 0xab, },
+            { 0x90, 0x13, 0x7e, 0x9c, },
+            { 0xa6, 0xdd, 0x68, 0xc3, },
+            { 0x55, 0xc4, 0xdd, 0x38, },
+            { 0x79, 0xd3, 0x13, 0xfa, },
+            { 0xe8, 0xa4, 0x9e, 0x97, },
+            { 0x7e, 0xd7, 0xec, 0x53, },
+            { 0x57, 0x06, 0xe8, 0x2e, },
+            { 0x6a, 0xb6, 0xdb, 0x33, },
+            { 0x77, 0x05, 0x3f, 0xae, },
+            { 0xcc, 0xc4, 0xb4, 0x88, },
+            { 0x0b, 0x48, 0x7f, 0x3e, },
+            { 0xf8, 0xeb, 0xc1, 0x74, },
+            { 0x04, 0x83, 0x17, 0x87, },
+    };
+
+    @DataProvider
+    public static Object[][] expectedOutputs() {
+        Object[][] testCases = new Object[64][2];
+        for (int i = 0; i < 64; ++i) {
+            testCases[i][0] = i;
+            testCases[i][1] = intArrayToByteArray(EXPECTED_OUTPUT[i]);
+        }
+        return testCases;
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = new HalfSipHash13(KEY);
+
+        // When
+        byte[] result = algorithm.mac(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenNotUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = new HalfSipHash(1, 3, KEY);
+
+        // When
+        byte[] result = algorithm.mac(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    private static byte[] input(int size) {
+        byte[] input = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            input[i] = (byte) i;
+        }
+        return input;
+    }
+
+    private static byte[] intArrayToByteArray(int[] input) {
+        byte[] output = new byte[input.length];
+        for (int i = 0; i < input.length; ++i) {
+            output[i] = (byte) (input[i]);
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * HalfSipHash-2-4 64-bit tests. Expected outputs are the official test vectors from the reference implementation.
+ */
+public class HalfSipHash64Test {
+    // 64-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07 },
+            "RAW");
+
+    private static final int[][] EXPECTED_OUTPUT = {
+            { 0x21, 0x8d, 0x1f, 0x59, 0xb9, 0xb8, 0x3c, 0xc8, },
+            { 0xbe, 0x55, 0x24, 0x12, 0xf8, 0x38, 0x73, 0x15, },
+            { 0x06, 0x4f, 0x39, 0xef, 0x7c, 0x50, 0xeb, 0x57, },
+            { 0xce, 0x0f, 0x1a, 0x45, 0xf7, 0x06, 0x06, 0x79, },
+            { 0xd5, 0xe7, 0x8a, 0x17, 0x5b, 0xe5, 0x2e, 0xa1, },
+            { 0xcb, 0x9d, 0x7c, 0x3f, 0x2f, 0x3d, 0xb5, 0x80, },
+            { 0xce, 0x3e, 0x91, 0x35, 0x8a, 0xa2, 0xbc, 0x25, },
+            { 0xff, 0x20, 0x27, 0x28, 0xb0, 0x7b, 0xc6, 0x84, },
+            { 0xed, 0xfe, 0xe8, 0x20, 0xbc, 0xe4, 0x85, 0x8c, },
+            { 0x5b, 0x51, 0xcc, 0xcc, 0x13, 0x88, 0x83, 0x07, },
+            { 0x95, 0xb0, 0x46, 0x9f, 0x06, 0xa6, 0xf2, 0xee, },
+            { 0xae, 0x26, 0x33, 0x39, 0x94, 0xdd, 0xcd, 0x48, },
+            { 0x7b, 0xc7, 0x1f, 0x9f, 0xae, 0xf5, 0xc7, 0x99, },
+            { 0x5a, 0x23, 0x52, 0xd7, 0x5a, 0x0c, 0x37, 0x44, },
+            { 0x3b, 0xb1, 0xa8, 0x70, 0xea, 0xe8, 0xe6, 0x58, },
+            { 0x21, 0x7d, 0x0b, 0xcb, 0x4e, 0x81, 0xc9, 0x02, },
+            { 0x73, 0x36, 0xaa, 0xd2, 0x5f, 0x7b, 0xf3, 0xb5, },
+            { 0x37, 0xad, 0xc0, 0x64, 0x1c, 0x4c, 0x4f, 0x6a, },
+            { 0xc9, 0xb2, 0xdb, 0x2b, 0x9a, 0x3e, 0x42, 0xf9, },
+            { 0xf9, 0x10, 0xe4, 0x80, 0x20, 0xab, 0x36, 0x3c, },
+            { 0x1b, 0xf5, 0x2b, 0x0a, 0x6f, 0xee, 0xa7, 0xdb, },
+            { 0x00, 0x74, 0x1d, 0xc2, 0x69, 0xe8, 0xb3, 0xef, },
+            { 0xe2, 0x01, 0x03, 0xfa, 0x1b, 0xa7, 0x76, 0xef, },
+            { 0x4c, 0x22, 0x10, 0xe5, 0x4b, 0x68, 0x1d, 0x73, },
+            { 0x70, 0x74, 0x10, 0x45, 0xae, 0x3f, 0xa6, 0xf1, },
+            { 0x0c, 0x86, 0x40, 0x37, 0x39, 0x71, 0x40, 0x38, },
+            { 0x0d, 0x89, 0x9e, 0xd8, 0x11, 0x29, 0x23, 0xf0, },
+            { 0x22, 0x6b, 0xf5, 0xfa, 0xb8, 0x1e, 0xe1, 0xb8, },
+            { 0x2d, 0x92, 0x5f, 0xfb, 0x1e, 0x00, 0x16, 0xb5, },
+            { 0x36, 0x19, 0x58, 0xd5, 0x2c, 0xee, 0x10, 0xf1, },
+            { 0x29, 0x1a, 0xaf, 0x86, 0x48, 0x98, 0x17, 0x9d, },
+            { 0x86, 0x3c, 0x7f, 0x15, 0x5c, 0x34, 0x11, 0x7c, },
+            { 0x28, 0x70, 0x9d, 0x46, 0xd8, 0x11, 0x62, 0x6c, },
+            { 0x24, 0x84, 0x77, 0x68, 0x1d, 0x28, 0xf8, 0x9c, },
+            { 0x83, 0x24, 0xe4, 0xd7, 0x52, 0x8f, 0x98, 0x30, },
+            { 0xf9, 0xef, 0xd4, 0xe1, 0x3a, 0xea, 0x6b, 0xd8, },
+            { 0x86, 0xd6, 0x7a, 0x40, 0xec, 0x42, 0x76, 0xdc, },
+            { 0x3f, 0x62, 0x92, 0xec, 0xcc, 0xa9, 0x7e, 0x35, },
+            { 0xcb, 0xd9, 0x2e, 0xe7, 0x24, 0xd4, 0x21, 0x09, },
+            { 0x36, 0x8d, 0xf6, 0x80, 0x8d, 0x40, 0x3d, 0x79, },
+            { 0x5b, 0x38, 0xc8, 0x1c, 0x67, 0xc8, 0xae, 0x4c, },
+            { 0x95, 0xab, 0x71, 0x89, 0xd4, 0x39, 0xac, 0xb3, },
+            { 0xa9, 0x1a, 0x52, 0xc0, 0x25, 0x32, 0x70, 0x24, },
+            { 0x5b, 0x00, 0x87, 0xc6, 0x95, 0x28, 0xac, 0xea, },
+            { 0x1e, 0x30, 0xf3, 0xad, 0x27, 0xdc, 0xb1, 0x5a, },
+            { 0x69, 0x7f, 0x5c, 0x9a, 0x90, 0x32, 0x4e, 0xd4, },
+            { 0x49, 0x5c, 0x0f, 0x99, 0x55, 0x57, 0xdc, 0x38, },
+            { 0x94, 0x27, 0x20, 0x2a, 0x3c, 0x29, 0xf9, 0x4d, },
+            { 0xa9, 0xea, 0xa8, 0xc0, 0x4b, 0xa9, 0x3e, 0x3e, },
+            { 0xee, 0xa4, 0xc1, 0x73, 0x7d, 0x01, 0x12, 0x18, },
+            { 0x91, 0x2d, 0x56, 0x8f, 0xd8, 0xf6, 0x5a, 0x49, },
+            { 0x56, 0x91, 0x95, 0x96, 0xb0, 0xff, 0x5c, 0x97, },
+            { 0x02, 0x44, 0x5a, 0x79, 0x98, 0xf5, 0x50, 0xe1, },
+            { 0x86, 0xec, 0x46, 0x6c, 0xe7, 0x1d, 0x1f, 0xb2, },
+            { 0x35, 0x95, 0x69, 0xe7, 0xd2, 0x89, 0xe3, 0xbc, },
+            { 0x87, 0x1b, 0x05, 0xca, 0x62, 0xbb, 0x7c, 0x96, },
+            { 0xa1, 0xa4, 0x92, 0xf9, 0x42, 0xf1, 0x5f, 0x1d, },
+            { 0x12, 0xec, 0x26, 0x7f, 0xf6, 0x09, 0x5b, 0x6e, },
+            { 0x5d, 0x1b, 0x5e, 0xa1, 0xb2, 0x31, 0xd8, 0x9d, },
+            { 0xd8, 0xcf, 0xb4, 0x45, 0x3f, 0x92, 0xee, 0x54, },
+            { 0xd6, 0x76, 0x28, 0x90, 0xbf, 0x26, 0xe4, 0x60, },
+            { 0x31, 0x35, 0x63, 0xa4, 0xb7, 0xed, 0x5c, 0xf3, },
+            { 0xf9, 0x0b, 0x3a, 0xb5, 0x72, 0xd4, 0x66, 0x93, },
+            { 0x2e, 0xa6, 0x3c, 0x71, 0xbf, 0x32, 0x60, 0x87, },
+    };
+
+    @DataProvider
+    public static Object[][] expectedOutputs() {
+        Object[][] testCases = new Object[64][2];
+        for (int i = 0; i < 64; ++i) {
+            testCases[i][0] = i;
+            testCases[i][1] = intArrayToByteArray(EXPECTED_OUTPUT[i]);
+        }
+        return testCases;
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutput(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = HalfSipHash.getInstance(2, 4, 64, KEY);
+
+        // When
+        byte[] result = algorithm.mac(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldReturnLittleEndianTagAsLong(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = HalfSipHash.getInstance(2, 4, 64, KEY);
+
+        // When
+        long result = algorithm.hash64(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(ByteBuffer.wrap(expectedOutput).order(ByteOrder.LITTLE_ENDIAN).getLong());
+    }
+
+    @Test
+    public void shouldReport64BitTagLength() {
+        assertThat(HalfSipHash.getInstance(2, 4, 64, KEY).getMacTagLength()).isEqualTo(64);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldRejectHash32For64BitTags() {
+        HalfSipHash.getInstance(2, 4, 64, KEY).hash32(new byte[0]);
+    }
+
+    private static byte[] input(int size) {
+        byte[] input = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            input[i] = (byte) i;
+        }
+        return input;
+    }
+
+    private static byte[] intArrayToByteArray(int[] input) {
+        byte[] output = new byte[input.length];
+        for (int i = 0; i < input.length; ++i) {
+            output[i] = (byte) (input[i]);
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * HalfSipHash-2-4 32-bit tests. Expected outputs are the official test vectors from the reference implementation.
+ */
+public class HalfSipHashTest {
+    // 64-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07 },
+            "RAW");
+
+    private static final int[][] EXPECTED_OUTPUT = {
+            { 0xa9, 0x35, 0x9f, 0x5b, },
+            { 0x27, 0x47, 0x5a, 0xb8, },
+            { 0xfa, 0x62, 0xa6, 0x03, },
+            { 0x8a, 0xfe, 0xe7, 0x04, },
+            { 0x2a, 0x6e, 0x46, 0x89, },
+            { 0xc5, 0xfa, 0xb6, 0x69, },
+            { 0x58, 0x63, 0xfc, 0x23, },
+            { 0x8b, 0xcf, 0x63, 0xc5, },
+            { 0xd0, 0xb8, 0x84, 0x8f, },
+            { 0xf8, 0x06, 0xe7, 0x79, },
+            { 0x94, 0xb0, 0x79, 0x34, },
+            { 0x08, 0x08, 0x30, 0x50, },
+            { 0x57, 0xf0, 0x87, 0x2f, },
+            { 0x77, 0xe6, 0x63, 0xff, },
+            { 0xd6, 0xff, 0xf8, 0x7c, },
+            { 0x74, 0xfe, 0x2b, 0x97, },
+            { 0xd9, 0xb5, 0xac, 0x84, },
+            { 0xc4, 0x74, 0x64, 0x5b, },
+            { 0x46, 0x5b, 0x8d, 0x9b, },
+            { 0x7b, 0xef, 0xe3, 0x87, },
+            { 0xe3, 0x4d, 0x10, 0x45, },
+            { 0x61, 0x3f, 0x62, 0xb3, },
+            { 0x70, 0xf3, 0x67, 0xfe, },
+            { 0xe6, 0xad, 0xb8, 0xbd, },
+            { 0x27, 0x40, 0x0c, 0x63, },
+            { 0x26, 0x78, 0x78, 0x75, },
+            { 0x4f, 0x56, 0x7b, 0x5f, },
+            { 0x3a, 0xb0, 0xe6, 0x69, },
+            { 0xb0, 0x64, 0x40, 0x00, },
+            { 0xff, 0x67, 0x0f, 0xb4, },
+            { 0x50, 0x9e, 0x33, 0x8b, },
+            { 0x5d, 0x58, 0x9f, 0x1a, },
+            { 0xfe, 0xe7, 0x21, 0x12, },
+            { 0x33, 0x75, 0x32, 0x59, },
+            { 0x6a, 0x43, 0x4f, 0x8c, },
+            { 0xfe, 0x28, 0xb7, 0x29, },
+            { 0xe7, 0x5c, 0xc6, 0xec, },
+            { 0x69, 0x7e, 0x8d, 0x54, },
+            { 0x63, 0x68, 0x8b, 0x0f, },
+            { 0x65, 0x0b, 0x62, 0xb4, },
+            { 0xb6, 0xbc, 0x18, 0x40, },
+            { 0x5d, 0x07, 0x45, 0x05, },
+            { 0x24, 0x42, 0xfd, 0x2e, },
+            { 0x7b, 0xb7, 0x86, 0x3a, },
+            { 0x77, 0x05, 0xd5, 0x48, },
+            { 0xd7, 0x52, 0x08, 0xb1, },
+            { 0xb6, 0xd4, 0x99, 0xc8, },
+            { 0x08, 0x92, 0x20, 0x2e, },
+            { 0x69, 0xe1, 0x2c, 0xe3, },
+            { 0x8d, 0xb5, 0x80, 0xe5, },
+            { 0x36, 0x97, 0x64, 0xc6, },
+            { 0x01, 0x6e, 0x02, 0x04, },
+            { 0x3b, 0x85, 0xf3, 0xd4, },
+            { 0xfe, 0xdb, 0x66, 0xbe, },
+            { 0x1e, 0x69, 0x2a, 0x3a, },
+            { 0xc6, 0x89, 0x84, 0xc0, },
+            { 0xa5, 0xc5, 0xb9, 0x40, },
+            { 0x9b, 0xe9, 0xe8, 0x8c, },
+            { 0x7d, 0xbc, 0x81, 0x40, },
+            { 0x7c, 0x07, 0x8e, 0xc5, },
+            { 0xd4, 0xe7, 0x6c, 0x73, },
+            { 0x42, 0x8f, 0xcb, 0xb9, },
+            { 0xbd, 0x83, 0x99, 0x7a, },
+            { 0x59, 0xea, 0x4a, 0x74, },
+    };
+
+    @DataProvider
+    public static Object[][] expectedOutputs() {
+        Object[][] testCases = new Object[64][2];
+        for (int i = 0; i < 64; ++i) {
+            testCases[i][0] = i;
+            testCases[i][1] = intArrayToByteArray(EXPECTED_OUTPUT[i]);
+        }
+        return testCases;
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = new HalfSipHash24(KEY);
+
+        // When
+        byte[] result = algorithm.mac(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenNotUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = new HalfSipHash(2, 4, KEY);
+
+        // When
+        byte[] result = algorithm.mac(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldReturnLittleEndianTagAsInt(int inputSize, byte[] expectedOutput) {
+        // Given
+        HalfSipHash algorithm = HalfSipHash.getInstance(KEY);
+
+        // When
+        int result = algorithm.hash32(input(inputSize));
+
+        // Then
+        assertThat(result).isEqualTo(ByteBuffer.wrap(expectedOutput).order(ByteOrder.LITTLE_ENDIAN).getInt());
+    }
+
+    @Test
+    public void shouldHashRangeOfLargerArray() {
+        // Given
+        HalfSipHash algorithm = HalfSipHash.getInstance(KEY);
+        byte[] message = input(13);
+        byte[] padded = new byte[message.length + 7];
+        System.arraycopy(message, 0, padded, 3, message.length);
+
+        // When
+        int result = algorithm.hash32(padded, 3, message.length);
+
+        // Then
+        assertThat(result).isEqualTo(algorithm.hash32(message));
+    }
+
+    @Test
+    public void shouldUseFirst64BitsOfLongerKeys() {
+        // Given
+        SecretKey longKey = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09,
+                0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+        // When
+        byte[] result = HalfSipHash.getInstance(longKey).mac(input(5));
+
+        // Then
+        assertThat(result).isEqualTo(HalfSipHash.getInstance(KEY).mac(input(5)));
+    }
+
+    @Test
+    public void shouldSelectUnrolledImplementation() {
+        assertThat(HalfSipHash.getInstance(KEY)).isInstanceOf(HalfSipHash24.class);
+        assertThat(HalfSipHash.getInstance(1, 3, KEY)).isInstanceOf(HalfSipHash13.class);
+        assertThat(HalfSipHash.getInstance(2, 4, 64, KEY)).isInstanceOf(HalfSipHash64.class);
+        assertThat(HalfSipHash.getInstance(3, 5, KEY).getClass()).isEqualTo(HalfSipHash.class);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldRejectHash64For32BitTags() {
+        HalfSipHash.getInstance(KEY).hash64(new byte[0]);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectOutOfBoundsRange() {
+        HalfSipHash.getInstance(KEY).hash32(new byte[8], 5, 4);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectShortKeys() {
+        HalfSipHash.getInstance(new SecretKeySpec(new byte[7], "RAW"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectInvalidTagSize() {
+        HalfSipHash.getInstance(2, 4, 128, KEY);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectTooFewFinalizationRounds() {
+        HalfSipHash.getInstance(2, 2, KEY);
+    }
+
+    private static byte[] input(int size) {
+        byte[] input = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            input[i] = (byte) i;
+        }
+        return input;
+    }
+
+    private static byte[] intArrayToByteArray(int[] input) {
+        byte[] output = new byte[input.length];
+        for (int i = 0; i < input.length; ++i) {
+            output[i] = (byte) (input[i]);
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that hashing with a prefix absorbed in advance produces the same tags as hashing the prefix and the message
+ * together.
+ */
+public class PrefixedSipHashTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    @DataProvider
+    public static Object[][] algorithms() {
+        return new Object[][] {
+                { new SipHash(2, 4, KEY) },
+                { new SipHash(3, 5, KEY) },
+                { new SipHash13(KEY) },
+                { new SipHash24(KEY) },
+                { new SipHash48(KEY) },
+                { new SipHash128(1, 3, KEY) },
+                { new SipHash24x128(KEY) }
+        };
+    }
+
+    @DataProvider
+    public static Object[][] algorithms64() {
+        return new Object[][] {
+                { new SipHash(3, 5, KEY) },
+                { new SipHash13(KEY) },
+                { new SipHash24(KEY) },
+                { new SipHash48(KEY) }
+        };
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchTagOfPrefixFollowedByMessage(SipHash algorithm) {
+        // Given
+        byte[] data = new byte[64];
+        new Random(42L).nextBytes(data);
+
+        for (int prefixLength = 0; prefixLength <= 17; ++prefixLength) {
+            // When
+            SipHash prefixed = algorithm.withPrefix(data, 0, prefixLength);
+
+            // Then
+            for (int length = 0; prefixLength + length <= data.length; ++length) {
+                assertThat(prefixed.mac(data, prefixLength, length))
+                        .isEqualTo(algorithm.mac(data, 0, prefixLength + length));
+            }
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldIncludeLongPrefixLengthInFinalWord(SipHash algorithm) {
+        // Given
+        byte[] data = new byte[300];
+        new Random(1L).nextBytes(data);
+
+        // When
+        SipHash prefixed = algorithm.withPrefix(data, 0, 259);
+
+        // Then
+        assertThat(prefixed.mac(data, 259, 41)).isEqualTo(algorithm.mac(data));
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchTagOfPrefixFollowedByDirectBuffer(SipHash algorithm) {
+        // Given
+        byte[] data = new byte[45];
+        new Random(2L).nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put(data).flip();
+        direct.position(5);
+        ByteBuffer bigEndian = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        bigEndian.position(5);
+
+        for (ByteBuffer buffer : new ByteBuffer[] { direct, bigEndian }) {
+            // When
+            byte[] tag = algorithm.withPrefix(data, 0, 5).mac(buffer);
+
+            // Then
+            assertThat(tag).isEqualTo(algorithm.mac(data));
+            assertThat(buffer.position()).isEqualTo(5);
+        }
+    }
+
+    @Test(dataProvider = "algorithms64")
+    public void shouldMatchTagOfPrefixFollowedByTypedValues(SipHash algorithm) {
+        // Given
+        long[] longs = new long[5];
+        int[] ints = new int[5];
+        Random random = new Random(3L);
+        for (int i = 0; i < 5; ++i) {
+            longs[i] = random.nextLong();
+            ints[i] = random.nextInt();
+        }
+        ByteBuffer longBytes = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        longBytes.asLongBuffer().put(longs);
+        ByteBuffer intBytes = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        intBytes.asIntBuffer().put(ints);
+        byte[] prefix = new byte[15];
+        random.nextBytes(prefix);
+
+        for (int prefixLength = 0; prefixLength <= prefix.length; ++prefixLength) {
+            // When
+            SipHash prefixed = algorithm.withPrefix(prefix, 0, prefixLength);
+
+            // Then
+            assertThat(prefixed.hashLong(longs[0]))
+                    .isEqualTo(algorithm.hash64(concat(prefix, prefixLength, longBytes.array(), 8)));
+            assertThat(prefixed.hashLongs(longs[0], longs[1]))
+                    .isEqualTo(algorithm.hash64(concat(prefix, prefixLength, longBytes.array(), 16)));
+            assertThat(prefixed.hash(longs, 0, 5))
+                    .isEqualTo(algorithm.hash64(concat(prefix, prefixLength, longBytes.array(), 40)));
+            assertThat(prefixed.hash(ints, 0, 5))
+                    .isEqualTo(algorithm.hash64(concat(prefix, prefixLength, intBytes.array(), 20)));
+            assertThat(prefixed.hash(ints, 0, 4))
+                    .isEqualTo(algorithm.hash64(concat(prefix, prefixLength, intBytes.array(), 16)));
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchTagOfPrefixFollowedByEncodedCharacters(SipHash algorithm) {
+        // Given
+        String text = "héllo wörld, 😀 ASCII runs of eight";
+        byte[] prefix = "tenant-7:".getBytes(StandardCharsets.UTF_8);
+
+        for (Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.UTF_16LE }) {
+            byte[] expected = algorithm.mac(concat(prefix, prefix.length, text.getBytes(charset),
+                    text.getBytes(charset).length));
+
+            // When
+            SipHash prefixed = algorithm.withPrefix(prefix);
+            long[] tag = new long[2];
+            if (algorithm.getMacTagLength() == 64) {
+                tag[0] = prefixed.hash64(text, charset);
+            } else {
+                prefixed.hash128(text, charset, tag, 0);
+            }
+
+            // Then
+            assertThat(tag[0]).isEqualTo(SipHashUtils.bytesToLong(expected, 0));
+            if (algorithm.getMacTagLength() == 128) {
+                assertThat(tag[1]).isEqualTo(SipHashUtils.bytesToLong(expected, 8));
+            }
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchOneAtATimeTagsWhenHashingBatches(SipHash algorithm) {
+        // Given
+        SipHash prefixed = algorithm.withPrefix(new byte[] { 1, 2, 3 });
+        byte[][] inputs = new byte[5][];
+        Random random = new Random(4L);
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = new byte[random.nextInt(30)];
+            random.nextBytes(inputs[i]);
+        }
+        int tagWords = algorithm.getMacTagLength() / 64;
+        long[] out = new long[inputs.length * tagWords];
+
+        // When
+        prefixed.hashAll(inputs, out);
+
+        // Then
+        for (int i = 0; i < inputs.length; ++i) {
+            byte[] expected = prefixed.mac(inputs[i]);
+            for (int j = 0; j < tagWords; ++j) {
+                assertThat(out[i * tagWords + j]).isEqualTo(SipHashUtils.bytesToLong(expected, j * 8));
+            }
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchOneAtATimeTagsWhenHashingBatchesInBuffers(SipHash algorithm) {
+        // Given
+        SipHash prefixed = algorithm.withPrefix(new byte[] { 1, 2, 3 });
+        byte[] data = new byte[100];
+        new Random(6L).nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        int[] offsets = { 0, 7, 20, 50, 51 };
+        int[] lengths = { 7, 13, 30, 0, 49 };
+        int tagWords = algorithm.getMacTagLength() / 64;
+        long[] out = new long[offsets.length * tagWords];
+
+        // When
+        prefixed.hashAll(direct, offsets, lengths, out);
+
+        // Then
+        for (int i = 0; i < offsets.length; ++i) {
+            byte[] expected = prefixed.mac(data, offsets[i], lengths[i]);
+            for (int j = 0; j < tagWords; ++j) {
+                assertThat(out[i * tagWords + j]).isEqualTo(SipHashUtils.bytesToLong(expected, j * 8));
+            }
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldCombineNestedPrefixes(SipHash algorithm) {
+        // Given
+        byte[] data = new byte[40];
+        new Random(5L).nextBytes(data);
+
+        // When
+        SipHash nested = algorithm.withPrefix(data, 0, 3).withPrefix(data, 3, 10);
+
+        // Then
+        assertThat(nested.mac(data, 13, 27)).isEqualTo(algorithm.mac(data));
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldStartHashersFromThePrefix(SipHash algorithm) {
+        // Given
+        byte[] data = new byte[33];
+        new Random(6L).nextBytes(data);
+        SipHash.Hasher hasher = algorithm.withPrefix(data, 0, 11).newHasher();
+
+        // When
+        hasher.update(data, 11, 9);
+        hasher.update(data, 20, 13);
+
+        // Then
+        assertThat(hasher.doFinal()).isEqualTo(algorithm.mac(data));
+        hasher.update(data, 11, 22);
+        assertThat(hasher.doFinal()).isEqualTo(algorithm.mac(data));
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldKeepTheTagSize(SipHash algorithm) {
+        // When
+        SipHash prefixed = algorithm.withPrefix(new byte[] { 42 });
+
+        // Then
+        assertThat(prefixed.getMacTagLength()).isEqualTo(algorithm.getMacTagLength());
+        assertThat(prefixed.mac(new byte[0]).length).isEqualTo(algorithm.getMacTagLength() / 8);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldRejectHash64For128BitTags() {
+        // Given
+        SipHash prefixed = new SipHash24x128(KEY).withPrefix(new byte[3]);
+
+        // When
+        prefixed.hash64(new byte[8]);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldRejectHash128For64BitTags() {
+        // Given
+        SipHash prefixed = new SipHash24(KEY).withPrefix(new byte[3]);
+
+        // When
+        prefixed.hash128(new byte[8], 0, 8, new long[2], 0);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectInvalidPrefixRange() {
+        // When
+        new SipHash24(KEY).withPrefix(new byte[4], 2, 3);
+    }
+
+    private static byte[] concat(byte[] a, int aLength, byte[] b, int bLength) {
+        byte[] result = new byte[aLength + bLength];
+        System.arraycopy(a, 0, result, 0, aLength);
+        System.arraycopy(b, 0, result, aLength, bLength);
+        return result;
+    }
+}
@@ -16,6 +16,11 @@ package software.pando.crypto.siphash;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -97,6 +102,24 @@ public class SipHash128Test {
             { 0x51, 0x50, 0xd1, 0x77, 0x2f, 0x50, 0x83, 0x4a, 0x50, 0x3e, 0x06, 0x9a, 0x97, 0x3f, 0xbd, 0x7c  }
     };
 
+    @DataProvider
+    public static Object[][] strings() {
+        String[] prefixes = { "", "\u00e9", "\u00e9\u00e9", "\u65e5", "\u65e5\u00e9", "\ud83d\ude00", "a\ud83d\ude00",
+                "\u00e9\u65e5\ud83d\ude00" };
+        String[] suffixes = { "", "\u00e9", "\ud800", "\udc00x", "\ud800\ud800", "\u65e5\u672c\u8a9e" };
+        String ascii = "The quick brown fox jumps over the lazy dog";
+        Object[][] testCases = new Object[prefixes.length * suffixes.length * 20][1];
+        int i = 0;
+        for (String prefix : prefixes) {
+            for (String suffix : suffixes) {
+                for (int length = 0; length < 20; ++length) {
+                    testCases[i++][0] = prefix + ascii.substring(0, length) + suffix;
+                }
+            }
+        }
+        return testCases;
+    }
+
     @DataProvider
     public static Object[][] expectedOutputs() {
         Object[][] testCases = new Object[64][2];
@@ -114,7 +137,7 @@ public class SipHash128Test {
         for (int i = 0; i < inputSize; ++i) {
             input[i] = (byte) i;
         }
-        SipHash128 algorithm = new SipHash128(2, 4, KEY);
+        SipHash algorithm = getTestObject(KEY);
 
         // When
         byte[] result = algorithm.mac(input);
@@ -123,6 +146,141 @@ public class SipHash128Test {
         assertThat(result).isEqualTo(expectedOutput);
     }
 
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldWriteTagHalvesAsLittleEndianLongs(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize + 3];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i + 3] = (byte) i;
+        }
+        SipHash algorithm = getTestObject(KEY);
+        long[] out = new long[3];
+
+        // When
+        algorithm.hash128(input, 3, inputSize, out, 1);
+
+        // Then
+        assertThat(out[0]).isEqualTo(0L);
+        assertThat(out[1]).isEqualTo(SipHashUtils.bytesToLong(expectedOutput, 0));
+        assertThat(out[2]).isEqualTo(SipHashUtils.bytesToLong(expectedOutput, 8));
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldWriteTagIntoOutputBuffer(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i] = (byte) i;
+        }
+        SipHash algorithm = getTestObject(KEY);
+        byte[] out = new byte[20];
+
+        // When
+        algorithm.mac(input, 0, inputSize, out, 4);
+
+        // Then
+        assertThat(Arrays.copyOfRange(out, 4, 20)).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldHashBuffersWithoutChangingPosition(int inputSize, byte[] expectedOutput) {
+        // Given
+        ByteBuffer direct = ByteBuffer.allocateDirect(inputSize + 2).order(ByteOrder.BIG_ENDIAN);
+        direct.position(2);
+        for (int i = 0; i < inputSize; ++i) {
+            direct.put((byte) i);
+        }
+        direct.position(2);
+        ByteBuffer heap = ByteBuffer.allocate(inputSize + 2);
+        heap.position(2);
+        heap.put(direct.duplicate()).position(2);
+        SipHash algorithm = getTestObject(KEY);
+        long[] out = new long[2];
+
+        for (ByteBuffer buffer : new ByteBuffer[] { direct, direct.asReadOnlyBuffer(), heap }) {
+            // When
+            byte[] result = algorithm.mac(buffer);
+            algorithm.hash128(buffer, 2, inputSize, out, 0);
+
+            // Then
+            assertThat(result).isEqualTo(expectedOutput);
+            assertThat(out[0]).isEqualTo(SipHashUtils.bytesToLong(expectedOutput, 0));
+            assertThat(out[1]).isEqualTo(SipHashUtils.bytesToLong(expectedOutput, 8));
+            assertThat(buffer.position()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void shouldNotSignExtendTrailingBytes() {
+        // Given
+        byte[] input = { (byte) 0x80, (byte) 0x81, (byte) 0xFE, (byte) 0xFF, (byte) 0x90, (byte) 0xA0, (byte) 0xB0,
+                (byte) 0xC0, (byte) 0xD0, (byte) 0xE0, (byte) 0xF0 };
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        byte[] result = algorithm.mac(input);
+
+        // Then
+        assertThat(result).isEqualTo(intArrayToByteArray(new int[] { 0xe3, 0x6c, 0x0f, 0xeb, 0x39, 0xcf, 0xfc, 0xcb,
+                0x77, 0x24, 0x88, 0xed, 0xce, 0xe7, 0x16, 0xb1 }));
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectOutputArrayThatIsTooSmall() {
+        getTestObject(KEY).hash128(new byte[8], 0, 8, new long[2], 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotSupport64BitTags() {
+        getTestObject(KEY).hash64(new byte[8], 0, 8);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotSupportTypedHashes() {
+        getTestObject(KEY).hashLong(42L);
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldHashCharactersAsUtf8(String input) {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+        long[] expected = new long[2];
+        byte[] encoded = input.getBytes(StandardCharsets.UTF_8);
+        algorithm.hash128(encoded, 0, encoded.length, expected, 0);
+        long[] result = new long[3];
+
+        // When
+        algorithm.hash128(input, result, 1);
+
+        // Then
+        assertThat(result).containsExactly(0L, expected[0], expected[1]);
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldHashCharactersAsUtf16(String input) {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+        long[] expected = new long[2];
+        byte[] encoded = input.getBytes(StandardCharsets.UTF_16LE);
+        algorithm.hash128(encoded, 0, encoded.length, expected, 0);
+        long[] result = new long[2];
+
+        // When
+        algorithm.hash128(input, StandardCharsets.UTF_16LE, result, 0);
+
+        // Then
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotSupport64BitCharacterHashes() {
+        getTestObject(KEY).hash64("test");
+    }
+
+    protected SipHash getTestObject(SecretKey key) {
+        return new SipHash128(2, 4, key);
+    }
+
     private static byte[] intArrayToByteArray(int[] input) {
         byte[] output = new byte[input.length];
         for (int i = 0; i < input.length; ++i) {
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * SipHash-1-3 64-bit tests. Expected outputs were generated from the reference implementation using the same
+ * key and inputs as the official SipHash-2-4 test vectors.
+ */
+public class SipHash13Test {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    private static final int[][] EXPECTED_OUTPUT = {
+            { 0xdc, 0xc4, 0x0f, 0x05, 0x58, 0x01, 0xac, 0xab, },
+            { 0x93, 0xca, 0x57, 0x7d, 0xf3, 0x9b, 0xf4, 0xc9, },
+            { 0x4d, 0xd4, 0xc7, 0x4d, 0x02, 0x9b, 0xcb, 0x82, },
+            { 0xfb, 0xf7, 0xdd, 0xe7, 0xb8, 0x0a, 0xf8, 0x8b, },
+            { 0x28, 0x83, 0xd3, 0x88, 0x60, 0x57, 0x75, 0xcf, },
+            { 0x67, 0x3b, 0x53, 0x49, 0x2f, 0xd5, 0xf9, 0xde, },
+            { 0xa7, 0x22, 0x9f, 0xc5, 0x50, 0x2b, 0x0d, 0xc5, },
+            { 0x40, 0x11, 0xb1, 0x9b, 0x98, 0x7d, 0x92, 0xd3, },
+            { 0x8e, 0x9a, 0x29, 0x8d, 0x11, 0x95, 0x90, 0x36, },
+            { 0xe4, 0x3d, 0x06, 0x6c, 0xb3, 0x8e, 0xa4, 0x25, },
+            { 0x7f, 0x09, 0xff, 0x92, 0xee, 0x85, 0xde, 0x79, },
+            { 0x52, 0xc3, 0x4d, 0xf9, 0xc1, 0x18, 0xc1, 0x70, },
+            { 0xa2, 0xd9, 0xb4, 0x57, 0xb1, 0x84, 0xa3, 0x78, },
+            { 0xa7, 0xff, 0x29, 0x12, 0x0c, 0x76, 0x6f, 0x30, },
+            { 0x34, 0x5d, 0xf9, 0xc0, 0x11, 0xa1, 0x5a, 0x60, },
+            { 0x56, 0x99, 0x51, 0x2a, 0x6d, 0xd8, 0x20, 0xd3, },
+            { 0x66, 0x8b, 0x90, 0x7d, 0x1a, 0xdd, 0x4f, 0xcc, },
+            { 0x0c, 0xd8, 0xdb, 0x63, 0x90, 0x68, 0xf2, 0x9c, },
+            { 0x3e, 0xe6, 0x73, 0xb4, 0x9c, 0x38, 0xfc, 0x8f, },
+            { 0x1c, 0x7d, 0x29, 0x8d, 0xe5, 0x9d, 0x1f, 0xf2, },
+            { 0x40, 0xe0, 0xcc, 0xa6, 0x46, 0x2f, 0xdc, 0xc0, },
+            { 0x44, 0xf8, 0x45, 0x2b, 0xfe, 0xab, 0x92, 0xb9, },
+            { 0x2e, 0x87, 0x20, 0xa3, 0x9b, 0x7b, 0xfe, 0x7f, },
+            { 0x23, 0xc1, 0xe6, 0xda, 0x7f, 0x0e, 0x5a, 0x52, },
+            { 0x8c, 0x9c, 0x34, 0x67, 0xb2, 0xae, 0x64, 0xf4, },
+            { 0x79, 0x09, 0x5b, 0x70, 0x28, 0x59, 0xcd, 0x45, },
+            { 0xa5, 0x13, 0x99, 0xca, 0xe3, 0x35, 0x3e, 0x3a, },
+            { 0x35, 0x3b, 0xde, 0x4a, 0x4e, 0xc7, 0x1d, 0xa9, },
+            { 0x0d, 0xd0, 0x6c, 0xef, 0x02, 0xed, 0x0b, 0xfb, },
+            { 0xf4, 0xe1, 0xb1, 0x4a, 0xb4, 0x3c, 0xd9, 0x88, },
+            { 0x63, 0xe6, 0xc5, 0x43, 0xd6, 0x11, 0x0f, 0x54, },
+            { 0xbc, 0xd1, 0x21, 0x8c, 0x1f, 0xdd, 0x70, 0x23, },
+            { 0x0d, 0xb6, 0xa7, 0x16, 0x6c, 0x7b, 0x15, 0x81, },
+            { 0xbf, 0xf9, 0x8f, 0x7a, 0xe5, 0xb9, 0x54, 0x4d, },
+            { 0x3e, 0x75, 0x2a, 0x1f, 0x78, 0x12, 0x9f, 0x75, },
+            { 0x91, 0x6b, 0x18, 0xbf, 0xbe, 0xa3, 0xa1, 0xce, },
+            { 0x06, 0x62, 0xa2, 0xad, 0xd3, 0x08, 0xf5, 0x2c, },
+            { 0x57, 0x30, 0xc3, 0xa3, 0x2d, 0x1c, 0x10, 0xb6, },
+            { 0xa1, 0x36, 0x3a, 0xae, 0x96, 0x74, 0xf4, 0xb3, },
+            { 0x92, 0x83, 0x10, 0x7b, 0x54, 0x57, 0x6b, 0x62, },
+            { 0x31, 0x15, 0xe4, 0x99, 0x32, 0x36, 0xd2, 0xc1, },
+            { 0x44, 0xd9, 0x1a, 0x3f, 0x92, 0xc1, 0x7c, 0x66, },
+            { 0x25, 0x88, 0x13, 0xc8, 0xfe, 0x4f, 0x70, 0x65, },
+            { 0xa6, 0x49, 0x89, 0xc2, 0xd1, 0x80, 0xf2, 0x24, },
+            { 0x6b, 0x87, 0xf8, 0xfa, 0xed, 0x1c, 0xca, 0xc2, },
+            { 0x96, 0x21, 0x04, 0x9f, 0xfc, 0x4b, 0x16, 0xc2, },
+            { 0x23, 0xd6, 0xb1, 0x68, 0x93, 0x9c, 0x6e, 0xa1, },
+            { 0xfd, 0x14, 0x51, 0x8b, 0x9c, 0x16, 0xfb, 0x49, },
+            { 0x46, 0x4c, 0x07, 0xdf, 0xf8, 0x43, 0x31, 0x9f, },
+            { 0xb3, 0x86, 0xcc, 0x12, 0x24, 0xaf, 0xfd, 0xc6, },
+            { 0x8f, 0x09, 0x52, 0x0a, 0xd1, 0x49, 0xaf, 0x7e, },
+            { 0x9a, 0x2f, 0x29, 0x9d, 0x55, 0x13, 0xf3, 0x1c, },
+            { 0x12, 0x1f, 0xf4, 0xa2, 0xdd, 0x30, 0x4a, 0xc4, },
+            { 0xd0, 0x1e, 0xa7, 0x43, 0x89, 0xe9, 0xfa, 0x36, },
+            { 0xe6, 0xbc, 0xf0, 0x73, 0x4c, 0xb3, 0x8f, 0x31, },
+            { 0x80, 0xe9, 0xa7, 0x70, 0x36, 0xbf, 0x7a, 0xa2, },
+            { 0x75, 0x6d, 0x3c, 0x24, 0xdb, 0xc0, 0xbc, 0xb4, },
+            { 0x13, 0x15, 0xb7, 0xfd, 0x52, 0xd8, 0xf8, 0x23, },
+            { 0x08, 0x8a, 0x7d, 0xa6, 0x4d, 0x5f, 0x03, 0x8f, },
+            { 0x48, 0xf1, 0xe8, 0xb7, 0xe5, 0xd0, 0x9c, 0xd8, },
+            { 0xee, 0x44, 0xa6, 0xf7, 0xbc, 0xe6, 0xf4, 0xf6, },
+            { 0xf2, 0x37, 0x18, 0x0f, 0xd8, 0x9a, 0xc5, 0xae, },
+            { 0xe0, 0x94, 0x66, 0x4b, 0x15, 0xf6, 0xb2, 0xc3, },
+            { 0xa8, 0xb3, 0xbb, 0xb7, 0x62, 0x90, 0x19, 0x9d, }
+    };
+
+    @DataProvider
+    public static Object[][] expectedOutputs() {
+        Object[][] testCases = new Object[64][2];
+        for (int i = 0; i < 64; ++i) {
+            testCases[i][0] = i;
+            testCases[i][1] = intArrayToByteArray(EXPECTED_OUTPUT[i]);
+        }
+        return testCases;
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i] = (byte) i;
+        }
+        SipHash algorithm = new SipHash13(KEY);
+
+        // When
+        byte[] result = algorithm.mac(input);
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenNotUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i] = (byte) i;
+        }
+        SipHash algorithm = new SipHash(1, 3, KEY);
+
+        // When
+        byte[] result = algorithm.mac(input);
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test
+    public void shouldMatchGenericImplementationForTypedHashes() {
+        // Given
+        SipHash unrolled = new SipHash13(KEY);
+        SipHash generic = new SipHash(1, 3, KEY);
+        long[] longs = { 0x0706050403020100L, -1L, Long.MIN_VALUE, 42L };
+        int[] ints = { 0x03020100, -1, Integer.MIN_VALUE, 42, 7 };
+
+        // Then
+        assertThat(unrolled.hashLong(longs[1])).isEqualTo(generic.hashLong(longs[1]));
+        assertThat(unrolled.hashLongs(longs[0], longs[2])).isEqualTo(generic.hashLongs(longs[0], longs[2]));
+        for (int length = 0; length <= longs.length; ++length) {
+            assertThat(unrolled.hash(longs, 0, length)).isEqualTo(generic.hash(longs, 0, length));
+        }
+        for (int length = 0; length <= ints.length; ++length) {
+            assertThat(unrolled.hash(ints, 0, length)).isEqualTo(generic.hash(ints, 0, length));
+        }
+    }
+
+    @Test
+    public void shouldSelectUnrolledImplementation() {
+        assertThat(SipHash.getInstance(1, 3, KEY)).isInstanceOf(SipHash13.class);
+    }
+
+    private static byte[] intArrayToByteArray(int[] input) {
+        byte[] output = new byte[input.length];
+        for (int i = 0; i < input.length; ++i) {
+            output[i] = (byte) (input[i]);
+        }
+        return output;
+    }
+
+}
\ No newline at end of file
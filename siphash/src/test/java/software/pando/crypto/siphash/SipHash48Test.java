@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * SipHash-4-8 64-bit tests. Expected outputs were generated from the reference implementation using the same
+ * key and inputs as the official SipHash-2-4 test vectors.
+ */
+public class SipHash48Test {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    private static final int[][] EXPECTED_OUTPUT = {
+            { 0x41, 0xda, 0x38, 0x99, 0x2b, 0x05, 0x79, 0xc8, },
+            { 0x51, 0xb8, 0x95, 0x52, 0xf9, 0x14, 0x59, 0xc8, },
+            { 0x92, 0x37, 0x16, 0xf0, 0xbe, 0xdd, 0xc3, 0x33, },
+            { 0x6a, 0x46, 0xd4, 0x7d, 0x65, 0x47, 0xc1, 0x05, },
+            { 0xc2, 0x38, 0x59, 0x2b, 0x4a, 0xc1, 0xfa, 0x48, },
+            { 0xf6, 0xc2, 0xd7, 0xd9, 0xcf, 0x52, 0x47, 0xe1, },
+            { 0x6b, 0xb6, 0xbc, 0x34, 0xc8, 0x35, 0x55, 0x8e, },
+            { 0x47, 0xd7, 0x3f, 0x71, 0x5a, 0xbe, 0xfd, 0x4e, },
+            { 0x20, 0xb5, 0x8b, 0x9c, 0x07, 0x2f, 0xdb, 0x50, },
+            { 0x36, 0x31, 0x9a, 0xf3, 0x5e, 0xe1, 0x12, 0x53, },
+            { 0x48, 0xa9, 0xd0, 0xdb, 0x0a, 0x8d, 0x84, 0x8f, },
+            { 0xcc, 0x69, 0x39, 0x60, 0x36, 0x04, 0x0a, 0x81, },
+            { 0x4b, 0x6d, 0x68, 0x53, 0x7a, 0xa7, 0x97, 0x61, },
+            { 0x29, 0x37, 0x96, 0xe9, 0xf2, 0xc9, 0x50, 0x69, },
+            { 0x88, 0x43, 0x1b, 0xea, 0xa7, 0x62, 0x9a, 0x68, },
+            { 0xe0, 0xa6, 0xa9, 0x7d, 0xd5, 0x89, 0xd3, 0x83, },
+            { 0x55, 0x9c, 0xf5, 0x53, 0x80, 0xb2, 0xac, 0x70, },
+            { 0xd5, 0xb7, 0xc5, 0x11, 0x7a, 0xe3, 0x79, 0x4e, },
+            { 0x5a, 0x3c, 0x45, 0x46, 0x34, 0xad, 0x10, 0x2b, },
+            { 0xc0, 0xa4, 0x80, 0xaf, 0xa3, 0x5a, 0x3d, 0xbc, },
+            { 0x78, 0xc2, 0x27, 0x09, 0xe5, 0x28, 0x4b, 0xc8, },
+            { 0xef, 0x26, 0x70, 0x46, 0x0d, 0xeb, 0xd6, 0x9d, },
+            { 0xd9, 0x76, 0xef, 0x86, 0xa9, 0xd0, 0x84, 0xd8, },
+            { 0xe3, 0xd9, 0x81, 0x18, 0x19, 0xea, 0xd0, 0xe8, },
+            { 0x89, 0x33, 0x3c, 0xb5, 0x3e, 0xea, 0xec, 0x16, },
+            { 0x31, 0x15, 0x6c, 0x5f, 0x64, 0x73, 0x49, 0xc6, },
+            { 0xa5, 0x4c, 0xce, 0x35, 0x35, 0x76, 0x32, 0xa4, },
+            { 0x06, 0x5d, 0x89, 0x25, 0xc0, 0xa7, 0xd2, 0xfe, },
+            { 0x2b, 0xbb, 0xaa, 0x82, 0x22, 0x1a, 0x3a, 0x8b, },
+            { 0x87, 0x0b, 0xfb, 0xce, 0x64, 0x09, 0x7b, 0x70, },
+            { 0x40, 0xd8, 0xe0, 0xf9, 0x64, 0x95, 0xee, 0x8b, },
+            { 0x79, 0xfc, 0xa7, 0xf4, 0x0b, 0xfa, 0xdf, 0x12, },
+            { 0x00, 0x0b, 0xfb, 0xf2, 0x2f, 0x76, 0x9e, 0xd2, },
+            { 0x40, 0x68, 0x55, 0x91, 0xf8, 0xe5, 0x22, 0xfa, },
+            { 0x2b, 0xe6, 0xfe, 0x74, 0xd8, 0x14, 0x9d, 0x0d, },
+            { 0xba, 0x7e, 0x2f, 0x0e, 0x0b, 0x75, 0x60, 0xed, },
+            { 0x02, 0xe9, 0xe3, 0x84, 0xed, 0xa7, 0xe1, 0x97, },
+            { 0xc4, 0xe8, 0x0a, 0x62, 0x95, 0x27, 0x63, 0xb6, },
+            { 0x83, 0x27, 0xed, 0xc6, 0x5d, 0x5c, 0x6d, 0xd3, },
+            { 0x79, 0xfc, 0x64, 0xd1, 0x64, 0xa4, 0x2f, 0xc0, },
+            { 0x15, 0x4a, 0x75, 0x11, 0xcb, 0xfc, 0x61, 0x4e, },
+            { 0x8b, 0x14, 0x8d, 0x7c, 0xec, 0xa0, 0xe6, 0x6f, },
+            { 0xdf, 0xee, 0x69, 0xb6, 0x54, 0xc4, 0x03, 0xfa, },
+            { 0xc5, 0x8f, 0x36, 0xa6, 0x69, 0x7b, 0xb7, 0xc9, },
+            { 0xa6, 0xc5, 0xbe, 0x9c, 0x05, 0xc6, 0x31, 0x21, },
+            { 0xb5, 0x8a, 0x87, 0x59, 0xfb, 0xcd, 0x89, 0x31, },
+            { 0xd7, 0x68, 0x3a, 0x67, 0x04, 0xcc, 0xc4, 0x25, },
+            { 0xcb, 0x6a, 0xe6, 0xe1, 0xe5, 0xa2, 0x44, 0x8d, },
+            { 0x6e, 0x26, 0x69, 0x5b, 0x3a, 0x3a, 0x51, 0x73, },
+            { 0x78, 0x71, 0x07, 0xcf, 0x9f, 0x33, 0xac, 0x4a, },
+            { 0x16, 0x75, 0x90, 0xda, 0xd9, 0x7b, 0x74, 0x84, },
+            { 0x00, 0x6b, 0x68, 0x1e, 0xf0, 0x6b, 0xf3, 0x06, },
+            { 0x1c, 0x9b, 0x30, 0x02, 0x66, 0xef, 0xcf, 0xa6, },
+            { 0x28, 0x8d, 0x2f, 0x88, 0xd1, 0xb0, 0xb3, 0x4b, },
+            { 0xe0, 0x11, 0x06, 0xbd, 0xac, 0xf5, 0x6b, 0xfe, },
+            { 0xc0, 0x10, 0x1f, 0x0e, 0x5b, 0x6e, 0x03, 0x28, },
+            { 0xc3, 0xa7, 0x91, 0x45, 0x5b, 0x1b, 0x1c, 0x0a, },
+            { 0x57, 0x07, 0xaf, 0xe1, 0x9e, 0x0b, 0x3a, 0x0f, },
+            { 0xe6, 0x5a, 0x72, 0x29, 0xfe, 0x53, 0x59, 0x4f, },
+            { 0x00, 0x2f, 0x9d, 0xb9, 0xab, 0x1a, 0xaf, 0x4c, },
+            { 0x59, 0x28, 0xcb, 0x50, 0x44, 0xc1, 0x06, 0x06, },
+            { 0xd5, 0x38, 0x01, 0x96, 0x7b, 0x85, 0x73, 0x21, },
+            { 0x05, 0xdb, 0x36, 0x4f, 0x1a, 0x09, 0x99, 0xcc, },
+            { 0xe6, 0x77, 0x84, 0xbc, 0x55, 0x03, 0xde, 0x23, }
+    };
+
+    @DataProvider
+    public static Object[][] expectedOutputs() {
+        Object[][] testCases = new Object[64][2];
+        for (int i = 0; i < 64; ++i) {
+            testCases[i][0] = i;
+            testCases[i][1] = intArrayToByteArray(EXPECTED_OUTPUT[i]);
+        }
+        return testCases;
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i] = (byte) i;
+        }
+        SipHash algorithm = new SipHash48(KEY);
+
+        // When
+        byte[] result = algorithm.mac(input);
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldMatchReferenceOutputWhenNotUnrolled(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i] = (byte) i;
+        }
+        SipHash algorithm = new SipHash(4, 8, KEY);
+
+        // When
+        byte[] result = algorithm.mac(input);
+
+        // Then
+        assertThat(result).isEqualTo(expectedOutput);
+    }
+
+    @Test
+    public void shouldSelectUnrolledImplementation() {
+        assertThat(SipHash.getInstance(4, 8, KEY)).isInstanceOf(SipHash48.class);
+    }
+
+    private static byte[] intArrayToByteArray(int[] input) {
+        byte[] output = new byte[input.length];
+        for (int i = 0; i < input.length; ++i) {
+            output[i] = (byte) (input[i]);
+        }
+        return output;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SipHashBlockIndexTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+    private static final int BLOCK_SIZE = 1024;
+
+    private final SipHash sipHash = SipHash.getInstance(2, 4, 128, KEY);
+    private final SipHashTree tree = new SipHashTree(sipHash, BLOCK_SIZE);
+
+    @DataProvider
+    public static Object[][] sizes() {
+        return new Object[][] {
+                { 0 }, { 1 }, { BLOCK_SIZE }, { BLOCK_SIZE + 1 }, { 3 * BLOCK_SIZE }, { 7 * BLOCK_SIZE + 9 },
+                { 16 * BLOCK_SIZE }, { 37 * BLOCK_SIZE - 1 }
+        };
+    }
+
+    @Test(dataProvider = "sizes")
+    public void shouldMatchTreeHashOfBuffer(int size) {
+        // Given
+        ByteBuffer buffer = randomBuffer(size);
+
+        // When
+        SipHashBlockIndex index = new SipHashBlockIndex(tree, buffer);
+
+        // Then
+        assertThat(index.tag()).isEqualTo(tree.hash(buffer));
+        assertThat(index.getBlockCount()).isEqualTo(Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE));
+    }
+
+    @Test(dataProvider = "sizes")
+    public void shouldMatchTreeHashAfterUpdates(int size) {
+        // Given
+        ByteBuffer buffer = randomBuffer(size);
+        SipHashBlockIndex index = new SipHashBlockIndex(tree, buffer);
+        Random random = new Random(size);
+
+        for (int i = 0; i < 20 && size > 0; ++i) {
+            // When
+            int offset = random.nextInt(size);
+            int length = Math.min(size - offset, random.nextInt(2 * BLOCK_SIZE));
+            for (int j = 0; j < length; ++j) {
+                buffer.put(offset + j, (byte) random.nextInt());
+            }
+            index.update(offset, length);
+
+            // Then
+            assertThat(index.tag()).isEqualTo(tree.hash(buffer));
+        }
+    }
+
+    @Test
+    public void shouldIndexRemainingBytesOfDirectBuffer() {
+        // Given
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10 * BLOCK_SIZE);
+        buffer.put(randomBuffer(10 * BLOCK_SIZE));
+        buffer.position(100).limit(9 * BLOCK_SIZE);
+        SipHashBlockIndex index = new SipHashBlockIndex(tree, buffer);
+
+        // When
+        buffer.put(100 + 2 * BLOCK_SIZE, (byte) 42);
+        index.update(2 * BLOCK_SIZE, 1);
+
+        // Then
+        assertThat(index.tag()).isEqualTo(tree.hash(buffer));
+    }
+
+    @Test
+    public void shouldDetectChangesOnlyInBlocksThatWereModified() {
+        // Given
+        ByteBuffer buffer = randomBuffer(8 * BLOCK_SIZE);
+        SipHashBlockIndex index = new SipHashBlockIndex(tree, buffer);
+
+        // When
+        buffer.put(3 * BLOCK_SIZE + 10, (byte) (buffer.get(3 * BLOCK_SIZE + 10) ^ 1));
+
+        // Then
+        assertThat(index.verify(3 * BLOCK_SIZE + 500, 1)).isFalse();
+        assertThat(index.verify(2 * BLOCK_SIZE, 5 * BLOCK_SIZE)).isFalse();
+        assertThat(index.verify(0, 3 * BLOCK_SIZE)).isTrue();
+        assertThat(index.verify(4 * BLOCK_SIZE, 4 * BLOCK_SIZE)).isTrue();
+    }
+
+    @Test
+    public void shouldVerifyAfterUpdate() {
+        // Given
+        ByteBuffer buffer = randomBuffer(8 * BLOCK_SIZE);
+        SipHashBlockIndex index = new SipHashBlockIndex(tree, buffer);
+        buffer.put(5000, (byte) (buffer.get(5000) ^ 1));
+
+        // When
+        index.update(5000, 1);
+
+        // Then
+        assertThat(index.verify(0, 8 * BLOCK_SIZE)).isTrue();
+    }
+
+    @Test
+    public void shouldStoreBlockTagsAsLeafTags() {
+        // Given
+        ByteBuffer buffer = randomBuffer(3 * BLOCK_SIZE + 5);
+        SipHashBlockIndex index = new SipHashBlockIndex(tree, buffer);
+        SipHash leafHash = sipHash.withPrefix(new byte[8]);
+        long[] expected = new long[2];
+        long[] actual = new long[2];
+
+        for (int block = 0; block < index.getBlockCount(); ++block) {
+            // When
+            index.blockTag(block, actual, 0);
+
+            // Then
+            int offset = block * BLOCK_SIZE;
+            leafHash.hash128(buffer, offset, Math.min(BLOCK_SIZE, buffer.limit() - offset), expected, 0);
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectUpdateOutsideBuffer() {
+        new SipHashBlockIndex(tree, randomBuffer(BLOCK_SIZE)).update(BLOCK_SIZE - 1, 2);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectVerifyOutsideBuffer() {
+        new SipHashBlockIndex(tree, randomBuffer(BLOCK_SIZE)).verify(-1, 1);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectBlockThatDoesNotExist() {
+        new SipHashBlockIndex(tree, randomBuffer(BLOCK_SIZE)).blockTag(1, new long[2], 0);
+    }
+
+    private static ByteBuffer randomBuffer(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+}
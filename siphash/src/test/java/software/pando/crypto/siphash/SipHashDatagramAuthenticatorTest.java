@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests sending and receiving authenticated datagrams over the loopback interface. The receiving channel is in
+ * blocking mode and each batch has exactly as much capacity as the number of datagrams sent, so that receiving waits
+ * for all of them to arrive.
+ */
+public class SipHashDatagramAuthenticatorTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    private DatagramChannel sender;
+    private DatagramChannel receiver;
+
+    @BeforeMethod
+    public void openChannels() throws IOException {
+        receiver = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sender = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sender.connect(receiver.getLocalAddress());
+    }
+
+    @AfterMethod
+    public void closeChannels() throws IOException {
+        sender.close();
+        receiver.close();
+    }
+
+    @DataProvider
+    public static Object[][] algorithms() {
+        return new Object[][] {
+                { SipHash.getInstance(KEY) },
+                { SipHash.getInstance(1, 3, KEY) },
+                { SipHash.getInstance(2, 4, 128, KEY) }
+        };
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldDeliverAuthenticPayloads(SipHash sipHash) throws IOException {
+        // Given
+        SipHashDatagramAuthenticator out = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator in = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator.Batch sendBatch = out.newBatch(9, 100);
+        for (int i = 0; i < 9; ++i) {
+            ByteBuffer payload = sendBatch.add(i * 11);
+            while (payload.hasRemaining()) {
+                payload.put((byte) i);
+            }
+        }
+        SipHashDatagramAuthenticator.Batch receiveBatch = in.newBatch(9, 100);
+
+        // When
+        int sent = out.send(sender, sendBatch);
+        int accepted = in.receive(receiver, receiveBatch);
+
+        // Then
+        assertThat(sent).isEqualTo(9);
+        assertThat(sendBatch.size()).isEqualTo(0);
+        assertThat(accepted).isEqualTo(9);
+        assertThat(receiveBatch.size()).isEqualTo(9);
+        for (int i = 0; i < 9; ++i) {
+            assertThat(receiveBatch.isAuthentic(i)).isTrue();
+            assertThat(receiveBatch.sequenceNumber(i)).isEqualTo(i + 1L);
+            ByteBuffer payload = receiveBatch.payload(i);
+            assertThat(payload.remaining()).isEqualTo(i * 11);
+            while (payload.hasRemaining()) {
+                assertThat(payload.get()).isEqualTo((byte) i);
+            }
+        }
+        assertThat(out.getPacketsSent()).isEqualTo(9L);
+        assertThat(in.getPacketsReceived()).isEqualTo(9L);
+        assertThat(in.getPacketsAccepted()).isEqualTo(9L);
+        assertThat(in.getAuthenticationFailures()).isEqualTo(0L);
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldRejectModifiedDatagrams(SipHash sipHash) throws IOException {
+        // Given
+        SipHashDatagramAuthenticator out = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator in = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator.Batch batch = out.newBatch(2, 32);
+        batch.add(32).put(0, (byte) 1);
+        batch.add(32).put(0, (byte) 2);
+        out.tag(batch);
+        ByteBuffer first = batch.packet(0);
+        first.put(20, (byte) (first.get(20) ^ 0x40));
+
+        // When
+        sender.write(first);
+        sender.write(batch.packet(1));
+        in.receive(receiver, batch);
+
+        // Then
+        assertThat(batch.isAuthentic(0)).isFalse();
+        assertThat(batch.payload(0).remaining()).isEqualTo(0);
+        assertThat(batch.isAuthentic(1)).isTrue();
+        assertThat(batch.payload(1).get(0)).isEqualTo((byte) 2);
+        assertThat(in.getAuthenticationFailures()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldRejectDatagramsTaggedWithAnotherKey() throws IOException {
+        // Given
+        SipHash otherKey = SipHash.getInstance(new SecretKeySpec(new byte[16], "RAW"));
+        SipHashDatagramAuthenticator out = new SipHashDatagramAuthenticator(otherKey);
+        SipHashDatagramAuthenticator in = new SipHashDatagramAuthenticator(SipHash.getInstance(KEY));
+        SipHashDatagramAuthenticator.Batch batch = out.newBatch(1, 16);
+        batch.add(16);
+
+        // When
+        out.send(sender, batch);
+        int accepted = in.receive(receiver, batch);
+
+        // Then
+        assertThat(accepted).isEqualTo(0);
+        assertThat(in.getAuthenticationFailures()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldRejectDatagramsTooShortForTag() throws IOException {
+        // Given
+        SipHashDatagramAuthenticator in = new SipHashDatagramAuthenticator(SipHash.getInstance(KEY));
+        SipHashDatagramAuthenticator.Batch batch = in.newBatch(2, 16);
+
+        // When
+        sender.write(ByteBuffer.allocate(1));
+        sender.write(ByteBuffer.allocate(15));
+        int accepted = in.receive(receiver, batch);
+
+        // Then
+        assertThat(accepted).isEqualTo(0);
+        assertThat(in.getAuthenticationFailures()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldRejectReplayedAndOldDatagrams() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        SipHashDatagramAuthenticator out = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator in = new SipHashDatagramAuthenticator(sipHash, 64);
+        SipHashDatagramAuthenticator.Batch batch = out.newBatch(200, 8);
+        for (int i = 0; i < 200; ++i) {
+            batch.add(8);
+        }
+        out.tag(batch);
+        // Sequence numbers are one more than the index in the batch
+        int[] order = { 99, 59, 59, 29, 100, 98, 99, 35, 37, 199, 135, 136 };
+        boolean[] expected = { true, true, false, false, true, true, false, false, true, true, false, true };
+        SipHashDatagramAuthenticator.Batch received = in.newBatch(order.length, 8);
+
+        // When
+        for (int index : order) {
+            sender.write(batch.packet(index));
+        }
+        int accepted = in.receive(receiver, received);
+
+        // Then
+        for (int i = 0; i < order.length; ++i) {
+            assertThat(received.isAuthentic(i)).isEqualTo(expected[i]);
+        }
+        assertThat(accepted).isEqualTo(7);
+        assertThat(in.getReplaysRejected()).isEqualTo(5L);
+        assertThat(in.getAuthenticationFailures()).isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldSendToTargetAddress() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        SipHashDatagramAuthenticator out = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator in = new SipHashDatagramAuthenticator(sipHash);
+        SipHashDatagramAuthenticator.Batch batch = out.newBatch(3, 10);
+        batch.add(1);
+        batch.add(10);
+        batch.add(5);
+
+        try (DatagramChannel unconnected = DatagramChannel.open()) {
+            // When
+            out.send(unconnected, batch, receiver.getLocalAddress());
+            int accepted = in.receive(receiver, batch);
+
+            // Then
+            assertThat(accepted).isEqualTo(3);
+            assertThat(batch.payload(1).remaining()).isEqualTo(10);
+        }
+    }
+
+    @Test
+    public void shouldResetStatistics() throws IOException {
+        // Given
+        SipHashDatagramAuthenticator out = new SipHashDatagramAuthenticator(SipHash.getInstance(KEY));
+        SipHashDatagramAuthenticator.Batch batch = out.newBatch(1, 8);
+        batch.add(8);
+        out.send(sender, batch);
+        assertThat(out.getPacketsPerSecond()).isGreaterThan(0.0);
+
+        // When
+        out.resetStatistics();
+
+        // Then
+        assertThat(out.getPacketsSent()).isEqualTo(0L);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void shouldRejectAddingToFullBatch() {
+        SipHashDatagramAuthenticator.Batch batch = new SipHashDatagramAuthenticator(SipHash.getInstance(KEY))
+                .newBatch(1, 8);
+        batch.add(8);
+        batch.add(8);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectPayloadLongerThanMaximum() {
+        new SipHashDatagramAuthenticator(SipHash.getInstance(KEY)).newBatch(1, 8).add(9);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectInvalidReplayWindow() {
+        new SipHashDatagramAuthenticator(SipHash.getInstance(KEY), 100);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SipHashFilesTest {
+    private static final byte[] KEY_BYTES = new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F };
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(KEY_BYTES, "RAW");
+    private static final int LEAF_SIZE = 1024;
+    private static final int WINDOW_SIZE = 4 * LEAF_SIZE;
+
+    private final SipHashTree tree = new SipHashTree(SipHash.getInstance(2, 4, 128, KEY), LEAF_SIZE);
+    private Path directory;
+    private SipHashFiles files;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("siphash");
+        files = new SipHashFiles(tree, 2, WINDOW_SIZE);
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        files.close();
+        for (Path file : Files.newDirectoryStream(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @DataProvider
+    public static Object[][] sizes() {
+        return new Object[][] {
+                { 0 }, { 1 }, { LEAF_SIZE }, { WINDOW_SIZE - 1 }, { WINDOW_SIZE }, { WINDOW_SIZE + 1 },
+                { 2 * WINDOW_SIZE }, { 3 * WINDOW_SIZE + LEAF_SIZE + 5 }, { 8 * WINDOW_SIZE },
+                { 11 * WINDOW_SIZE - 1 }
+        };
+    }
+
+    @Test(dataProvider = "sizes")
+    public void shouldMatchTreeHashOfWholeFile(int size) throws IOException {
+        // Given
+        byte[] data = randomBytes(size);
+        Path file = write("file", data);
+
+        // When
+        byte[] tag = files.hash(file);
+
+        // Then
+        assertThat(tag).isEqualTo(tree.hash(data));
+    }
+
+    @Test
+    public void shouldMatchTagComputedWhileWriting() throws IOException {
+        // Given
+        byte[] data = randomBytes(5 * WINDOW_SIZE + 3);
+        SipHashTree.Hasher hasher = tree.newHasher();
+        for (int i = 0; i < data.length; i += 1000) {
+            hasher.update(data, i, Math.min(1000, data.length - i));
+        }
+        Path file = write("file", data);
+
+        // When
+        byte[] tag = files.hash(file);
+
+        // Then
+        assertThat(tag).isEqualTo(hasher.doFinal());
+    }
+
+    @Test
+    public void shouldHashAllFilesInOrderAndCountThem() throws IOException {
+        // Given
+        byte[] a = randomBytes(3 * WINDOW_SIZE);
+        byte[] b = randomBytes(100);
+        byte[] c = randomBytes(WINDOW_SIZE + 17);
+        Path fileA = write("a", a);
+        Path fileB = write("b", b);
+        Path fileC = write("c", c);
+
+        // When
+        Map<Path, byte[]> tags = files.hashAll(Arrays.asList(fileC, fileA, fileB));
+
+        // Then
+        assertThat(tags.keySet()).containsExactly(fileC, fileA, fileB);
+        assertThat(tags.get(fileA)).isEqualTo(tree.hash(a));
+        assertThat(tags.get(fileB)).isEqualTo(tree.hash(b));
+        assertThat(tags.get(fileC)).isEqualTo(tree.hash(c));
+        assertThat(files.getFilesHashed()).isEqualTo(3L);
+        assertThat(files.getBytesHashed()).isEqualTo((long) (a.length + b.length + c.length));
+    }
+
+    @Test
+    public void shouldUseDefaultWindowSizeForSmallFiles() throws IOException {
+        // Given
+        byte[] data = randomBytes(3 * LEAF_SIZE + 1);
+        Path file = write("file", data);
+
+        try (SipHashFiles defaultFiles = new SipHashFiles(tree)) {
+            // When
+            byte[] tag = defaultFiles.hash(file);
+
+            // Then
+            assertThat(tag).isEqualTo(tree.hash(data));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldThrowIfFileDoesNotExist() throws IOException {
+        files.hash(directory.resolve("missing"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldThrowIfAnyFileCannotBeRead() throws IOException {
+        // Given
+        Path file = write("file", randomBytes(10));
+
+        // When
+        files.hashAll(Arrays.asList(file, directory.resolve("missing")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectZeroThreads() {
+        new SipHashFiles(tree, 0);
+    }
+
+    @Test
+    public void shouldPrintTagOfEachFileFromCommandLine() throws IOException {
+        // Given
+        Path key = write("key", KEY_BYTES);
+        Path file = write("file", randomBytes(5000));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        // When
+        int status = SipHashFiles.run(new String[] { "-t", "2", "-l", "1024", key.toString(), file.toString() },
+                new PrintStream(out, true), new PrintStream(err, true));
+
+        // Then
+        assertThat(status).isEqualTo(0);
+        assertThat(out.toString()).isEqualTo(hex(tree.hash(randomBytes(5000))) + "  " + file
+                + System.lineSeparator());
+        assertThat(err.toString()).startsWith("Hashed 1 files");
+    }
+
+    @Test
+    public void shouldReportFilesThatCannotBeReadFromCommandLine() throws IOException {
+        // Given
+        Path key = write("key", KEY_BYTES);
+        Path file = write("file", randomBytes(10));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        // When
+        int status = SipHashFiles.run(new String[] { key.toString(), directory.resolve("missing").toString(),
+                file.toString() }, new PrintStream(out, true), new PrintStream(err, true));
+
+        // Then
+        assertThat(status).isEqualTo(1);
+        assertThat(out.toString()).endsWith("  " + file + System.lineSeparator());
+        assertThat(err.toString()).contains("missing");
+    }
+
+    @Test
+    public void shouldPrintUsageForInvalidArguments() {
+        // Given
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        // When
+        int status = SipHashFiles.run(new String[] { "-x", "1", "key" }, new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(err, true));
+
+        // Then
+        assertThat(status).isEqualTo(2);
+        assertThat(err.toString()).startsWith("Usage:");
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(directory.resolve(name), data);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
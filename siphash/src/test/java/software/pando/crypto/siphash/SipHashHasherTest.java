@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that incremental hashing produces the same tags as one-shot hashing.
+ */
+public class SipHashHasherTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    @DataProvider
+    public static Object[][] algorithms() {
+        return new Object[][] {
+                { new SipHash(2, 4, KEY) },
+                { new SipHash(3, 5, KEY) },
+                { new SipHash13(KEY) },
+                { new SipHash24(KEY) },
+                { new SipHash48(KEY) },
+                { new SipHash128(1, 3, KEY) },
+                { new SipHash24x128(KEY) }
+        };
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchOneShotTagForAnySplitOfTheInput(SipHash algorithm) {
+        // Given
+        Random random = new Random(42L);
+        SipHash.Hasher hasher = algorithm.newHasher();
+
+        for (int length = 0; length < 100; ++length) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+            int split1 = random.nextInt(length + 1);
+            int split2 = split1 + random.nextInt(length - split1 + 1);
+            int split3 = split2 + random.nextInt(length - split2 + 1);
+
+            // When
+            hasher.update(input, 0, split1);
+            for (int i = split1; i < split2; ++i) {
+                hasher.update(input[i]);
+            }
+            hasher.update(input, split2, split3 - split2);
+            hasher.update(ByteBuffer.wrap(input, split3, length - split3));
+
+            // Then
+            assertThat(hasher.doFinal()).isEqualTo(algorithm.mac(input));
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchOneShotTagWhenUpdatedOneByteAtATime(SipHash algorithm) {
+        // Given
+        byte[] input = new byte[67];
+        new Random(1L).nextBytes(input);
+        SipHash.Hasher hasher = algorithm.newHasher();
+
+        // When
+        for (byte b : input) {
+            hasher.update(b);
+        }
+
+        // Then
+        assertThat(hasher.doFinal()).isEqualTo(algorithm.mac(input));
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldReadDirectReadOnlyAndBigEndianBuffers(SipHash algorithm) {
+        // Given
+        byte[] input = new byte[45];
+        new Random(2L).nextBytes(input);
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put(input).flip();
+        direct.position(3);
+        ByteBuffer readOnly = ByteBuffer.wrap(input).asReadOnlyBuffer();
+        readOnly.position(3);
+        ByteBuffer bigEndian = ByteBuffer.wrap(input).order(ByteOrder.BIG_ENDIAN);
+        bigEndian.position(3);
+        byte[] expected = algorithm.mac(input, 3, input.length - 3);
+        SipHash.Hasher hasher = algorithm.newHasher();
+
+        for (ByteBuffer buffer : new ByteBuffer[] { direct, readOnly, bigEndian }) {
+            // When
+            hasher.update(buffer);
+
+            // Then
+            assertThat(hasher.doFinal()).isEqualTo(expected);
+            assertThat(buffer.position()).isEqualTo(buffer.limit());
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldDiscardInputOnReset(SipHash algorithm) {
+        // Given
+        SipHash.Hasher hasher = algorithm.newHasher();
+        hasher.update(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+
+        // When
+        hasher.reset();
+        hasher.update(new byte[] { 10, 11, 12 });
+
+        // Then
+        assertThat(hasher.doFinal()).isEqualTo(algorithm.mac(new byte[] { 10, 11, 12 }));
+    }
+
+    @Test
+    public void shouldReturn64BitTagAsLong() {
+        // Given
+        SipHash algorithm = new SipHash24(KEY);
+        SipHash.Hasher hasher = algorithm.newHasher();
+        byte[] input = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+
+        // When
+        hasher.update(input, 0, 4);
+        hasher.update(input, 4, 7);
+        long tag = hasher.doFinal64();
+
+        // Then
+        assertThat(tag).isEqualTo(algorithm.hash64(input));
+    }
+
+    @Test
+    public void shouldWrite128BitTagAsLongs() {
+        // Given
+        SipHash algorithm = new SipHash24x128(KEY);
+        SipHash.Hasher hasher = algorithm.newHasher();
+        byte[] input = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+        long[] expected = new long[2];
+        algorithm.hash128(input, 0, input.length, expected, 0);
+        long[] actual = new long[2];
+
+        // When
+        hasher.update(input, 0, 9);
+        hasher.update(input, 9, 2);
+        hasher.doFinal128(actual, 0);
+
+        // Then
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotReturn64BitTagFrom128BitHasher() {
+        new SipHash24x128(KEY).newHasher().doFinal64();
+    }
+}
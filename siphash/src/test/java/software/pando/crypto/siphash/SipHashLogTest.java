@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SipHashLogTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+    private ForkJoinPool pool;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("siphash-log");
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        pool.shutdown();
+        for (Path file : segments()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @DataProvider
+    public static Object[][] algorithms() {
+        return new Object[][] {
+                { SipHash.getInstance(KEY) },
+                { SipHash.getInstance(2, 4, 128, KEY) }
+        };
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldReadBackRecordsAfterReopening(SipHash sipHash) throws IOException {
+        // Given
+        List<byte[]> records = randomRecords(200);
+        List<Long> positions = new ArrayList<>();
+        try (SipHashLog log = open(sipHash)) {
+            for (byte[] record : records) {
+                positions.add(log.append(record));
+            }
+        }
+
+        try (SipHashLog log = open(sipHash)) {
+            // When
+            List<byte[]> read = new ArrayList<>();
+            List<Long> readPositions = new ArrayList<>();
+            log.forEach((payload, position) -> {
+                byte[] copy = new byte[payload.remaining()];
+                payload.get(copy);
+                read.add(copy);
+                readPositions.add(position);
+            });
+
+            // Then
+            assertThat(segments().size()).isGreaterThan(1);
+            assertThat(log.getRecordsVerified()).isEqualTo(200L);
+            assertThat(log.getTruncatedBytes()).isEqualTo(0L);
+            assertThat(readPositions).isEqualTo(positions);
+            for (int i = 0; i < records.size(); ++i) {
+                assertThat(read.get(i)).isEqualTo(records.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadRecordsByPositionIncludingUnflushedOnes() throws IOException {
+        // Given
+        List<byte[]> records = randomRecords(50);
+        try (SipHashLog log = open(SipHash.getInstance(KEY))) {
+            List<Long> positions = new ArrayList<>();
+            for (byte[] record : records) {
+                positions.add(log.append(ByteBuffer.wrap(record)));
+            }
+
+            for (int i = 0; i < records.size(); ++i) {
+                // When
+                ByteBuffer payload = log.read(positions.get(i));
+
+                // Then
+                byte[] copy = new byte[payload.remaining()];
+                payload.get(copy);
+                assertThat(copy).isEqualTo(records.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadRecordsFromSegmentThatWasReadWhileActive() throws IOException {
+        // Given
+        List<byte[]> records = randomRecords(61);
+        List<Long> positions = new ArrayList<>();
+        try (SipHashLog log = open(SipHash.getInstance(KEY))) {
+            positions.add(log.append(records.get(0)));
+            log.read(positions.get(0));
+            for (int i = 1; i < records.size(); ++i) {
+                positions.add(log.append(records.get(i)));
+            }
+            assertThat(segments().size()).isGreaterThan(1);
+
+            // When
+            List<Long> visited = new ArrayList<>();
+            log.forEach((payload, position) -> visited.add(position));
+
+            // Then
+            assertThat(visited).isEqualTo(positions);
+            for (int i = 0; i < records.size(); ++i) {
+                ByteBuffer payload = log.read(positions.get(i));
+                byte[] copy = new byte[payload.remaining()];
+                payload.get(copy);
+                assertThat(copy).isEqualTo(records.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldContinueAppendingAfterReopening() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        long end;
+        try (SipHashLog log = open(sipHash)) {
+            log.append(new byte[100]);
+            end = log.getEndPosition();
+        }
+
+        // When
+        long position;
+        try (SipHashLog log = open(sipHash)) {
+            position = log.append(new byte[] { 42 });
+        }
+
+        // Then
+        assertThat(position).isEqualTo(end);
+        try (SipHashLog log = open(sipHash)) {
+            assertThat(log.read(position).get(0)).isEqualTo((byte) 42);
+            assertThat(log.getRecordsVerified()).isEqualTo(2L);
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldTruncateTornTail(SipHash sipHash) throws IOException {
+        // Given
+        List<byte[]> records = randomRecords(100);
+        long lastPosition = 0;
+        try (SipHashLog log = open(sipHash)) {
+            for (byte[] record : records) {
+                lastPosition = log.append(record);
+            }
+        }
+        Path last = lastSegment();
+        long size = Files.size(last);
+        try (FileChannel file = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            file.truncate(size - 3);
+        }
+
+        // When
+        try (SipHashLog log = open(sipHash)) {
+            // Then
+            assertThat(log.getRecordsVerified()).isEqualTo(99L);
+            assertThat(log.getEndPosition()).isEqualTo(lastPosition);
+            assertThat(log.getTruncatedBytes()).isEqualTo(size - 3 - (lastPosition - base(last)));
+            assertThat(log.append(new byte[1])).isEqualTo(lastPosition);
+        }
+    }
+
+    @Test
+    public void shouldTruncateGarbageAfterLastRecord() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        try (SipHashLog log = open(sipHash)) {
+            log.append(new byte[10]);
+        }
+        Path last = lastSegment();
+        long size = Files.size(last);
+        Files.write(last, new byte[500], StandardOpenOption.APPEND);
+
+        // When
+        try (SipHashLog log = open(sipHash)) {
+            // Then
+            assertThat(log.getRecordsVerified()).isEqualTo(1L);
+            assertThat(log.getTruncatedBytes()).isEqualTo(500L);
+            assertThat(Files.size(last)).isEqualTo(size);
+        }
+    }
+
+    @Test
+    public void shouldDropRecordsAfterInvalidRecordInLastSegment() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        long second;
+        try (SipHashLog log = open(sipHash)) {
+            log.append(new byte[10]);
+            second = log.append(new byte[10]);
+            log.append(new byte[10]);
+        }
+        Path last = lastSegment();
+        flipByte(last, second - base(last) + 15);
+
+        // When
+        try (SipHashLog log = open(sipHash)) {
+            // Then
+            assertThat(log.getRecordsVerified()).isEqualTo(1L);
+            assertThat(log.getEndPosition()).isEqualTo(second);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectCorruptRecordInEarlierSegment() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        try (SipHashLog log = open(sipHash)) {
+            for (byte[] record : randomRecords(100)) {
+                log.append(record);
+            }
+        }
+        flipByte(segments().get(0), 100);
+
+        // When
+        open(sipHash);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectMissingSegment() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        try (SipHashLog log = open(sipHash)) {
+            for (byte[] record : randomRecords(100)) {
+                log.append(record);
+            }
+        }
+        Files.delete(segments().get(1));
+
+        // When
+        open(sipHash);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectLogWrittenWithAnotherKey() throws IOException {
+        // Given
+        try (SipHashLog log = open(SipHash.getInstance(KEY))) {
+            log.append(new byte[10]);
+        }
+
+        // When
+        open(SipHash.getInstance(new SecretKeySpec(new byte[16], "RAW")));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldDetectRecordCorruptedAfterOpening() throws IOException {
+        // Given
+        SipHash sipHash = SipHash.getInstance(KEY);
+        try (SipHashLog log = open(sipHash)) {
+            long position = log.append(new byte[10]);
+            log.flush();
+            flipByte(lastSegment(), position - base(lastSegment()) + 13);
+
+            // When
+            log.read(position);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectRecordsThatAreTooLong() throws IOException {
+        try (SipHashLog log = open(SipHash.getInstance(KEY))) {
+            log.append(new byte[SipHashLog.MAX_RECORD_LENGTH + 1]);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectTooSmallSegmentSize() throws IOException {
+        SipHashLog.open(directory, SipHash.getInstance(KEY), 1000, pool);
+    }
+
+    private SipHashLog open(SipHash sipHash) throws IOException {
+        return SipHashLog.open(directory, sipHash, SEGMENT_SIZE, pool);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> files = segments();
+        return files.get(files.size() - 1);
+    }
+
+    private static long base(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+
+    private static void flipByte(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 1));
+            b.rewind();
+            channel.write(b, offset);
+        }
+    }
+
+    private static List<byte[]> randomRecords(int count) {
+        Random random = new Random(count);
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            byte[] record = new byte[random.nextInt(200)];
+            random.nextBytes(record);
+            records.add(record);
+        }
+        return records;
+    }
+}
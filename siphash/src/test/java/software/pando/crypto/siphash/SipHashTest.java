@@ -16,6 +16,11 @@ package software.pando.crypto.siphash;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -97,6 +102,24 @@ public class SipHashTest {
             { 0x72, 0x45, 0x06, 0xeb, 0x4c, 0x32, 0x8a, 0x95, }
     };
 
+    @DataProvider
+    public static Object[][] strings() {
+        String[] prefixes = { "", "\u00e9", "\u00e9\u00e9", "\u65e5", "\u65e5\u00e9", "\ud83d\ude00", "a\ud83d\ude00",
+                "\u00e9\u65e5\ud83d\ude00" };
+        String[] suffixes = { "", "\u00e9", "\ud800", "\udc00x", "\ud800\ud800", "\u65e5\u672c\u8a9e" };
+        String ascii = "The quick brown fox jumps over the lazy dog";
+        Object[][] testCases = new Object[prefixes.length * suffixes.length * 20][1];
+        int i = 0;
+        for (String prefix : prefixes) {
+            for (String suffix : suffixes) {
+                for (int length = 0; length < 20; ++length) {
+                    testCases[i++][0] = prefix + ascii.substring(0, length) + suffix;
+                }
+            }
+        }
+        return testCases;
+    }
+
     @DataProvider
     public static Object[][] expectedOutputs() {
         Object[][] testCases = new Object[64][2];
@@ -123,10 +146,247 @@ public class SipHashTest {
         assertThat(result).isEqualTo(expectedOutput);
     }
 
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldReturnTagAsLittleEndianLong(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize];
+        for (int i = 0; i < inputSize; ++i) {
+            input[i] = (byte) i;
+        }
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        long result = algorithm.hash64(input, 0, inputSize);
+
+        // Then
+        assertThat(result).isEqualTo(SipHashUtils.bytesToLong(expectedOutput, 0));
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldOnlyHashGivenRangeOfInput(int inputSize, byte[] expectedOutput) {
+        // Given
+        byte[] input = new byte[inputSize + 16];
+        Arrays.fill(input, (byte) 0xAA);
+        for (int i = 0; i < inputSize; ++i) {
+            input[i + 5] = (byte) i;
+        }
+        SipHash algorithm = getTestObject(KEY);
+        byte[] out = new byte[12];
+
+        // When
+        algorithm.mac(input, 5, inputSize, out, 3);
+
+        // Then
+        assertThat(algorithm.mac(input, 5, inputSize)).isEqualTo(expectedOutput);
+        assertThat(Arrays.copyOfRange(out, 3, 11)).isEqualTo(expectedOutput);
+    }
+
+    @Test(dataProvider = "expectedOutputs")
+    public void shouldHashBuffersWithoutChangingPosition(int inputSize, byte[] expectedOutput) {
+        // Given
+        ByteBuffer direct = ByteBuffer.allocateDirect(inputSize + 2).order(ByteOrder.BIG_ENDIAN);
+        direct.position(2);
+        for (int i = 0; i < inputSize; ++i) {
+            direct.put((byte) i);
+        }
+        direct.position(2);
+        ByteBuffer readOnly = direct.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer heap = ByteBuffer.allocate(inputSize + 2);
+        heap.position(2);
+        heap.put(direct.duplicate()).position(2);
+        ByteBuffer slice = heap.slice();
+        SipHash algorithm = getTestObject(KEY);
+
+        for (ByteBuffer buffer : new ByteBuffer[] { direct, readOnly, heap, slice }) {
+            int position = buffer.position();
+
+            // When
+            byte[] result = algorithm.mac(buffer);
+
+            // Then
+            assertThat(result).isEqualTo(expectedOutput);
+            assertThat(algorithm.hash64(buffer)).isEqualTo(SipHashUtils.bytesToLong(expectedOutput, 0));
+            assertThat(buffer.position()).isEqualTo(position);
+        }
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectBufferRangeBeyondLimit() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.limit(8);
+        getTestObject(KEY).hash64(buffer, 4, 5);
+    }
+
+    @Test
+    public void shouldNotSignExtendTrailingBytes() {
+        // Given
+        byte[] input = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        long result = algorithm.hash64(input);
+
+        // Then
+        assertThat(result).isEqualTo(0x00ac323c9a55b1dcL);
+    }
+
+    @Test
+    public void shouldHashLongAsLittleEndianBytes() {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        long result = algorithm.hashLong(0x0706050403020100L);
+
+        // Then
+        assertThat(result).isEqualTo(littleEndianLong(intArrayToByteArray(EXPECTED_OUTPUT[8])));
+    }
+
+    @Test
+    public void shouldHashPairOfLongsAsLittleEndianBytes() {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        long result = algorithm.hashLongs(0x0706050403020100L, 0x0f0e0d0c0b0a0908L);
+
+        // Then
+        assertThat(result).isEqualTo(littleEndianLong(intArrayToByteArray(EXPECTED_OUTPUT[16])));
+    }
+
+    @Test
+    public void shouldHashRangeOfLongArrayAsLittleEndianBytes() {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+        long[] input = { -1L, 0x0706050403020100L, 0x0f0e0d0c0b0a0908L, 0x1716151413121110L, 0x1f1e1d1c1b1a1918L,
+                0x2726252423222120L, -1L };
+
+        for (int length = 0; length <= 5; ++length) {
+            // When
+            long result = algorithm.hash(input, 1, length);
+
+            // Then
+            assertThat(result).isEqualTo(littleEndianLong(intArrayToByteArray(EXPECTED_OUTPUT[length * 8])));
+        }
+    }
+
+    @Test
+    public void shouldHashRangeOfIntArrayAsLittleEndianBytes() {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+        int[] input = { -1, 0x03020100, 0x07060504, 0x0b0a0908, 0x0f0e0d0c, 0x13121110, 0x17161514, 0x1b1a1918, -1 };
+
+        for (int length = 0; length <= 7; ++length) {
+            // When
+            long result = algorithm.hash(input, 1, length);
+
+            // Then
+            assertThat(result).isEqualTo(littleEndianLong(intArrayToByteArray(EXPECTED_OUTPUT[length * 4])));
+        }
+    }
+
+    @Test
+    public void shouldHashTypedValuesWithSignBitsSet() {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+        ByteBuffer bytes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putLong(0x8081fefff0e0d0c0L).putLong(-2L);
+
+        // When
+        long longResult = algorithm.hashLongs(0x8081fefff0e0d0c0L, -2L);
+        long intResult = algorithm.hash(new int[] { 0xf0e0d0c0, 0x8081feff, -2 }, 0, 3);
+
+        // Then
+        assertThat(longResult).isEqualTo(algorithm.hash64(bytes.array()));
+        assertThat(intResult).isEqualTo(algorithm.hash64(bytes.array(), 0, 12));
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectRangeOutsideOfLongArray() {
+        getTestObject(KEY).hash(new long[2], 1, 2);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectRangeOutsideOfInput() {
+        getTestObject(KEY).hash64(new byte[8], 4, 5);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectOutputBufferThatIsTooSmall() {
+        getTestObject(KEY).mac(new byte[8], 0, 8, new byte[8], 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotSupport128BitTags() {
+        getTestObject(KEY).hash128(new byte[8], 0, 8, new long[2], 0);
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldHashCharactersAsUtf8(String input) {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        long result = algorithm.hash64(input);
+
+        // Then
+        assertThat(result).isEqualTo(algorithm.hash64(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(dataProvider = "strings")
+    public void shouldHashCharactersAsUtf16(String input) {
+        // Given
+        SipHash algorithm = getTestObject(KEY);
+
+        // When
+        long result = algorithm.hash64(new StringBuilder(input), StandardCharsets.UTF_16LE);
+
+        // Then
+        assertThat(result).isEqualTo(algorithm.hash64(input.getBytes(StandardCharsets.UTF_16LE)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectUnsupportedCharsets() {
+        getTestObject(KEY).hash64("test", StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void shouldReadKeyMaterialOnlyOnce() {
+        // Given
+        int[] reads = new int[1];
+        SecretKey key = new SecretKeySpec(KEY.getEncoded(), "RAW") {
+            @Override
+            public byte[] getEncoded() {
+                reads[0]++;
+                return super.getEncoded();
+            }
+        };
+
+        // When
+        SipHash.getInstance(2, 4, key);
+
+        // Then
+        assertThat(reads[0]).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectShortKeys() {
+        SipHash.getInstance(new SecretKeySpec(new byte[15], "RAW"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectNonRawKeys() {
+        SipHash.getInstance(new SecretKeySpec(new byte[16], "AES"));
+    }
+
     protected SipHash getTestObject(SecretKey key) {
         return new SipHash(2, 4, key);
     }
 
+    private static long littleEndianLong(byte[] input) {
+        return ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
     private static byte[] intArrayToByteArray(int[] input) {
         byte[] output = new byte[input.length];
         for (int i = 0; i < input.length; ++i) {
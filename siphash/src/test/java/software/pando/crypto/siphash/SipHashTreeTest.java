@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SipHashTreeTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+    private static final SipHash SIPHASH = SipHash.getInstance(2, 4, 128, KEY);
+    private static final int LEAF_SIZE = 1024;
+
+    @DataProvider
+    public static Object[][] lengths() {
+        return new Object[][] {
+                { 0 }, { 1 }, { 1023 }, { 1024 }, { 1025 }, { 2048 }, { 3 * 1024 }, { 3 * 1024 + 7 },
+                { 4 * 1024 }, { 5 * 1024 - 1 }, { 7 * 1024 + 100 }, { 8 * 1024 }, { 13 * 1024 + 1 },
+                { 1024 * 1024 + 5 }, { 3 * 1024 * 1024 + 17 * 1024 + 3 }
+        };
+    }
+
+    @Test(dataProvider = "lengths")
+    public void shouldMatchReferenceDefinition(int length) {
+        // Given
+        byte[] data = randomBytes(length);
+        SipHashTree tree = new SipHashTree(SIPHASH, LEAF_SIZE);
+
+        // When
+        byte[] tag = tree.hash(data);
+
+        // Then
+        assertThat(tag).isEqualTo(reference(data));
+    }
+
+    @Test(dataProvider = "lengths")
+    public void shouldProduceSameTagWhenStreaming(int length) {
+        // Given
+        byte[] data = randomBytes(length);
+        SipHashTree tree = new SipHashTree(SIPHASH, LEAF_SIZE);
+        SipHashTree.Hasher hasher = tree.newHasher();
+        Random random = new Random(length);
+
+        // When
+        for (int i = 0; i < length; ) {
+            int chunk = Math.min(length - i, random.nextInt(3 * LEAF_SIZE));
+            hasher.update(data, i, chunk);
+            i += chunk;
+        }
+
+        // Then
+        assertThat(hasher.doFinal()).isEqualTo(tree.hash(data));
+    }
+
+    @Test(dataProvider = "lengths")
+    public void shouldProduceSameTagWhenStreamingBuffers(int length) {
+        // Given
+        byte[] data = randomBytes(length);
+        SipHashTree tree = new SipHashTree(SIPHASH, LEAF_SIZE);
+        SipHashTree.Hasher hasher = tree.newHasher();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(data).flip();
+
+        // When
+        while (buffer.hasRemaining()) {
+            int chunk = Math.min(buffer.remaining(), LEAF_SIZE / 3);
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + chunk);
+            hasher.update(slice);
+            assertThat(slice.hasRemaining()).isFalse();
+            buffer.position(buffer.position() + chunk);
+        }
+
+        // Then
+        assertThat(hasher.doFinal()).isEqualTo(tree.hash(data));
+    }
+
+    @Test
+    public void shouldHashDirectBufferInPlace() {
+        // Given
+        byte[] data = randomBytes(5 * LEAF_SIZE + 11);
+        SipHashTree tree = new SipHashTree(SIPHASH, LEAF_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 20);
+        buffer.position(10);
+        buffer.put(data).flip().position(10);
+
+        // When
+        byte[] tag = tree.hash(buffer);
+
+        // Then
+        assertThat(tag).isEqualTo(tree.hash(data));
+        assertThat(buffer.position()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldHashInGivenPool() {
+        // Given
+        byte[] data = randomBytes(3 * 1024 * 1024 + 1);
+        SipHashTree tree = new SipHashTree(SIPHASH, LEAF_SIZE);
+        ForkJoinPool pool = new ForkJoinPool(3);
+
+        try {
+            // When
+            byte[] tag = tree.hash(ByteBuffer.wrap(data), pool);
+
+            // Then
+            assertThat(tag).isEqualTo(reference(data));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldResetAfterDoFinal() {
+        // Given
+        byte[] data = randomBytes(2 * LEAF_SIZE + 1);
+        SipHashTree tree = new SipHashTree(SIPHASH, LEAF_SIZE);
+        SipHashTree.Hasher hasher = tree.newHasher();
+        hasher.update(randomBytes(LEAF_SIZE * 5));
+        hasher.doFinal();
+
+        // When
+        hasher.update(data);
+
+        // Then
+        assertThat(hasher.doFinal()).isEqualTo(tree.hash(data));
+    }
+
+    @Test
+    public void shouldDependOnKeyAndLeafSize() {
+        // Given
+        byte[] data = randomBytes(4 * LEAF_SIZE);
+        SecretKey otherKey = new SecretKeySpec(new byte[16], "RAW");
+
+        // When
+        byte[] tag = new SipHashTree(SIPHASH, LEAF_SIZE).hash(data);
+        byte[] otherKeyTag = new SipHashTree(SipHash.getInstance(2, 4, 128, otherKey), LEAF_SIZE).hash(data);
+        byte[] otherLeafTag = new SipHashTree(SIPHASH, 2 * LEAF_SIZE).hash(data);
+
+        // Then
+        assertThat(tag).isNotEqualTo(otherKeyTag);
+        assertThat(tag).isNotEqualTo(otherLeafTag);
+    }
+
+    @Test
+    public void shouldNotConfuseLeafWithWholeInput() {
+        // Given
+        byte[] data = randomBytes(LEAF_SIZE);
+
+        // When
+        byte[] tag = new SipHashTree(SIPHASH, LEAF_SIZE).hash(data);
+
+        // Then
+        assertThat(tag).isNotEqualTo(SIPHASH.mac(data));
+        assertThat(tag).isNotEqualTo(SIPHASH.withPrefix(domain(0)).mac(data));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectSipHashWith64BitTags() {
+        new SipHashTree(SipHash.getInstance(KEY));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectLeafSizeThatIsNotPowerOfTwo() {
+        new SipHashTree(SIPHASH, 3000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectTooSmallLeafSize() {
+        new SipHashTree(SIPHASH, 512);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Computes the root tag directly from the definition in the class documentation.
+     */
+    private static byte[] reference(byte[] data) {
+        int leaves = Math.max(1, (data.length + LEAF_SIZE - 1) / LEAF_SIZE);
+        byte[] top = subtree(data, 0, leaves);
+        byte[] length = new byte[8];
+        SipHashUtils.longToBytes(length, 0, data.length);
+        return SIPHASH.withPrefix(domain(2)).mac(concat(top, length));
+    }
+
+    private static byte[] subtree(byte[] data, int from, int to) {
+        if (to - from == 1) {
+            int start = from * LEAF_SIZE;
+            return SIPHASH.withPrefix(domain(0)).mac(Arrays.copyOfRange(data, start,
+                    Math.min(data.length, start + LEAF_SIZE)));
+        }
+        int split = from + 1;
+        while (split * 2 - from < to) {
+            split = from + (split - from) * 2;
+        }
+        return SIPHASH.withPrefix(domain(1)).mac(concat(subtree(data, from, split), subtree(data, split, to)));
+    }
+
+    private static byte[] domain(int domain) {
+        byte[] word = new byte[8];
+        word[0] = (byte) domain;
+        return word;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 Pando Software Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package software.pando.crypto.siphash;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that batch hashing gives the same results as hashing each message separately.
+ */
+public class TwoLaneSipHashTest {
+    // 128-bit fixed key
+    private static final SecretKey KEY = new SecretKeySpec(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }, "RAW");
+
+    @DataProvider
+    public static Object[][] algorithms() {
+        return new Object[][] {
+                { SipHash.getInstance(1, 3, KEY) },
+                { SipHash.getInstance(2, 4, KEY) },
+                { SipHash.getInstance(3, 5, KEY) },
+                { SipHash.getInstance(4, 8, KEY) },
+                { SipHash.getInstance(2, 4, 128, KEY) },
+                { SipHash.getInstance(3, 6, 128, KEY) }
+        };
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchIndividualTagsForArraysOfMessages(SipHash algorithm) {
+        // Given
+        Random random = new Random(42L);
+        byte[][] inputs = new byte[101][];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = new byte[random.nextInt(80)];
+            random.nextBytes(inputs[i]);
+        }
+        int tagWords = algorithm.getMacTagLength() / 64;
+        long[] out = new long[inputs.length * tagWords];
+
+        // When
+        algorithm.hashAll(inputs, out);
+
+        // Then
+        for (int i = 0; i < inputs.length; ++i) {
+            assertThat(out[i * tagWords]).isEqualTo(SipHashUtils.bytesToLong(algorithm.mac(inputs[i]), 0));
+            if (tagWords == 2) {
+                assertThat(out[i * 2 + 1]).isEqualTo(SipHashUtils.bytesToLong(algorithm.mac(inputs[i]), 8));
+            }
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchIndividualTagsForPackedMessages(SipHash algorithm) {
+        // Given
+        Random random = new Random(43L);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        int[] offsets = new int[64];
+        int[] lengths = new int[64];
+        for (int i = 0; i < offsets.length; ++i) {
+            offsets[i] = random.nextInt(4000);
+            lengths[i] = random.nextInt(96);
+        }
+        int tagWords = algorithm.getMacTagLength() / 64;
+        long[] out = new long[offsets.length * tagWords];
+
+        // When
+        algorithm.hashAll(data, offsets, lengths, out);
+
+        // Then
+        for (int i = 0; i < offsets.length; ++i) {
+            byte[] expected = algorithm.mac(data, offsets[i], lengths[i]);
+            assertThat(out[i * tagWords]).isEqualTo(SipHashUtils.bytesToLong(expected, 0));
+            if (tagWords == 2) {
+                assertThat(out[i * 2 + 1]).isEqualTo(SipHashUtils.bytesToLong(expected, 8));
+            }
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchIndividualTagsForPackedMessagesInBuffers(SipHash algorithm) {
+        // Given
+        Random random = new Random(45L);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        ByteBuffer bigEndian = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        int[] offsets = new int[63];
+        int[] lengths = new int[63];
+        for (int i = 0; i < offsets.length; ++i) {
+            offsets[i] = random.nextInt(4000);
+            lengths[i] = random.nextInt(96);
+        }
+        int tagWords = algorithm.getMacTagLength() / 64;
+
+        for (ByteBuffer buffer : new ByteBuffer[] { direct, bigEndian }) {
+            long[] out = new long[offsets.length * tagWords];
+
+            // When
+            algorithm.hashAll(buffer, offsets, lengths, out);
+
+            // Then
+            for (int i = 0; i < offsets.length; ++i) {
+                byte[] expected = algorithm.mac(data, offsets[i], lengths[i]);
+                assertThat(out[i * tagWords]).isEqualTo(SipHashUtils.bytesToLong(expected, 0));
+                if (tagWords == 2) {
+                    assertThat(out[i * 2 + 1]).isEqualTo(SipHashUtils.bytesToLong(expected, 8));
+                }
+            }
+            assertThat(buffer.position()).isEqualTo(0);
+        }
+    }
+
+    @Test(dataProvider = "algorithms")
+    public void shouldMatchIndividualTagsForLongValues(SipHash algorithm) {
+        if (algorithm.getMacTagLength() == 128) {
+            return;
+        }
+        // Given
+        long[] values = new Random(44L).longs(33).toArray();
+        long[] out = new long[values.length + 2];
+
+        // When
+        algorithm.hashAll(values, 1, values.length - 1, out, 2);
+
+        // Then
+        for (int i = 1; i < values.length; ++i) {
+            assertThat(out[i + 1]).isEqualTo(algorithm.hashLong(values[i]));
+        }
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldRejectLongValuesFor128BitTags() {
+        SipHash.getInstance(2, 4, 128, KEY).hashAll(new long[2], new long[2]);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectOutputArrayTooSmallForLongValues() {
+        SipHash.getInstance(KEY).hashAll(new long[3], new long[2]);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectOutputArrayThatIsTooSmall() {
+        SipHash.getInstance(2, 4, 128, KEY).hashAll(new byte[][] { new byte[1], new byte[2] }, new long[3]);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectMessageOutsideOfPackedData() {
+        SipHash.getInstance(KEY).hashAll(new byte[16], new int[] { 0, 10 }, new int[] { 8, 8 }, new long[2]);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void shouldRejectMessageBeyondBufferLimit() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        buffer.limit(16);
+        SipHash.getInstance(KEY).hashAll(buffer, new int[] { 0, 10 }, new int[] { 8, 8 }, new long[2]);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectMismatchedOffsetsAndLengths() {
+        SipHash.getInstance(KEY).hashAll(new byte[16], new int[] { 0, 8 }, new int[] { 8 }, new long[2]);
+    }
+}